@@ -0,0 +1,111 @@
+package de.wolfgangkronberg.benchmarks;
+
+import de.wolfgangkronberg.image.ImageHashes;
+import de.wolfgangkronberg.image.PhotoMetadata;
+import de.wolfgangkronberg.image.PhotoMetadataReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metadata parsing and decoding of single images held in memory, so disk speed does not matter. Runs headless;
+ * decoding through JavaFX, as the viewer does, is measured by {@link ImageLoaderBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DecodeBenchmark {
+
+    private static final int NUM_IMAGES = 8;
+    private static final int SCREEN_WIDTH = 1920;
+
+    @Param({"jpeg", "png"})
+    public String format;
+
+    /**
+     * The image size as width x height
+     */
+    @Param({"1600x1200", "4000x3000"})
+    public String size;
+
+    private byte[][] images;
+    private File[] files;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] dimensions = size.split("x");
+        File dir = SyntheticCorpus.images(format, NUM_IMAGES, Integer.parseInt(dimensions[0]),
+                Integer.parseInt(dimensions[1]));
+        String extension = format.equals("png") ? "png" : "jpg";
+        images = new byte[NUM_IMAGES][];
+        files = new File[NUM_IMAGES];
+        for (int i = 0; i < NUM_IMAGES; i++) {
+            files[i] = new File(dir, SyntheticCorpus.fileName(i, extension));
+            images[i] = Files.readAllBytes(files[i].toPath());
+        }
+    }
+
+    @Benchmark
+    public PhotoMetadata metadata() {
+        return PhotoMetadataReader.read(nextImage());
+    }
+
+    @Benchmark
+    public BufferedImage decodeFull() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(nextImage()));
+    }
+
+    /**
+     * Decodes about to screen width by subsampling, the cheapest way ImageIO offers to get a downscaled image
+     */
+    @Benchmark
+    public BufferedImage decodeSubsampled() throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(nextImage()))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int step = Math.max(1, reader.getWidth(0) / SCREEN_WIDTH);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    @Benchmark
+    public ImageHashes hashes() throws IOException {
+        return ImageHashes.compute(files[next++ % NUM_IMAGES]);
+    }
+
+    private byte[] nextImage() {
+        return images[next++ % NUM_IMAGES];
+    }
+
+}
@@ -0,0 +1,76 @@
+package de.wolfgangkronberg.benchmarks;
+
+import de.wolfgangkronberg.filescanner.FileNameSorter;
+import de.wolfgangkronberg.filescanner.FileScanner;
+import de.wolfgangkronberg.filescanner.ImageFileFilter;
+import de.wolfgangkronberg.filescanner.SimpleAlphabeticalFileScanner;
+import de.wolfgangkronberg.filescanner.TimeOrderedFileScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing and sorting a directory of empty image files, from the start of a scanner until the neighbourhood of the
+ * current file is known. The directory is in the page cache after the warmup, so this measures the CPU side.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirectoryScanBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int numFiles;
+
+    @Param({"false", "true"})
+    public boolean naturalOrder;
+
+    private File dir;
+    private File current;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = SyntheticCorpus.emptyFiles(numFiles);
+        current = new File(dir, SyntheticCorpus.fileName(numFiles / 2, "jpg"));
+    }
+
+    @Benchmark
+    public FileNameSorter.SortKey[] listAndSort() {
+        return new FileNameSorter(naturalOrder).sort(dir.listFiles(new ImageFileFilter()));
+    }
+
+    @Benchmark
+    public File alphabeticalScanner() throws InterruptedException {
+        return scan(new SimpleAlphabeticalFileScanner(current, naturalOrder));
+    }
+
+    @Benchmark
+    public File timeOrderedScanner() throws InterruptedException {
+        return scan(new TimeOrderedFileScanner(current, null, false, naturalOrder));
+    }
+
+    private static File scan(FileScanner scanner) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(1);
+        scanner.start(ready::countDown);
+        ready.await();
+        File result = scanner.getNext(1).isEmpty() ? null : scanner.getNext(1).get(0);
+        scanner.close();
+        return result;
+    }
+
+}
@@ -0,0 +1,84 @@
+package de.wolfgangkronberg.benchmarks;
+
+import de.wolfgangkronberg.FileSequence;
+import de.wolfgangkronberg.GroupedCacheLoader;
+import de.wolfgangkronberg.PrefetchStrategy;
+import de.wolfgangkronberg.filescanner.FileCache;
+import de.wolfgangkronberg.filescanner.SimpleAlphabeticalFileScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One step of browsing, as the navigator does it on the JavaFX application thread: move the cursor, tell the prefetch
+ * policy, and hand the new window to the cache. Items are loaded by a trivial loader, so this measures the scanner,
+ * the policy, and the bookkeeping of the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileCacheBenchmark {
+
+    private static final int NUM_FILES = 10000;
+
+    /**
+     * The number of files prefetched on either side of the current one
+     */
+    @Param({"10", "100"})
+    public int numPrefetch;
+
+    @Param({"Symmetric", "Adaptive"})
+    public PrefetchStrategy strategy;
+
+    private FileSequence files;
+    private FileCache<File, byte[]> fileCache;
+    private int direction = 1;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        File dir = SyntheticCorpus.emptyFiles(NUM_FILES);
+        SimpleAlphabeticalFileScanner scanner = new SimpleAlphabeticalFileScanner(
+                new File(dir, SyntheticCorpus.fileName(NUM_FILES / 2, "jpg")), false);
+        CountDownLatch ready = new CountDownLatch(1);
+        scanner.start(ready::countDown);
+        ready.await();
+        files = new FileSequence(scanner);
+        GroupedCacheLoader<File, byte[]> cache = new GroupedCacheLoader<>(file -> new byte[1024], item -> item.length,
+                4, 10, Long.MAX_VALUE);
+        fileCache = new FileCache<>(files, cache, file -> file, strategy.createPolicy());
+    }
+
+    @TearDown
+    public void tearDown() {
+        files.close();
+    }
+
+    @Benchmark
+    public File moveAndPrefetch() {
+        // walk back and forth through the directory, as a user browsing a large folder would
+        boolean moved = direction > 0 ? files.moveToNext() : files.moveToPrevious();
+        if (!moved) {
+            direction = -direction;
+        }
+        fileCache.recordMove(direction);
+        return fileCache.prefetch("displayed", numPrefetch);
+    }
+
+}
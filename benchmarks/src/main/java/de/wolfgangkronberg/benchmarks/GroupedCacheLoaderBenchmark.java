@@ -0,0 +1,102 @@
+package de.wolfgangkronberg.benchmarks;
+
+import de.wolfgangkronberg.GroupedCacheLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bookkeeping cost of {@link GroupedCacheLoader}: the items are 1 KB arrays which cost next to nothing to load,
+ * so what is measured is the cache itself, i.e. its maps, queues, and priorities.
+ * <ul>
+ * <li>getHit: threads requesting items which are already loaded, as when browsing back and forth</li>
+ * <li>prefetchSlide: moving the prefetch window by one item, as when browsing forward</li>
+ * <li>browse: both at once, one thread sliding the window while three others request items from it</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupedCacheLoaderBenchmark {
+
+    private static final String GROUP = "window";
+    private static final int ITEM_SIZE = 1024;
+
+    /**
+     * The number of items in the prefetch window
+     */
+    @Param({"10", "100", "1000"})
+    public int window;
+
+    private GroupedCacheLoader<Integer, byte[]> loader;
+    private volatile int first;  // written by the sliding thread, read by the others
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        final SplittableRandom random = new SplittableRandom(42);
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        loader = new GroupedCacheLoader<>(key -> new byte[ITEM_SIZE], item -> item.length, 4, 10, Long.MAX_VALUE);
+        first = 0;
+        loader.prefetch(GROUP, keys(0));
+        for (int key = 0; key < window; key++) {
+            loader.get(key).join();
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] getHit(Cursor cursor) {
+        return loader.get(cursor.random.nextInt(window)).join();
+    }
+
+    @Benchmark
+    public void prefetchSlide() {
+        loader.prefetch(GROUP, keys(++first));
+    }
+
+    @Benchmark
+    @Group("browse")
+    @GroupThreads(1)
+    public void browseSlide() {
+        loader.prefetch(GROUP, keys(++first));
+    }
+
+    @Benchmark
+    @Group("browse")
+    @GroupThreads(3)
+    public byte[] browseGet(Cursor cursor) {
+        return loader.get(first + cursor.random.nextInt(window)).join();
+    }
+
+    private List<Integer> keys(int from) {
+        List<Integer> result = new ArrayList<>(window);
+        for (int key = from; key < from + window; key++) {
+            result.add(key);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,79 @@
+package de.wolfgangkronberg.benchmarks;
+
+import de.wolfgangkronberg.image.ImageKey;
+import de.wolfgangkronberg.image.ImageLoader;
+import de.wolfgangkronberg.image.LoadedImage;
+import javafx.application.Platform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The decode path of the viewer: {@link ImageLoader} reading a file, parsing its metadata, and decoding it through
+ * JavaFX to screen size, or in full resolution. Without a preview store, so every call decodes the original.
+ * <p>
+ * JavaFX needs a display; on a headless Linux box, run this under xvfb-run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ImageLoaderBenchmark {
+
+    private static final int NUM_IMAGES = 8;
+
+    /**
+     * The image size as width x height
+     */
+    @Param({"1600x1200", "4000x3000"})
+    public String size;
+
+    private final ImageLoader loader = new ImageLoader();
+    private File[] files;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        Platform.startup(started::countDown);
+        started.await();
+        String[] dimensions = size.split("x");
+        File dir = SyntheticCorpus.images("jpeg", NUM_IMAGES, Integer.parseInt(dimensions[0]),
+                Integer.parseInt(dimensions[1]));
+        files = new File[NUM_IMAGES];
+        for (int i = 0; i < NUM_IMAGES; i++) {
+            files[i] = new File(dir, SyntheticCorpus.fileName(i, "jpg"));
+        }
+    }
+
+    @Benchmark
+    public LoadedImage screen() {
+        return loader.apply(ImageKey.screen(files[next++ % NUM_IMAGES], 1920, 1080));
+    }
+
+    @Benchmark
+    public LoadedImage thumbnail() {
+        return loader.apply(ImageKey.thumbnail(files[next++ % NUM_IMAGES]));
+    }
+
+    @Benchmark
+    public LoadedImage full() {
+        return loader.apply(ImageKey.full(files[next++ % NUM_IMAGES]));
+    }
+
+}
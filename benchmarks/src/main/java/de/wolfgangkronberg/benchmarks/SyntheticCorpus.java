@@ -0,0 +1,182 @@
+package de.wolfgangkronberg.benchmarks;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+/**
+ * Generates deterministic sets of images for the benchmarks: the same parameters always yield the same file names,
+ * pixels, EXIF data, and modification times, on any machine. Each corpus is generated once into its own directory
+ * below ${java.io.tmpdir}/ks-photo-center-corpus, and reused by later runs.
+ * <p>
+ * The images show a gradient with random ellipses, which compresses about like a photo. JPEGs get an EXIF header
+ * with an orientation and a capture time, so the metadata parser has something to find.
+ * <p>
+ * Can also be run on its own: {@code SyntheticCorpus jpeg|png|empty count [width height]}
+ */
+public class SyntheticCorpus {
+
+    private static final File BASE_DIR = new File(System.getProperty("java.io.tmpdir"), "ks-photo-center-corpus");
+    private static final String COMPLETE_MARKER = ".complete";
+    private static final long SEED = 0x6b735048L;
+    private static final LocalDateTime FIRST_CAPTURE = LocalDateTime.of(2019, 5, 1, 8, 0);
+    private static final DateTimeFormatter EXIF_TIME = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 4) {
+            System.err.println("Usage: SyntheticCorpus jpeg|png|empty count [width height]");
+            System.exit(1);
+        }
+        int count = Integer.parseInt(args[1]);
+        File dir = args[0].equals("empty") ? emptyFiles(count) : images(args[0], count,
+                args.length > 2 ? Integer.parseInt(args[2]) : 4000, args.length > 2 ? Integer.parseInt(args[3]) : 3000);
+        System.out.println(dir.getAbsolutePath());
+    }
+
+    /**
+     * @param format "jpeg" or "png"
+     * @param count  the number of images
+     * @param width  the width of each image in pixels
+     * @param height the height of each image in pixels
+     * @return the directory holding the images, named IMG_00000.jpg (or .png) and so on
+     */
+    public static File images(String format, int count, int width, int height) throws IOException {
+        String extension = format.equals("png") ? "png" : "jpg";
+        File dir = new File(BASE_DIR, format + "-" + count + "-" + width + "x" + height);
+        if (isComplete(dir)) {
+            return dir;
+        }
+        Random random = new Random(SEED);
+        for (int i = 0; i < count; i++) {
+            BufferedImage image = paint(random, width, height);
+            File file = new File(dir, fileName(i, extension));
+            if (extension.equals("png")) {
+                ImageIO.write(image, "png", file);
+            } else {
+                int orientation = random.nextInt(4) == 0 ? 6 : 1;  // every fourth image is taken upright
+                Files.write(file.toPath(), withExif(encodeJpeg(image), orientation, captureTime(i)));
+            }
+            file.setLastModified(lastModified(i));
+        }
+        markComplete(dir);
+        return dir;
+    }
+
+    /**
+     * @param count the number of files
+     * @return a directory of empty files named like images, for benchmarking scanners without the cost of content;
+     * their modification times are shuffled, so the time order differs from the alphabetical one
+     */
+    public static File emptyFiles(int count) throws IOException {
+        File dir = new File(BASE_DIR, "empty-" + count);
+        if (isComplete(dir)) {
+            return dir;
+        }
+        Random random = new Random(SEED);
+        for (int i = 0; i < count; i++) {
+            File file = new File(dir, fileName(i, "jpg"));
+            Files.write(file.toPath(), new byte[0]);
+            file.setLastModified(lastModified(random.nextInt(count)));
+        }
+        markComplete(dir);
+        return dir;
+    }
+
+    /**
+     * @return the name of the i-th file of a corpus
+     */
+    public static String fileName(int i, String extension) {
+        return String.format("IMG_%05d.%s", i, extension);
+    }
+
+    private static boolean isComplete(File dir) throws IOException {
+        if (new File(dir, COMPLETE_MARKER).isFile()) {
+            return true;
+        }
+        Files.createDirectories(dir.toPath());
+        return false;
+    }
+
+    private static void markComplete(File dir) throws IOException {
+        Files.write(new File(dir, COMPLETE_MARKER).toPath(), new byte[0]);
+    }
+
+    private static LocalDateTime captureTime(int i) {
+        return FIRST_CAPTURE.plusSeconds(37L * i);
+    }
+
+    private static long lastModified(int i) {
+        return captureTime(i).toInstant(ZoneOffset.UTC).toEpochMilli() + 3_600_000L;
+    }
+
+    private static BufferedImage paint(Random random, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setPaint(new GradientPaint(0, 0, new Color(random.nextInt()), width, height, new Color(random.nextInt())));
+        g.fillRect(0, 0, width, height);
+        for (int k = 0; k < 20; k++) {
+            g.setColor(new Color(random.nextInt(), true));
+            g.fillOval(random.nextInt(width), random.nextInt(height), random.nextInt(width / 2 + 1) + 1,
+                    random.nextInt(height / 2 + 1) + 1);
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(0.9f);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Inserts an APP1 segment right after the start of image, holding IFD0 with the orientation, and the EXIF IFD
+     * with the capture time.
+     */
+    private static byte[] withExif(byte[] jpeg, int orientation, LocalDateTime captureTime) {
+        byte[] time = (EXIF_TIME.format(captureTime) + '\0').getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer tiff = ByteBuffer.allocate(56 + time.length);  // big endian
+        tiff.put((byte)'M').put((byte)'M').putShort((short)42).putInt(8);
+        tiff.putShort((short)2);  // IFD0 at 8
+        tiff.putShort((short)0x0112).putShort((short)3).putInt(1).putShort((short)orientation).putShort((short)0);
+        tiff.putShort((short)0x8769).putShort((short)4).putInt(1).putInt(38);
+        tiff.putInt(0);
+        tiff.putShort((short)1);  // EXIF IFD at 38
+        tiff.putShort((short)0x9003).putShort((short)2).putInt(time.length).putInt(56);
+        tiff.putInt(0);
+        tiff.put(time);  // at 56
+        byte[] preamble = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+        int length = 2 + preamble.length + tiff.capacity();
+        ByteBuffer result = ByteBuffer.allocate(jpeg.length + 2 + length);
+        result.put(jpeg, 0, 2);  // start of image
+        result.put((byte)0xff).put((byte)0xe1).putShort((short)length);
+        result.put(preamble).put(tiff.array());
+        result.put(jpeg, 2, jpeg.length - 2);
+        return result.array();
+    }
+
+}
@@ -1,12 +1,22 @@
 import de.wolfgangkronberg.App;
+import de.wolfgangkronberg.StartupTrace;
+import de.wolfgangkronberg.batch.BatchRenderer;
 import javafx.application.Application;
 
+import java.util.Arrays;
+
 /**
- * Application main entry point, actually a thin wrapper for de.wolfgangkronberg.App
+ * Application main entry point, actually a thin wrapper for de.wolfgangkronberg.App, or for
+ * de.wolfgangkronberg.batch.BatchRenderer if "--batch" is given
  */
 public class Main {
 
     public static void main(String[] args) {
+        if (Arrays.asList(args).contains("--batch")) {
+            System.exit(BatchRenderer.run(Arrays.stream(args).filter(arg -> !arg.equals("--batch"))
+                    .toArray(String[]::new)));
+        }
+        StartupTrace.start();
         Application.launch(App.class, args);
     }
 
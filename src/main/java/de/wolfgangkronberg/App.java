@@ -1,7 +1,11 @@
 package de.wolfgangkronberg;
 
+import de.wolfgangkronberg.image.ImageKey;
+import de.wolfgangkronberg.image.ImageLoader;
+import de.wolfgangkronberg.image.LoadedImage;
 import javafx.application.Application;
 import javafx.geometry.Insets;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Scene;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.Background;
@@ -9,24 +13,50 @@ import javafx.scene.layout.BackgroundFill;
 import javafx.scene.layout.CornerRadii;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
+import javafx.stage.Screen;
 import javafx.stage.Stage;
 
+import java.io.File;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This is the single JavaFX application itself. All initializations and display originates from here.
+ * <p>
+ * A picture given on the command line is decoded in the background as soon as the properties are known, while the
+ * stage is being created; the full screen stage shows it at the size of the screen.
  */
 public class App extends Application {
 
+    private static final double DEFAULT_WINDOW_FRACTION = 0.9;
+
     private final AppProperties props = new AppProperties();
     private final Navigator navigator = new Navigator();
     private final KeyEventHandler keyEventHandler = new KeyEventHandler(navigator);
 
     private String currentPictureName = null;
+    private CompletableFuture<LoadedImage> firstImage = null;
 
     @Override
-    public void start(Stage stage) {
+    public void init() {
+        StartupTrace.phase("toolkit");
         setCommandlineParams();
+        Rectangle2D screen = Screen.getPrimary().getBounds();
+        if (props.getWidth() <= 0) {
+            props.setWidth(screen.getWidth() * DEFAULT_WINDOW_FRACTION);
+        }
+        if (props.getHeight() <= 0) {
+            props.setHeight(screen.getHeight() * DEFAULT_WINDOW_FRACTION);
+        }
+        if (currentPictureName != null) {
+            firstImage = decodeAhead(ImageKey.screen(new File(currentPictureName), screen.getWidth(),
+                    screen.getHeight()));
+        }
+        StartupTrace.phase("properties");
+    }
+
+    @Override
+    public void start(Stage stage) {
         StackPane pane = new StackPane();
         pane.setBackground(new Background(new BackgroundFill(Color.BLACK, CornerRadii.EMPTY, Insets.EMPTY)));
         Scene scene = new Scene(pane, props.getWidth(), props.getHeight());
@@ -35,11 +65,14 @@ public class App extends Application {
         stage.setFullScreenExitHint("");
         stage.setFullScreen(true);
         stage.show();
-        navigator.init(props, pane, currentPictureName);
+        StartupTrace.phase("stage");
+        navigator.init(props, pane, currentPictureName, firstImage);
+        StartupTrace.phase("navigator");
     }
 
     @Override
     public void stop() {
+        navigator.close();
         props.saveSelectedOnExit();
     }
 
@@ -55,4 +88,20 @@ public class App extends Application {
         }
     }
 
+    private static CompletableFuture<LoadedImage> decodeAhead(ImageKey key) {
+        CompletableFuture<LoadedImage> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                result.complete(new ImageLoader().apply(key));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            StartupTrace.parallel("first decode", start);
+        }, "FirstImageLoader");
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
 }
@@ -2,7 +2,6 @@ package de.wolfgangkronberg;
 
 import lombok.Data;
 
-import java.awt.*;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
@@ -45,31 +44,204 @@ public class AppProperties {
     private NavigationStrategy failoverNavStrategy = NavigationStrategy.TraverseTreeAlphabetical;
 
     /**
-     * The width of the main window on startup, in pixels
+     * The width of the main window on startup, in pixels, or 0 for 90% of the screen width
      */
-    private double width = Toolkit.getDefaultToolkit().getScreenSize().getWidth() * 0.9;
+    private double width = 0;
 
     /**
-     * The height of the main window on startup, in pixels
+     * The height of the main window on startup, in pixels, or 0 for 90% of the screen height
      */
-    private double height = Toolkit.getDefaultToolkit().getScreenSize().getHeight() * 0.9;
+    private double height = 0;
 
     /**
      * The number of images before and after the current image which shall be prefetched for faster display
      */
     private int numPrefetchAroundCurrent = 10;
 
+    /**
+     * How the prefetched images are distributed before and after the current image; in total, there are always at
+     * most twice numPrefetchAroundCurrent of them
+     */
+    private PrefetchStrategy prefetchStrategy = PrefetchStrategy.Adaptive;
+
+    /**
+     * The number of threads reading image files for the cache. Reading mostly waits for the disk or the network,
+     * so there may be many more of them than processors.
+     */
+    private int numReaderThreads = 8;
+
+    /**
+     * The number of threads decoding images which have been read into memory, or 0 for one per processor
+     */
+    private int numDecoderThreads = 0;
+
+    /**
+     * The number of files before and after the current image whose compressed bytes shall be read into memory
+     * ahead, so moving on only waits for decoding. Only the nearest numPrefetchAroundCurrent images are decoded.
+     */
+    private int numBytePrefetchAroundCurrent = 100;
+
+    /**
+     * The maximum number of bytes which files read ahead may occupy, outside of the heap. If 0, the limit is half
+     * of the maximum heap size (-Xmx). A limit beyond the JVM's direct memory limit, which defaults to the maximum
+     * heap size, also needs -XX:MaxDirectMemorySize to be raised.
+     */
+    private long bytePrefetchMaxBytes = 0;
+
     /**
      * The number of images previously shown which should stay in the cache
      */
     private int numCacheShownImages = 10;
 
+    /**
+     * The maximum number of bytes which decoded images may occupy in the cache. If 0, the limit is derived from
+     * cacheHeapFraction instead.
+     */
+    private long cacheMaxBytes = 0;
+
+    /**
+     * The fraction of the maximum heap size which decoded images may occupy in the cache, unless cacheMaxBytes is set
+     */
+    private double cacheHeapFraction = 0.5;
+
+    /**
+     * The fraction of a heap memory pool's maximum size above which the image cache starts shrinking itself
+     */
+    private double heapPressureThreshold = 0.85;
+
+    /**
+     * The maximum number of bytes on disk for persisted screen-sized previews and thumbnails. If 0, previews
+     * are not persisted.
+     */
+    private long previewCacheMaxBytes = 2L * 1024 * 1024 * 1024;
+
+    /**
+     * The maximum number of bytes which intermediate results of editing may occupy, so changing the last edit of an
+     * image does not need to apply the earlier ones again
+     */
+    private long editMemoMaxBytes = 128L * 1024 * 1024;
+
+    /**
+     * The maximum number of bytes which decoded tiles of zoomed images may occupy in the tile cache
+     */
+    private long tileCacheMaxBytes = 96L * 1024 * 1024;
+
+    /**
+     * The number of threads decoding tiles of zoomed images
+     */
+    private int numTileLoaderThreads = 2;
+
     /**
      * The minimum number of files before and after the currently displayed file
      * which will be stored as reference when traversing a tree
      */
     private int numTraverseFiles = 1000;
 
+    /**
+     * Whether runs of digits within file names are sorted by their numeric value, e.g. IMG_2 before IMG_10, when
+     * sorting alphabetically
+     */
+    private boolean naturalSortOrder = false;
+
+    /**
+     * The root of the directory tree traversed by the TraverseTree strategies. If not set, or if the current image
+     * is located outside of it, TraverseTreeAlphabetical traverses the user's home directory if the image is located
+     * within that, else the directory of the image and its subdirectories; TraverseTreeByTime sorts the directory of
+     * the current image and its subdirectories.
+     */
+    private File traverseRoot = null;
+
+    /**
+     * A directory tree whose images are added to the library in the background on startup, or null if none. The
+     * library is stored below home.
+     */
+    private File libraryImportDir = null;
+
+    /**
+     * The number of threads hashing images when searching for duplicates, or 0 for one per processor
+     */
+    private int numHashThreads = 0;
+
+    /**
+     * The maximum number of bits, out of 64, in which the perceptual hashes of two images may differ for them to be
+     * considered near-duplicates. 0 finds only images which look the same after downscaling.
+     */
+    private int duplicateThreshold = 8;
+
+    /**
+     * Whether performance metrics are collected from startup on, and published through JMX. Otherwise, they are
+     * collected only while the metrics overlay is shown.
+     */
+    private boolean metricsEnabled = false;
+
+    /**
+     * Whether the duration of each startup phase up to the first image on screen is printed to stderr
+     */
+    private boolean startupTrace = false;
+
+    /**
+     * Whether the application quits as soon as the first image is on screen, e.g. for measuring startup time, or for
+     * recording the classes loaded on startup into a class data sharing archive
+     */
+    private boolean exitAfterFirstImage = false;
+
+    /**
+     * Whether batch mode (--batch) writes screen previews and thumbnails into the preview store below home
+     */
+    private boolean batchPreviews = true;
+
+    /**
+     * The width of the image area which batch mode generates screen previews for. The viewer uses a preview only if
+     * its image area has exactly this size, as it has in full screen mode on a screen of this resolution.
+     */
+    private int batchPreviewWidth = 1920;
+
+    /**
+     * The height of the image area which batch mode generates screen previews for
+     */
+    private int batchPreviewHeight = 1080;
+
+    /**
+     * The directory into which batch mode exports resized copies, rotated according to their EXIF orientation, or
+     * null if it shall not export anything. The directory structure below the processed directories is kept.
+     */
+    private File batchExportDir = null;
+
+    /**
+     * The maximum width and height of the copies exported by batch mode, in pixels; smaller images are not enlarged
+     */
+    private int batchExportSize = 2048;
+
+    /**
+     * The JPEG quality of the copies exported by batch mode, from 0 to 1
+     */
+    private double batchExportQuality = 0.9;
+
+    /**
+     * The number of threads reading files in batch mode
+     */
+    private int batchReadThreads = 2;
+
+    /**
+     * The number of threads decoding images in batch mode, or 0 for one per processor
+     */
+    private int batchDecodeThreads = 0;
+
+    /**
+     * The number of threads resizing and rotating images in batch mode, or 0 for one per processor
+     */
+    private int batchResizeThreads = 0;
+
+    /**
+     * The number of threads encoding images in batch mode, or 0 for one per processor
+     */
+    private int batchEncodeThreads = 0;
+
+    /**
+     * The number of threads writing previews and exported copies in batch mode
+     */
+    private int batchWriteThreads = 1;
+
     public void loadParameters(Map<String, String> cmdLine) {
         Map<String, String> newProps = new HashMap<>(cmdLine);
         String settingsFile = newProps.remove("props");
@@ -121,14 +293,49 @@ public class AppProperties {
         if (type == File.class) {
             return new File(value);
         } else if (type == NavigationStrategy.class) {
-            return NavigationStrategy.valueOf(value);  // throws IllegalArgumentException on invalid value
+            return parseEnum(NavigationStrategy.class, value);
+        } else if (type == PrefetchStrategy.class) {
+            return parseEnum(PrefetchStrategy.class, value);
         } else if (type == Double.TYPE) {
-            return Integer.valueOf(value);  // throws NumberFormatException, which inherits from IllegalArgumentException
+            return Double.valueOf(value);  // throws NumberFormatException, which inherits from IllegalArgumentException
+        } else if (type == Integer.TYPE) {
+            return Integer.valueOf(value);
+        } else if (type == Long.TYPE) {
+            return Long.valueOf(value);
+        } else if (type == Boolean.TYPE) {
+            if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                throw new IllegalArgumentException("Not a boolean: " + value);
+            }
+            return Boolean.valueOf(value);
         } else {
             throw new RuntimeException("Internal error: unknown AppProperties type: " + type.getName());
         }
     }
 
+    private <E extends Enum<E>> E parseEnum(Class<E> type, String value) throws IllegalArgumentException {
+        return Enum.valueOf(type, value);  // throws IllegalArgumentException on invalid value
+    }
+
+    /**
+     * @return the maximum number of bytes which decoded images may occupy in the cache
+     */
+    public long getCacheBudgetBytes() {
+        if (cacheMaxBytes > 0) {
+            return cacheMaxBytes;
+        }
+        return (long)(Runtime.getRuntime().maxMemory() * cacheHeapFraction);
+    }
+
+    /**
+     * @return the maximum number of bytes which files read ahead may occupy
+     */
+    public long getBytePrefetchBudgetBytes() {
+        if (bytePrefetchMaxBytes > 0) {
+            return bytePrefetchMaxBytes;
+        }
+        return Runtime.getRuntime().maxMemory() / 2;
+    }
+
     /**
      * Hook to possibly save some settings on exit under some conditions
      */
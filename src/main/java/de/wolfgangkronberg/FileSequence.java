@@ -1,25 +1,92 @@
 package de.wolfgangkronberg;
 
 import de.wolfgangkronberg.filescanner.FileScanner;
+import de.wolfgangkronberg.filescanner.LibraryFileScanner;
 import de.wolfgangkronberg.filescanner.SimpleAlphabeticalFileScanner;
+import de.wolfgangkronberg.filescanner.TimeOrderedFileScanner;
+import de.wolfgangkronberg.filescanner.TreeAlphabeticalFileScanner;
+import de.wolfgangkronberg.library.LibraryIndex;
 
 import java.io.File;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class FileSequence {
 
-    private final FileScanner fileScanner;
+    private volatile FileScanner fileScanner;
 
-    public FileSequence(AppProperties props, NavigationStrategy navStrategy, File startingPoint) {
+    /**
+     * @param props         the currently active application properties
+     * @param navStrategy   the order in which to traverse the files; replaced by the failover strategy if it is a
+     *                      library strategy, but the starting point is not in the library
+     * @param startingPoint the file to start with, or null to start with the newest image of the library
+     * @param library       the image library, or null if there is none
+     */
+    public FileSequence(AppProperties props, NavigationStrategy navStrategy, File startingPoint, LibraryIndex library) {
         int fileScanSize = props.getNumTraverseFiles();
+        if (startingPoint == null && !navStrategy.isLibrary()) {
+            navStrategy = NavigationStrategy.LibraryByTimeFlat;  // without an image, we can only start from the library
+        } else if (navStrategy.isLibrary() && startingPoint != null
+                && (library == null || library.get(startingPoint) == null)) {
+            navStrategy = props.getFailoverNavStrategy();
+        }
+        if (navStrategy.isLibrary() && library == null) {
+            throw new RuntimeException("Library strategy requires a library: " + navStrategy.name());
+        }
         switch (navStrategy) {
             case CurrentDirAlphabetical:
-                fileScanner = new SimpleAlphabeticalFileScanner(startingPoint);
+                fileScanner = new SimpleAlphabeticalFileScanner(startingPoint, props.isNaturalSortOrder());
+                break;
+            case TraverseTreeAlphabetical:
+                fileScanner = new TreeAlphabeticalFileScanner(startingPoint, props.getTraverseRoot(), fileScanSize,
+                        props.isNaturalSortOrder());
+                break;
+            case CurrentDirByTime:
+            case TraverseTreeByTime:
+                fileScanner = new TimeOrderedFileScanner(startingPoint, props.getTraverseRoot(),
+                        navStrategy.isTraverseAcrossDirs(), props.isNaturalSortOrder());
+                break;
+            case LibraryByTimeFlat:
+            case LibraryByTimePerDir:
+                fileScanner = new LibraryFileScanner(startingPoint, library, !navStrategy.isTraverseAcrossDirs(),
+                        fileScanSize);
                 break;
             default:
                 throw new RuntimeException("Strategy not yet implemented: " + navStrategy.name());
         }
-        fileScanner.start(null);
+    }
+
+    /**
+     * @param scanner the scanner to navigate with, already started
+     */
+    public FileSequence(FileScanner scanner) {
+        fileScanner = scanner;
+    }
+
+    /**
+     * Starts scanning for the files around the starting point. Until the scan is done, the sequence consists of the
+     * starting point only.
+     *
+     * @param onReady called on a background thread as soon as the sequence around the starting point is known, or
+     *                null
+     */
+    public void start(Runnable onReady) {
+        fileScanner.start(timed(onReady));
+    }
+
+    /**
+     * Replaces the scanner, e.g. to navigate through search results instead. The former scanner is neither stopped
+     * nor closed, so the sequence can be switched back to it later.
+     *
+     * @param scanner the new scanner, already started
+     * @return the former scanner
+     */
+    public FileScanner switchTo(FileScanner scanner) {
+        FileScanner former = fileScanner;
+        fileScanner = scanner;
+        return former;
     }
 
     public File getCurrent() {
@@ -35,7 +102,7 @@ public class FileSequence {
     }
 
     public void reload(Runnable callback) {
-        fileScanner.reload(callback);
+        fileScanner.reload(timed(callback));
     }
 
     public List<File> getNext(int num) {
@@ -46,5 +113,34 @@ public class FileSequence {
         return fileScanner.getPrevious(num);
     }
 
+    /**
+     * @param listener receives the files which have been added, removed, or modified on disk; called on a background
+     *                 thread, and only if the scanner watches for changes
+     */
+    public void setChangeListener(Consumer<Set<File>> listener) {
+        fileScanner.setChangeListener(listener);
+    }
+
+    public void close() {
+        fileScanner.close();
+    }
+
+    // records the duration of a scan into Metrics.SCAN, which ends when the scanner first calls back; later calls,
+    // e.g. for rescans after changes on disk, are not part of it
+    private static Runnable timed(Runnable callback) {
+        long start = Metrics.start();
+        if (start == 0) {
+            return callback;
+        }
+        AtomicBoolean recorded = new AtomicBoolean();
+        return () -> {
+            if (!recorded.getAndSet(true)) {
+                Metrics.record(Metrics.SCAN, start);
+            }
+            if (callback != null) {
+                callback.run();
+            }
+        };
+    }
 
 }
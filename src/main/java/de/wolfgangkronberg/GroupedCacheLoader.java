@@ -2,116 +2,448 @@ package de.wolfgangkronberg;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 
 /**
  * Prefetches items into a cache, where items remain in the cache as long as they either belong to a named group,
  * or have been accessed recently.
+ * <p>
+ * There is no global lock: each entry is reference counted by the groups which contain it, and all changes to a
+ * single entry are atomic through {@link ConcurrentHashMap#compute}. The LRU list of recently accessed items is a
+ * lock-free queue with lazy deletion, so touching an item costs O(1) amortized. Pending loads are kept in a
+ * priority queue; making a task more urgent enqueues a new node and leaves the outdated node behind, which is
+ * skipped once a worker polls it. A task which is already queued at the same or a higher priority keeps its node,
+ * so prefetching the same group over and over does not flood the queue.
+ * <p>
+ * Cancelled loads are never interrupted, as the worker threads are shared by all loads; a provider may call
+ * {@link #isLoadCancelled()} to give up early instead.
+ * <p>
+ * Besides the number of LRU entries, the cache is limited by a byte budget. Each loaded item is weighed once, and
+ * whenever the total weight exceeds the budget, the least recently used items which belong to no group are
+ * evicted first, then the group members with the lowest priority. Group members beyond the budget are not
+ * loaded at all until they move closer to the front of their group.
+ * <p>
+ * For judging prefetch strategies, the cache counts how many requested items were already loaded (hits), and how
+ * many loaded items were evicted again without ever having been requested (wasted loads). The time pending loads
+ * wait in the queue is recorded into {@link Metrics#QUEUE_WAIT}.
  * @param <K> type of the items' IDs
  * @param <V> type of the items themselves
  */
 public class GroupedCacheLoader<K,V> {
 
+    private static final long BUDGET_RECOVERY_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final ThreadLocal<FutureTask<?>> RUNNING_TASK = new ThreadLocal<>();
+
     private final Function<K, V> provider;
+    private final ToLongFunction<V> weigher;
     private final int lruEntries;
-    private final MyThreadPoolExecutor executor;
-    private final LinkedBlockingQueue<Runnable> taskQueue;
+    private final long maxBytes;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentHashMap<K, Entry> cache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<K>> groups = new ConcurrentHashMap<>();
+
+    private final ConcurrentLinkedQueue<LruRecord> lruQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger lruRecords = new AtomicInteger();
+    private final AtomicInteger lruSize = new AtomicInteger();
+    private volatile long lastGetStamp;
+    private final AtomicReference<LoadTask> urgentTask = new AtomicReference<>();
+
+    private final AtomicLong loadedBytes = new AtomicLong();
+    private final AtomicInteger loadedCount = new AtomicInteger();
+    private final AtomicBoolean enforcingBudget = new AtomicBoolean();
+    private volatile long budget;
+    private volatile long lastShrinkNanos;
 
-    private final Object lock = new Object();
-    private final LinkedList<K> lruCache = new LinkedList<>();
-    private final Map<K, Future<V>> cache = new HashMap<>();
-    private final Map<String, Set<K>> groups = new HashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder wastedLoads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
 
     public GroupedCacheLoader(Function<K,V> provider, int numWorkerThreads, int lruEntries) {
+        this(provider, v -> 0, numWorkerThreads, lruEntries, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param provider         loads a single item; called on the worker threads
+     * @param weigher          returns the number of bytes occupied by a loaded item
+     * @param numWorkerThreads the number of threads loading items
+     * @param lruEntries       the number of recently accessed items which stay in the cache
+     * @param maxBytes         the maximum total weight of all loaded items
+     */
+    public GroupedCacheLoader(Function<K,V> provider, ToLongFunction<V> weigher, int numWorkerThreads,
+                              int lruEntries, long maxBytes) {
         this.provider = provider;
+        this.weigher = weigher;
         this.lruEntries = lruEntries;
-        taskQueue = new LinkedBlockingQueue<>();
-        executor = new MyThreadPoolExecutor(numWorkerThreads, taskQueue);
+        this.maxBytes = maxBytes;
+        budget = maxBytes;
+        executor = new ThreadPoolExecutor(numWorkerThreads, numWorkerThreads, Long.MAX_VALUE, TimeUnit.NANOSECONDS,
+                new PriorityBlockingQueue<>(), new MyThreadFactory());
+        executor.prestartAllCoreThreads();
     }
 
+    /**
+     * Sets the items which belong to the specified group, replacing its former members. Items are loaded in the
+     * order given, i.e. the collection should be sorted by decreasing urgency, e.g. by distance to the cursor.
+     * Items which drop out of the group, and which are referenced neither by another group nor by the LRU list,
+     * are removed from the cache, and their loading is cancelled. Items which do not fit into the byte budget are
+     * not loaded; if they are pending, their loading is cancelled as well.
+     * Concurrent calls for different groups are safe; calls for the same group are expected to come from a
+     * single thread, e.g. the JavaFX application thread.
+     * @param group the name of the group
+     * @param keys the new members of the group, most urgent first
+     */
     public void prefetch(String group, Collection<K> keys) {
-        Set<K> newKeys = new LinkedHashSet<>(keys);
-        Set<K> addedKeys = new LinkedHashSet<>(newKeys);
-        synchronized (lock) {
-            addedKeys.removeAll(cache.keySet());
-            Set<K> outdatedKeys = new LinkedHashSet<>(groups.computeIfAbsent(group, (k) -> new HashSet<>()));
-            outdatedKeys.removeAll(keys);
-            groups.put(group, newKeys);
-            outdatedKeys.forEach(this::removeUnreferenced);
-            addedKeys.forEach((k) -> cache.put(k, queue(k)));
-        }
-    }
-
-    public Future<V> get(K key) {
-        synchronized (lock) {
-            lruCache.remove(key);
-            lruCache.addFirst(key);
-            while (lruCache.size() > lruEntries) {
-                removeUnreferencedInGroups(lruCache.removeLast());
-            }
-            Future<V> result = cache.computeIfAbsent(key, this::queue);
-            moveTaskToFront(key);
-            return result;
+        recoverBudget();
+        Set<K> newKeys = Collections.unmodifiableSet(new LinkedHashSet<>(keys));
+        Set<K> oldKeys = groups.put(group, newKeys);
+        if (oldKeys == null) {
+            oldKeys = Collections.emptySet();
         }
+        long budget = this.budget;
+        long estimate = estimateWeight();
+        long cumulated = 0;
+        int priority = 0;
+        for (K key : newKeys) {
+            Entry entry = oldKeys.contains(key) ? cache.get(key) : acquire(key);
+            if (entry == null) {
+                continue;
+            }
+            long weight = entry.task.weight.get();
+            cumulated += weight > 0 ? weight : estimate;
+            if (priority == 0 || cumulated <= budget) {
+                entry.task.scheduleInGroup(priority);
+            } else {
+                shed(key);
+            }
+            priority++;
+        }
+        for (K key : oldKeys) {
+            if (!newKeys.contains(key)) {
+                release(key);
+            }
+        }
+        enforceBudget();
     }
 
-    // caller must synchronize on lock
-    private void moveTaskToFront(K priorityKey) {
-        ArrayList<Runnable> tasks = new ArrayList<>(taskQueue.size());
-        taskQueue.drainTo(tasks);
-        for (Runnable task : tasks) {
-            MyFutureTask fTask = getMyFutureTask(task);
-            if (priorityKey.equals(fTask.key)) {
-                taskQueue.offer(task);
-                for (Runnable task2 : tasks) {
-                    if (!priorityKey.equals(getMyFutureTask(task2).key)) {
-                        taskQueue.offer(task);
-                    }
-                }
-                return;
+    /**
+     * Retrieves an item, loading it with the highest priority if it is not already available.
+     * The item becomes the most recently used one. If the item requested just before is still pending, it falls
+     * back to the priority it has within its group, or to the lowest priority if it does not belong to any group;
+     * so when items are requested in a quick burst, only the latest one is loaded urgently.
+     * @param key the ID of the item
+     * @return the future result of loading the item; it is completed on the worker thread which loaded the item,
+     * or it is cancelled if the item is dropped before it has been loaded, e.g. because it has dropped out of all
+     * groups, or no longer fits into the byte budget
+     */
+    public CompletableFuture<V> get(K key) {
+        long stamp = sequence.incrementAndGet();
+        lastGetStamp = stamp;
+        Entry entry = cache.compute(key, (k, e) -> {
+            if (e == null) {
+                e = new Entry(k);
+            }
+            if (!e.inLru) {
+                e.inLru = true;
+                lruSize.incrementAndGet();
             }
+            e.lruStamp = stamp;
+            return e;
+        });
+        lruQueue.offer(new LruRecord(key, stamp));
+        lruRecords.incrementAndGet();
+        LoadTask task = entry.task;
+        task.requested = true;
+        if (task.isDone() && !task.isCancelled()) {
+            hits.increment();
+        } else {
+            misses.increment();
         }
-        tasks.forEach(taskQueue::offer);
+        task.schedule(-stamp);  // the most recent request is the most urgent one
+        LoadTask previous = urgentTask.getAndSet(task);
+        if (previous != null && previous != task) {
+            previous.demote();
+        }
+        trimLru();
+        return task.completion;
+    }
+
+    /**
+     * Looks up an item without loading it, and without counting as a request: the item does not become the most
+     * recently used one, and nothing is counted as a hit or a miss.
+     * @param key the ID of the item
+     * @return the item if it has already been loaded successfully, or null
+     */
+    public V peek(K key) {
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        CompletableFuture<V> completion = entry.task.completion;
+        return completion.isDone() && !completion.isCompletedExceptionally() ? completion.join() : null;
     }
 
-    private MyFutureTask getMyFutureTask(Runnable r) {
-        //noinspection unchecked
-        return (MyFutureTask)r;
+    /**
+     * Tells a provider whether the load it is running has been cancelled in the meantime, e.g. because the item is
+     * no longer needed. Providers doing lengthy work may check this from time to time and give up early.
+     * @return true if the load running on the calling thread has been cancelled; false if it has not, or if the
+     * calling thread is no worker thread
+     */
+    public static boolean isLoadCancelled() {
+        FutureTask<?> task = RUNNING_TASK.get();
+        return task != null && task.isCancelled();
     }
 
-    // caller must synchronize on lock
-    private void removeFromTaskQueue(K key) {
-        ArrayList<Runnable> tasks = new ArrayList<>(taskQueue.size());
-        taskQueue.drainTo(tasks);
-        for (Runnable task : tasks) {
-            if (!key.equals(getMyFutureTask(task).key)) {
-                taskQueue.offer(task);
+    /**
+     * Reduces the byte budget in reaction to memory pressure, and immediately evicts items until the cache fits
+     * into the new budget. The budget slowly recovers to its configured maximum once the pressure is gone.
+     * @param factor the fraction of the currently loaded bytes which may stay in the cache
+     */
+    public void shrink(double factor) {
+        lastShrinkNanos = System.nanoTime();
+        budget = Math.min(budget, (long)(loadedBytes.get() * factor));
+        enforceBudget();
+    }
+
+    /**
+     * Drops the loaded or pending items with matching keys, e.g. because their files have changed on disk. Pending
+     * loads are cancelled, so their futures complete exceptionally. The entries keep their group references and
+     * their LRU positions, and are loaded again once they are requested or prefetched the next time.
+     * @param predicate selects the items to drop
+     */
+    public void invalidateIf(Predicate<K> predicate) {
+        for (K key : cache.keySet()) {
+            if (!predicate.test(key)) {
+                continue;
             }
+            cache.computeIfPresent(key, (k, e) -> {
+                LoadTask task = e.task;
+                task.unschedule();
+                task.cancel(false);
+                task.discard();
+                e.task = new LoadTask(k);
+                return e;
+            });
         }
     }
 
-    // caller must synchronize on lock
-    private void removeUnreferenced(K key) {
-        if (!lruCache.contains(key)) {
-            removeUnreferencedInGroups(key);
+    /**
+     * @return the total weight of all currently loaded items, in bytes
+     */
+    public long getLoadedBytes() {
+        return loadedBytes.get();
+    }
+
+    /**
+     * @return the number of requested items which had already been loaded when they were requested
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of requested items which were not yet loaded when they were requested
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of items loaded so far
+     */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    /**
+     * @return the number of loaded items which have been evicted without ever having been requested
+     */
+    public long getWastedLoads() {
+        return wastedLoads.sum();
+    }
+
+    /**
+     * @return the number of loaded items which have been dropped from the cache again, for whatever reason
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of nodes in the loader queue; this includes outdated nodes of re-prioritized or cancelled
+     * loads, which are skipped once polled
+     */
+    public int getQueueLength() {
+        return executor.getQueue().size();
+    }
+
+    private void recoverBudget() {
+        long budget = this.budget;
+        if (budget < maxBytes && System.nanoTime() - lastShrinkNanos > BUDGET_RECOVERY_NANOS) {
+            this.budget = Math.min(maxBytes, budget + maxBytes / 8);
         }
     }
 
-    // caller must synchronize on lock
-    private void removeUnreferencedInGroups(K key) {
-        for (Set<K> set : groups.values()) {
-            if (set.contains(key)) {
+    private long estimateWeight() {
+        int count = loadedCount.get();
+        return count == 0 ? 0 : loadedBytes.get() / count;
+    }
+
+    private Entry acquire(K key) {
+        return cache.compute(key, (k, e) -> {
+            if (e == null) {
+                e = new Entry(k);
+            }
+            e.refs++;
+            return e;
+        });
+    }
+
+    private void release(K key) {
+        cache.computeIfPresent(key, (k, e) -> {
+            e.refs--;
+            return removeIfUnreferenced(e);
+        });
+    }
+
+    // drops the loaded or pending item, but keeps the entry with its references; a pending item which has just
+    // been requested is left alone, as the requester is waiting for it
+    private void shed(K key) {
+        cache.computeIfPresent(key, (k, e) -> {
+            LoadTask task = e.task;
+            if (task.isDone() ? task.isCancelled() : task.priority < 0 || !task.isScheduled()) {
+                return e;
+            }
+            task.unschedule();
+            task.cancel(false);  // so its future completes, rather than waiting forever
+            task.discard();
+            e.task = new LoadTask(k);
+            return e;
+        });
+    }
+
+    private void trimLru() {
+        while (lruSize.get() > lruEntries) {
+            if (!evictOldestLru()) {
                 return;
             }
         }
-        cache.remove(key);
-        removeFromTaskQueue(key);
+        if (lruRecords.get() > 2 * lruEntries + 16) {
+            // outdated records pile up if the same few items are accessed over and over
+            lruQueue.removeIf(record -> {
+                if (isOutdated(record)) {
+                    lruRecords.decrementAndGet();
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    // returns false if there is no LRU item left to evict
+    private boolean evictOldestLru() {
+        LruRecord record = lruQueue.poll();
+        if (record == null) {
+            return false;
+        }
+        lruRecords.decrementAndGet();
+        cache.computeIfPresent(record.key, (k, e) -> {
+            if (!e.inLru || e.lruStamp != record.stamp) {
+                return e;  // outdated record: the entry has been touched again since
+            }
+            e.inLru = false;
+            lruSize.decrementAndGet();
+            return removeIfUnreferenced(e);
+        });
+        return true;
     }
 
-    // caller must synchronize on lock
-    private Future<V> queue(K key) {
-        return executor.submit(new MyWorker(key));
+    private boolean isOutdated(LruRecord record) {
+        Entry e = cache.get(record.key);
+        return e == null || !e.inLru || e.lruStamp != record.stamp;
+    }
+
+    private void enforceBudget() {
+        while (loadedBytes.get() > budget) {
+            if (!enforcingBudget.compareAndSet(false, true)) {
+                return;  // some other thread is already at it
+            }
+            try {
+                while (loadedBytes.get() > budget && evictLruOnly()) {
+                    // evict LRU items which are not needed by any group
+                }
+                while (loadedBytes.get() > budget && shedFurthest()) {
+                    // evict group members with the lowest priority
+                }
+                if (loadedBytes.get() > budget) {
+                    return;  // nothing left to evict but the most urgent items
+                }
+            } finally {
+                enforcingBudget.set(false);
+            }
+        }
+    }
+
+    // returns false if there is no unneeded LRU item left
+    private boolean evictLruOnly() {
+        for (LruRecord record : lruQueue) {
+            if (record.stamp == lastGetStamp) {
+                return false;  // never evict the item just requested
+            }
+            Entry e = cache.get(record.key);
+            if (e != null && e.inLru && e.lruStamp == record.stamp && e.refs == 0) {
+                if (lruQueue.remove(record)) {
+                    lruRecords.decrementAndGet();
+                    cache.computeIfPresent(record.key, (k, e2) -> {
+                        if (e2.inLru && e2.lruStamp == record.stamp) {
+                            e2.inLru = false;
+                            lruSize.decrementAndGet();
+                        }
+                        return removeIfUnreferenced(e2);
+                    });
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // returns false if there is no loaded group member left which may be evicted
+    private boolean shedFurthest() {
+        Entry furthest = null;
+        for (Entry e : cache.values()) {
+            LoadTask task = e.task;
+            if (task.priority > 0 && !e.inLru && task.weight.get() > 0
+                    && (furthest == null || task.priority > furthest.task.priority)) {
+                furthest = e;
+            }
+        }
+        if (furthest == null) {
+            return false;
+        }
+        shed(furthest.key);
+        return true;
+    }
+
+    // caller must hold the entry's mapping in cache.compute()
+    private Entry removeIfUnreferenced(Entry e) {
+        if (e.refs > 0 || e.inLru) {
+            return e;
+        }
+        e.task.unschedule();
+        e.task.cancel(false);  // never interrupt: the worker thread is shared; see isLoadCancelled()
+        e.task.discard();
+        return null;
     }
 
     private static class MyThreadFactory implements ThreadFactory {
@@ -126,45 +458,165 @@ public class GroupedCacheLoader<K,V> {
         }
     }
 
-    private class MyThreadPoolExecutor extends ThreadPoolExecutor {
+    private class Entry {
 
-        MyThreadPoolExecutor(int poolSize, LinkedBlockingQueue<Runnable> taskQueue) {
-            super(poolSize, poolSize, Long.MAX_VALUE, TimeUnit.NANOSECONDS, taskQueue, new MyThreadFactory());
-            prestartAllCoreThreads();
-        }
+        private final K key;
+        private volatile LoadTask task;
+        private int refs;  // number of groups containing this entry; guarded by cache.compute()
+        private volatile boolean inLru;
+        private volatile long lruStamp;
 
-        @Override
-        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
-            //noinspection unchecked
-            return (FutureTask<T>)new MyFutureTask((Callable<V>)callable);
+        Entry(K key) {
+            this.key = key;
+            task = new LoadTask(key);
         }
 
     }
 
-    private class MyFutureTask extends FutureTask<V> {
+    private class LruRecord {
 
         private final K key;
+        private final long stamp;
 
-        MyFutureTask(Callable<V> callable) {
-            super(callable);
-            MyWorker worker = (MyWorker)callable;
-            key = worker.key;
+        LruRecord(K key, long stamp) {
+            this.key = key;
+            this.stamp = stamp;
         }
 
     }
 
-    private class MyWorker implements Callable<V> {
+    /**
+     * Loads a single item. The task may be scheduled several times with different priorities; only the most
+     * recently scheduled queue node will actually run it.
+     */
+    private class LoadTask extends FutureTask<V> {
 
-        private final K key;
+        private static final long DISCARDED = -1;
 
-        MyWorker(K key) {
-            this.key = key;
+        private final CompletableFuture<V> completion = new CompletableFuture<>();
+        private final AtomicInteger generation = new AtomicInteger();
+        private final AtomicLong weight = new AtomicLong();  // 0 while not loaded, DISCARDED once evicted
+        private volatile long priority = Long.MAX_VALUE;
+        private volatile long groupPriority = Long.MAX_VALUE;
+        private volatile boolean requested;
+        private boolean queued;  // guarded by this
+        private long queuedPriority;  // of the current queue node, if queued; guarded by this
+
+        LoadTask(K key) {
+            super(() -> provider.apply(key));
+        }
+
+        synchronized void schedule(long priority) {
+            this.priority = priority;
+            if (!queued || priority < queuedPriority) {
+                enqueue(priority);
+            }
+        }
+
+        void scheduleInGroup(long priority) {
+            groupPriority = priority;
+            schedule(priority);
+        }
+
+        synchronized void demote() {
+            if (priority < 0) {
+                priority = groupPriority;
+                enqueue(groupPriority);  // the current node is more urgent than it should be now
+            }
+        }
+
+        synchronized void unschedule() {
+            priority = Long.MAX_VALUE;
+            groupPriority = Long.MAX_VALUE;
+            queued = false;
+            generation.incrementAndGet();
+        }
+
+        synchronized boolean isScheduled() {
+            return queued;
+        }
+
+        // caller must hold the lock of this task
+        private void enqueue(long priority) {
+            if (!isDone()) {
+                queued = true;
+                queuedPriority = priority;
+                executor.execute(new QueueNode(this, generation.incrementAndGet(), priority,
+                        sequence.incrementAndGet()));
+            }
         }
 
         @Override
-        public V call() {
-            return provider.apply(key);
+        protected void done() {
+            if (isCancelled()) {
+                completion.cancel(false);
+                return;
+            }
+            long w;
+            try {
+                V value = get();
+                w = Math.max(1, weigher.applyAsLong(value));
+                completion.complete(value);
+            } catch (InterruptedException | ExecutionException e) {
+                w = 1;
+                completion.completeExceptionally(e instanceof ExecutionException ? e.getCause() : e);
+            }
+            if (weight.compareAndSet(0, w)) {
+                loads.increment();
+                loadedBytes.addAndGet(w);
+                loadedCount.incrementAndGet();
+                enforceBudget();
+            }
         }
+
+        void discard() {
+            long w = weight.getAndSet(DISCARDED);
+            if (w > 0) {
+                evictions.increment();
+                loadedBytes.addAndGet(-w);
+                loadedCount.decrementAndGet();
+                if (!requested) {
+                    wastedLoads.increment();
+                }
+            }
+        }
+
+    }
+
+    private class QueueNode implements Runnable, Comparable<QueueNode> {
+
+        private final LoadTask task;
+        private final int generation;
+        private final long priority;
+        private final long order;
+        private final long enqueued = Metrics.start();
+
+        QueueNode(LoadTask task, int generation, long priority, long order) {
+            this.task = task;
+            this.generation = generation;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        @Override
+        public void run() {
+            if (task.generation.get() == generation) {
+                Metrics.record(Metrics.QUEUE_WAIT, enqueued);
+                RUNNING_TASK.set(task);
+                try {
+                    task.run();  // no-op if the task has been cancelled or has already been run
+                } finally {
+                    RUNNING_TASK.remove();
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(QueueNode other) {
+            int result = Long.compare(priority, other.priority);
+            return result != 0 ? result : Long.compare(order, other.order);
+        }
+
     }
 
 }
@@ -0,0 +1,55 @@
+package de.wolfgangkronberg;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Watches the heap memory pools, and runs a callback whenever the usage of a pool exceeds the given fraction of
+ * its maximum size.
+ */
+public class HeapPressureMonitor implements NotificationListener {
+
+    private final Runnable onPressure;
+
+    private HeapPressureMonitor(Runnable onPressure) {
+        this.onPressure = onPressure;
+    }
+
+    /**
+     * Installs usage thresholds on all heap pools which support them.
+     *
+     * @param threshold  the fraction of a pool's maximum size which triggers the callback, e.g. 0.85
+     * @param onPressure the callback; it is run on a JMX notification thread
+     */
+    public static void install(double threshold, Runnable onPressure) {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = pool.getUsage().getMax();
+            if (pool.getType() != MemoryType.HEAP || max <= 0) {
+                continue;
+            }
+            if (pool.isUsageThresholdSupported()) {
+                pool.setUsageThreshold((long)(max * threshold));
+            }
+            if (pool.isCollectionUsageThresholdSupported()) {
+                pool.setCollectionUsageThreshold((long)(max * threshold));
+            }
+        }
+        NotificationEmitter emitter = (NotificationEmitter)ManagementFactory.getMemoryMXBean();
+        emitter.addNotificationListener(new HeapPressureMonitor(onPressure), null, null);
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        String type = notification.getType();
+        if (MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)
+                || MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)) {
+            onPressure.run();
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package de.wolfgangkronberg;
 
+import de.wolfgangkronberg.controller.Controller;
 import javafx.event.EventHandler;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
@@ -7,7 +8,8 @@ import javafx.scene.input.KeyEvent;
 import static javafx.scene.input.KeyCode.*;
 
 /**
- * Handles all global key events.
+ * Handles all global key events: the controllers of the features get them first, in turn, and the keys for
+ * browsing are handled here.
  */
 public class KeyEventHandler implements EventHandler<KeyEvent> {
 
@@ -18,6 +20,11 @@ public class KeyEventHandler implements EventHandler<KeyEvent> {
     }
 
     public void handle(KeyEvent key) {
+        for (Controller controller : navigator.getControllers()) {
+            if (controller.handle(key)) {
+                return;
+            }
+        }
         KeyCode code = key.getCode();
         if (code == RIGHT) {
             navigator.switchToNextPicture();
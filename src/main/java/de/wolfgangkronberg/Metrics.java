@@ -0,0 +1,292 @@
+package de.wolfgangkronberg;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * Collects performance metrics of the viewer: where the time goes between a key press and the next image on screen,
+ * and how well the cache does. Latencies are recorded into lock-free {@link LatencyHistogram}s, so any thread may
+ * record them.
+ * <p>
+ * While disabled, {@link #start()} returns 0 after reading a single volatile field, and recording with that start
+ * does nothing, so the instrumentation may stay in the hot paths. Once enabled, the metrics are also published as
+ * a {@link MetricsMXBean}.
+ */
+public final class Metrics {
+
+    public static final String OBJECT_NAME = "de.wolfgangkronberg:type=Metrics";
+
+    public static final LatencyHistogram FILE_READ = new LatencyHistogram("read");
+    public static final LatencyHistogram DECODE = new LatencyHistogram("decode");
+    public static final LatencyHistogram PREVIEW_READ = new LatencyHistogram("preview");
+    public static final LatencyHistogram QUEUE_WAIT = new LatencyHistogram("queue wait");
+    public static final LatencyHistogram DECODE_STAGE = new LatencyHistogram("decode stage");
+    public static final LatencyHistogram SCAN = new LatencyHistogram("scan");
+    public static final LatencyHistogram DISPLAY = new LatencyHistogram("display");
+    public static final LatencyHistogram KEY_TO_FRAME = new LatencyHistogram("key to frame");
+
+    private static final LatencyHistogram[] HISTOGRAMS = {KEY_TO_FRAME, DISPLAY, QUEUE_WAIT, FILE_READ,
+            DECODE_STAGE, DECODE, PREVIEW_READ, SCAN};
+
+    private static volatile boolean enabled;
+    private static volatile GroupedCacheLoader<?, ?> cache;
+    private static boolean registered;  // guarded by Metrics.class
+
+    // key to frame; accessed on the JavaFX application thread only
+    private static long keyPressed;
+    private static boolean framePending;
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts or stops collecting metrics. On first enabling, the MBean is registered with the platform MBean server.
+     */
+    public static void setEnabled(boolean enabled) {
+        if (enabled) {
+            registerMBean();
+        }
+        Metrics.enabled = enabled;
+    }
+
+    /**
+     * @param cache the image cache whose counters are published
+     */
+    public static void setCache(GroupedCacheLoader<?, ?> cache) {
+        Metrics.cache = cache;
+    }
+
+    /**
+     * @return the start of a measurement to be passed to {@link #record}, or 0 if metrics are disabled
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time elapsed since the given start, unless the start is 0 because metrics were disabled.
+     */
+    public static void record(LatencyHistogram histogram, long start) {
+        if (start != 0) {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Called when a key moves to another image. Within a burst of key presses, the first one counts.
+     */
+    public static void navigationStarted() {
+        if (enabled && keyPressed == 0) {
+            keyPressed = System.nanoTime();
+        }
+    }
+
+    /**
+     * Called when the image navigated to, or an error message instead, has been put on screen.
+     */
+    public static void imageShown() {
+        framePending = keyPressed != 0;
+    }
+
+    /**
+     * Called after each layout pass of the scene; the first one after {@link #imageShown()} ends the measurement.
+     */
+    public static void frameRendered() {
+        if (framePending) {
+            framePending = false;
+            record(KEY_TO_FRAME, keyPressed);
+            keyPressed = 0;
+        }
+    }
+
+    /**
+     * Forgets all latencies measured so far.
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * @return the current metrics as lines of text, for the on-screen overlay
+     */
+    public static String format() {
+        StringBuilder result = new StringBuilder();
+        GroupedCacheLoader<?, ?> cache = Metrics.cache;
+        if (cache != null) {
+            long hits = cache.getHits();
+            long requests = hits + cache.getMisses();
+            result.append(String.format(Locale.ROOT, "cache        hits=%d of %d (%.0f%%)  evictions=%d%n", hits,
+                    requests, requests == 0 ? 0.0 : 100.0 * hits / requests, cache.getEvictions()));
+            result.append(String.format(Locale.ROOT, "prefetch     loads=%d  never shown=%d%n", cache.getLoads(),
+                    cache.getWastedLoads()));
+            result.append(String.format(Locale.ROOT, "loader       queue=%d  loaded=%d MB%n",
+                    cache.getQueueLength(), cache.getLoadedBytes() / (1024 * 1024)));
+        }
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            result.append(histogram.summary()).append('\n');
+        }
+        return result.toString().trim();
+    }
+
+    private static synchronized void registerMBean() {
+        if (registered) {
+            return;
+        }
+        registered = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.err.println("Could not publish metrics through JMX: " + e.toString());
+        }
+    }
+
+    private static class Bean implements MetricsMXBean {
+
+        @Override
+        public boolean isEnabled() {
+            return Metrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            Metrics.setEnabled(enabled);
+        }
+
+        @Override
+        public long getCacheHits() {
+            GroupedCacheLoader<?, ?> cache = Metrics.cache;
+            return cache == null ? 0 : cache.getHits();
+        }
+
+        @Override
+        public long getCacheMisses() {
+            GroupedCacheLoader<?, ?> cache = Metrics.cache;
+            return cache == null ? 0 : cache.getMisses();
+        }
+
+        @Override
+        public long getCacheEvictions() {
+            GroupedCacheLoader<?, ?> cache = Metrics.cache;
+            return cache == null ? 0 : cache.getEvictions();
+        }
+
+        @Override
+        public long getCacheLoads() {
+            GroupedCacheLoader<?, ?> cache = Metrics.cache;
+            return cache == null ? 0 : cache.getLoads();
+        }
+
+        @Override
+        public long getWastedLoads() {
+            GroupedCacheLoader<?, ?> cache = Metrics.cache;
+            return cache == null ? 0 : cache.getWastedLoads();
+        }
+
+        @Override
+        public long getLoadedBytes() {
+            GroupedCacheLoader<?, ?> cache = Metrics.cache;
+            return cache == null ? 0 : cache.getLoadedBytes();
+        }
+
+        @Override
+        public int getLoaderQueueLength() {
+            GroupedCacheLoader<?, ?> cache = Metrics.cache;
+            return cache == null ? 0 : cache.getQueueLength();
+        }
+
+        @Override
+        public double getFileReadP50Millis() {
+            return FILE_READ.getPercentileMillis(50);
+        }
+
+        @Override
+        public double getFileReadP99Millis() {
+            return FILE_READ.getPercentileMillis(99);
+        }
+
+        @Override
+        public double getDecodeP50Millis() {
+            return DECODE.getPercentileMillis(50);
+        }
+
+        @Override
+        public double getDecodeP99Millis() {
+            return DECODE.getPercentileMillis(99);
+        }
+
+        @Override
+        public double getPreviewReadP50Millis() {
+            return PREVIEW_READ.getPercentileMillis(50);
+        }
+
+        @Override
+        public double getPreviewReadP99Millis() {
+            return PREVIEW_READ.getPercentileMillis(99);
+        }
+
+        @Override
+        public double getQueueWaitP50Millis() {
+            return QUEUE_WAIT.getPercentileMillis(50);
+        }
+
+        @Override
+        public double getQueueWaitP99Millis() {
+            return QUEUE_WAIT.getPercentileMillis(99);
+        }
+
+        @Override
+        public double getDecodeStageP50Millis() {
+            return DECODE_STAGE.getPercentileMillis(50);
+        }
+
+        @Override
+        public double getDecodeStageP99Millis() {
+            return DECODE_STAGE.getPercentileMillis(99);
+        }
+
+        @Override
+        public double getScanP50Millis() {
+            return SCAN.getPercentileMillis(50);
+        }
+
+        @Override
+        public double getScanP99Millis() {
+            return SCAN.getPercentileMillis(99);
+        }
+
+        @Override
+        public double getDisplayP50Millis() {
+            return DISPLAY.getPercentileMillis(50);
+        }
+
+        @Override
+        public double getDisplayP99Millis() {
+            return DISPLAY.getPercentileMillis(99);
+        }
+
+        @Override
+        public double getKeyToFrameP50Millis() {
+            return KEY_TO_FRAME.getPercentileMillis(50);
+        }
+
+        @Override
+        public double getKeyToFrameP99Millis() {
+            return KEY_TO_FRAME.getPercentileMillis(99);
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+
+    }
+
+}
@@ -0,0 +1,70 @@
+package de.wolfgangkronberg;
+
+/**
+ * The performance metrics of the viewer, as published through JMX under {@link Metrics#OBJECT_NAME}. Latencies are
+ * in milliseconds, and are 0 as long as nothing has been measured.
+ */
+public interface MetricsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getCacheEvictions();
+
+    long getCacheLoads();
+
+    /**
+     * @return the number of images which were decoded, but evicted again without ever having been shown
+     */
+    long getWastedLoads();
+
+    long getLoadedBytes();
+
+    int getLoaderQueueLength();
+
+    double getFileReadP50Millis();
+
+    double getFileReadP99Millis();
+
+    double getDecodeP50Millis();
+
+    double getDecodeP99Millis();
+
+    double getPreviewReadP50Millis();
+
+    double getPreviewReadP99Millis();
+
+    double getQueueWaitP50Millis();
+
+    double getQueueWaitP99Millis();
+
+    /**
+     * @return the median time from handing read bytes to the decoding threads until the pixels are back
+     */
+    double getDecodeStageP50Millis();
+
+    double getDecodeStageP99Millis();
+
+    double getScanP50Millis();
+
+    double getScanP99Millis();
+
+    double getDisplayP50Millis();
+
+    double getDisplayP99Millis();
+
+    double getKeyToFrameP50Millis();
+
+    double getKeyToFrameP99Millis();
+
+    /**
+     * Forgets all latencies measured so far. The cache counters are not reset.
+     */
+    void reset();
+
+}
@@ -1,36 +1,102 @@
 package de.wolfgangkronberg;
 
-import com.drew.imaging.ImageMetadataReader;
-import com.drew.imaging.ImageProcessingException;
-import com.drew.metadata.Metadata;
-import com.drew.metadata.exif.ExifIFD0Directory;
+import de.wolfgangkronberg.controller.Controller;
+import de.wolfgangkronberg.controller.DuplicateController;
+import de.wolfgangkronberg.controller.EditController;
+import de.wolfgangkronberg.controller.GeoController;
+import de.wolfgangkronberg.controller.MetricsController;
+import de.wolfgangkronberg.controller.SearchController;
+import de.wolfgangkronberg.controller.ZoomController;
+import de.wolfgangkronberg.edit.EditList;
 import de.wolfgangkronberg.filescanner.FileCache;
+import de.wolfgangkronberg.filescanner.FileScanner;
+import de.wolfgangkronberg.filescanner.SearchResultFileScanner;
+import de.wolfgangkronberg.image.DecodeStage;
+import de.wolfgangkronberg.image.EmbeddedThumbnailReader;
+import de.wolfgangkronberg.image.FileBytesLoader;
+import de.wolfgangkronberg.image.HandoverImageLoader;
+import de.wolfgangkronberg.image.ImageKey;
+import de.wolfgangkronberg.image.ImageLoader;
+import de.wolfgangkronberg.image.LoadedImage;
+import de.wolfgangkronberg.image.PreviewStore;
+import de.wolfgangkronberg.library.GeoIndex;
+import de.wolfgangkronberg.library.LibraryImporter;
+import de.wolfgangkronberg.library.LibraryIndex;
+import de.wolfgangkronberg.library.SearchHits;
+import de.wolfgangkronberg.library.SearchIndex;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.scene.control.Label;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.StackPane;
 import javafx.scene.text.Font;
 
 import java.io.File;
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Keeps track on which picture is actually being displayed
  */
 public class Navigator {
 
-    private StackPane pane;
+    private static final String DISPLAYED_GROUP = "displayed";
+    private static final String READ_AHEAD_GROUP = "read ahead";
+    private static final int PREVIEW_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final String MESSAGE_STYLE = "-fx-text-fill: #f0f0f0; -fx-background-radius: 15; "
+            + "-fx-background-color: #30303080; -fx-background-insets: 15 10; -fx-label-padding: 20;";
+
     private Label message;
+    private ImageView imageView;
     private double paneHeight;
     private double paneWidth;
     private int numPrefetchedAroundCurrent;
+    private int numReadAheadAroundCurrent;
 
     private FileSequence files;
-    private GroupedCacheLoader<File, Image> gCache;
-    private FileCache<Image> fCache;
+    private GroupedCacheLoader<ImageKey, LoadedImage> gCache;
+    private FileCache<ImageKey, LoadedImage> fCache;
+    private GroupedCacheLoader<File, ByteBuffer> readAheadCache;  // compressed bytes, far beyond the decoded images
+    private FileCache<File, ByteBuffer> readAheadFiles;
+    private DecodeStage decodeStage;
+    private PreviewStore previewStore;
+    private EditController editController;
+    private ZoomController zoomController;
+    private LibraryIndex library;
+    private SearchController searchController;
+    private GeoController geoController;
+    private final Object indexLock = new Object();
+    private boolean closed;  // guarded by indexLock
+    private AppProperties props;
+    private boolean scanDeferred;
+    private boolean firstImageShown;
+    private Runnable startupListener;  // waits for the first image on screen, null afterwards
+    private File home;
+    private FileScanner browsingScanner;  // the scanner to return to from search results, or null if not searching
+    private final List<Controller> controllers = new ArrayList<>();
+
+    private final ThreadPoolExecutor previewReader = new ThreadPoolExecutor(1, 1, 0, TimeUnit.NANOSECONDS,
+            new ArrayBlockingQueue<>(1), r -> {
+                Thread result = new Thread(r, "PreviewReader");
+                result.setDaemon(true);
+                return result;
+            }, new ThreadPoolExecutor.DiscardOldestPolicy());  // only the latest request matters
+
+    private LoadedImage shown;
+    private boolean displayScheduled;
+    private long displayGeneration;
+    private boolean loadingMessageShown;
 
     /**
      * Initialized the Navigator by setting the initial picture which shall be viewed.
@@ -38,138 +104,424 @@ public class Navigator {
      * @param props                  the currently active application properties
      * @param pane                   the pane in which the image shall be displayed
      * @param pictureInitiallyViewed the path/name of the picture to be viewed, or null if just the newest picture
+     * @param firstImage             the picture initially viewed, being decoded at screen size already, or null
      */
-    public void init(AppProperties props, StackPane pane, String pictureInitiallyViewed) {
+    public void init(AppProperties props, StackPane pane, String pictureInitiallyViewed,
+                     CompletableFuture<LoadedImage> firstImage) {
 
+        this.props = props;
         numPrefetchedAroundCurrent = props.getNumPrefetchAroundCurrent();
+        numReadAheadAroundCurrent = props.getNumBytePrefetchAroundCurrent();
+        home = props.getHome();
+        MetricsController metrics = new MetricsController(props.isMetricsEnabled(), MESSAGE_STYLE);
         File current = pictureInitiallyViewed == null ? null : new File(pictureInitiallyViewed);
+        library = new LibraryIndex(new File(props.getHome(), "library"));
         files = new FileSequence(props,
-                current == null ? props.getDefaultNavStrategy() : props.getOpenFileNavStrategy(), current);
-        gCache = new GroupedCacheLoader<>(file -> new Image(file.toURI().toString()),
-                3, props.getNumCacheShownImages());
-        fCache = new FileCache<>(files, gCache);
+                current == null ? props.getDefaultNavStrategy() : props.getOpenFileNavStrategy(), current, library);
+        // with a picture given, it is displayed first; scanning its neighbours would only slow that down
+        scanDeferred = current != null;
+        if (!scanDeferred) {
+            files.start(() -> Platform.runLater(this::requestDisplay));
+        }
+        if (props.getPreviewCacheMaxBytes() > 0) {
+            previewStore = new PreviewStore(new File(props.getHome(), "previews"), props.getPreviewCacheMaxBytes(),
+                    PREVIEW_SEGMENT_SIZE);
+        }
+        readAheadCache = new GroupedCacheLoader<>(new FileBytesLoader(), FileBytesLoader::getBytes,
+                props.getNumReaderThreads(), 0, props.getBytePrefetchBudgetBytes());
+        decodeStage = new DecodeStage(props.getNumDecoderThreads());
+        ImageLoader imageLoader = new ImageLoader(previewStore, decodeStage, readAheadCache::peek);
+        Function<ImageKey, LoadedImage> loader = imageLoader;
+        if (firstImage != null) {
+            loader = new HandoverImageLoader(loader, current, firstImage);
+        }
+        geoController = new GeoController(this);
+        searchController = new SearchController(this, geoController);
+        editController = new EditController(this);
+        imageView = new ImageView();
+        zoomController = new ZoomController(this, props, pane, imageView);
+        controllers.add(searchController);  // first, as it takes all keys while its field is open
+        controllers.add(geoController);
+        controllers.add(new DuplicateController(this, library, home, props.getNumHashThreads(),
+                props.getDuplicateThreshold()));
+        controllers.add(editController);
+        controllers.add(zoomController);
+        controllers.add(metrics);
+        loader = editController.createRenderer(loader, props.getEditMemoMaxBytes());
+        gCache = new GroupedCacheLoader<>(loader, LoadedImage::getDecodedBytes,
+                props.getNumReaderThreads(), props.getNumCacheShownImages(), props.getCacheBudgetBytes());
+        Metrics.setCache(gCache);
+        fCache = new FileCache<>(files, gCache, this::getScreenKey,
+                props.getPrefetchStrategy().createPolicy());
+        readAheadFiles = new FileCache<>(files, readAheadCache, file -> file,
+                props.getPrefetchStrategy().createPolicy());
+        files.setChangeListener(changed -> Platform.runLater(() -> applyChanges(changed)));
 
-        this.pane = pane;
         paneHeight = pane.getHeight();
         paneWidth = pane.getWidth();
         ChangeListener<Number> paneSizeListener = (observable, oldValue, newValue) -> {
             paneHeight = pane.getHeight();
             paneWidth = pane.getWidth();
-            reloadLocal();
+            retier();
         };
         pane.widthProperty().addListener(paneSizeListener);
         pane.heightProperty().addListener(paneSizeListener);
 
-        Label imagePlaceholder = new Label("");
         BorderPane bp1 = new BorderPane();
         BorderPane bp2 = new BorderPane();
         message = new Label("");
         message.setFont(Font.font(40));
-        message.setStyle("-fx-text-fill: #f0f0f0; -fx-background-radius: 15; -fx-background-color: #30303080; -fx-background-insets: 15 10; -fx-label-padding: 20;");
+        message.setStyle(MESSAGE_STYLE);
+        bp1.setTop(searchController.getField());
         bp1.setRight(bp2);
+        bp2.setTop(metrics.getOverlay());
         bp2.setBottom(message);
-        pane.getChildren().addAll(imagePlaceholder, bp1);
-        if (pictureInitiallyViewed == null) {
-            message.setText("Library Mode is not implemented yet.");
-        } else {
-            displayImage();
+        pane.getChildren().addAll(imageView, zoomController.getTiledView(), bp1);
+        pane.getScene().addPostLayoutPulseListener(Metrics::frameRendered);
+        startupListener = () -> {
+            if (firstImageShown) {
+                pane.getScene().removePostLayoutPulseListener(startupListener);
+                startupListener = null;
+                StartupTrace.phase("first image");
+                Platform.runLater(this::finishStartup);
+            }
+        };
+        pane.getScene().addPostLayoutPulseListener(startupListener);
+        requestDisplay();
+    }
+
+    /**
+     * Starts everything which is not needed for displaying the first image: scanning the neighbours of the first
+     * image, which also prefetches them, watching the heap, and opening the search and geo indexes.
+     */
+    private void finishStartup() {
+        if (props.isStartupTrace()) {
+            StartupTrace.report();
+        }
+        if (props.isExitAfterFirstImage()) {
+            Platform.exit();
+            return;
         }
+        if (scanDeferred) {
+            files.start(() -> Platform.runLater(this::requestDisplay));
+        }
+        HeapPressureMonitor.install(props.getHeapPressureThreshold(), () -> gCache.shrink(0.5));
+        Thread indexOpener = new Thread(this::openIndexes, "IndexOpener");
+        indexOpener.setDaemon(true);
+        indexOpener.start();
     }
 
+    private void openIndexes() {
+        SearchIndex search = new SearchIndex(new File(home, "search"));
+        GeoIndex geo = new GeoIndex(new File(home, "geo"));
+        synchronized (indexLock) {
+            if (closed) {
+                search.close();
+                geo.close();
+                return;
+            }
+            geoController.setIndex(geo);
+            searchController.setIndex(search);  // last, as it checks its own index for both
+        }
+        if (props.getLibraryImportDir() != null) {
+            new LibraryImporter(library, search, geo, props.getLibraryImportDir()).start();
+        }
+    }
+
+    /**
+     * Schedules the display of the current image. Requests arriving before the display has actually happened are
+     * coalesced, so a burst of key events results in a single display of the latest image.
+     */
+    private void requestDisplay() {
+        if (!displayScheduled) {
+            displayScheduled = true;
+            Platform.runLater(() -> {
+                displayScheduled = false;
+                long start = Metrics.start();
+                displayImage();
+                Metrics.record(Metrics.DISPLAY, start);
+            });
+        }
+    }
+
+    /**
+     * Displays the current image if it is already loaded. Otherwise, keeps the JavaFX thread free: a loading note,
+     * then the preview embedded in the EXIF header, then the image itself are shown as they become available, unless
+     * another image has been requested in the meantime.
+     */
     private void displayImage() {
-        File current = fCache.prefetch("displayed", numPrefetchedAroundCurrent);
+        File current = prefetch();
         if (current == null) {
-            message.setText("No image to display.");
+            showMessage("No image to display.");
+            firstImageShown = true;
+            loadingMessageShown = true;  // hide it as soon as an image turns up, e.g. from the library
             return;
         }
-        Image image;
+        long generation = ++displayGeneration;
+        CompletableFuture<LoadedImage> future = gCache.get(getScreenKey(current));
+        if (future.isDone()) {
+            showWhenLoaded(current, future);
+            return;
+        }
+        message.setText("Loading " + current.getName() + " ...");
+        message.setVisible(true);
+        loadingMessageShown = true;
+        previewReader.execute(() -> {
+            if (editController.isEdited(current)) {
+                return;  // the embedded preview shows the image unedited
+            }
+            LoadedImage preview = EmbeddedThumbnailReader.read(current);
+            if (preview != null) {
+                Platform.runLater(() -> {
+                    if (generation == displayGeneration && !future.isDone()) {
+                        show(preview);
+                    }
+                });
+            }
+        });
+        future.whenComplete((loaded, e) -> Platform.runLater(() -> {
+            if (generation == displayGeneration) {
+                showWhenLoaded(current, future);
+            }
+        }));
+    }
+
+    /**
+     * Prefetches in two tiers: the nearest neighbours of the current image are decoded, and the compressed bytes of
+     * many more are read into memory. As the cursor moves, images move from the outer tier into the inner one, and
+     * are then decoded from the bytes in memory, without waiting for the disk.
+     *
+     * @return the current file
+     */
+    private File prefetch() {
+        readAheadFiles.prefetch(READ_AHEAD_GROUP, numReadAheadAroundCurrent);
+        return fCache.prefetch(DISPLAYED_GROUP, numPrefetchedAroundCurrent);
+    }
+
+    // the future must already be completed
+    private void showWhenLoaded(File current, CompletableFuture<LoadedImage> future) {
+        Metrics.imageShown();
+        firstImageShown = true;
+        if (loadingMessageShown) {
+            loadingMessageShown = false;
+            message.setVisible(false);
+        }
+        LoadedImage loaded;
         try {
-            image = gCache.get(current).get();
+            loaded = future.get();
         } catch (InterruptedException e) {
-            message.setText("Interrupted while loading picture: " + current.getAbsolutePath());
+            showMessage("Interrupted while loading picture: " + current.getAbsolutePath());
             return;
-        } catch (ExecutionException e) {
-            message.setText("Error loading picture '" + current.getAbsolutePath() + "': " + e.toString());
+        } catch (ExecutionException | CancellationException e) {
+            showMessage("Error loading picture '" + current.getAbsolutePath() + "': " + e.toString());
             return;
         }
-        if (image.getHeight() == 0) {
-            message.setText("Cannot find or display picture: " + current.getAbsolutePath());
+        show(loaded);
+    }
+
+    /**
+     * Shows a message in the corner of the screen, until the next image is displayed.
+     */
+    public void showMessage(String text) {
+        message.setText(text);
+        message.setVisible(true);
+    }
+
+    private void show(LoadedImage loaded) {
+        if (loaded.getImage().getHeight() == 0) {
+            showMessage("Cannot find or display picture: " + loaded.getKey().getFile().getAbsolutePath());
             return;
         }
-        Metadata metadata = getMetadata(current);
-        int rotate = getRotation(metadata);
-        ImageView iv = new ImageView(image);
-        iv.setRotate(rotate);
-        double factor = getFullScreenScale(image, rotate);
-        iv.setScaleX(factor);
-        iv.setScaleY(factor);
-        pane.getChildren().set(0, iv);
+        shown = loaded;
+        imageView.setImage(loaded.getImage());
+        imageView.setRotate(loaded.getRotation());
+        zoomController.layout(loaded);
     }
 
-    private int getRotation(Metadata metadata) {
-        if (metadata == null) {
-            return 0;
-        }
-        ExifIFD0Directory directory = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
-        if (directory == null) {
-            return 0;
-        }
-        Integer orientation = directory.getInteger(274);
-        if (orientation == null) {
-            return 0;
-        }
-        switch (orientation) {
-            case 8:
-                return 270;
-            case 3:
-                return 180;
-            case 6:
-                return 90;
-            default:
-                return 0;
+    /**
+     * Fits the displayed image to the new pane size right away, and swaps in a decode matching the new size
+     * as soon as it has been loaded in the background.
+     */
+    private void retier() {
+        if (shown == null) {
+            return;
         }
+        zoomController.layout(shown);
+        prefetch();
+        upgrade();
     }
 
-    private Metadata getMetadata(File current) {
-        try {
-            return ImageMetadataReader.readMetadata(current);
-        } catch (ImageProcessingException | IOException e) {
-            return null;
+    /**
+     * Replaces the displayed image by the resolution tier which is currently wanted, once that has been loaded.
+     * Until then, the image already displayed stays on screen, scaled to the same size.
+     */
+    public void upgrade() {
+        ImageKey wanted = getWantedKey(shown.getKey().getFile(), shown.getEdits());
+        if (!wanted.equals(shown.getKey())) {
+            showWhenWanted(wanted);
         }
     }
 
-    private double getFullScreenScale(Image image, int rotate) {
-        boolean tipped = rotate == 90 || rotate == 270;
-        double scale1 = paneHeight / (tipped ? image.getWidth() : image.getHeight());
-        double scale2 = paneWidth / (tipped ? image.getHeight() : image.getWidth());
-        return Math.min(scale1, scale2);
+    private void showWhenWanted(ImageKey wanted) {
+        gCache.get(wanted).thenAccept(loaded -> Platform.runLater(() -> {
+            if (shown != null && wanted.equals(getWantedKey(shown.getKey().getFile(), loaded.getEdits()))) {
+                show(loaded);
+            }
+        }));
+    }
+
+    /**
+     * @param edits the edits of the file
+     */
+    private ImageKey getWantedKey(File file, EditList edits) {
+        // unedited images are detailed by tiles when zoomed
+        return zoomController.isZoomed() && !edits.isEmpty() ? ImageKey.full(file) : getScreenKey(file);
+    }
+
+    /**
+     * The key does not depend on the edits, which are looked up while loading: looking them up here, on the JavaFX
+     * thread, could mean reading a sidecar file for each image prefetched.
+     */
+    private ImageKey getScreenKey(File file) {
+        return ImageKey.screen(file, paneWidth, paneHeight);
+    }
+
+    /**
+     * @return the image displayed, or null if none has been displayed yet
+     */
+    public LoadedImage getShown() {
+        return shown;
+    }
+
+    /**
+     * Displays the given image again after its edits have changed, as soon as it has been rendered with them.
+     *
+     * @param edits the new edits of the image
+     */
+    public void showEdited(File file, EditList edits) {
+        displayGeneration++;  // loads about to be cancelled shall not show up as errors
+        gCache.invalidateIf(key -> key.getFile().equals(file));
+        prefetch();
+        showWhenWanted(getWantedKey(file, edits));
     }
 
     public void switchToNextPicture() {
         if (!files.moveToNext()) {
-            message.setText("This is the last image.");
-            message.setVisible(true);
+            showMessage("This is the last image.");
             return;
         }
+        Metrics.navigationStarted();
         message.setVisible(false);
-        displayImage();
+        zoomController.reset();
+        fCache.recordMove(1);
+        readAheadFiles.recordMove(1);
+        requestDisplay();
     }
 
     public void switchToPreviousPicture() {
         if (!files.moveToPrevious()) {
-            message.setText("This is the first image.");
-            message.setVisible(true);
+            showMessage("This is the first image.");
             return;
         }
+        Metrics.navigationStarted();
         message.setVisible(false);
-        displayImage();
+        zoomController.reset();
+        fCache.recordMove(-1);
+        readAheadFiles.recordMove(-1);
+        requestDisplay();
+    }
+
+    /**
+     * Reacts to files having changed on disk: drops their cached images, and displays the current image again, which
+     * may be a different one if the current file has been removed.
+     */
+    private void applyChanges(Set<File> changed) {
+        displayGeneration++;  // loads about to be cancelled shall not show up as errors
+        gCache.invalidateIf(key -> changed.contains(key.getFile()));
+        readAheadCache.invalidateIf(changed::contains);
+        editController.invalidate(changed);
+        requestDisplay();
+    }
+
+    /**
+     * @return the file of the current image, or null if there is none
+     */
+    public File getCurrentFile() {
+        return files.getCurrent();
+    }
+
+    /**
+     * @return the controllers of the features beyond browsing, in the order in which they handle keys
+     */
+    public List<Controller> getControllers() {
+        return Collections.unmodifiableList(controllers);
+    }
+
+    /**
+     * Browses the given images instead of those browsed so far, until an empty search returns to the latter.
+     *
+     * @param hits   the images found by a search
+     * @param start  the image to start with, or null for the first one
+     * @param millis the time the search has taken
+     */
+    public void showResults(SearchHits hits, File start, long millis) {
+        if (hits.size() == 0) {
+            showMessage("No images found for '" + hits.getQuery() + "'.");
+            return;
+        }
+        FileScanner scanner = new SearchResultFileScanner(hits, start);
+        scanner.start(null);
+        FileScanner former = files.switchTo(scanner);
+        if (browsingScanner == null) {
+            browsingScanner = former;
+        }
+        zoomController.reset();
+        showMessage(hits.size() + " images found for '" + hits.getQuery() + "' in " + millis + " ms.");
+        requestDisplay();
+    }
+
+    /**
+     * Returns from the search results to the images browsed before, if search results are being browsed.
+     */
+    public void leaveResults() {
+        if (browsingScanner == null) {
+            return;
+        }
+        files.switchTo(browsingScanner);
+        browsingScanner = null;
+        message.setVisible(false);
+        zoomController.reset();
+        requestDisplay();
     }
 
     public void reloadImages() {
-        files.reload(this::reloadLocal);
+        files.reload(() -> Platform.runLater(this::requestDisplay));
     }
 
-    private void reloadLocal() {
-        displayImage();
+    /**
+     * Releases resources which need to be closed properly on exit.
+     */
+    public void close() {
+        if (files != null) {
+            files.close();
+        }
+        if (browsingScanner != null) {
+            browsingScanner.close();
+        }
+        synchronized (indexLock) {
+            closed = true;
+            for (Controller controller : controllers) {
+                controller.close();  // under the lock, as the indexes are handed over to some under the lock
+            }
+        }
+        if (library != null) {
+            library.close();
+        }
+        if (decodeStage != null) {
+            decodeStage.close();
+        }
+        if (previewStore != null) {
+            previewStore.close();
+        }
     }
 }
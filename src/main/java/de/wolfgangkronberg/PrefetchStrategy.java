@@ -0,0 +1,35 @@
+package de.wolfgangkronberg;
+
+import de.wolfgangkronberg.filescanner.AdaptivePrefetchPolicy;
+import de.wolfgangkronberg.filescanner.PrefetchPolicy;
+import de.wolfgangkronberg.filescanner.SymmetricPrefetchPolicy;
+
+/**
+ * Models the available policies for choosing the images to prefetch around the current image
+ */
+public enum PrefetchStrategy {
+
+    /**
+     * The same number of images before and after the current one
+     */
+    Symmetric,
+
+    /**
+     * Leans into the direction of navigation, and stays tight when toggling between two images
+     */
+    Adaptive;
+
+    /**
+     * @return a new instance of the policy
+     */
+    public PrefetchPolicy createPolicy() {
+        switch (this) {
+            case Symmetric:
+                return new SymmetricPrefetchPolicy();
+            case Adaptive:
+                return new AdaptivePrefetchPolicy();
+            default:
+                throw new RuntimeException("Internal error: unknown prefetch strategy: " + name());
+        }
+    }
+}
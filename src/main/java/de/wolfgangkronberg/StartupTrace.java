@@ -0,0 +1,67 @@
+package de.wolfgangkronberg;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the phases of startup up to the first image on screen. Phases on the critical path are marked in order,
+ * each lasting from the end of the previous one; the first one starts with {@link #start()}, and is preceded by the
+ * startup of the JVM itself. Work done in parallel is reported separately.
+ */
+public final class StartupTrace {
+
+    private static final List<String> phases = new ArrayList<>();  // guarded by StartupTrace.class
+    private static long started = System.nanoTime();  // guarded by StartupTrace.class
+    private static long last = started;  // guarded by StartupTrace.class
+    private static boolean reported;  // guarded by StartupTrace.class
+
+    private StartupTrace() {
+    }
+
+    /**
+     * Starts the trace; to be called first thing in main().
+     */
+    public static synchronized void start() {
+        started = System.nanoTime();
+        last = started;
+    }
+
+    /**
+     * Ends a phase on the critical path.
+     *
+     * @param name the name of the phase just ended
+     */
+    public static synchronized void phase(String name) {
+        long now = System.nanoTime();
+        phases.add(name + " " + TimeUnit.NANOSECONDS.toMillis(now - last) + " ms");
+        last = now;
+    }
+
+    /**
+     * Records a phase which has run in parallel to the critical path.
+     *
+     * @param name  the name of the phase just ended
+     * @param start its start, as given by {@link System#nanoTime()}
+     */
+    public static synchronized void parallel(String name, long start) {
+        phases.add(name + " " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms (parallel)");
+    }
+
+    /**
+     * Prints all phases recorded so far to stderr. Only the first call prints anything.
+     */
+    public static synchronized void report() {
+        if (reported) {
+            return;
+        }
+        reported = true;
+        // the JVM knows its own uptime, but asking for it costs more than the phases to be measured
+        long jvm = ManagementFactory.getRuntimeMXBean().getUptime() - TimeUnit.NANOSECONDS.toMillis(
+                System.nanoTime() - started);
+        System.err.println("Startup: jvm " + jvm + " ms, " + String.join(", ", phases) + "; total "
+                + (jvm + TimeUnit.NANOSECONDS.toMillis(last - started)) + " ms");
+    }
+
+}
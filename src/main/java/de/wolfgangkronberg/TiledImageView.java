@@ -0,0 +1,174 @@
+package de.wolfgangkronberg;
+
+import de.wolfgangkronberg.image.Tile;
+import de.wolfgangkronberg.image.TileKey;
+import de.wolfgangkronberg.image.TileLoader;
+import javafx.application.Platform;
+import javafx.scene.Group;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.Pane;
+import javafx.scene.transform.Rotate;
+import javafx.scene.transform.Scale;
+import javafx.scene.transform.Translate;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Shows the visible part of a zoomed image in full detail, as tiles of an image pyramid laid over the screen-sized
+ * image. Only the tiles within the viewport are decoded and displayed, at the coarsest level which still has at
+ * least one decoded pixel per screen pixel; the tiles around the viewport are prefetched, so panning finds them
+ * ready. The memory used thus depends on the size of the viewport and the tile cache, not on the size of the image.
+ */
+public class TiledImageView extends Pane {
+
+    private static final String VIEWPORT_GROUP = "viewport";
+    private static final int LRU_TILES = 64;
+    private static final int MAX_LEVEL = 16;
+
+    private final GroupedCacheLoader<TileKey, Tile> tiles;
+    private final Group content = new Group();
+    private final Map<TileKey, ImageView> shownTiles = new HashMap<>();
+    private Set<TileKey> wanted = new LinkedHashSet<>();
+    private final Set<TileKey> requested = new HashSet<>();  // pending requests
+    private File file;
+    private int level;
+    private File failedFile;  // errors are reported once per file
+
+    /**
+     * @param props the currently active application properties
+     */
+    public TiledImageView(AppProperties props) {
+        tiles = new GroupedCacheLoader<>(new TileLoader(), Tile::getDecodedBytes, props.getNumTileLoaderThreads(),
+                LRU_TILES, props.getTileCacheMaxBytes());
+        setMouseTransparent(true);
+        getChildren().add(content);
+    }
+
+    /**
+     * Shows the tiles of the given image which are visible in this view.
+     *
+     * @param file       the image file
+     * @param fullWidth  the width of the image in full resolution, before rotation
+     * @param fullHeight the height of the image in full resolution, before rotation
+     * @param rotation   the clockwise rotation in degrees which needs to be applied for display
+     * @param scale      the number of screen pixels per pixel of the full resolution
+     * @param centerX    the point of the image in the center of the view, in pixels of the full resolution
+     * @param centerY    the point of the image in the center of the view, in pixels of the full resolution
+     */
+    public void show(File file, double fullWidth, double fullHeight, int rotation, double scale, double centerX,
+                     double centerY) {
+        int level = 0;
+        while (level < MAX_LEVEL && scale * (2 << level) <= 1) {
+            level++;
+        }
+        if (!file.equals(this.file) || level != this.level) {
+            clearTiles();
+            this.file = file;
+            this.level = level;
+        }
+        int subsampling = 1 << level;
+        content.getTransforms().setAll(new Translate(getWidth() / 2, getHeight() / 2), new Rotate(rotation),
+                new Scale(scale * subsampling, scale * subsampling),
+                new Translate(-centerX / subsampling, -centerY / subsampling));
+
+        boolean tipped = rotation == 90 || rotation == 270;
+        double halfWidth = (tipped ? getHeight() : getWidth()) / 2 / scale;
+        double halfHeight = (tipped ? getWidth() : getHeight()) / 2 / scale;
+        int span = TileKey.SIZE << level;
+        int lastColumn = (int)Math.ceil(fullWidth / span) - 1;
+        int lastRow = (int)Math.ceil(fullHeight / span) - 1;
+        int column0 = Math.max(0, (int)Math.floor((centerX - halfWidth) / span));
+        int column1 = Math.min(lastColumn, (int)Math.floor((centerX + halfWidth) / span));
+        int row0 = Math.max(0, (int)Math.floor((centerY - halfHeight) / span));
+        int row1 = Math.min(lastRow, (int)Math.floor((centerY + halfHeight) / span));
+
+        List<TileKey> visible = new ArrayList<>();
+        List<TileKey> around = new ArrayList<>();
+        for (int row = Math.max(0, row0 - 1); row <= Math.min(lastRow, row1 + 1); row++) {
+            for (int column = Math.max(0, column0 - 1); column <= Math.min(lastColumn, column1 + 1); column++) {
+                boolean inside = row >= row0 && row <= row1 && column >= column0 && column <= column1;
+                (inside ? visible : around).add(new TileKey(file, level, column, row));
+            }
+        }
+        Comparator<TileKey> byDistance = Comparator.comparingDouble(key -> Math.hypot(
+                (key.getColumn() + 0.5) * span - centerX, (key.getRow() + 0.5) * span - centerY));
+        visible.sort(byDistance);
+        around.sort(byDistance);
+        List<TileKey> prefetched = new ArrayList<>(visible);
+        prefetched.addAll(around);
+        tiles.prefetch(VIEWPORT_GROUP, prefetched);
+
+        wanted = new LinkedHashSet<>(visible);
+        shownTiles.keySet().removeIf(key -> {
+            if (!wanted.contains(key)) {
+                content.getChildren().remove(shownTiles.get(key));
+                return true;
+            }
+            return false;
+        });
+        for (int i = visible.size() - 1; i >= 0; i--) {  // the last request is loaded first
+            TileKey key = visible.get(i);
+            if (!shownTiles.containsKey(key) && !requested.contains(key)) {
+                request(key);
+            }
+        }
+    }
+
+    /**
+     * Removes all tiles, e.g. because the image is no longer zoomed.
+     */
+    public void clear() {
+        if (file != null) {
+            clearTiles();
+            file = null;
+            tiles.prefetch(VIEWPORT_GROUP, List.of());
+        }
+    }
+
+    private void clearTiles() {
+        content.getChildren().clear();
+        shownTiles.clear();
+        wanted = new LinkedHashSet<>();
+    }
+
+    private void request(TileKey key) {
+        requested.add(key);
+        tiles.get(key).whenComplete((tile, e) -> Platform.runLater(() -> addTile(key, tile, e)));
+    }
+
+    private void addTile(TileKey key, Tile tile, Throwable e) {
+        requested.remove(key);
+        if (e instanceof CancellationException) {
+            if (wanted.contains(key) && !shownTiles.containsKey(key)) {
+                request(key);  // dropped from the cache in the meantime, e.g. shed for lack of memory
+            }
+            return;
+        }
+        if (e != null) {
+            if (!key.getFile().equals(failedFile)) {
+                failedFile = key.getFile();
+                System.err.println("Cannot decode tiles of " + key.getFile().getAbsolutePath() + ": " + e.toString());
+            }
+            return;
+        }
+        if (!wanted.contains(key) || shownTiles.containsKey(key)) {
+            return;
+        }
+        ImageView view = new ImageView(tile.getImage());
+        view.setX(key.getColumn() * TileKey.SIZE);
+        view.setY(key.getRow() * TileKey.SIZE);
+        view.setSmooth(true);
+        shownTiles.put(key, view);
+        content.getChildren().add(view);
+    }
+
+}
@@ -0,0 +1,42 @@
+package de.wolfgangkronberg.batch;
+
+import de.wolfgangkronberg.image.PhotoMetadata;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Path;
+
+/**
+ * A single image on its way through the {@link BatchRenderer} pipeline. Each stage fills in its results and drops
+ * what is no longer needed, so an image holds at most one version of its pixels at a time besides its renditions.
+ */
+class BatchImage {
+
+    final File file;
+    final Path relativePath;  // below the processed directory, for exporting
+
+    byte[] data;
+    PhotoMetadata metadata;
+    BufferedImage decoded;
+    int fullWidth;
+    int fullHeight;
+
+    BufferedImage preview;  // null if no preview is needed
+    BufferedImage thumbnail;
+    BufferedImage export;  // null if nothing is exported
+
+    byte[] previewRecord;
+    byte[] thumbnailRecord;
+    byte[] exportJpeg;
+
+    BatchImage(File file, Path relativePath) {
+        this.file = file;
+        this.relativePath = relativePath;
+    }
+
+    @Override
+    public String toString() {
+        return file.getAbsolutePath();
+    }
+
+}
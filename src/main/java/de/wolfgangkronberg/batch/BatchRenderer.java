@@ -0,0 +1,375 @@
+package de.wolfgangkronberg.batch;
+
+import de.wolfgangkronberg.AppProperties;
+import de.wolfgangkronberg.filescanner.ImageFileFilter;
+import de.wolfgangkronberg.image.ImageKey;
+import de.wolfgangkronberg.image.ImageLoader;
+import de.wolfgangkronberg.image.PhotoMetadata;
+import de.wolfgangkronberg.image.PhotoMetadataReader;
+import de.wolfgangkronberg.image.PreviewStore;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Renders whole directory trees without a window, e.g. overnight: generates the screen previews and thumbnails which
+ * the viewer would otherwise create while browsing, and exports resized copies rotated according to their EXIF
+ * orientation.
+ * <p>
+ * Images pass through a pipeline of stages, each with its own threads and a bounded queue in front: walking the
+ * directories, reading, decoding, resizing and rotating, encoding, and writing. Images are decoded with subsampling,
+ * just large enough for the largest rendition. Throughput is reported every few seconds and at the end.
+ * <p>
+ * Started by "--batch" on the command line; the remaining arguments are properties as for the viewer, e.g.
+ * "--batchExportDir=...", followed by the directories or images to process. Without any, the library import
+ * directory is processed.
+ */
+public class BatchRenderer {
+
+    private static final int PREVIEW_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final AppProperties props;
+    private final PreviewStore previewStore;
+    private final ImageFileFilter filter = new ImageFileFilter();
+    private final LongAdder upToDate = new LongAdder();
+
+    private BatchRenderer(AppProperties props, PreviewStore previewStore) {
+        this.props = props;
+        this.previewStore = previewStore;
+    }
+
+    /**
+     * @param args the command line arguments, without "--batch"
+     * @return the exit code: 0 if all images have been processed, 1 if some failed, 2 if nothing could be started
+     */
+    public static int run(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        Map<String, String> named = new HashMap<>();
+        List<File> roots = new ArrayList<>();
+        for (String arg : args) {
+            int idx = arg.indexOf('=');
+            if (arg.startsWith("--") && idx > 2) {
+                named.put(arg.substring(2, idx), arg.substring(idx + 1));
+            } else {
+                roots.add(new File(arg));
+            }
+        }
+        AppProperties props = new AppProperties();
+        props.loadParameters(named);
+        if (roots.isEmpty() && props.getLibraryImportDir() != null) {
+            roots.add(props.getLibraryImportDir());
+        }
+        if (roots.isEmpty()) {
+            System.err.println("Batch mode needs the directories or images to process.");
+            return 2;
+        }
+        if (!props.isBatchPreviews() && props.getBatchExportDir() == null) {
+            System.err.println("Batch mode has nothing to do: batchPreviews is false, and batchExportDir is not set.");
+            return 2;
+        }
+        if (props.isBatchPreviews() && props.getPreviewCacheMaxBytes() <= 0) {
+            if (props.getBatchExportDir() == null) {
+                System.err.println("Batch mode has nothing to do: the preview cache is disabled by "
+                        + "previewCacheMaxBytes, and batchExportDir is not set.");
+                return 2;
+            }
+            System.err.println("The preview cache is disabled by previewCacheMaxBytes; exporting only.");
+        }
+        PreviewStore previewStore = null;
+        if (props.isBatchPreviews() && props.getPreviewCacheMaxBytes() > 0) {
+            previewStore = new PreviewStore(new File(props.getHome(), "previews"), props.getPreviewCacheMaxBytes(),
+                    PREVIEW_SEGMENT_SIZE);
+        }
+        try {
+            if (previewStore != null) {
+                previewStore.awaitOpen();
+            }
+            return new BatchRenderer(props, previewStore).process(roots) ? 0 : 1;
+        } catch (InterruptedException e) {
+            System.err.println("Batch mode interrupted.");
+            return 2;
+        } finally {
+            if (previewStore != null) {
+                previewStore.close();
+            }
+        }
+    }
+
+    // returns false if some images have failed
+    private boolean process(List<File> roots) throws InterruptedException {
+        PipelineStage write = new PipelineStage("write", props.getBatchWriteThreads(), this::write, null);
+        PipelineStage encode = new PipelineStage("encode", threads(props.getBatchEncodeThreads()), this::encode,
+                write);
+        PipelineStage resize = new PipelineStage("resize", threads(props.getBatchResizeThreads()), this::resize,
+                encode);
+        PipelineStage decode = new PipelineStage("decode", threads(props.getBatchDecodeThreads()), this::decode,
+                resize);
+        PipelineStage read = new PipelineStage("read", props.getBatchReadThreads(), this::read, decode);
+        PipelineStage[] stages = {read, decode, resize, encode, write};
+
+        long start = System.nanoTime();
+        long nextReport = start + REPORT_INTERVAL_NANOS;
+        long found = 0;
+        for (File root : roots) {
+            Path rootPath = root.toPath().toAbsolutePath().normalize();
+            Path base = Files.isDirectory(rootPath) ? rootPath : rootPath.getParent();
+            try (Stream<Path> paths = Files.walk(rootPath)) {
+                Iterator<Path> it = paths.iterator();
+                while (it.hasNext()) {
+                    Path path = it.next();
+                    if (!Files.isRegularFile(path) || !filter.accept(path.toFile())) {
+                        continue;
+                    }
+                    read.put(new BatchImage(path.toFile(), base.relativize(path)));
+                    found++;
+                    if (System.nanoTime() > nextReport) {
+                        report("Batch", found, start, stages);
+                        nextReport += REPORT_INTERVAL_NANOS;
+                    }
+                }
+            } catch (IOException | UncheckedIOException e) {
+                System.err.println("Could not walk " + rootPath + ": " + e.toString());
+            }
+        }
+        read.end();
+        for (PipelineStage stage : stages) {
+            while (!stage.join(TimeUnit.NANOSECONDS.toMillis(Math.max(1, nextReport - System.nanoTime())))) {
+                if (System.nanoTime() > nextReport) {
+                    report("Batch", found, start, stages);
+                    nextReport += REPORT_INTERVAL_NANOS;
+                }
+            }
+        }
+        report("Batch done", found, start, stages);
+        long failed = 0;
+        for (PipelineStage stage : stages) {
+            failed += stage.getFailed();
+        }
+        return failed == 0;
+    }
+
+    private void report(String title, long found, long start, PipelineStage[] stages) {
+        double seconds = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+        long written = stages[stages.length - 1].getProcessed();
+        long failed = 0;
+        StringBuilder queues = new StringBuilder();
+        for (PipelineStage stage : stages) {
+            failed += stage.getFailed();
+            queues.append(' ').append(stage.getName()).append('=').append(stage.getQueued());
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "%s: %d of %d images written in %.1f s, %.1f images/s; %d up to date, %d failed; queued:%s",
+                title, written, found, seconds, written / seconds, upToDate.sum(), failed, queues));
+    }
+
+    private static int threads(int configured) {
+        return configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+    }
+
+    // stage "read": skips images whose renditions are up to date
+    private boolean read(BatchImage image) throws IOException {
+        if (isUpToDate(image)) {
+            upToDate.increment();
+            return false;
+        }
+        image.data = Files.readAllBytes(image.file.toPath());
+        return true;
+    }
+
+    // a preview is only stored if it is smaller than the original, so the thumbnail tells whether one is due
+    private boolean isUpToDate(BatchImage image) {
+        if (previewStore != null) {
+            ByteBuffer thumbnail = previewStore.get(ImageLoader.getPreviewKey(ImageKey.thumbnail(image.file)));
+            PhotoMetadata metadata = thumbnail == null ? null : ImageLoader.readPreviewMetadata(thumbnail);
+            if (metadata == null) {
+                return false;
+            }
+            if ((metadata.getWidth() <= 0 || metadata.getHeight() <= 0
+                    || getPreviewScale(metadata.getWidth(), metadata.getHeight(), metadata.getRotation()) < 1)
+                    && previewStore.get(ImageLoader.getPreviewKey(getPreviewKey(image))) == null) {
+                return false;
+            }
+        }
+        File exported = getExportFile(image);
+        return exported == null || exported.lastModified() >= image.file.lastModified();
+    }
+
+    // stage "decode": parses the metadata, and decodes just large enough for the largest rendition
+    private boolean decode(BatchImage image) throws IOException {
+        image.metadata = PhotoMetadataReader.read(image.data);
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(image.data))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                image.fullWidth = reader.getWidth(0);
+                image.fullHeight = reader.getHeight(0);
+                // subsampling is crude, so leave at least twice the pixels needed for smooth downscaling
+                int step = Math.max(1, (int)(1 / (2 * getLargestScale(image))));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                image.decoded = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        image.metadata = image.metadata.withDefaultSize(image.fullWidth, image.fullHeight);
+        image.data = null;
+        return true;
+    }
+
+    private double getLargestScale(BatchImage image) {
+        double result = getScale(image.fullWidth, image.fullHeight, ImageKey.THUMBNAIL_SIZE, ImageKey.THUMBNAIL_SIZE);
+        if (previewStore != null) {
+            result = Math.max(result, getPreviewScale(image));
+        }
+        if (props.getBatchExportDir() != null) {
+            result = Math.max(result, getExportScale(image));
+        }
+        return result;
+    }
+
+    // stage "resize": computes the renditions; previews stay unrotated, as the viewer rotates them on display
+    private boolean resize(BatchImage image) {
+        BufferedImage decoded = image.decoded;
+        image.decoded = null;
+        if (previewStore != null) {
+            double scale = getPreviewScale(image);
+            if (scale < 1) {
+                image.preview = scale(decoded, scale * image.fullWidth / decoded.getWidth(), 0);
+            }
+            image.thumbnail = ImageLoader.toThumbnail(image.preview != null ? image.preview : decoded);
+        }
+        if (props.getBatchExportDir() != null) {
+            image.export = scale(decoded, getExportScale(image) * image.fullWidth / decoded.getWidth(),
+                    image.metadata.getRotation());
+        }
+        return true;
+    }
+
+    // stage "encode"
+    private boolean encode(BatchImage image) throws IOException {
+        if (image.preview != null) {
+            image.previewRecord = ImageLoader.encodePreview(image.metadata, image.preview);
+            image.preview = null;
+        }
+        if (image.thumbnail != null) {
+            image.thumbnailRecord = ImageLoader.encodePreview(image.metadata, image.thumbnail);
+            image.thumbnail = null;
+        }
+        if (image.export != null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ImageLoader.writeJpeg(image.export, (float)props.getBatchExportQuality(), bytes);
+            image.exportJpeg = bytes.toByteArray();
+            image.export = null;
+        }
+        return true;
+    }
+
+    // stage "write"
+    private boolean write(BatchImage image) throws IOException {
+        if (image.previewRecord != null) {
+            previewStore.put(ImageLoader.getPreviewKey(getPreviewKey(image)), image.previewRecord);
+        }
+        if (image.thumbnailRecord != null) {
+            previewStore.put(ImageLoader.getPreviewKey(ImageKey.thumbnail(image.file)), image.thumbnailRecord);
+        }
+        if (image.exportJpeg != null) {
+            Path target = getExportFile(image).toPath();
+            Files.createDirectories(target.getParent());
+            Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            Files.write(tmp, image.exportJpeg);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return true;
+    }
+
+    private ImageKey getPreviewKey(BatchImage image) {
+        return ImageKey.screen(image.file, props.getBatchPreviewWidth(), props.getBatchPreviewHeight());
+    }
+
+    // as the viewer decodes it: to fit its image area once rotated, never enlarged
+    private double getPreviewScale(BatchImage image) {
+        return getPreviewScale(image.fullWidth, image.fullHeight, image.metadata.getRotation());
+    }
+
+    private double getPreviewScale(int fullWidth, int fullHeight, int rotation) {
+        boolean tipped = rotation == 90 || rotation == 270;
+        return getScale(fullWidth, fullHeight,
+                tipped ? props.getBatchPreviewHeight() : props.getBatchPreviewWidth(),
+                tipped ? props.getBatchPreviewWidth() : props.getBatchPreviewHeight());
+    }
+
+    private double getExportScale(BatchImage image) {
+        return getScale(image.fullWidth, image.fullHeight, props.getBatchExportSize(), props.getBatchExportSize());
+    }
+
+    private static double getScale(int width, int height, int boxWidth, int boxHeight) {
+        return Math.min(1, Math.min((double)boxWidth / width, (double)boxHeight / height));
+    }
+
+    // returns null if nothing is exported
+    private File getExportFile(BatchImage image) {
+        File dir = props.getBatchExportDir();
+        if (dir == null) {
+            return null;
+        }
+        String name = image.relativePath.getFileName().toString();
+        String lower = name.toLowerCase(Locale.ROOT);
+        Path parent = image.relativePath.getParent();
+        File targetDir = parent == null ? dir : new File(dir, parent.toString());
+        // a.png becomes a.png.jpg, so it does not collide with a.jpg
+        return new File(targetDir, lower.endsWith(".jpg") || lower.endsWith(".jpeg") ? name : name + ".jpg");
+    }
+
+    /**
+     * @param scale    the factor to scale the image by
+     * @param rotation the clockwise rotation in degrees, a multiple of 90
+     * @return the image scaled, then rotated, as RGB on black
+     */
+    private static BufferedImage scale(BufferedImage image, double scale, int rotation) {
+        int width = Math.max(1, (int)Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int)Math.round(image.getHeight() * scale));
+        boolean tipped = rotation == 90 || rotation == 270;
+        BufferedImage result = new BufferedImage(tipped ? height : width, tipped ? width : height,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = result.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        AffineTransform transform = new AffineTransform();
+        transform.translate(result.getWidth() / 2.0, result.getHeight() / 2.0);
+        transform.rotate(Math.toRadians(rotation));
+        transform.translate(-width / 2.0, -height / 2.0);
+        g.setTransform(transform);
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        return result;
+    }
+
+}
@@ -0,0 +1,150 @@
+package de.wolfgangkronberg.batch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One stage of the {@link BatchRenderer} pipeline: a fixed number of worker threads taking images from a bounded
+ * queue, and handing them on to the queue of the next stage. A full queue blocks the stage which feeds it, so the
+ * number of images in flight, and with it the memory used, does not depend on the number of images processed.
+ * <p>
+ * The end of the input is marked by a sentinel, which each worker puts back for its siblings before it quits; the
+ * last worker to quit passes the end on to the next stage.
+ */
+class PipelineStage {
+
+    /**
+     * The work of a stage on a single image
+     */
+    interface Work {
+
+        /**
+         * @return false if the image shall not be handed on to the next stage
+         * @throws Exception if the image cannot be processed; it is then reported and dropped
+         */
+        boolean process(BatchImage image) throws Exception;
+
+    }
+
+    private static final BatchImage END = new BatchImage(null, null);
+
+    private final String name;
+    private final Work work;
+    private final PipelineStage next;
+    private final BlockingQueue<BatchImage> queue;
+    private final Thread[] workers;
+    private final AtomicInteger running;
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * @param name       the name of the stage, for its threads and its reports
+     * @param numThreads the number of worker threads
+     * @param work       the work to do on each image
+     * @param next       the stage to hand the images on to, or null if this is the last one
+     */
+    PipelineStage(String name, int numThreads, Work work, PipelineStage next) {
+        this.name = name;
+        this.work = work;
+        this.next = next;
+        queue = new ArrayBlockingQueue<>(2 * numThreads);  // enough to keep the workers busy, and no more
+        workers = new Thread[numThreads];
+        running = new AtomicInteger(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            workers[i] = new Thread(this::runWorker, "Batch-" + name + "-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Hands an image to this stage, waiting while its queue is full.
+     */
+    void put(BatchImage image) throws InterruptedException {
+        queue.put(image);
+    }
+
+    /**
+     * Tells this stage that no more images will follow.
+     */
+    void end() throws InterruptedException {
+        queue.put(END);
+    }
+
+    /**
+     * Waits until all workers of this stage have quit, but no longer than the given time.
+     *
+     * @return true if all workers have quit
+     */
+    boolean join(long millis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        for (Thread worker : workers) {
+            worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getQueued() {
+        int result = queue.size();
+        return queue.contains(END) ? result - 1 : result;
+    }
+
+    long getProcessed() {
+        return processed.sum();
+    }
+
+    long getFailed() {
+        return failed.sum();
+    }
+
+    private void runWorker() {
+        try {
+            processAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // even if the worker dies, the stages behind it must learn about the end
+            if (running.decrementAndGet() == 0 && next != null) {
+                try {
+                    next.end();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void processAll() throws InterruptedException {
+        while (true) {
+            BatchImage image = queue.take();
+            if (image == END) {
+                queue.put(END);  // nothing follows the end, so there is room for it
+                break;
+            }
+            boolean handOn;
+            try {
+                handOn = work.process(image);
+            } catch (Exception | OutOfMemoryError e) {
+                // the memory held by a single huge image is free again, so the others may well fit
+                failed.increment();
+                System.err.println("Batch " + name + " failed for " + image + ": " + e.toString());
+                continue;
+            }
+            processed.increment();
+            if (handOn && next != null) {
+                next.put(image);
+            }
+        }
+    }
+
+}
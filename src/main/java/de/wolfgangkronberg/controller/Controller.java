@@ -0,0 +1,25 @@
+package de.wolfgangkronberg.controller;
+
+import javafx.scene.input.KeyEvent;
+
+/**
+ * A feature of the viewer, such as searching or zooming, with its key bindings and its state. The
+ * {@link de.wolfgangkronberg.Navigator} keeps track of the images and displays them; controllers use it for
+ * anything beyond their feature.
+ */
+public interface Controller {
+
+    /**
+     * @param key a key pressed anywhere in the application; called on the JavaFX application thread
+     * @return true if the key has been handled, so it shall not be passed on to other controllers
+     */
+    boolean handle(KeyEvent key);
+
+    /**
+     * Releases resources such as indexes.
+     */
+    default void close() {
+        // nothing to release by default
+    }
+
+}
@@ -0,0 +1,93 @@
+package de.wolfgangkronberg.controller;
+
+import de.wolfgangkronberg.Navigator;
+import de.wolfgangkronberg.library.DuplicateFinder;
+import de.wolfgangkronberg.library.HashIndex;
+import de.wolfgangkronberg.library.LibraryIndex;
+import de.wolfgangkronberg.library.SearchHits;
+import javafx.application.Platform;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches the library for duplicates in the background on "D", and shows them cluster by cluster. Images not
+ * hashed before are hashed first, which may take hours; progress is shown meanwhile.
+ */
+public class DuplicateController implements Controller {
+
+    private final Navigator navigator;
+    private final LibraryIndex library;
+    private final File home;
+    private final int numHashThreads;
+    private final int threshold;
+    private HashIndex hashes;  // opened on the first search; guarded by finder
+    private boolean closed;  // guarded by finder
+
+    private final ThreadPoolExecutor finder = new ThreadPoolExecutor(1, 1, 0, TimeUnit.NANOSECONDS,
+            new ArrayBlockingQueue<>(1), r -> {
+                Thread result = new Thread(r, "DuplicateFinder");
+                result.setDaemon(true);
+                return result;
+            }, new ThreadPoolExecutor.DiscardPolicy());  // a search already running or queued makes another useless
+
+    /**
+     * @param navigator      shows the progress and the duplicates found
+     * @param library        the library to search
+     * @param home           the directory of the application's data, where the hashes are kept
+     * @param numHashThreads the number of threads hashing images
+     * @param threshold      the maximum number of differing bits for images to be taken as near-duplicates
+     */
+    public DuplicateController(Navigator navigator, LibraryIndex library, File home, int numHashThreads,
+                               int threshold) {
+        this.navigator = navigator;
+        this.library = library;
+        this.home = home;
+        this.numHashThreads = numHashThreads;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public boolean handle(KeyEvent key) {
+        if (key.getCode() != KeyCode.D) {
+            return false;
+        }
+        navigator.showMessage("Searching for duplicates...");
+        finder.execute(this::find);
+        return true;
+    }
+
+    private void find() {
+        HashIndex hashes;
+        synchronized (finder) {
+            if (closed) {
+                return;
+            }
+            if (this.hashes == null) {
+                this.hashes = new HashIndex(new File(home, "hashes"));
+            }
+            hashes = this.hashes;
+        }
+        long start = System.nanoTime();
+        SearchHits hits = new DuplicateFinder(library, hashes, numHashThreads, threshold).find(
+                (done, total) -> Platform.runLater(() -> navigator.showMessage("Searching for duplicates: " + done
+                        + " of " + total + " images checked...")));
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Platform.runLater(() -> navigator.showResults(hits, null, millis));
+    }
+
+    @Override
+    public void close() {
+        synchronized (finder) {
+            closed = true;
+            if (hashes != null) {
+                hashes.close();
+            }
+        }
+    }
+
+}
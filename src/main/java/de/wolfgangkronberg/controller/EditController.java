@@ -0,0 +1,109 @@
+package de.wolfgangkronberg.controller;
+
+import de.wolfgangkronberg.Navigator;
+import de.wolfgangkronberg.edit.EditList;
+import de.wolfgangkronberg.edit.EditRenderer;
+import de.wolfgangkronberg.edit.EditStore;
+import de.wolfgangkronberg.edit.Mirror;
+import de.wolfgangkronberg.edit.Rotate;
+import de.wolfgangkronberg.image.ImageKey;
+import de.wolfgangkronberg.image.LoadedImage;
+import javafx.scene.input.KeyEvent;
+
+import java.io.File;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Edits the displayed image without changing its file: "R" rotates it, "H" mirrors it, "L" and "K" raise the
+ * exposure and the contrast, or lower them with Shift, and "U" undoes the last edit. The edits are kept in an
+ * {@link EditStore}, and applied by an {@link EditRenderer} while loading.
+ */
+public class EditController implements Controller {
+
+    private static final double LIGHTING_STEP = 1.0 / 3;  // a third of a stop, like most cameras
+
+    private final Navigator navigator;
+    private final EditStore editStore = new EditStore();
+    private EditRenderer editRenderer;
+
+    /**
+     * @param navigator provides the displayed image, and displays it again once edited
+     */
+    public EditController(Navigator navigator) {
+        this.navigator = navigator;
+    }
+
+    /**
+     * @param loader          the loader of the images without edits
+     * @param memoBudgetBytes the maximum number of bytes which intermediate results of editing may occupy
+     * @return the loader of the images with their edits applied
+     */
+    public Function<ImageKey, LoadedImage> createRenderer(Function<ImageKey, LoadedImage> loader,
+                                                          long memoBudgetBytes) {
+        editRenderer = new EditRenderer(loader, editStore, memoBudgetBytes);
+        return editRenderer;
+    }
+
+    /**
+     * @return true if the given image has been edited; may read its sidecar file, so better not called on the
+     * JavaFX application thread
+     */
+    public boolean isEdited(File image) {
+        return !editStore.get(image).isEmpty();
+    }
+
+    /**
+     * Forgets everything known about the given images, e.g. because they have changed on disk.
+     */
+    public void invalidate(Set<File> images) {
+        for (File image : images) {
+            editRenderer.invalidate(image);
+            editStore.invalidate(image);
+        }
+    }
+
+    @Override
+    public boolean handle(KeyEvent key) {
+        double step = key.isShiftDown() ? -LIGHTING_STEP : LIGHTING_STEP;
+        switch (key.getCode()) {
+            case R:
+                edit(edits -> edits.with(new Rotate(90)));
+                return true;
+            case H:
+                edit(edits -> edits.with(new Mirror()));
+                return true;
+            case L:
+                edit(edits -> edits.withAdjustedLighting(step, 0));
+                return true;
+            case K:
+                edit(edits -> edits.withAdjustedLighting(0, step));
+                return true;
+            case U:
+                edit(EditList::withoutLast);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Changes the edits of the displayed image, and displays it edited as soon as it has been rendered. The image is
+     * edited at the size it is displayed in, so this is quick even for large images.
+     */
+    private void edit(Function<EditList, EditList> change) {
+        LoadedImage shown = navigator.getShown();
+        if (shown == null) {
+            return;
+        }
+        File file = shown.getKey().getFile();
+        EditList edits = editStore.get(file);  // already in memory, as the image shown has been loaded with them
+        EditList changed = change.apply(edits);
+        if (changed.equals(edits)) {
+            return;
+        }
+        editStore.put(file, changed);
+        navigator.showEdited(file, changed);
+    }
+
+}
@@ -0,0 +1,136 @@
+package de.wolfgangkronberg.controller;
+
+import de.wolfgangkronberg.Navigator;
+import de.wolfgangkronberg.library.GeoIndex;
+import de.wolfgangkronberg.library.SearchHits;
+import javafx.application.Platform;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries the {@link GeoIndex}: shows the images taken closest to the location of the current one on "N", and runs
+ * the location queries typed into the search field.
+ */
+public class GeoController implements Controller {
+
+    private static final int NUM_NEARBY = 500;
+    private static final double DEFAULT_RADIUS_KM = 1;
+
+    private final Navigator navigator;
+    private volatile GeoIndex geo;  // opened after the first image is on screen
+
+    private final ThreadPoolExecutor searcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.NANOSECONDS,
+            new ArrayBlockingQueue<>(1), r -> {
+                Thread result = new Thread(r, "GeoSearch");
+                result.setDaemon(true);
+                return result;
+            }, new ThreadPoolExecutor.DiscardOldestPolicy());  // only the latest query matters
+
+    /**
+     * @param navigator provides the current image, and shows the images found
+     */
+    public GeoController(Navigator navigator) {
+        this.navigator = navigator;
+    }
+
+    /**
+     * @param geo the index to query from now on; it is closed along with this controller
+     */
+    public void setIndex(GeoIndex geo) {
+        this.geo = geo;
+    }
+
+    @Override
+    public boolean handle(KeyEvent key) {
+        if (key.getCode() != KeyCode.N) {
+            return false;
+        }
+        showNearby();
+        return true;
+    }
+
+    /**
+     * Shows the images taken closest to the location of the current one, starting with the current one.
+     */
+    private void showNearby() {
+        File current = navigator.getCurrentFile();
+        GeoIndex geo = this.geo;
+        if (current == null) {
+            return;
+        }
+        if (geo == null) {
+            navigator.showMessage("The geo index is still being opened.");
+            return;
+        }
+        searcher.execute(() -> {
+            long start = System.nanoTime();
+            SearchHits hits = geo.nearest(current, NUM_NEARBY);
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Platform.runLater(() -> {
+                if (hits.size() == 0) {
+                    navigator.showMessage("No location known for " + current.getName() + ".");
+                } else {
+                    navigator.showResults(hits, current, millis);
+                }
+            });
+        });
+    }
+
+    /**
+     * @return true for the queries which {@link #query(String)} runs
+     */
+    public static boolean isLocationQuery(String query) {
+        return query.startsWith("near:") || query.startsWith("box:");
+    }
+
+    /**
+     * Runs a location query: "near:lat,lon[,km]" for the images within a radius, "box:lat1,lon1,lat2,lon2" for the
+     * images within a bounding box.
+     *
+     * @throws IllegalArgumentException if the query cannot be parsed
+     * @throws IllegalStateException    if the index has not been opened yet
+     */
+    public SearchHits query(String query) {
+        GeoIndex geo = this.geo;
+        if (geo == null) {
+            throw new IllegalStateException("The geo index is still being opened.");
+        }
+        if (query.startsWith("near:")) {
+            double[] args = parseNumbers(query, 2, 3);
+            return geo.withinRadius(args[0], args[1], args.length > 2 ? args[2] : DEFAULT_RADIUS_KM);
+        }
+        double[] args = parseNumbers(query, 4, 4);
+        return geo.inBox(Math.min(args[0], args[2]), args[1], Math.max(args[0], args[2]), args[3]);
+    }
+
+    private static double[] parseNumbers(String query, int min, int max) {
+        String[] parts = query.substring(query.indexOf(':') + 1).split(",");
+        if (parts.length < min || parts.length > max) {
+            throw new IllegalArgumentException("Expected " + min + (min == max ? "" : " to " + max)
+                    + " numbers in '" + query + "'.");
+        }
+        double[] result = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                result[i] = Double.parseDouble(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number in '" + query + "': " + parts[i].trim());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        GeoIndex geo = this.geo;
+        if (geo != null) {
+            geo.close();
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package de.wolfgangkronberg.controller;
+
+import de.wolfgangkronberg.Metrics;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.scene.control.Label;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.text.Font;
+import javafx.util.Duration;
+
+/**
+ * Shows or hides the performance metrics on "M", refreshed twice a second. Metrics are collected while they are
+ * shown, even if they are not enabled in the properties.
+ */
+public class MetricsController implements Controller {
+
+    private static final double REFRESH_MILLIS = 500;
+
+    private final boolean enabled;
+    private final Label overlay = new Label("");
+    private Timeline refresh;  // running while the overlay is shown
+
+    /**
+     * @param enabled whether metrics are collected while the overlay is hidden
+     * @param style   the CSS style of the overlay
+     */
+    public MetricsController(boolean enabled, String style) {
+        this.enabled = enabled;
+        Metrics.setEnabled(enabled);
+        overlay.setFont(Font.font("Monospaced", 16));
+        overlay.setStyle(style);
+        overlay.setVisible(false);
+    }
+
+    /**
+     * @return the overlay, to be placed by the caller
+     */
+    public Label getOverlay() {
+        return overlay;
+    }
+
+    @Override
+    public boolean handle(KeyEvent key) {
+        if (key.getCode() != KeyCode.M) {
+            return false;
+        }
+        toggle();
+        return true;
+    }
+
+    private void toggle() {
+        if (refresh != null) {
+            refresh.stop();
+            refresh = null;
+            overlay.setVisible(false);
+            Metrics.setEnabled(enabled);
+            return;
+        }
+        Metrics.setEnabled(true);
+        overlay.setText(Metrics.format());
+        overlay.setVisible(true);
+        refresh = new Timeline(new KeyFrame(Duration.millis(REFRESH_MILLIS),
+                event -> overlay.setText(Metrics.format())));
+        refresh.setCycleCount(Animation.INDEFINITE);
+        refresh.play();
+    }
+
+}
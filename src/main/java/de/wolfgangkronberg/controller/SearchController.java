@@ -0,0 +1,122 @@
+package de.wolfgangkronberg.controller;
+
+import de.wolfgangkronberg.Navigator;
+import de.wolfgangkronberg.library.SearchHits;
+import de.wolfgangkronberg.library.SearchIndex;
+import javafx.application.Platform;
+import javafx.scene.control.TextField;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.text.Font;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows the search field on Ctrl+F, and runs the query typed into it in the background: location queries on the
+ * {@link GeoController}, anything else on the {@link SearchIndex}. Searching for an empty text returns from the
+ * search results to the images browsed before.
+ */
+public class SearchController implements Controller {
+
+    private final Navigator navigator;
+    private final GeoController geo;
+    private final TextField field = new TextField();
+    private volatile SearchIndex search;  // opened after the first image is on screen
+
+    private final ThreadPoolExecutor searcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.NANOSECONDS,
+            new ArrayBlockingQueue<>(1), r -> {
+                Thread result = new Thread(r, "Search");
+                result.setDaemon(true);
+                return result;
+            }, new ThreadPoolExecutor.DiscardOldestPolicy());  // only the latest query matters
+
+    /**
+     * @param navigator shows the images found
+     * @param geo       runs the location queries
+     */
+    public SearchController(Navigator navigator, GeoController geo) {
+        this.navigator = navigator;
+        this.geo = geo;
+        field.setFont(Font.font(30));
+        field.setPromptText("Search the library, or near:lat,lon[,km] or box:lat1,lon1,lat2,lon2");
+        field.setMaxWidth(800);
+        field.setVisible(false);
+        field.setOnAction(event -> runSearch(field.getText()));
+        field.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.ESCAPE) {
+                event.consume();
+                closeField();
+            }
+        });
+    }
+
+    /**
+     * @return the search field, to be placed by the caller
+     */
+    public TextField getField() {
+        return field;
+    }
+
+    /**
+     * @param search the index to query from now on; it is closed along with this controller
+     */
+    public void setIndex(SearchIndex search) {
+        this.search = search;
+    }
+
+    @Override
+    public boolean handle(KeyEvent key) {
+        if (field.isVisible()) {
+            return true;  // the keys are typed into the search field
+        }
+        if (key.getCode() != KeyCode.F || !key.isShortcutDown()) {
+            return false;
+        }
+        field.setVisible(true);
+        field.selectAll();
+        field.requestFocus();
+        return true;
+    }
+
+    private void closeField() {
+        field.setVisible(false);
+        field.getScene().getRoot().requestFocus();
+    }
+
+    private void runSearch(String query) {
+        closeField();
+        if (query.trim().isEmpty()) {
+            navigator.leaveResults();
+            return;
+        }
+        SearchIndex search = this.search;
+        if (search == null) {
+            navigator.showMessage("The search index is still being opened.");
+            return;
+        }
+        searcher.execute(() -> {
+            long start = System.nanoTime();
+            SearchHits hits;
+            try {
+                String trimmed = query.trim();
+                hits = GeoController.isLocationQuery(trimmed) ? geo.query(trimmed) : search.search(trimmed);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                Platform.runLater(() -> navigator.showMessage(e.getMessage()));
+                return;
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Platform.runLater(() -> navigator.showResults(hits, null, millis));
+        });
+    }
+
+    @Override
+    public void close() {
+        SearchIndex search = this.search;
+        if (search != null) {
+            search.close();
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+package de.wolfgangkronberg.controller;
+
+import de.wolfgangkronberg.AppProperties;
+import de.wolfgangkronberg.Navigator;
+import de.wolfgangkronberg.TiledImageView;
+import de.wolfgangkronberg.image.LoadedImage;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.layout.Pane;
+
+/**
+ * Zooms the displayed image: "Z" toggles between fitting the image to the screen and displaying it in full
+ * resolution, "+" and "-" as well as the mouse wheel zoom in and out, and dragging with the mouse pans the zoomed
+ * image. While zoomed, the tiles of the visible part are laid over the image in full detail by a
+ * {@link TiledImageView}.
+ */
+public class ZoomController implements Controller {
+
+    private static final double MAX_ZOOM = 8;
+    private static final double KEY_ZOOM_STEP = 2;
+    private static final double SCROLL_ZOOM_STEP = 1.25;
+
+    private final Navigator navigator;
+    private final Pane pane;
+    private final ImageView imageView;
+    private final TiledImageView tiledView;
+    private boolean zoomed;
+    private double zoom;  // screen pixels per pixel of the full resolution, while zoomed
+    private double centerX;  // the point of the full resolution in the center of the pane, while zoomed
+    private double centerY;
+    private double dragX;
+    private double dragY;
+
+    /**
+     * @param navigator provides the displayed image, and swaps in another resolution of it when needed
+     * @param props     the currently active application properties
+     * @param pane      the pane in which the image is displayed; takes the mouse input
+     * @param imageView the view of the displayed image, which is laid out by this controller
+     */
+    public ZoomController(Navigator navigator, AppProperties props, Pane pane, ImageView imageView) {
+        this.navigator = navigator;
+        this.pane = pane;
+        this.imageView = imageView;
+        tiledView = new TiledImageView(props);
+        pane.setOnMousePressed(event -> {
+            dragX = event.getSceneX();
+            dragY = event.getSceneY();
+        });
+        pane.setOnMouseDragged(event -> {
+            pan(event.getSceneX() - dragX, event.getSceneY() - dragY);
+            dragX = event.getSceneX();
+            dragY = event.getSceneY();
+        });
+        pane.setOnScroll(event -> {
+            if (event.getDeltaY() != 0) {
+                zoomBy(event.getDeltaY() > 0 ? SCROLL_ZOOM_STEP : 1 / SCROLL_ZOOM_STEP);
+            }
+        });
+    }
+
+    /**
+     * @return the view of the tiles, to be placed right above the image view by the caller
+     */
+    public TiledImageView getTiledView() {
+        return tiledView;
+    }
+
+    /**
+     * @return true while the image is zoomed, rather than fitted to the pane
+     */
+    public boolean isZoomed() {
+        return zoomed;
+    }
+
+    /**
+     * Fits the next image laid out to the pane, e.g. because another image is about to be displayed.
+     */
+    public void reset() {
+        zoomed = false;
+    }
+
+    @Override
+    public boolean handle(KeyEvent key) {
+        switch (key.getCode()) {
+            case Z:
+                toggleZoom();
+                return true;
+            case PLUS:
+            case ADD:
+            case EQUALS:
+                zoomBy(KEY_ZOOM_STEP);
+                return true;
+            case MINUS:
+            case SUBTRACT:
+                zoomBy(1 / KEY_ZOOM_STEP);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Scales the image to fit the pane, or, while zoomed, to the zoom factor around the zoom center. The image shown
+     * while zoomed is the screen-sized one, enlarged; the tiles of the visible part are laid over it in full detail
+     * as they are decoded. Edited images are not tiled; they are shown in full resolution instead.
+     *
+     * @param shown the image displayed in the image view
+     */
+    public void layout(LoadedImage shown) {
+        Image image = shown.getImage();
+        int rotation = shown.getRotation();
+        if (!zoomed) {
+            double factor = getFullScreenScale(image, rotation);
+            imageView.setScaleX(factor);
+            imageView.setScaleY(factor);
+            imageView.setTranslateX(0);
+            imageView.setTranslateY(0);
+            tiledView.clear();
+            return;
+        }
+        double factor = zoom * shown.getFullWidth() / image.getWidth();
+        imageView.setScaleX(factor);
+        imageView.setScaleY(factor);
+        // the offset of the image's center from the zoom center, rotated like the image
+        double dx = (shown.getFullWidth() / 2 - centerX) * zoom;
+        double dy = (shown.getFullHeight() / 2 - centerY) * zoom;
+        imageView.setTranslateX(rotation == 90 ? -dy : rotation == 180 ? -dx : rotation == 270 ? dy : dx);
+        imageView.setTranslateY(rotation == 90 ? dx : rotation == 180 ? -dy : rotation == 270 ? -dx : dy);
+        if (factor > 1 && shown.getEdits().isEmpty()) {
+            tiledView.show(shown.getKey().getFile(), shown.getFullWidth(), shown.getFullHeight(), rotation, zoom,
+                    centerX, centerY);
+        } else {
+            tiledView.clear();  // the image itself is detailed enough
+        }
+    }
+
+    /**
+     * @return the zoom factor which fits the whole image into the pane, in screen pixels per pixel of the full
+     * resolution
+     */
+    private double getFitZoom(LoadedImage shown) {
+        Image image = shown.getImage();
+        return getFullScreenScale(image, shown.getRotation()) * image.getWidth() / shown.getFullWidth();
+    }
+
+    private double getFullScreenScale(Image image, int rotate) {
+        boolean tipped = rotate == 90 || rotate == 270;
+        double scale1 = pane.getHeight() / (tipped ? image.getWidth() : image.getHeight());
+        double scale2 = pane.getWidth() / (tipped ? image.getHeight() : image.getWidth());
+        return Math.min(scale1, scale2);
+    }
+
+    /**
+     * Toggles between fitting the image to the screen and displaying it in full resolution, centered.
+     */
+    private void toggleZoom() {
+        LoadedImage shown = navigator.getShown();
+        if (shown == null) {
+            return;
+        }
+        if (zoomed) {
+            zoomed = false;
+        } else {
+            zoomTo(shown, 1, shown.getFullWidth() / 2, shown.getFullHeight() / 2);
+        }
+        layout(shown);
+        navigator.upgrade();
+    }
+
+    /**
+     * Zooms in or out around the current zoom center. Zooming out ends at fitting the image to the screen.
+     *
+     * @param factor the factor to multiply the current zoom factor with
+     */
+    private void zoomBy(double factor) {
+        LoadedImage shown = navigator.getShown();
+        if (shown == null) {
+            return;
+        }
+        double fit = getFitZoom(shown);
+        double zoom = (zoomed ? this.zoom : fit) * factor;
+        if (zoom <= fit) {
+            if (!zoomed) {
+                return;
+            }
+            zoomed = false;
+        } else if (zoomed) {
+            zoomTo(shown, zoom, centerX, centerY);
+        } else {
+            zoomTo(shown, zoom, shown.getFullWidth() / 2, shown.getFullHeight() / 2);
+        }
+        layout(shown);
+        navigator.upgrade();
+    }
+
+    private void zoomTo(LoadedImage shown, double zoom, double centerX, double centerY) {
+        zoomed = true;
+        this.zoom = Math.min(MAX_ZOOM, zoom);
+        this.centerX = Math.max(0, Math.min(shown.getFullWidth(), centerX));
+        this.centerY = Math.max(0, Math.min(shown.getFullHeight(), centerY));
+    }
+
+    /**
+     * Moves the zoomed image by the given distance on screen.
+     */
+    private void pan(double dx, double dy) {
+        LoadedImage shown = navigator.getShown();
+        if (shown == null || !zoomed) {
+            return;
+        }
+        int rotation = shown.getRotation();
+        // the distance on screen, rotated back into the orientation of the image
+        double ix = rotation == 90 ? dy : rotation == 180 ? -dx : rotation == 270 ? -dy : dx;
+        double iy = rotation == 90 ? -dx : rotation == 180 ? -dy : rotation == 270 ? dx : dy;
+        zoomTo(shown, zoom, centerX - ix / zoom, centerY - iy / zoom);
+        layout(shown);
+    }
+
+}
@@ -0,0 +1,59 @@
+package de.wolfgangkronberg.edit;
+
+import lombok.Value;
+
+/**
+ * Keeps a rectangle of the image, given as fractions of its width and height
+ */
+@Value
+public class Crop implements EditOperation {
+
+    private final double left;
+    private final double top;
+    private final double right;
+    private final double bottom;
+
+    @Override
+    public Pixels apply(Pixels in) {
+        int w = in.getWidth();
+        int x0 = (int)Math.round(left * w);
+        int y0 = (int)Math.round(top * in.getHeight());
+        int x1 = Math.max(x0 + 1, (int)Math.round(right * w));
+        int y1 = Math.max(y0 + 1, (int)Math.round(bottom * in.getHeight()));
+        int[] src = in.getArgb();
+        Pixels out = new Pixels(x1 - x0, y1 - y0);
+        int[] dst = out.getArgb();
+        int outWidth = out.getWidth();
+        Pixels.forEachTile(out.getHeight(), (from, to) -> {
+            for (int y = from; y < to; y++) {
+                System.arraycopy(src, (y0 + y) * w + x0, dst, y * outWidth, outWidth);
+            }
+        });
+        return out;
+    }
+
+    @Override
+    public void mapSize(double[] size) {
+        size[0] *= right - left;
+        size[1] *= bottom - top;
+    }
+
+    @Override
+    public void unmapSize(double[] size) {
+        size[0] /= right - left;
+        size[1] /= bottom - top;
+    }
+
+    @Override
+    public String format() {
+        return "crop " + left + " " + top + " " + right + " " + bottom;
+    }
+
+    /**
+     * @return the fraction of the image's width or height kept, whichever is smaller
+     */
+    public double getMinFraction() {
+        return Math.min(right - left, bottom - top);
+    }
+
+}
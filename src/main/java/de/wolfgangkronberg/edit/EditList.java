@@ -0,0 +1,169 @@
+package de.wolfgangkronberg.edit;
+
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The edits of an image, applied in order to its pixels after EXIF rotation. The list is immutable; any change
+ * results in a new list.
+ */
+@Value
+public class EditList {
+
+    /**
+     * No edits at all
+     */
+    public static final EditList NONE = new EditList(Collections.emptyList());
+
+    private static final double NEUTRAL = 1e-6;  // changes adding up to this are rounding errors
+
+    private final List<EditOperation> operations;
+
+    private EditList(List<EditOperation> operations) {
+        this.operations = operations;
+    }
+
+    public static EditList of(List<EditOperation> operations) {
+        return operations.isEmpty() ? NONE : new EditList(Collections.unmodifiableList(new ArrayList<>(operations)));
+    }
+
+    /**
+     * @param lines the lines of a sidecar file, as written by {@link #format()}; blank lines and lines starting with
+     *              # are ignored
+     * @throws IllegalArgumentException if a line is not understood
+     */
+    public static EditList parse(List<String> lines) {
+        List<EditOperation> result = new ArrayList<>();
+        for (String line : lines) {
+            String[] words = line.trim().split("\\s+");
+            if (words[0].isEmpty() || words[0].startsWith("#")) {
+                continue;
+            }
+            try {
+                result.add(parse(words));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Cannot parse edit '" + line.trim() + "': " + e.getMessage(), e);
+            }
+        }
+        return of(result);
+    }
+
+    private static EditOperation parse(String[] words) {
+        switch (words[0].toLowerCase(Locale.ROOT)) {
+            case "rotate":
+                int degrees = Integer.parseInt(words[1]);
+                if (degrees != 90 && degrees != 180 && degrees != 270) {
+                    throw new IllegalArgumentException("only 90, 180, and 270 degrees are supported");
+                }
+                return new Rotate(degrees);
+            case "mirror":
+                return new Mirror();
+            case "crop":
+                double left = Double.parseDouble(words[1]);
+                double top = Double.parseDouble(words[2]);
+                double right = Double.parseDouble(words[3]);
+                double bottom = Double.parseDouble(words[4]);
+                if (!(0 <= left && left < right && right <= 1 && 0 <= top && top < bottom && bottom <= 1)) {
+                    throw new IllegalArgumentException("the rectangle must lie within 0 and 1");
+                }
+                return new Crop(left, top, right, bottom);
+            case "light":
+                return new Lighting(Double.parseDouble(words[1]), Double.parseDouble(words[2]));
+            default:
+                throw new IllegalArgumentException("unknown operation");
+        }
+    }
+
+    /**
+     * @return the lines of a sidecar file
+     */
+    public List<String> format() {
+        List<String> result = new ArrayList<>();
+        for (EditOperation operation : operations) {
+            result.add(operation.format());
+        }
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    public EditOperation get(int index) {
+        return operations.get(index);
+    }
+
+    /**
+     * @return the list of the first n edits
+     */
+    public EditList prefix(int n) {
+        return n == operations.size() ? this : of(operations.subList(0, n));
+    }
+
+    public EditList with(EditOperation operation) {
+        List<EditOperation> result = new ArrayList<>(operations);
+        result.add(operation);
+        return of(result);
+    }
+
+    /**
+     * @return this list without its last edit, i.e. the last edit undone
+     */
+    public EditList withoutLast() {
+        return isEmpty() ? this : prefix(operations.size() - 1);
+    }
+
+    /**
+     * Changes the lighting. Repeated changes are merged into one, like moving a slider, so the earlier edits need
+     * not be applied again.
+     *
+     * @param exposure the change of exposure in stops
+     * @param contrast the change of contrast
+     */
+    public EditList withAdjustedLighting(double exposure, double contrast) {
+        if (!isEmpty() && operations.get(operations.size() - 1) instanceof Lighting) {
+            Lighting last = (Lighting)operations.get(operations.size() - 1);
+            Lighting merged = new Lighting(last.getExposure() + exposure,
+                    Math.max(-1, last.getContrast() + contrast));
+            EditList result = withoutLast();
+            boolean neutral = Math.abs(merged.getExposure()) < NEUTRAL && Math.abs(merged.getContrast()) < NEUTRAL;
+            return neutral ? result : result.with(merged);
+        }
+        return with(new Lighting(exposure, Math.max(-1, contrast)));
+    }
+
+    /**
+     * @param width  the width of an image before the edits
+     * @param height the height of an image before the edits
+     * @return the width and height after the edits
+     */
+    public double[] mapSize(double width, double height) {
+        double[] result = {width, height};
+        for (EditOperation operation : operations) {
+            operation.mapSize(result);
+        }
+        return result;
+    }
+
+    /**
+     * @param width  the width of an image after the edits
+     * @param height the height of an image after the edits
+     * @return the width and height before the edits
+     */
+    public double[] unmapSize(double width, double height) {
+        double[] result = {width, height};
+        for (int i = operations.size() - 1; i >= 0; i--) {
+            operations.get(i).unmapSize(result);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,30 @@
+package de.wolfgangkronberg.edit;
+
+/**
+ * A single step of non-destructive editing. Operations are immutable values, so a list of them identifies an edited
+ * rendition, e.g. in a cache key. They work in relative coordinates, so the same list applies to any resolution.
+ */
+public interface EditOperation {
+
+    /**
+     * @param in the pixels to edit; they are not modified
+     * @return the edited pixels
+     */
+    Pixels apply(Pixels in);
+
+    /**
+     * @param size the width and height of an image, replaced by the width and height after this operation
+     */
+    void mapSize(double[] size);
+
+    /**
+     * @param size the width and height of an image after this operation, replaced by the width and height before it
+     */
+    void unmapSize(double[] size);
+
+    /**
+     * @return this operation as a line of a sidecar file, as parsed by {@link EditList#parse}
+     */
+    String format();
+
+}
@@ -0,0 +1,148 @@
+package de.wolfgangkronberg.edit;
+
+import de.wolfgangkronberg.image.ImageKey;
+import de.wolfgangkronberg.image.LoadedImage;
+import de.wolfgangkronberg.image.PhotoMetadata;
+import lombok.Value;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Loads images with their edits applied, so edited images are cached and prefetched like the others. The edits
+ * are looked up in the {@link EditStore} here, on the loading thread, as the first lookup of each image reads its
+ * sidecar file. Images without edits are passed on to the actual loader.
+ * <p>
+ * The edits are applied to the image as decoded for the requested size, not to the full resolution, so the cost of
+ * editing depends on the size of the screen rather than the size of the image. The results of the first n edits
+ * are kept for a while: when only the last edit changes, e.g. while adjusting the lighting step by step, or when it
+ * is undone, just the last edit is applied again.
+ */
+public class EditRenderer implements Function<ImageKey, LoadedImage> {
+
+    @Value
+    private static class MemoKey {
+        ImageKey base;
+        EditList edits;
+    }
+
+    @Value
+    private static class Intermediate {
+        Pixels pixels;
+        PhotoMetadata metadata;  // of the unedited image
+    }
+
+    private final Function<ImageKey, LoadedImage> loader;
+    private final EditStore editStore;
+    private final long memoBudgetBytes;
+    private final LinkedHashMap<MemoKey, Intermediate> memo = new LinkedHashMap<>(16, 0.75f, true);  // LRU
+    private long memoBytes;  // guarded by memo
+
+    /**
+     * @param loader          the loader of the images without edits
+     * @param editStore       the edits of the images
+     * @param memoBudgetBytes the maximum number of bytes which intermediate results may occupy
+     */
+    public EditRenderer(Function<ImageKey, LoadedImage> loader, EditStore editStore, long memoBudgetBytes) {
+        this.loader = loader;
+        this.editStore = editStore;
+        this.memoBudgetBytes = memoBudgetBytes;
+    }
+
+    @Override
+    public LoadedImage apply(ImageKey key) {
+        EditList edits = editStore.get(key.getFile());
+        if (edits.isEmpty()) {
+            return loader.apply(key);
+        }
+        ImageKey baseKey = getBaseKey(key, edits);
+        int done = edits.size();
+        Intermediate start = null;
+        while (start == null && done > 0) {
+            done--;
+            start = recall(new MemoKey(baseKey, edits.prefix(done)));
+        }
+        if (start == null) {
+            LoadedImage base = loader.apply(baseKey);
+            if (base.getImage().getHeight() == 0) {
+                return new LoadedImage(key, base.getImage(), base.getMetadata());  // nothing to edit
+            }
+            Pixels pixels = Pixels.of(base.getImage());
+            if (base.getRotation() != 0) {
+                pixels = new Rotate(base.getRotation()).apply(pixels);
+            }
+            start = new Intermediate(pixels, base.getMetadata());
+            memorize(new MemoKey(baseKey, EditList.NONE), start);
+        }
+        Pixels pixels = start.getPixels();
+        for (; done < edits.size(); done++) {
+            if (done > 0) {
+                memorize(new MemoKey(baseKey, edits.prefix(done)), new Intermediate(pixels, start.getMetadata()));
+            }
+            pixels = edits.get(done).apply(pixels);
+        }
+        return new LoadedImage(key, pixels.toImage(), getEditedMetadata(start.getMetadata(), edits), edits);
+    }
+
+    /**
+     * Forgets the intermediate results for the given image, e.g. because it has changed on disk.
+     */
+    public void invalidate(File file) {
+        synchronized (memo) {
+            Iterator<Map.Entry<MemoKey, Intermediate>> i = memo.entrySet().iterator();
+            while (i.hasNext()) {
+                Map.Entry<MemoKey, Intermediate> entry = i.next();
+                if (entry.getKey().getBase().getFile().equals(file)) {
+                    memoBytes -= entry.getValue().getPixels().getBytes();
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the key of the unedited image which, after editing, fits the requested box: e.g. a crop to half the
+     * width needs twice the width to start with
+     */
+    private static ImageKey getBaseKey(ImageKey key, EditList edits) {
+        if (key.isFullResolution()) {
+            return key;
+        }
+        double[] box = edits.unmapSize(key.getWidth(), key.getHeight());
+        return ImageKey.screen(key.getFile(), box[0], box[1]);
+    }
+
+    private static PhotoMetadata getEditedMetadata(PhotoMetadata metadata, EditList edits) {
+        int rotation = metadata.getRotation();
+        boolean tipped = rotation == 90 || rotation == 270;
+        double[] size = edits.mapSize(tipped ? metadata.getHeight() : metadata.getWidth(),
+                tipped ? metadata.getWidth() : metadata.getHeight());
+        return metadata.withGeometry(1, (int)Math.round(size[0]), (int)Math.round(size[1]));
+    }
+
+    private Intermediate recall(MemoKey key) {
+        synchronized (memo) {
+            return memo.get(key);
+        }
+    }
+
+    private void memorize(MemoKey key, Intermediate intermediate) {
+        long bytes = intermediate.getPixels().getBytes();
+        if (bytes > memoBudgetBytes) {
+            return;
+        }
+        synchronized (memo) {
+            Intermediate old = memo.put(key, intermediate);
+            memoBytes += bytes - (old == null ? 0 : old.getPixels().getBytes());
+            Iterator<Intermediate> i = memo.values().iterator();
+            while (memoBytes > memoBudgetBytes && i.hasNext()) {
+                memoBytes -= i.next().getPixels().getBytes();
+                i.remove();
+            }
+        }
+    }
+
+}
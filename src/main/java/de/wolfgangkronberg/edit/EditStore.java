@@ -0,0 +1,71 @@
+package de.wolfgangkronberg.edit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the edits of each image in a sidecar file next to it, named like the image plus {@value #SUFFIX}. The image
+ * itself is never changed. The edits are read once per image and then kept in memory, as they are needed for every
+ * cache lookup.
+ */
+public class EditStore {
+
+    public static final String SUFFIX = ".ksedit";
+
+    private final Map<File, EditList> edits = new ConcurrentHashMap<>();
+
+    /**
+     * @return the edits of the given image, NONE if it has not been edited
+     */
+    public EditList get(File image) {
+        return edits.computeIfAbsent(image.getAbsoluteFile(), EditStore::read);
+    }
+
+    /**
+     * Sets the edits of the given image, and writes them to its sidecar file. Without edits, the sidecar file is
+     * deleted.
+     */
+    public void put(File image, EditList list) {
+        File file = image.getAbsoluteFile();
+        edits.put(file, list);
+        File sidecar = getSidecar(file);
+        try {
+            if (list.isEmpty()) {
+                Files.deleteIfExists(sidecar.toPath());
+            } else {
+                Files.write(sidecar.toPath(), list.format(), StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot save edits to " + sidecar.getAbsolutePath() + ": " + e.toString());
+        }
+    }
+
+    /**
+     * Forgets the edits of the given image, so they are read again from its sidecar file when needed next.
+     */
+    public void invalidate(File image) {
+        edits.remove(image.getAbsoluteFile());
+    }
+
+    public static File getSidecar(File image) {
+        return new File(image.getPath() + SUFFIX);
+    }
+
+    private static EditList read(File image) {
+        File sidecar = getSidecar(image);
+        if (!sidecar.isFile()) {
+            return EditList.NONE;
+        }
+        try {
+            return EditList.parse(Files.readAllLines(sidecar.toPath(), StandardCharsets.UTF_8));
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Ignoring edits in " + sidecar.getAbsolutePath() + ": " + e.toString());
+            return EditList.NONE;
+        }
+    }
+
+}
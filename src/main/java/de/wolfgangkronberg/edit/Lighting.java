@@ -0,0 +1,58 @@
+package de.wolfgangkronberg.edit;
+
+import lombok.Value;
+
+/**
+ * Brightens or darkens, and changes the contrast around middle gray
+ */
+@Value
+public class Lighting implements EditOperation {
+
+    /**
+     * The change of exposure in stops: +1 doubles the brightness, -1 halves it
+     */
+    private final double exposure;
+
+    /**
+     * The change of contrast, from -1 (flat gray) over 0 (unchanged) to 1 (doubled)
+     */
+    private final double contrast;
+
+    @Override
+    public Pixels apply(Pixels in) {
+        int[] lut = new int[256];
+        double factor = Math.pow(2, exposure);
+        for (int v = 0; v < 256; v++) {
+            double result = (v * factor - 128) * (1 + contrast) + 128;
+            lut[v] = (int)Math.max(0, Math.min(255, Math.round(result)));
+        }
+        int[] src = in.getArgb();
+        Pixels out = new Pixels(in.getWidth(), in.getHeight());
+        int[] dst = out.getArgb();
+        int w = in.getWidth();
+        Pixels.forEachTile(in.getHeight(), (from, to) -> {
+            for (int i = from * w; i < to * w; i++) {
+                int argb = src[i];
+                dst[i] = argb & 0xff000000 | lut[argb >>> 16 & 0xff] << 16 | lut[argb >>> 8 & 0xff] << 8
+                        | lut[argb & 0xff];
+            }
+        });
+        return out;
+    }
+
+    @Override
+    public void mapSize(double[] size) {
+        // the size stays the same
+    }
+
+    @Override
+    public void unmapSize(double[] size) {
+        // the size stays the same
+    }
+
+    @Override
+    public String format() {
+        return "light " + exposure + " " + contrast;
+    }
+
+}
@@ -0,0 +1,43 @@
+package de.wolfgangkronberg.edit;
+
+import lombok.Value;
+
+/**
+ * Mirrors horizontally, i.e. swaps left and right
+ */
+@Value
+public class Mirror implements EditOperation {
+
+    @Override
+    public Pixels apply(Pixels in) {
+        int w = in.getWidth();
+        int[] src = in.getArgb();
+        Pixels out = new Pixels(w, in.getHeight());
+        int[] dst = out.getArgb();
+        Pixels.forEachTile(in.getHeight(), (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int row = y * w;
+                for (int x = 0; x < w; x++) {
+                    dst[row + x] = src[row + w - 1 - x];
+                }
+            }
+        });
+        return out;
+    }
+
+    @Override
+    public void mapSize(double[] size) {
+        // the size stays the same
+    }
+
+    @Override
+    public void unmapSize(double[] size) {
+        // the size stays the same
+    }
+
+    @Override
+    public String format() {
+        return "mirror";
+    }
+
+}
@@ -0,0 +1,83 @@
+package de.wolfgangkronberg.edit;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import lombok.Getter;
+
+import java.util.stream.IntStream;
+
+/**
+ * Decoded pixels as non-premultiplied ARGB, row by row, which {@link EditOperation}s work on. Operations process
+ * bands of rows in parallel, which keeps each band's rows in the CPU cache and all cores busy on large images.
+ */
+@Getter
+public class Pixels {
+
+    /**
+     * The number of rows processed as one piece of parallel work
+     */
+    public static final int TILE_ROWS = 64;
+
+    /**
+     * The work on a band of rows
+     */
+    public interface TileWork {
+
+        /**
+         * @param fromRow the first row of the band
+         * @param toRow   the row behind the last row of the band
+         */
+        void process(int fromRow, int toRow);
+
+    }
+
+    private final int width;
+    private final int height;
+    private final int[] argb;
+
+    /**
+     * Creates transparent black pixels.
+     */
+    public Pixels(int width, int height) {
+        this(width, height, new int[width * height]);
+    }
+
+    public Pixels(int width, int height, int[] argb) {
+        this.width = width;
+        this.height = height;
+        this.argb = argb;
+    }
+
+    /**
+     * Runs the given work on all bands of the given number of rows, in parallel.
+     */
+    public static void forEachTile(int height, TileWork work) {
+        int numTiles = (height + TILE_ROWS - 1) / TILE_ROWS;
+        IntStream.range(0, numTiles).parallel()
+                .forEach(tile -> work.process(tile * TILE_ROWS, Math.min(height, (tile + 1) * TILE_ROWS)));
+    }
+
+    public static Pixels of(Image image) {
+        int width = (int)image.getWidth();
+        int height = (int)image.getHeight();
+        Pixels result = new Pixels(width, height);
+        image.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), result.argb, 0,
+                width);
+        return result;
+    }
+
+    public Image toImage() {
+        WritableImage result = new WritableImage(width, height);
+        result.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), argb, 0, width);
+        return result;
+    }
+
+    /**
+     * @return the number of bytes occupied by the pixels
+     */
+    public long getBytes() {
+        return (long)argb.length * 4;
+    }
+
+}
@@ -0,0 +1,63 @@
+package de.wolfgangkronberg.edit;
+
+import lombok.Value;
+
+/**
+ * Rotates clockwise by a multiple of 90 degrees
+ */
+@Value
+public class Rotate implements EditOperation {
+
+    /**
+     * 90, 180, or 270
+     */
+    private final int degrees;
+
+    @Override
+    public Pixels apply(Pixels in) {
+        int w = in.getWidth();
+        int h = in.getHeight();
+        int[] src = in.getArgb();
+        boolean tipped = degrees == 90 || degrees == 270;
+        Pixels out = new Pixels(tipped ? h : w, tipped ? w : h);
+        int[] dst = out.getArgb();
+        int outWidth = out.getWidth();
+        Pixels.forEachTile(out.getHeight(), (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int row = y * outWidth;
+                for (int x = 0; x < outWidth; x++) {
+                    int index;
+                    if (degrees == 90) {
+                        index = (h - 1 - x) * w + y;
+                    } else if (degrees == 180) {
+                        index = (h - 1 - y) * w + (w - 1 - x);
+                    } else {
+                        index = x * w + (w - 1 - y);
+                    }
+                    dst[row + x] = src[index];
+                }
+            }
+        });
+        return out;
+    }
+
+    @Override
+    public void mapSize(double[] size) {
+        if (degrees == 90 || degrees == 270) {
+            double width = size[0];
+            size[0] = size[1];
+            size[1] = width;
+        }
+    }
+
+    @Override
+    public void unmapSize(double[] size) {
+        mapSize(size);
+    }
+
+    @Override
+    public String format() {
+        return "rotate " + degrees;
+    }
+
+}
@@ -0,0 +1,85 @@
+package de.wolfgangkronberg.filescanner;
+
+import java.util.Arrays;
+
+/**
+ * Adapts the prefetch window to the way the user navigates:
+ * <ul>
+ *     <li>When moving in one direction, the window leans into that direction, the more so the faster the moves
+ *     follow each other, down to a minimum of files kept behind the cursor. Files behind the cursor have usually
+ *     just been shown, and are kept by the cache's LRU list anyway.</li>
+ *     <li>When toggling back and forth between two images in order to compare them, only the pair and its outer
+ *     neighbours are prefetched. This window stays the same on either image of the pair, so toggling does not
+ *     cause any loads at all.</li>
+ * </ul>
+ */
+public class AdaptivePrefetchPolicy implements PrefetchPolicy {
+
+    private static final int MIN_BEHIND = 3;
+    private static final int TOGGLE_MOVES = 4;
+    private static final double DIRECTION_SMOOTHING = 0.3;
+    private static final double INTERVAL_SMOOTHING = 0.3;
+    private static final double FAST_MOVES_PER_SECOND = 4;
+    private static final long PAUSE_NANOS = 3_000_000_000L;
+
+    private final Object lock = new Object();
+    private double direction = 0;  // smoothed direction of moves, from -1 (backward) to 1 (forward)
+    private double interval = PAUSE_NANOS;  // smoothed time between moves, in nanoseconds
+    private long lastMoveNanos = System.nanoTime() - PAUSE_NANOS;
+    private int lastSign = 0;
+    private int alternations = 0;  // number of consecutive moves which reversed the direction of their predecessor
+
+    @Override
+    public void recordMove(int offset) {
+        if (offset == 0) {
+            return;
+        }
+        int sign = Integer.signum(offset);
+        long now = System.nanoTime();
+        synchronized (lock) {
+            long elapsed = Math.min(now - lastMoveNanos, PAUSE_NANOS);
+            lastMoveNanos = now;
+            interval += INTERVAL_SMOOTHING * (elapsed - interval);
+            direction += DIRECTION_SMOOTHING * (sign - direction);
+            alternations = sign == -lastSign ? alternations + 1 : 0;
+            lastSign = sign;
+        }
+    }
+
+    @Override
+    public int[] getOffsets(int budget) {
+        double direction;
+        double speed;
+        synchronized (lock) {
+            if (alternations >= TOGGLE_MOVES) {
+                return toggleOffsets(budget, lastSign);
+            }
+            direction = this.direction;
+            boolean paused = System.nanoTime() - lastMoveNanos >= PAUSE_NANOS;
+            speed = paused ? 0 : Math.min(1, 1e9 / interval / FAST_MOVES_PER_SECOND);
+        }
+        // share of the budget spent ahead in the direction of travel: from 0.5 without a preferred direction,
+        // to 0.75 when moving slowly or pausing, to all but MIN_BEHIND when moving fast
+        double share = 0.5 + 0.5 * Math.abs(direction) * (0.5 + 0.5 * speed);
+        int behind = Math.max(Math.min(MIN_BEHIND, budget / 2), (int)Math.round(budget * (1 - share)));
+        int ahead = budget - behind;
+        int forwardSign = direction >= 0 ? 1 : -1;
+        int[] result = new int[budget];
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < budget; i++) {
+            // interleave both sides in proportion to their size, so the nearest files on either side come first
+            boolean takeAhead = b >= behind || (a < ahead && (a + 1) * (double)behind <= (b + 1) * (double)ahead);
+            result[i] = takeAhead ? forwardSign * ++a : -forwardSign * ++b;
+        }
+        return result;
+    }
+
+    // the other image of the pair is the one we came from, i.e. it lies against the direction of the last move
+    private int[] toggleOffsets(int budget, int lastSign) {
+        int pairSide = -lastSign;
+        int[] result = {pairSide, -pairSide, 2 * pairSide};
+        return budget >= result.length ? result : Arrays.copyOf(result, budget);
+    }
+
+}
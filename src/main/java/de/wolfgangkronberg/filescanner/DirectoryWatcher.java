@@ -0,0 +1,178 @@
+package de.wolfgangkronberg.filescanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a single directory for files being added, removed, or modified, and reports the changes in batches.
+ * <p>
+ * Events are coalesced: a batch is delivered once no further event has arrived for {@value #QUIET_MILLIS} ms, or
+ * at the latest {@value #MAX_DELAY_MILLIS} ms after its first event. So copying thousands of files into the directory
+ * results in a few batches, not in thousands of updates. A rename shows up as a removal plus an addition; if the
+ * operating system reports the two right after each other, as Linux does, they are paired as a rename as well.
+ */
+public class DirectoryWatcher {
+
+    private static final long QUIET_MILLIS = 250;
+    private static final long MAX_DELAY_MILLIS = 2000;
+
+    private final Path dir;
+    private final Consumer<Changes> listener;
+    private final WatchService watchService;
+
+    /**
+     * Starts watching. The listener is called on a background thread.
+     *
+     * @param dir      the directory to watch
+     * @param listener receives the batches of changes
+     * @throws IOException if the directory cannot be watched
+     */
+    public DirectoryWatcher(File dir, Consumer<Changes> listener) throws IOException {
+        this.dir = dir.toPath();
+        this.listener = listener;
+        watchService = FileSystems.getDefault().newWatchService();
+        this.dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(this::watch, "DirectoryWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching.
+     */
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.err.println("Could not close directory watcher: " + e.toString());
+        }
+    }
+
+    private void watch() {
+        Changes pending = new Changes();
+        long firstEventMillis = 0;
+        try {
+            while (true) {
+                WatchKey key;
+                if (pending.isEmpty()) {
+                    key = watchService.take();
+                    firstEventMillis = System.currentTimeMillis();
+                } else {
+                    long maxWait = firstEventMillis + MAX_DELAY_MILLIS - System.currentTimeMillis();
+                    key = maxWait <= 0 ? null
+                            : watchService.poll(Math.min(QUIET_MILLIS, maxWait), TimeUnit.MILLISECONDS);
+                }
+                if (key == null) {
+                    listener.accept(pending);
+                    pending = new Changes();
+                    continue;
+                }
+                File deleted = null;  // a deletion directly followed by a creation is taken for a rename
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        pending.overflow = true;
+                        deleted = null;
+                        continue;
+                    }
+                    File file = dir.resolve((Path)event.context()).toFile();
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                        pending.removed.remove(file);
+                        pending.renamed.remove(file);
+                        pending.added.add(file);
+                        if (deleted != null) {
+                            pending.renamed.put(deleted, file);
+                        }
+                        deleted = null;
+                    } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        pending.added.remove(file);
+                        pending.modified.remove(file);
+                        pending.renamed.values().remove(file);
+                        pending.removed.add(file);
+                        deleted = file;
+                    } else {
+                        if (!pending.added.contains(file)) {
+                            pending.modified.add(file);
+                        }
+                        deleted = null;
+                    }
+                }
+                if (!key.reset()) {
+                    pending.overflow = true;  // the directory itself is gone
+                    listener.accept(pending);
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // we are done
+        }
+    }
+
+    /**
+     * A batch of changes to the watched directory. A file is contained in at most one of the sets.
+     */
+    public static class Changes {
+
+        private final Set<File> added = new LinkedHashSet<>();
+        private final Set<File> removed = new LinkedHashSet<>();
+        private final Set<File> modified = new LinkedHashSet<>();
+        private final Map<File, File> renamed = new HashMap<>();
+        private boolean overflow;
+
+        /**
+         * @return the files which have been created, or moved into the directory
+         */
+        public Set<File> getAdded() {
+            return Collections.unmodifiableSet(added);
+        }
+
+        /**
+         * @return the files which have been deleted, or moved out of the directory
+         */
+        public Set<File> getRemoved() {
+            return Collections.unmodifiableSet(removed);
+        }
+
+        /**
+         * @return the files whose contents have changed
+         */
+        public Set<File> getModified() {
+            return Collections.unmodifiableSet(modified);
+        }
+
+        /**
+         * @return the new names of files which have been renamed, by their old names; the old names are contained
+         * in the removed files, and the new ones in the added files
+         */
+        public Map<File, File> getRenamed() {
+            return Collections.unmodifiableMap(renamed);
+        }
+
+        /**
+         * @return true if events have been lost, so the directory has to be listed again
+         */
+        public boolean isOverflow() {
+            return overflow;
+        }
+
+        private boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && modified.isEmpty() && !overflow;
+        }
+
+    }
+
+}
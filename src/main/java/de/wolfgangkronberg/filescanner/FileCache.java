@@ -5,38 +5,78 @@ import de.wolfgangkronberg.GroupedCacheLoader;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Function;
 
-public class FileCache<T> {
+/**
+ * Prefetches the neighbours of the current file into a {@link GroupedCacheLoader}. Which neighbours are prefetched,
+ * and in which order, is decided by a {@link PrefetchPolicy}.
+ */
+public class FileCache<K, T> {
 
     private final FileSequence files;
-    private final GroupedCacheLoader<File, T> groupedCache;
+    private final GroupedCacheLoader<K, T> groupedCache;
+    private final Function<File, K> keyMapper;
+    private final PrefetchPolicy policy;
 
-    public FileCache(FileSequence files, GroupedCacheLoader<File, T> groupedCache) {
+    /**
+     * @param files        the sequence of files to prefetch from
+     * @param groupedCache the cache to prefetch into
+     * @param keyMapper    maps a file to its current key in the cache; evaluated on each call to prefetch
+     * @param policy       chooses the neighbours to prefetch
+     */
+    public FileCache(FileSequence files, GroupedCacheLoader<K, T> groupedCache, Function<File, K> keyMapper,
+                     PrefetchPolicy policy) {
         this.files = files;
         this.groupedCache = groupedCache;
+        this.keyMapper = keyMapper;
+        this.policy = policy;
     }
 
+    /**
+     * Informs the prefetch policy that the cursor has been moved.
+     *
+     * @param offset the number of files moved, positive for forward and negative for backward moves
+     */
+    public void recordMove(int offset) {
+        policy.recordMove(offset);
+    }
+
+    /**
+     * Sets the group to the current file and the neighbours chosen by the policy.
+     *
+     * @param group       the group of the cache to prefetch into
+     * @param numPrefetch the number of files to prefetch on either side if the policy were symmetric; the policy may
+     *                    distribute twice this number freely
+     * @return the current file, or null if there is none; then nothing is prefetched
+     */
     public File prefetch(String group, int numPrefetch) {
         File result = files.getCurrent();
-        List<File> previous = files.getPrevious(numPrefetch);
-        List<File> next = files.getNext(numPrefetch);
-        Iterator<File> itP = previous.iterator();
-        Iterator<File> itN = next.iterator();
-        List<File> prefetchList = new ArrayList<>(previous.size() + next.size() + 1);
-        prefetchList.add(result);
-        while (itP.hasNext() || itN.hasNext()) {
-            if (itN.hasNext()) {
-                prefetchList.add(itN.next());
-            }
-            if (itP.hasNext()) {
-                prefetchList.add(itP.next());
+        if (result == null) {
+            groupedCache.prefetch(group, Collections.emptyList());
+            return null;
+        }
+        int[] offsets = policy.getOffsets(2 * numPrefetch);
+        int numNext = 0;
+        int numPrevious = 0;
+        for (int offset : offsets) {
+            numNext = Math.max(numNext, offset);
+            numPrevious = Math.max(numPrevious, -offset);
+        }
+        List<File> previous = numPrevious == 0 ? Collections.emptyList() : files.getPrevious(numPrevious);
+        List<File> next = numNext == 0 ? Collections.emptyList() : files.getNext(numNext);
+        List<K> prefetchList = new ArrayList<>(offsets.length + 1);
+        prefetchList.add(keyMapper.apply(result));
+        for (int offset : offsets) {
+            if (offset > 0 && offset <= next.size()) {
+                prefetchList.add(keyMapper.apply(next.get(offset - 1)));
+            } else if (offset < 0 && -offset <= previous.size()) {
+                prefetchList.add(keyMapper.apply(previous.get(previous.size() + offset)));  // previous ends nearest
             }
         }
         groupedCache.prefetch(group, prefetchList);
         return result;
     }
 
-
 }
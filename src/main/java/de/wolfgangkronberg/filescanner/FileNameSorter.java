@@ -0,0 +1,187 @@
+package de.wolfgangkronberg.filescanner;
+
+import java.io.File;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Sorts files by their name according to the rules of the default locale, and by the exact character sequence if
+ * the locale considers two names equal. Optionally, runs of digits are compared by their numeric value, so that
+ * IMG_2 comes before IMG_10.
+ * <p>
+ * Collating strings is expensive, so each name is collated once into a {@link SortKey}, and the keys are compared
+ * byte-wise from then on. Large directories are keyed and sorted in parallel.
+ */
+public class FileNameSorter {
+
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private final boolean naturalOrder;
+
+    // Collator instances are not safe for concurrent use, and RuleBasedCollator synchronizes on itself
+    private final ThreadLocal<Collator> collators = ThreadLocal.withInitial(Collator::getInstance);
+
+    /**
+     * @param naturalOrder true if runs of digits shall be compared by their numeric value
+     */
+    public FileNameSorter(boolean naturalOrder) {
+        this.naturalOrder = naturalOrder;
+    }
+
+    /**
+     * @param file a file
+     * @return the key which determines the position of the file in the sort order
+     */
+    public SortKey keyOf(File file) {
+        String name = file.getName();
+        Collator collator = collators.get();
+        if (!naturalOrder) {
+            return new SortKey(file, name, new CollationKey[]{collator.getCollationKey(name)}, new String[0]);
+        }
+        List<CollationKey> texts = new ArrayList<>();
+        List<String> numbers = new ArrayList<>();
+        int textStart = 0;
+        int i = 0;
+        while (i < name.length()) {
+            if (!isDigit(name.charAt(i))) {
+                i++;
+                continue;
+            }
+            int numberStart = i;
+            while (i < name.length() && isDigit(name.charAt(i))) {
+                i++;
+            }
+            texts.add(collator.getCollationKey(name.substring(textStart, numberStart)));
+            numbers.add(name.substring(numberStart, i));
+            textStart = i;
+        }
+        texts.add(collator.getCollationKey(name.substring(textStart)));
+        return new SortKey(file, name, texts.toArray(new CollationKey[0]), numbers.toArray(new String[0]));
+    }
+
+    /**
+     * @param files the files to sort; not modified
+     * @return the keys of the files, in sort order
+     */
+    public SortKey[] sort(File[] files) {
+        SortKey[] result = new SortKey[files.length];
+        if (files.length < PARALLEL_THRESHOLD) {
+            for (int i = 0; i < files.length; i++) {
+                result[i] = keyOf(files[i]);
+            }
+            Arrays.sort(result);
+        } else {
+            IntStream.range(0, files.length).parallel().forEach(i -> result[i] = keyOf(files[i]));
+            Arrays.parallelSort(result);
+        }
+        return result;
+    }
+
+    /**
+     * Looks up a file in an array sorted by this sorter, using the same order the array has been sorted with.
+     *
+     * @param sorted the keys, in sort order
+     * @param file   the file to look up
+     * @return the index of the file if it is contained in the array; otherwise, (-(insertion point) - 1)
+     */
+    public int indexOf(SortKey[] sorted, File file) {
+        return Arrays.binarySearch(sorted, keyOf(file));
+    }
+
+    /**
+     * @param keys keys created by a sorter
+     * @return the files of the keys, in the same order
+     */
+    public static File[] toFiles(SortKey[] keys) {
+        File[] result = new File[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = keys[i].getFile();
+        }
+        return result;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * The position of a file in the sort order. The name is split into runs of text and runs of digits, starting
+     * and ending with a run of text, which may be empty. Without natural order, the whole name is a single run of
+     * text. Keys of equal files are equal, and keys of different files are never equal.
+     */
+    public static class SortKey implements Comparable<SortKey> {
+
+        private final File file;
+        private final String name;
+        private final CollationKey[] texts;  // always one more than numbers
+        private final String[] numbers;
+
+        private SortKey(File file, String name, CollationKey[] texts, String[] numbers) {
+            this.file = file;
+            this.name = name;
+            this.texts = texts;
+            this.numbers = numbers;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        @Override
+        public int compareTo(SortKey other) {
+            int common = Math.min(numbers.length, other.numbers.length);
+            for (int i = 0; i < common; i++) {
+                int result = texts[i].compareTo(other.texts[i]);
+                if (result != 0) {
+                    return result;
+                }
+                result = compareNumbers(numbers[i], other.numbers[i]);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            int result = texts[common].compareTo(other.texts[common]);
+            if (result == 0) {
+                result = Integer.compare(numbers.length, other.numbers.length);
+            }
+            if (result == 0) {
+                result = name.compareTo(other.name);
+            }
+            return result != 0 ? result : file.compareTo(other.file);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SortKey && file.equals(((SortKey)o).file);
+        }
+
+        @Override
+        public int hashCode() {
+            return file.hashCode();
+        }
+
+        private static int compareNumbers(String n1, String n2) {
+            int start1 = skipZeros(n1);
+            int start2 = skipZeros(n2);
+            int result = Integer.compare(n1.length() - start1, n2.length() - start2);
+            for (int i = 0; result == 0 && start1 + i < n1.length(); i++) {
+                result = Character.compare(n1.charAt(start1 + i), n2.charAt(start2 + i));
+            }
+            return result;
+        }
+
+        private static int skipZeros(String number) {
+            int i = 0;
+            while (i < number.length() - 1 && number.charAt(i) == '0') {
+                i++;
+            }
+            return i;
+        }
+
+    }
+
+}
@@ -2,6 +2,8 @@ package de.wolfgangkronberg.filescanner;
 
 import java.io.File;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public interface FileScanner {
 
@@ -13,4 +15,21 @@ public interface FileScanner {
     List<File> getNext(int num);
     List<File> getPrevious(int num);
 
+    /**
+     * Sets the listener which is informed when the sequence changes without a call to reload, e.g. because files
+     * have been added to a watched directory. Scanners which do not watch for changes never call it.
+     *
+     * @param listener receives the files which have been added, removed, or modified; called on a background thread
+     */
+    default void setChangeListener(Consumer<Set<File>> listener) {
+        // changes are not tracked by default
+    }
+
+    /**
+     * Releases resources such as watched directories.
+     */
+    default void close() {
+        // nothing to release by default
+    }
+
 }
@@ -0,0 +1,108 @@
+package de.wolfgangkronberg.filescanner;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sorts arrays of int indices with a comparator on the indices, without boxing them. This is a stable merge sort,
+ * which runs in parallel on the common pool for large arrays.
+ */
+public class IndexSorter {
+
+    private static final int SEQUENTIAL_THRESHOLD = 8192;
+    private static final int INSERTION_THRESHOLD = 16;
+
+    public interface IndexComparator {
+        int compare(int i1, int i2);
+    }
+
+    private IndexSorter() {
+    }
+
+    /**
+     * @param indices    the indices to sort, in place
+     * @param comparator compares two indices
+     */
+    public static void sort(int[] indices, IndexComparator comparator) {
+        int[] buffer = indices.clone();
+        if (indices.length < SEQUENTIAL_THRESHOLD) {
+            mergeSort(buffer, indices, 0, indices.length, comparator);
+        } else {
+            ForkJoinPool.commonPool().invoke(new SortAction(buffer, indices, 0, indices.length, comparator));
+        }
+    }
+
+    // sorts src[from, to) into dst[from, to); both ranges must hold the same elements on entry
+    private static void mergeSort(int[] src, int[] dst, int from, int to, IndexComparator comparator) {
+        if (to - from <= INSERTION_THRESHOLD) {
+            insertionSort(dst, from, to, comparator);
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(dst, src, from, middle, comparator);
+        mergeSort(dst, src, middle, to, comparator);
+        merge(src, dst, from, middle, to, comparator);
+    }
+
+    private static void insertionSort(int[] a, int from, int to, IndexComparator comparator) {
+        for (int i = from + 1; i < to; i++) {
+            int value = a[i];
+            int j = i - 1;
+            while (j >= from && comparator.compare(a[j], value) > 0) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = value;
+        }
+    }
+
+    // merges the sorted ranges src[from, middle) and src[middle, to) into dst[from, to)
+    private static void merge(int[] src, int[] dst, int from, int middle, int to, IndexComparator comparator) {
+        if (comparator.compare(src[middle - 1], src[middle]) <= 0) {
+            System.arraycopy(src, from, dst, from, to - from);  // already in order
+            return;
+        }
+        int i = from;
+        int j = middle;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < middle && comparator.compare(src[i], src[j]) <= 0)) {
+                dst[k] = src[i++];
+            } else {
+                dst[k] = src[j++];
+            }
+        }
+    }
+
+    private static class SortAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] src;
+        private final int[] dst;
+        private final int from;
+        private final int to;
+        private final IndexComparator comparator;
+
+        SortAction(int[] src, int[] dst, int from, int to, IndexComparator comparator) {
+            this.src = src;
+            this.dst = dst;
+            this.from = from;
+            this.to = to;
+            this.comparator = comparator;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < SEQUENTIAL_THRESHOLD) {
+                mergeSort(src, dst, from, to, comparator);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new SortAction(dst, src, from, middle, comparator),
+                    new SortAction(dst, src, middle, to, comparator));
+            merge(src, dst, from, middle, to, comparator);
+        }
+
+    }
+
+}
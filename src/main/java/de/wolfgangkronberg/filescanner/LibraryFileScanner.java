@@ -0,0 +1,98 @@
+package de.wolfgangkronberg.filescanner;
+
+import de.wolfgangkronberg.library.LibraryEntry;
+import de.wolfgangkronberg.library.LibraryIndex;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Navigates through the images of the library in the order they were taken, either flatly across all directories,
+ * or directory by directory, where directories are sorted by their earliest image.
+ */
+public class LibraryFileScanner extends WindowedFileScanner {
+
+    private final LibraryIndex index;
+    private final boolean perDirectory;
+
+    // only accessed by the background thread
+    private List<String> directories;
+    private String cachedDirectory;
+    private List<LibraryEntry> cachedEntries;
+
+    /**
+     * @param startingPoint  the file to start with, or null to start with the image taken most recently
+     * @param index          the library
+     * @param perDirectory   true to navigate directory by directory, false to navigate across directories
+     * @param numWindowFiles the number of files to know on either side of the cursor
+     */
+    public LibraryFileScanner(File startingPoint, LibraryIndex index, boolean perDirectory, int numWindowFiles) {
+        super(startingPoint == null ? null : startingPoint.getAbsoluteFile(), numWindowFiles, "FileScanner-Library");
+        this.index = index;
+        this.perDirectory = perDirectory;
+    }
+
+    @Override
+    protected File findStart() {
+        LibraryEntry latest = index.getLatest();
+        return latest == null ? null : latest.getFile();
+    }
+
+    @Override
+    protected void onReload() {
+        directories = null;
+        cachedDirectory = null;
+        cachedEntries = null;
+    }
+
+    @Override
+    protected List<File> fetch(File anchor, boolean forward, int max) {
+        LibraryEntry entry = index.get(anchor);
+        if (entry == null) {
+            return Collections.emptyList();  // removed from the library in the meantime
+        }
+        List<File> result = new ArrayList<>(max);
+        if (!perDirectory) {
+            for (LibraryEntry neighbour : index.getNeighbours(entry, forward, max)) {
+                result.add(neighbour.getFile());
+            }
+            return result;
+        }
+        List<LibraryEntry> entries = getDirectoryEntries(entry.getDirectory());
+        int pos = entries.indexOf(entry);
+        if (pos < 0) {
+            return result;
+        }
+        addFrom(entries, pos + (forward ? 1 : -1), forward, max, result);
+        if (directories == null) {
+            directories = index.getDirectoriesByTime();
+        }
+        int dirPos = directories.indexOf(entry.getDirectory());
+        while (dirPos >= 0 && result.size() < max) {
+            dirPos += forward ? 1 : -1;
+            if (dirPos >= directories.size()) {
+                break;
+            }
+            entries = getDirectoryEntries(directories.get(dirPos));
+            addFrom(entries, forward ? 0 : entries.size() - 1, forward, max, result);
+        }
+        return result;
+    }
+
+    private void addFrom(List<LibraryEntry> entries, int start, boolean forward, int max, List<File> result) {
+        for (int i = start; i >= 0 && i < entries.size() && result.size() < max; i += forward ? 1 : -1) {
+            result.add(entries.get(i).getFile());
+        }
+    }
+
+    private List<LibraryEntry> getDirectoryEntries(String directory) {
+        if (!directory.equals(cachedDirectory)) {
+            cachedEntries = index.getDirectory(directory);
+            cachedDirectory = directory;
+        }
+        return cachedEntries;
+    }
+
+}
@@ -0,0 +1,276 @@
+package de.wolfgangkronberg.filescanner;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact list of files, for sequences of millions of entries. Each directory is stored once; the file names are
+ * stored as UTF-8 bytes in a single arena, so an entry costs a few bytes plus its name, instead of a {@link File}
+ * object with the full path. Entries are addressed by their int index, and File objects are only created on
+ * request.
+ * <p>
+ * Files can be added, but not removed. Not thread-safe: a table is expected to be filled by a single thread, and
+ * then published to readers, e.g. by handing it over while holding a lock.
+ */
+public class PathTable {
+
+    private final List<File> dirs = new ArrayList<>();
+    private final Map<File, Integer> dirIds = new HashMap<>();
+
+    private byte[] names = new byte[4096];
+    private int namesLength;
+    private int[] nameStarts = new int[256];  // the end of each name is the start of the next one
+    private int[] dirOf = new int[256];
+    private int size;
+
+    private int[] slots;  // open addressing hash table of index + 1, or 0 if empty; built on the first lookup
+
+    /**
+     * @param dir a directory
+     * @return the ID of the directory, which is assigned when it is added for the first time
+     */
+    public int addDirectory(File dir) {
+        Integer id = dirIds.get(dir);
+        if (id == null) {
+            id = dirs.size();
+            dirs.add(dir);
+            dirIds.put(dir, id);
+        }
+        return id;
+    }
+
+    /**
+     * Adds a file. Adding the same file twice results in two entries.
+     *
+     * @param dirId the ID of the directory of the file, as returned by {@link #addDirectory}
+     * @param name  the name of the file
+     * @return the index of the new entry
+     */
+    public int add(int dirId, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, names, namesLength, bytes.length);
+        return append(dirId, bytes.length);
+    }
+
+    /**
+     * Adds a file.
+     *
+     * @param file the file
+     * @return the index of the new entry
+     */
+    public int add(File file) {
+        File dir = file.getParentFile();
+        return add(addDirectory(dir == null ? new File("") : dir), file.getName());
+    }
+
+    /**
+     * Adds an entry of another table, without decoding its name.
+     *
+     * @param source the table holding the entry
+     * @param idx    the index of the entry in the source table
+     * @return the index of the new entry
+     */
+    public int add(PathTable source, int idx) {
+        int dirId = addDirectory(source.getDirectory(idx));
+        int start = source.nameStarts[idx];
+        int length = source.nameStarts[idx + 1] - start;
+        ensureCapacity(length);
+        System.arraycopy(source.names, start, names, namesLength, length);
+        return append(dirId, length);
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param idx the index of an entry
+     * @return the file of the entry, newly created
+     */
+    public File getFile(int idx) {
+        File dir = getDirectory(idx);
+        // new File(new File(""), name) would resolve the name against the root directory
+        return dir.getPath().isEmpty() ? new File(getName(idx)) : new File(dir, getName(idx));
+    }
+
+    /**
+     * @param idx the index of an entry
+     * @return the directory of the entry
+     */
+    public File getDirectory(int idx) {
+        return dirs.get(dirOf[idx]);
+    }
+
+    /**
+     * @param idx the index of an entry
+     * @return the name of the entry, newly decoded
+     */
+    public String getName(int idx) {
+        int start = nameStarts[idx];
+        return new String(names, start, nameStarts[idx + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param file a file, with the same path as the one it has been added with
+     * @return the index of the first entry of the file, or -1 if it is not contained
+     */
+    public int indexOf(File file) {
+        return find(file, false);
+    }
+
+    /**
+     * @param file a file, with the same path as the one it has been added with
+     * @return the index of the last entry of the file, or -1 if it is not contained
+     */
+    public int lastIndexOf(File file) {
+        return find(file, true);
+    }
+
+    /**
+     * Writes the table in a form which {@link #readFrom} restores.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(dirs.size());
+        for (File dir : dirs) {
+            byte[] path = dir.getPath().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(path.length);
+            out.write(path);
+        }
+        out.writeInt(size);
+        out.writeInt(namesLength);
+        out.write(names, 0, namesLength);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(nameStarts[i]);
+            out.writeInt(dirOf[i]);
+        }
+    }
+
+    /**
+     * @param in the output of {@link #writeTo}
+     * @return the restored table
+     */
+    public static PathTable readFrom(DataInput in) throws IOException {
+        PathTable result = new PathTable();
+        int numDirs = in.readInt();
+        for (int i = 0; i < numDirs; i++) {
+            byte[] path = new byte[in.readInt()];
+            in.readFully(path);
+            result.addDirectory(new File(new String(path, StandardCharsets.UTF_8)));
+        }
+        int size = in.readInt();
+        result.namesLength = in.readInt();
+        result.names = new byte[result.namesLength];
+        in.readFully(result.names);
+        result.nameStarts = new int[size + 1];
+        result.dirOf = new int[size];
+        for (int i = 0; i < size; i++) {
+            result.nameStarts[i] = in.readInt();
+            result.dirOf[i] = in.readInt();
+        }
+        result.nameStarts[size] = result.namesLength;
+        result.size = size;
+        return result;
+    }
+
+    private int find(File file, boolean last) {
+        File dir = file.getParentFile();
+        Integer dirId = dirIds.get(dir == null ? new File("") : dir);
+        if (dirId == null) {
+            return -1;
+        }
+        if (slots == null) {
+            rehash(Math.max(512, Integer.highestOneBit(Math.max(1, size)) * 4));
+        }
+        byte[] name = file.getName().getBytes(StandardCharsets.UTF_8);
+        int mask = slots.length - 1;
+        int result = -1;
+        for (int slot = hash(dirId, name, 0, name.length) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int idx = slots[slot] - 1;
+            int start = nameStarts[idx];
+            if (dirOf[idx] == dirId
+                    && Arrays.equals(names, start, nameStarts[idx + 1], name, 0, name.length)) {
+                if (!last) {
+                    return idx;
+                }
+                result = Math.max(result, idx);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Releases the unused capacity of the internal arrays, once all entries have been added. Entries may still be
+     * added afterwards, at the cost of growing the arrays again.
+     */
+    public void trim() {
+        names = Arrays.copyOf(names, namesLength);
+        nameStarts = Arrays.copyOf(nameStarts, size + 1);
+        dirOf = Arrays.copyOf(dirOf, size);
+    }
+
+    private void ensureCapacity(int nameLength) {
+        if (size + 1 >= nameStarts.length) {
+            int capacity = Math.max(256, nameStarts.length * 2);
+            nameStarts = Arrays.copyOf(nameStarts, capacity);
+            dirOf = Arrays.copyOf(dirOf, capacity);
+        }
+        if (namesLength + nameLength > names.length) {
+            names = Arrays.copyOf(names, Math.max(names.length * 2, namesLength + nameLength));
+        }
+    }
+
+    // registers a name just copied to the end of the arena
+    private int append(int dirId, int nameLength) {
+        int idx = size++;
+        nameStarts[idx] = namesLength;
+        namesLength += nameLength;
+        nameStarts[size] = namesLength;
+        dirOf[idx] = dirId;
+        if (slots != null) {
+            if (size * 2 > slots.length) {
+                rehash(slots.length * 2);
+            } else {
+                insertSlot(idx);
+            }
+        }
+        return idx;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int idx = 0; idx < size; idx++) {
+            insertSlot(idx);
+        }
+    }
+
+    private void insertSlot(int idx) {
+        int start = nameStarts[idx];
+        int mask = slots.length - 1;
+        int slot = hash(dirOf[idx], names, start, nameStarts[idx + 1]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = idx + 1;
+    }
+
+    private static int hash(int dirId, byte[] bytes, int from, int to) {
+        int h = dirId;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + bytes[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+}
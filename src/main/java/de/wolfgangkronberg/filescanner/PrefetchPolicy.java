@@ -0,0 +1,22 @@
+package de.wolfgangkronberg.filescanner;
+
+/**
+ * Decides which neighbours of the current file are prefetched, and in which order
+ */
+public interface PrefetchPolicy {
+
+    /**
+     * Informs the policy that the user has moved the cursor.
+     *
+     * @param offset the number of files moved, positive for forward and negative for backward moves
+     */
+    void recordMove(int offset);
+
+    /**
+     * @param budget the maximum number of neighbours which may be prefetched
+     * @return the positions of the neighbours to prefetch relative to the current file, most urgent first;
+     * never containing 0, and containing at most budget elements
+     */
+    int[] getOffsets(int budget);
+
+}
@@ -0,0 +1,123 @@
+package de.wolfgangkronberg.filescanner;
+
+import de.wolfgangkronberg.library.SearchHits;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Navigates through the results of a search, in the order of their capture time. The results are known completely
+ * from the start, so no method ever touches the file system.
+ */
+public class SearchResultFileScanner implements FileScanner {
+
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private SearchHits hits;
+    private int cursor;
+
+    /**
+     * @param hits the results to navigate through; must not be empty
+     */
+    public SearchResultFileScanner(SearchHits hits) {
+        this(hits, null);
+    }
+
+    /**
+     * @param hits  the results to navigate through; must not be empty
+     * @param start the file to show first, or null to start with the first result
+     */
+    public SearchResultFileScanner(SearchHits hits, File start) {
+        this.hits = hits;
+        cursor = start == null ? 0 : Math.max(0, hits.indexOf(start));
+    }
+
+    @Override
+    public void start(Runnable callback) {
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    @Override
+    public File getCurrent() {
+        synchronized (lock) {
+            return hits.size() == 0 ? null : hits.getFile(cursor);
+        }
+    }
+
+    @Override
+    public boolean moveToNext() {
+        synchronized (lock) {
+            if (cursor < hits.size() - 1) {
+                cursor++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        synchronized (lock) {
+            if (cursor > 0) {
+                cursor--;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Runs the query again, keeping the cursor on the current file if it is still found.
+     */
+    @Override
+    public void reload(Runnable callback) {
+        SearchHits former;
+        synchronized (lock) {
+            former = hits;
+        }
+        Thread thread = new Thread(() -> {
+            SearchHits refreshed = former.refresh();
+            synchronized (lock) {
+                int idx = hits.size() == 0 ? -1 : refreshed.indexOf(hits.getFile(cursor));
+                hits = refreshed;
+                cursor = Math.max(0, Math.min(refreshed.size() - 1, idx >= 0 ? idx : cursor));
+            }
+            if (callback != null) {
+                callback.run();
+            }
+        }, "FileScanner-Search-Reload");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public List<File> getNext(int num) {
+        synchronized (lock) {
+            int to = Math.min(cursor + 1 + num, hits.size());
+            return toFiles(cursor + 1, to);
+        }
+    }
+
+    @Override
+    public List<File> getPrevious(int num) {
+        synchronized (lock) {
+            int from = Math.max(0, cursor - num);
+            return toFiles(from, cursor);
+        }
+    }
+
+    // caller must synchronize on lock
+    private List<File> toFiles(int from, int to) {
+        List<File> result = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            result.add(hits.getFile(i));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+}
@@ -1,22 +1,55 @@
 package de.wolfgangkronberg.filescanner;
 
+import de.wolfgangkronberg.filescanner.FileNameSorter.SortKey;
+
 import java.io.File;
-import java.text.Collator;
-import java.util.Arrays;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
 
+/**
+ * Navigates through the images of a single directory in alphabetical order, as defined by {@link FileNameSorter}.
+ * <p>
+ * The files are kept in a sorted set, and the cursor is the current file itself rather than a position, so it stays
+ * on the same file whenever files are added or removed, and follows it when it is renamed. The directory is watched
+ * from before it is listed, so no file created in the meantime is missed, and changes are applied to the set as they
+ * happen, in O(log n) per file. Changes arriving while the directory is being listed are applied to the listing
+ * once it is complete; those already contained in the listing make no difference then.
+ */
 public class SimpleAlphabeticalFileScanner implements FileScanner {
 
     private final Object lock = new Object();
     private final File startingPoint;
+    private final File dir;
+    private final FileNameSorter sorter;
+    private final ImageFileFilter imageFileFilter = new ImageFileFilter();
 
+    // guarded by lock
     private boolean ready = false;
-    private int cursor;
-    private File[] files;
+    private int pendingMoves = 0;  // moves requested before the initial scan has finished
+    private SortKey current;  // null if the directory is empty
+    private SortKey position;  // the last current file, to continue from once the directory is no longer empty
+    private TreeSet<SortKey> files;
+    private int scansRunning;
+    private final List<DirectoryWatcher.Changes> changesWhileScanning = new ArrayList<>();
+    private DirectoryWatcher watcher;
+    private boolean closed;
+    private Consumer<Set<File>> changeListener;
 
-    public SimpleAlphabeticalFileScanner(File startingPoint) {
+    /**
+     * @param startingPoint the file to start with
+     * @param naturalOrder  true if runs of digits within the file names shall be sorted by their numeric value
+     */
+    public SimpleAlphabeticalFileScanner(File startingPoint, boolean naturalOrder) {
         this.startingPoint = startingPoint;
+        sorter = new FileNameSorter(naturalOrder);
+        dir = startingPoint.getAbsoluteFile().getParentFile();
     }
 
     @Override
@@ -27,34 +60,56 @@ public class SimpleAlphabeticalFileScanner implements FileScanner {
     @Override
     public File getCurrent() {
         synchronized (lock) {
-            return ready ? files[cursor] : startingPoint;
+            if (!ready) {
+                return startingPoint;
+            }
+            return current == null ? null : current.getFile();
         }
     }
 
+    /**
+     * Moves to the next file. Never blocks: while the initial scan is still running, the move is remembered and
+     * applied once the scan has finished.
+     */
     @Override
     public boolean moveToNext() {
         synchronized (lock) {
-            waitForReady();
-            if (cursor < files.length - 1) {
-                cursor++;
+            if (!ready) {
+                pendingMoves++;
+                return true;
+            }
+            SortKey next = current == null ? null : files.higher(current);
+            if (next != null) {
+                current = next;
                 return true;
             }
             return false;
         }
     }
 
+    /**
+     * Moves to the previous file. Never blocks: while the initial scan is still running, the move is remembered and
+     * applied once the scan has finished.
+     */
     @Override
     public boolean moveToPrevious() {
         synchronized (lock) {
-            waitForReady();
-            if (cursor > 0) {
-                cursor--;
+            if (!ready) {
+                pendingMoves--;
+                return true;
+            }
+            SortKey previous = current == null ? null : files.lower(current);
+            if (previous != null) {
+                current = previous;
                 return true;
             }
             return false;
         }
     }
 
+    /**
+     * Lists the directory again. The cursor stays on the current file, or moves to its neighbour if it is gone.
+     */
     @Override
     public void reload(Runnable callback) {
         new Thread(new ScanDirRunnable(callback), "FileScanner-Reload").start();
@@ -63,27 +118,156 @@ public class SimpleAlphabeticalFileScanner implements FileScanner {
     @Override
     public List<File> getNext(int num) {
         synchronized (lock) {
-            int to = Math.min(cursor + num, files.length);
-            return Collections.unmodifiableList(Arrays.asList(files).subList(cursor, to));
+            if (!ready || current == null) {
+                return Collections.emptyList();
+            }
+            List<File> result = new ArrayList<>(num);
+            Iterator<SortKey> it = files.tailSet(current, false).iterator();
+            while (result.size() < num && it.hasNext()) {
+                result.add(it.next().getFile());
+            }
+            return Collections.unmodifiableList(result);
         }
     }
 
     @Override
     public List<File> getPrevious(int num) {
         synchronized (lock) {
-            int from = Math.max(0, cursor - num);
-            return Collections.unmodifiableList(Arrays.asList(files).subList(from, cursor));
+            if (!ready || current == null) {
+                return Collections.emptyList();
+            }
+            List<File> result = new ArrayList<>(num);
+            Iterator<SortKey> it = files.headSet(current, false).descendingIterator();
+            while (result.size() < num && it.hasNext()) {
+                result.add(it.next().getFile());
+            }
+            Collections.reverse(result);  // the nearest file comes last, like in the sequence itself
+            return Collections.unmodifiableList(result);
+        }
+    }
+
+    @Override
+    public void setChangeListener(Consumer<Set<File>> listener) {
+        synchronized (lock) {
+            changeListener = listener;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            if (watcher != null) {
+                watcher.close();
+                watcher = null;
+            }
+        }
+    }
+
+    private void applyChanges(DirectoryWatcher.Changes changes) {
+        if (changes.isOverflow()) {
+            new ScanDirRunnable(null).run();  // events have been lost; we are on the watcher's thread anyway
+            return;
+        }
+        List<File> added = new ArrayList<>();
+        for (File file : changes.getAdded()) {
+            if (imageFileFilter.accept(file) && file.isFile()) {  // outside the lock, as the disk may be slow
+                added.add(file);
+            }
+        }
+        Set<File> changed = new HashSet<>();
+        Consumer<Set<File>> listener;
+        synchronized (lock) {
+            if (scansRunning > 0) {
+                changesWhileScanning.add(changes);  // the listing may or may not contain them
+            }
+            if (!ready) {
+                return;
+            }
+            SortKey renamedCurrent = null;
+            for (File file : changes.getRemoved()) {
+                SortKey key = sorter.keyOf(file);
+                if (key.equals(current)) {
+                    File newName = changes.getRenamed().get(file);
+                    if (newName != null) {
+                        renamedCurrent = sorter.keyOf(newName);
+                    }
+                    SortKey neighbour = files.higher(current);
+                    current = neighbour != null ? neighbour : files.lower(current);
+                }
+                if (files.remove(key)) {
+                    changed.add(file);
+                }
+            }
+            for (File file : added) {
+                files.add(sorter.keyOf(file));
+                changed.add(file);  // possibly replacing a file of the same name
+            }
+            for (File file : changes.getModified()) {
+                if (files.contains(sorter.keyOf(file))) {
+                    changed.add(file);
+                }
+            }
+            if (renamedCurrent != null && files.contains(renamedCurrent)) {
+                current = renamedCurrent;  // follow the file rather than moving on to its neighbour
+            }
+            if (current == null) {
+                current = find(files, position);  // the directory may have become empty, or no longer be
+            }
+            if (current != null) {
+                position = current;
+            }
+            listener = changeListener;
+        }
+        if (listener != null && !changed.isEmpty()) {
+            listener.accept(changed);
+        }
+    }
+
+    /**
+     * Applies changes to a listing of the directory, according to the current state of the files. Files listed
+     * already, or not listed as they are gone already, remain as they are. Reads from disk, so the caller must not
+     * hold the lock.
+     */
+    private void applyChanges(TreeSet<SortKey> listing, DirectoryWatcher.Changes changes) {
+        for (File file : changes.getRemoved()) {
+            if (!file.exists()) {
+                listing.remove(sorter.keyOf(file));
+            }
+        }
+        for (File file : changes.getAdded()) {
+            if (imageFileFilter.accept(file) && file.isFile()) {
+                listing.add(sorter.keyOf(file));
+            }
         }
     }
 
-    // caller must synchronize on lock
-    private void waitForReady() {
-        while (!ready) {
-            try {
-                lock.wait();
-            } catch (InterruptedException ignored) {
+    /**
+     * @return the given file if it is contained in the given set, else its neighbour, or null if the set is empty
+     */
+    private static SortKey find(TreeSet<SortKey> set, SortKey key) {
+        if (key == null || set.contains(key)) {
+            return key == null ? (set.isEmpty() ? null : set.first()) : key;
+        }
+        SortKey result = set.higher(key);
+        return result != null ? result : set.lower(key);
+    }
+
+    private void startWatching() {
+        DirectoryWatcher newWatcher;
+        try {
+            newWatcher = new DirectoryWatcher(dir, this::applyChanges);
+        } catch (IOException e) {
+            System.err.println("Cannot watch " + dir.getAbsolutePath() + " for changes: " + e.toString());
+            return;
+        }
+        synchronized (lock) {
+            if (watcher == null && !closed) {
+                watcher = newWatcher;
+                return;
             }
         }
+        newWatcher.close();
     }
 
     private class ScanDirRunnable implements Runnable {
@@ -97,36 +281,68 @@ public class SimpleAlphabeticalFileScanner implements FileScanner {
         @Override
         public void run() {
 
-            File dir = startingPoint.getParentFile();
-            File[] files_ = dir.listFiles(new ImageFileFilter());
-            int cursor_;
-            if (files_ == null) {
-                files_ = new File[]{startingPoint};
-                cursor_ = 0;
-            } else {
-
-                final Collator coll = Collator.getInstance();
-                Arrays.sort(files_, (f1, f2) -> {
-                    String name1 = f1.getName();
-                    String name2 = f2.getName();
-                    int result = coll.compare(name1, name2);
-                    if (result == 0) {
-                        result = name1.compareTo(name2);
-                    }
-                    return result;
-                });
-                cursor_ = Arrays.binarySearch(files_, startingPoint);
-                assert (cursor_ >= 0);
-
+            synchronized (lock) {
+                scansRunning++;
+            }
+            startWatching();  // before listing, so no file created in the meantime is missed
+            File[] listed = dir.listFiles(imageFileFilter);
+            TreeSet<SortKey> files_ = new TreeSet<>();
+            for (SortKey key : sorter.sort(listed == null ? new File[0] : listed)) {
+                files_.add(key);  // the names have been collated once, so comparing keys is cheap
             }
 
-            synchronized (lock) {
-                ready = true;
-                files = files_;
-                cursor = cursor_;
-                lock.notifyAll();
+            // the changes reported while listing are applied outside the lock, since that checks the files on disk;
+            // the list only grows while this scan is running
+            Set<File> changed;
+            Consumer<Set<File>> listener;
+            int applied = 0;
+            while (true) {
+                List<DirectoryWatcher.Changes> pending;
+                synchronized (lock) {
+                    pending = new ArrayList<>(changesWhileScanning.subList(applied, changesWhileScanning.size()));
+                    if (pending.isEmpty()) {
+                        if (--scansRunning == 0) {
+                            changesWhileScanning.clear();
+                        }
+                        SortKey pinned = ready ? (current != null ? current : position)
+                                : sorter.keyOf(new File(dir, startingPoint.getName()));
+                        SortKey current_ = find(files_, pinned);  // if the file is gone, stay at its position
+                        if (!ready && current_ != null) {
+                            for (; pendingMoves > 0 && files_.higher(current_) != null; pendingMoves--) {
+                                current_ = files_.higher(current_);
+                            }
+                            for (; pendingMoves < 0 && files_.lower(current_) != null; pendingMoves++) {
+                                current_ = files_.lower(current_);
+                            }
+                        }
+                        if (!ready) {
+                            pendingMoves = 0;
+                            changed = Collections.emptySet();
+                        } else {
+                            changed = new HashSet<>();
+                            for (SortKey key : files) {
+                                if (!files_.contains(key)) {
+                                    changed.add(key.getFile());
+                                }
+                            }
+                        }
+                        ready = true;
+                        files = files_;
+                        current = current_;
+                        position = current_ != null ? current_ : pinned;
+                        listener = changeListener;
+                        break;
+                    }
+                }
+                for (DirectoryWatcher.Changes changes : pending) {
+                    applyChanges(files_, changes);
+                }
+                applied += pending.size();
             }
 
+            if (!changed.isEmpty() && listener != null) {
+                listener.accept(changed);
+            }
             if (callback != null) {
                 callback.run();
             }
@@ -0,0 +1,23 @@
+package de.wolfgangkronberg.filescanner;
+
+/**
+ * Prefetches the same number of files before and after the current one, alternating between next and previous
+ */
+public class SymmetricPrefetchPolicy implements PrefetchPolicy {
+
+    @Override
+    public void recordMove(int offset) {
+        // we do not care
+    }
+
+    @Override
+    public int[] getOffsets(int budget) {
+        int[] result = new int[budget - budget % 2];
+        for (int i = 0; i < result.length; i += 2) {
+            result[i] = i / 2 + 1;
+            result[i + 1] = -(i / 2 + 1);
+        }
+        return result;
+    }
+
+}
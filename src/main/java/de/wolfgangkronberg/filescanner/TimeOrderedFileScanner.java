@@ -0,0 +1,368 @@
+package de.wolfgangkronberg.filescanner;
+
+import de.wolfgangkronberg.image.PhotoMetadata;
+import de.wolfgangkronberg.image.PhotoMetadataReader;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sorts the images of a directory, or of a whole directory tree, by the time they were taken.
+ * <p>
+ * The capture time is read from the EXIF header of each file, which means opening every single file. This is done
+ * in parallel on a work-stealing pool, and only the header bytes are read. Files without a capture time are sorted
+ * by their modification time instead. Until their header has been read, all files are sorted by modification time.
+ * <p>
+ * The sequence becomes navigable as soon as the files have been listed. The headers of the files closest to the
+ * starting point are read first, and the order is refined several times a second while the remaining headers
+ * arrive. The cursor stays on the same file whenever the order changes.
+ * <p>
+ * The files are held in a {@link PathTable}, and the order is an array of indices into it, so sorting a tree of
+ * millions of images does not need a File object per image.
+ */
+public class TimeOrderedFileScanner implements FileScanner {
+
+    private static final int PRIORITY_READS = 512;
+    private static final int READ_BATCH = 32;
+    private static final long REFINE_INTERVAL_MILLIS = 250;
+
+    private final Object lock = new Object();
+    private final File startingPoint;
+    private final File root;
+    private final boolean traverseTree;
+    private final FileNameSorter sorter;
+
+    // guarded by lock
+    private boolean ready = false;
+    private int pendingMoves = 0;  // moves requested before the files have been listed
+    private int cursor;
+    private PathTable table;
+    private int[] files;  // indices into table, in sequence order
+    private int generation;  // incremented on reload, so the refinements of a former scan are dropped
+
+    /**
+     * @param startingPoint the file to start with
+     * @param root          the root of the tree to sort, or null for the directory of the starting point; ignored if
+     *                      the tree is not traversed, or if the starting point is not located within it
+     * @param traverseTree  true if all images below the root shall be sorted, false for just the images in the
+     *                      directory of the starting point
+     * @param naturalOrder  true if runs of digits shall be compared by their numeric value when sorting files with
+     *                      the same time by name
+     */
+    public TimeOrderedFileScanner(File startingPoint, File root, boolean traverseTree, boolean naturalOrder) {
+        Path start = startingPoint.toPath().toAbsolutePath().normalize();
+        Path dir = start.getParent();
+        if (traverseTree && root != null) {
+            Path absRoot = root.toPath().toAbsolutePath().normalize();
+            if (start.startsWith(absRoot)) {
+                dir = absRoot;
+            }
+        }
+        this.startingPoint = start.toFile();
+        this.root = dir == null ? this.startingPoint : dir.toFile();
+        this.traverseTree = traverseTree;
+        sorter = new FileNameSorter(naturalOrder);
+    }
+
+    @Override
+    public void start(Runnable callback) {
+        startScan(callback, "FileScanner-TimeSort");
+    }
+
+    @Override
+    public File getCurrent() {
+        synchronized (lock) {
+            return ready ? table.getFile(files[cursor]) : startingPoint;
+        }
+    }
+
+    /**
+     * Moves to the next file. Never blocks: while the files are still being listed, the move is remembered and
+     * applied once the listing has finished.
+     */
+    @Override
+    public boolean moveToNext() {
+        synchronized (lock) {
+            if (!ready) {
+                pendingMoves++;
+                return true;
+            }
+            if (cursor < files.length - 1) {
+                cursor++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Moves to the previous file. Never blocks: while the files are still being listed, the move is remembered and
+     * applied once the listing has finished.
+     */
+    @Override
+    public boolean moveToPrevious() {
+        synchronized (lock) {
+            if (!ready) {
+                pendingMoves--;
+                return true;
+            }
+            if (cursor > 0) {
+                cursor--;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public void reload(Runnable callback) {
+        startScan(callback, "FileScanner-TimeSort-Reload");
+    }
+
+    @Override
+    public List<File> getNext(int num) {
+        synchronized (lock) {
+            if (!ready) {
+                return Collections.emptyList();
+            }
+            int to = Math.min(cursor + 1 + num, files.length);
+            return toFiles(cursor + 1, to);
+        }
+    }
+
+    @Override
+    public List<File> getPrevious(int num) {
+        synchronized (lock) {
+            if (!ready) {
+                return Collections.emptyList();
+            }
+            int from = Math.max(0, cursor - num);
+            return toFiles(from, cursor);
+        }
+    }
+
+    // caller must synchronize on lock
+    private List<File> toFiles(int from, int to) {
+        List<File> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            result.add(table.getFile(files[i]));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private void startScan(Runnable callback, String threadName) {
+        int gen;
+        synchronized (lock) {
+            gen = ++generation;
+        }
+        Thread thread = new Thread(new SortRunnable(gen, callback), threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private class SortRunnable implements Runnable {
+
+        private final int gen;
+        private final Runnable callback;
+
+        private final PathTable all = new PathTable();
+        private long[] modified = new long[256];  // the modification time of each file in all, while listing
+        private AtomicLongArray times;  // the capture time of each file in all, or its modification time
+
+        private SortRunnable(int gen, Runnable callback) {
+            this.gen = gen;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            list(root);
+            all.trim();
+            times = new AtomicLongArray(Arrays.copyOf(modified, all.size()));
+            modified = null;
+            int[] order = sort();
+            if (!publish(order, true)) {
+                return;
+            }
+            if (callback != null) {
+                callback.run();
+            }
+
+            // read the headers of the files around the cursor first, then all others
+            int[] readOrder = byDistanceFromCursor(order);
+            ForkJoinPool pool = new ForkJoinPool(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+            try {
+                int numPriority = Math.min(PRIORITY_READS, readOrder.length);
+                pool.invoke(new ReadTimes(readOrder, 0, numPriority));
+                if (!publish(sort(), false)) {
+                    return;
+                }
+                ForkJoinTask<?> rest = pool.submit(new ReadTimes(readOrder, numPriority, readOrder.length));
+                while (true) {
+                    try {
+                        rest.get(REFINE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        if (!publish(sort(), false)) {
+                            rest.cancel(false);
+                            return;
+                        }
+                    }
+                }
+                publish(sort(), false);
+            } catch (InterruptedException | ExecutionException e) {
+                System.err.println("Could not read capture times: " + e.toString());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        private void list(File dir) {
+            File[] entries = dir.listFiles();
+            if (entries == null) {
+                return;
+            }
+            ImageFileFilter filter = new ImageFileFilter();
+            int dirId = -1;
+            for (File entry : entries) {
+                if (entry.isDirectory()) {
+                    if (traverseTree && !entry.isHidden() && !Files.isSymbolicLink(entry.toPath())) {
+                        list(entry);
+                    }
+                } else if (filter.accept(entry)) {
+                    if (dirId < 0) {
+                        dirId = all.addDirectory(dir);
+                    }
+                    int idx = all.add(dirId, entry.getName());
+                    if (idx == modified.length) {
+                        modified = Arrays.copyOf(modified, 2 * modified.length);
+                    }
+                    modified[idx] = PhotoMetadata.toWallClock(entry.lastModified());
+                }
+            }
+        }
+
+        /**
+         * @return the indices of all files, sorted by their currently known times
+         */
+        private int[] sort() {
+            long[] snapshot = new long[all.size()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = times.get(i);
+            }
+            int[] result = new int[all.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = i;
+            }
+            // files with the same time are rare, so their names are only collated when needed
+            IndexSorter.sort(result, (i1, i2) -> {
+                int c = Long.compare(snapshot[i1], snapshot[i2]);
+                return c != 0 ? c : sorter.keyOf(all.getFile(i1)).compareTo(sorter.keyOf(all.getFile(i2)));
+            });
+            return result;
+        }
+
+        /**
+         * Replaces the sequence, keeping the cursor on the current file.
+         *
+         * @return false if the scan has been superseded by a reload
+         */
+        private boolean publish(int[] order, boolean initial) {
+            synchronized (lock) {
+                if (gen != generation) {
+                    return false;
+                }
+                File current = ready ? table.getFile(files[cursor]) : startingPoint;
+                int currentIdx = all.indexOf(current);
+                int idx = -1;
+                for (int i = 0; i < order.length && currentIdx >= 0; i++) {
+                    if (order[i] == currentIdx) {
+                        idx = i;
+                        break;
+                    }
+                }
+                PathTable published = all;
+                if (order.length == 0) {
+                    published = new PathTable();
+                    order = new int[]{published.add(current)};
+                    idx = 0;
+                } else if (idx < 0) {
+                    idx = 0;  // the current file has vanished
+                }
+                if (initial && !ready) {
+                    idx = Math.max(0, Math.min(order.length - 1, idx + pendingMoves));
+                    pendingMoves = 0;
+                }
+                table = published;
+                files = order;
+                cursor = idx;
+                ready = true;
+                return true;
+            }
+        }
+
+        private int[] byDistanceFromCursor(int[] order) {
+            int center;
+            synchronized (lock) {
+                center = files == order ? cursor : 0;
+            }
+            int[] result = new int[order.length];
+            int n = 0;
+            for (int distance = 0; n < result.length; distance++) {
+                if (center + distance < order.length) {
+                    result[n++] = order[center + distance];
+                }
+                if (distance > 0 && center - distance >= 0) {
+                    result[n++] = order[center - distance];
+                }
+            }
+            return result;
+        }
+
+        private class ReadTimes extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+
+            private final int[] readOrder;
+            private final int from;
+            private final int to;
+
+            ReadTimes(int[] readOrder, int from, int to) {
+                this.readOrder = readOrder;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > READ_BATCH) {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new ReadTimes(readOrder, from, middle), new ReadTimes(readOrder, middle, to));
+                    return;
+                }
+                for (int i = from; i < to; i++) {
+                    int idx = readOrder[i];
+                    PhotoMetadata metadata = PhotoMetadataReader.read(all.getFile(idx));
+                    if (metadata.hasCaptureTime()) {
+                        times.set(idx, metadata.getCaptureTime());
+                    }
+                }
+            }
+
+        }
+
+    }
+
+}
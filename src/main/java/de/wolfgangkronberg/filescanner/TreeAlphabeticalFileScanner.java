@@ -0,0 +1,209 @@
+package de.wolfgangkronberg.filescanner;
+
+import de.wolfgangkronberg.filescanner.FileNameSorter.SortKey;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Traverses a directory tree depth-first: within each directory, its image files come first, then the contents of
+ * its subdirectories, everything sorted alphabetically as defined by {@link FileNameSorter}. Hidden directories and
+ * symbolic links to directories are skipped.
+ * <p>
+ * The window around the cursor is extended by walking from its ends, listing just the directories actually passed;
+ * so opening a file deep within a huge tree lists the starting directory first, and further directories only on
+ * demand. None of the public methods ever touches the file system.
+ */
+public class TreeAlphabeticalFileScanner extends WindowedFileScanner {
+
+    private static final int MAX_CACHED_LISTINGS = 256;
+
+    private final File root;
+    private final FileNameSorter sorter;
+    private final ImageFileFilter imageFileFilter = new ImageFileFilter();
+
+    // only accessed by the background thread
+    private final Map<File, Listing> listings = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, Listing> eldest) {
+            return size() > MAX_CACHED_LISTINGS;
+        }
+    };
+
+    /**
+     * @param startingPoint    the file to start with
+     * @param root             the root of the tree to traverse; if null, or if the starting point is not located
+     *                         within it, the user's home directory if the starting point is located within that,
+     *                         else the directory of the starting point
+     * @param numTraverseFiles the number of files to know on either side of the cursor
+     * @param naturalOrder     true if runs of digits within the names shall be sorted by their numeric value
+     */
+    public TreeAlphabeticalFileScanner(File startingPoint, File root, int numTraverseFiles, boolean naturalOrder) {
+        super(startingPoint.toPath().toAbsolutePath().normalize().toFile(), numTraverseFiles, "FileScanner-Traverse");
+        Path start = startingPoint.toPath().toAbsolutePath().normalize();
+        Path absRoot = root == null ? null : root.toPath().toAbsolutePath().normalize();
+        if (absRoot == null || !start.startsWith(absRoot)) {
+            // not the root of the file system, which would wander through system directories and other drives
+            Path home = Paths.get(System.getProperty("user.home")).toAbsolutePath().normalize();
+            absRoot = start.startsWith(home) && !start.equals(home) ? home
+                    : start.getParent() != null ? start.getParent() : start;
+        }
+        this.root = absRoot.toFile();
+        sorter = new FileNameSorter(naturalOrder);
+    }
+
+    @Override
+    protected List<File> fetch(File anchor, boolean forward, int max) {
+        List<File> result = new ArrayList<>(max);
+        File f = anchor;
+        while (result.size() < max && (f = forward ? next(f) : previous(f)) != null) {
+            result.add(f);
+        }
+        return result;
+    }
+
+    @Override
+    protected void onReload() {
+        listings.clear();
+    }
+
+    /**
+     * @return the file following the given one in traversal order, or null if it is the last one in the tree
+     */
+    private File next(File file) {
+        File dir = file.getParentFile();
+        if (dir == null) {
+            return null;
+        }
+        SortKey[] files = getListing(dir).files;
+        int idx = sorter.indexOf(files, file);
+        idx = idx >= 0 ? idx + 1 : -idx - 1;
+        if (idx < files.length) {
+            return files[idx].getFile();
+        }
+        int dirIdx = 0;  // after the files of a directory come its subdirectories
+        while (true) {
+            SortKey[] dirs = getListing(dir).dirs;
+            for (int i = dirIdx; i < dirs.length; i++) {
+                File result = first(dirs[i].getFile());
+                if (result != null) {
+                    return result;
+                }
+            }
+            File parent = dir.getParentFile();
+            if (dir.equals(root) || parent == null) {
+                return null;
+            }
+            int idxInParent = sorter.indexOf(getListing(parent).dirs, dir);
+            dirIdx = idxInParent >= 0 ? idxInParent + 1 : -idxInParent - 1;
+            dir = parent;
+        }
+    }
+
+    /**
+     * @return the file preceding the given one in traversal order, or null if it is the first one in the tree
+     */
+    private File previous(File file) {
+        File dir = file.getParentFile();
+        if (dir == null) {
+            return null;
+        }
+        SortKey[] files = getListing(dir).files;
+        int idx = sorter.indexOf(files, file);
+        idx = idx >= 0 ? idx - 1 : -idx - 2;
+        if (idx >= 0) {
+            return files[idx].getFile();
+        }
+        while (!dir.equals(root)) {
+            File parent = dir.getParentFile();
+            if (parent == null) {
+                return null;
+            }
+            Listing listing = getListing(parent);
+            int idxInParent = sorter.indexOf(listing.dirs, dir);
+            idxInParent = idxInParent >= 0 ? idxInParent - 1 : -idxInParent - 2;
+            for (int i = idxInParent; i >= 0; i--) {
+                File result = last(listing.dirs[i].getFile());
+                if (result != null) {
+                    return result;
+                }
+            }
+            if (listing.files.length > 0) {
+                // the files of a directory precede its subdirectories
+                return listing.files[listing.files.length - 1].getFile();
+            }
+            dir = parent;
+        }
+        return null;
+    }
+
+    // the first file within the tree below dir, or null if there is none
+    private File first(File dir) {
+        Listing listing = getListing(dir);
+        if (listing.files.length > 0) {
+            return listing.files[0].getFile();
+        }
+        for (SortKey subDir : listing.dirs) {
+            File result = first(subDir.getFile());
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    // the last file within the tree below dir, or null if there is none
+    private File last(File dir) {
+        Listing listing = getListing(dir);
+        for (int i = listing.dirs.length - 1; i >= 0; i--) {
+            File result = last(listing.dirs[i].getFile());
+            if (result != null) {
+                return result;
+            }
+        }
+        return listing.files.length > 0 ? listing.files[listing.files.length - 1].getFile() : null;
+    }
+
+    private Listing getListing(File dir) {
+        Listing result = listings.get(dir);
+        if (result == null) {
+            result = new Listing(dir);
+            listings.put(dir, result);
+        }
+        return result;
+    }
+
+    private class Listing {
+
+        private final SortKey[] files;
+        private final SortKey[] dirs;
+
+        Listing(File dir) {
+            File[] entries = dir.listFiles();
+            if (entries == null) {
+                entries = new File[0];  // not a directory, or not readable
+            }
+            List<File> fileList = new ArrayList<>();
+            List<File> dirList = new ArrayList<>();
+            for (File entry : entries) {
+                if (entry.isDirectory()) {
+                    if (!entry.isHidden() && !Files.isSymbolicLink(entry.toPath())) {
+                        dirList.add(entry);
+                    }
+                } else if (imageFileFilter.accept(entry)) {
+                    fileList.add(entry);
+                }
+            }
+            files = sorter.sort(fileList.toArray(new File[0]));
+            dirs = sorter.sort(dirList.toArray(new File[0]));
+        }
+
+    }
+
+}
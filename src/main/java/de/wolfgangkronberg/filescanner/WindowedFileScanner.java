@@ -0,0 +1,276 @@
+package de.wolfgangkronberg.filescanner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Base class of scanners for sequences too large to be held in memory as a whole. Only a window of files around
+ * the cursor is known at any time. A background thread extends the window from its ends whenever the cursor comes
+ * close to one of them, and trims it whenever the cursor has moved away.
+ * <p>
+ * None of the public methods ever waits for the background thread: they return what the window currently holds,
+ * and moves beyond the end of the window are remembered and applied once the window has grown.
+ */
+public abstract class WindowedFileScanner implements FileScanner {
+
+    private static final int CHUNK = 64;
+
+    private final Object lock = new Object();
+    private final String threadName;
+    private final int numWindowFiles;
+
+    // guarded by lock
+    private final List<File> window = new ArrayList<>();
+    private int cursor;
+    private int pendingMoves;  // moves beyond the end of the window, applied once the window has grown
+    private boolean startReached;
+    private boolean endReached;
+    private int generation;  // incremented on reload, so results computed for the former window are dropped
+    private Runnable callback;
+    private boolean callbackDue;
+
+    private int fetchedGeneration;  // only accessed by the background thread
+
+    /**
+     * @param startingPoint  the file to start with, or null if it shall be determined by {@link #findStart()}
+     * @param numWindowFiles the number of files to know on either side of the cursor
+     * @param threadName     the name of the background thread
+     */
+    protected WindowedFileScanner(File startingPoint, int numWindowFiles, String threadName) {
+        this.numWindowFiles = Math.max(1, numWindowFiles);
+        this.threadName = threadName;
+        if (startingPoint != null) {
+            window.add(startingPoint);
+        }
+    }
+
+    /**
+     * Finds the files next to the given one. Called on the background thread only.
+     *
+     * @param anchor  a file of the sequence
+     * @param forward true for the files following the anchor, false for the files preceding it
+     * @param max     the maximum number of files to return
+     * @return the files next to the anchor, nearest first; fewer than max only if the end of the sequence has been
+     * reached
+     */
+    protected abstract List<File> fetch(File anchor, boolean forward, int max);
+
+    /**
+     * Determines the file to start with if none has been given. Called on the background thread only.
+     *
+     * @return the file to start with, or null if the sequence is empty
+     */
+    protected File findStart() {
+        return null;
+    }
+
+    /**
+     * Called on the background thread before the first fetch after a reload, e.g. to drop cached listings.
+     */
+    protected void onReload() {
+        // nothing to do by default
+    }
+
+    @Override
+    public void start(Runnable callback) {
+        synchronized (lock) {
+            this.callback = callback;
+            callbackDue = true;
+        }
+        Thread thread = new Thread(this::extend, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the current file, or null if there is none yet
+     */
+    @Override
+    public File getCurrent() {
+        synchronized (lock) {
+            return window.isEmpty() ? null : window.get(cursor);
+        }
+    }
+
+    @Override
+    public boolean moveToNext() {
+        synchronized (lock) {
+            if (pendingMoves == 0 && cursor < window.size() - 1) {
+                cursor++;
+            } else if (!endReached || pendingMoves < 0) {
+                pendingMoves++;
+            } else {
+                return false;
+            }
+            lock.notifyAll();
+            return true;
+        }
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        synchronized (lock) {
+            if (pendingMoves == 0 && cursor > 0) {
+                cursor--;
+            } else if (!startReached || pendingMoves > 0) {
+                pendingMoves--;
+            } else {
+                return false;
+            }
+            lock.notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * Forgets the window, and rebuilds it around the current file.
+     */
+    @Override
+    public void reload(Runnable callback) {
+        synchronized (lock) {
+            File current = window.isEmpty() ? null : window.get(cursor);
+            window.clear();
+            if (current != null) {
+                window.add(current);
+            }
+            cursor = 0;
+            pendingMoves = 0;
+            startReached = false;
+            endReached = false;
+            generation++;
+            this.callback = callback;
+            callbackDue = true;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public List<File> getNext(int num) {
+        synchronized (lock) {
+            int to = Math.min(cursor + 1 + num, window.size());
+            return window.isEmpty() ? Collections.emptyList()
+                    : Collections.unmodifiableList(new ArrayList<>(window.subList(cursor + 1, to)));
+        }
+    }
+
+    @Override
+    public List<File> getPrevious(int num) {
+        synchronized (lock) {
+            int from = Math.max(0, cursor - num);
+            return Collections.unmodifiableList(new ArrayList<>(window.subList(from, cursor)));
+        }
+    }
+
+    private void extend() {
+        while (true) {
+            boolean forward;
+            File anchor;
+            int gen;
+            synchronized (lock) {
+                while (!needsWork()) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                trim();
+                // extend the side with fewer files ahead of the cursor first
+                int ahead = endReached ? Integer.MAX_VALUE : window.size() - 1 - cursor - Math.max(0, pendingMoves);
+                int behind = startReached ? Integer.MAX_VALUE : cursor + Math.min(0, pendingMoves);
+                forward = ahead <= behind;
+                if (!window.isEmpty() && (forward ? ahead : behind) >= numWindowFiles) {
+                    continue;  // only trimming was necessary
+                }
+                anchor = window.isEmpty() ? null : forward ? window.get(window.size() - 1) : window.get(0);
+                gen = generation;
+            }
+            if (gen != fetchedGeneration) {
+                fetchedGeneration = gen;
+                onReload();
+            }
+            List<File> found;
+            if (anchor == null) {
+                File start = findStart();
+                found = start == null ? Collections.emptyList() : Collections.singletonList(start);
+            } else {
+                found = new ArrayList<>(fetch(anchor, forward, CHUNK));
+            }
+            Runnable toCall = null;
+            synchronized (lock) {
+                if (gen != generation) {
+                    continue;  // reloaded in the meantime
+                }
+                if (anchor == null) {
+                    window.addAll(found);
+                    startReached = endReached = found.isEmpty();
+                    toCall = found.isEmpty() ? takeCallback() : null;  // nothing to wait for
+                } else if (forward) {
+                    window.addAll(found);
+                    endReached = found.size() < CHUNK;
+                } else {
+                    Collections.reverse(found);
+                    window.addAll(0, found);
+                    cursor += found.size();
+                    startReached = found.size() < CHUNK;
+                }
+                if (pendingMoves != 0 && !window.isEmpty()) {
+                    applyPendingMoves();
+                }
+                if (callbackDue && !window.isEmpty()
+                        && (startReached || cursor > 0) && (endReached || cursor < window.size() - 1)) {
+                    toCall = takeCallback();
+                }
+            }
+            if (toCall != null) {
+                toCall.run();
+            }
+        }
+    }
+
+    // caller must synchronize on lock
+    private Runnable takeCallback() {
+        callbackDue = false;
+        return callback;
+    }
+
+    // caller must synchronize on lock
+    private boolean needsWork() {
+        if (window.isEmpty()) {
+            return !startReached;
+        }
+        int ahead = window.size() - 1 - cursor - Math.max(0, pendingMoves);
+        int behind = cursor + Math.min(0, pendingMoves);
+        return (!endReached && ahead < numWindowFiles) || (!startReached && behind < numWindowFiles)
+                || ahead > numWindowFiles + CHUNK || behind > numWindowFiles + CHUNK;
+    }
+
+    // caller must synchronize on lock
+    private void trim() {
+        int surplusBehind = cursor - numWindowFiles;
+        if (surplusBehind > CHUNK) {
+            window.subList(0, surplusBehind).clear();
+            cursor -= surplusBehind;
+            startReached = false;
+        }
+        int surplusAhead = window.size() - 1 - cursor - numWindowFiles;
+        if (surplusAhead > CHUNK) {
+            window.subList(window.size() - surplusAhead, window.size()).clear();
+            endReached = false;
+        }
+    }
+
+    // caller must synchronize on lock
+    private void applyPendingMoves() {
+        int target = cursor + pendingMoves;
+        int clamped = Math.max(0, Math.min(window.size() - 1, target));
+        pendingMoves = (target < 0 && !startReached) || (target >= window.size() && !endReached) ? target - clamped : 0;
+        if (clamped != cursor) {
+            cursor = clamped;
+            callbackDue = true;  // the current file has changed behind the caller's back
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package de.wolfgangkronberg.image;
+
+import de.wolfgangkronberg.GroupedCacheLoader;
+import de.wolfgangkronberg.Metrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * The CPU stage of loading images: decodes bytes which have already been read into memory, on a fixed number of
+ * threads, usually one per core. The threads which read the files, and which may be many more, hand their bytes
+ * over through a short queue and wait for the result. While the queue is full, the readers wait before handing
+ * over, so the bytes read ahead of the decoders are bounded, and an urgent image waits for at most one round of
+ * decodes already queued. A reader whose load is cancelled meanwhile, see
+ * {@link GroupedCacheLoader#isLoadCancelled()}, stops waiting, and its decode is skipped if it has not yet started.
+ */
+public class DecodeStage {
+
+    private static final long CANCEL_CHECK_MILLIS = 20;
+
+    private final BlockingQueue<FutureTask<?>> queue;
+    private final Thread[] workers;
+    private volatile boolean closed;
+
+    /**
+     * @param numThreads the number of decoding threads, or 0 for one per processor
+     */
+    public DecodeStage(int numThreads) {
+        if (numThreads <= 0) {
+            numThreads = Runtime.getRuntime().availableProcessors();
+        }
+        queue = new ArrayBlockingQueue<>(numThreads);
+        workers = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            workers[i] = new Thread(this::runWorker, "Decoder-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Runs the given decode on one of the decoding threads, and waits for it.
+     *
+     * @return the result of the decode
+     * @throws CancellationException if the load of the calling thread is cancelled, or the calling thread is
+     *                               interrupted, while waiting; the decode is cancelled as well
+     */
+    public <T> T decode(Supplier<T> work) {
+        FutureTask<T> task = new FutureTask<>(work::get);
+        long start = Metrics.start();
+        try {
+            while (!queue.offer(task, CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkCancelled(task);
+            }
+            while (true) {
+                try {
+                    return task.get(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    checkCancelled(task);
+                }
+            }
+        } catch (InterruptedException e) {
+            // a decode already running is left to finish: interrupting it would interrupt a shared decoding thread
+            task.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for the decoder");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw (Error)cause;  // a Supplier throws nothing else
+        } finally {
+            Metrics.record(Metrics.DECODE_STAGE, start);
+        }
+    }
+
+    /**
+     * @return the number of decodes waiting for a decoding thread
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    private static void checkCancelled(FutureTask<?> task) {
+        if (GroupedCacheLoader.isLoadCancelled()) {
+            task.cancel(false);  // a decode already running is left to finish, see above
+            throw new CancellationException("Load cancelled while waiting for the decoder");
+        }
+    }
+
+    /**
+     * Stops the decoding threads. Decodes handed over afterwards wait forever, so this is for shutting down only.
+     */
+    public void close() {
+        closed = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    private void runWorker() {
+        while (!closed) {
+            try {
+                queue.take().run();  // a cancelled task does not run at all
+            } catch (InterruptedException e) {
+                // only close() interrupts a waiting worker on purpose; the loop checks for that
+            }
+            Thread.interrupted();  // a decode must not leave an interrupt behind for the next one
+        }
+    }
+
+}
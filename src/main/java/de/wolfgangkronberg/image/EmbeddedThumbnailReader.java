@@ -0,0 +1,156 @@
+package de.wolfgangkronberg.image;
+
+import javafx.scene.image.Image;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Extracts the preview image which cameras embed into the EXIF header of JPEG files, typically 160x120 pixels.
+ * Only the JPEG segments in front of the EXIF segment are touched, so this reads a few KB of the file at most,
+ * and finishes long before the real image, even if both are started on separate threads at the same time.
+ * <p>
+ * Previews in MakerNotes or in APP2 multi-picture segments are not supported, since their data is usually stored
+ * behind the main image, i.e. we would have to read the whole file to get them.
+ * Files which are not JPEGs, or do not contain an EXIF thumbnail, simply yield no preview.
+ */
+public class EmbeddedThumbnailReader {
+
+    private static final int MAX_SCAN_BYTES = 256 * 1024;
+    private static final byte[] EXIF_PREAMBLE = "Exif\0\0".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    /**
+     * @param file the image file
+     * @return the embedded preview, rotated according to the EXIF orientation of the main image, or null if there
+     * is none
+     */
+    public static LoadedImage read(File file) {
+        ByteBuffer exif = readExifSegment(file);
+        if (exif == null) {
+            return null;
+        }
+        try {
+            return parse(file, exif);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            return null;  // corrupt EXIF data
+        }
+    }
+
+    private static ByteBuffer readExifSegment(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer marker = ByteBuffer.allocate(4);
+            if (!readFully(channel, marker, 2) || marker.getShort(0) != (short)0xffd8) {
+                return null;  // not a JPEG
+            }
+            while (channel.position() < MAX_SCAN_BYTES) {
+                if (!readFully(channel, marker, 4) || marker.get(0) != (byte)0xff) {
+                    return null;
+                }
+                int type = marker.get(1) & 0xff;
+                int length = (marker.getShort(2) & 0xffff) - 2;
+                if (type == 0xda || type == 0xd9 || length < 0) {
+                    return null;  // start of scan or end of image: no EXIF in the header
+                }
+                if (type == 0xe1 && length > EXIF_PREAMBLE.length) {
+                    ByteBuffer segment = ByteBuffer.allocate(length);
+                    if (!readFully(channel, segment, length)) {
+                        return null;
+                    }
+                    if (startsWithExifPreamble(segment)) {
+                        segment.position(EXIF_PREAMBLE.length);
+                        return segment.slice();
+                    }
+                } else {
+                    channel.position(channel.position() + length);
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return null;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private static boolean startsWithExifPreamble(ByteBuffer segment) {
+        for (int i = 0; i < EXIF_PREAMBLE.length; i++) {
+            if (segment.get(i) != EXIF_PREAMBLE[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // tiff contains the TIFF structure which follows the EXIF preamble
+    private static LoadedImage parse(File file, ByteBuffer tiff) {
+        short byteOrder = tiff.getShort(0);
+        if (byteOrder == 0x4949) {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (byteOrder != 0x4d4d) {
+            return null;
+        }
+        int ifd0 = tiff.getInt(4);
+        int orientation = 1;
+        int ifd0Entries = tiff.getShort(ifd0) & 0xffff;
+        for (int i = 0; i < ifd0Entries; i++) {
+            int entry = ifd0 + 2 + i * 12;
+            if ((tiff.getShort(entry) & 0xffff) == TAG_ORIENTATION) {
+                orientation = tiff.getShort(entry + 8) & 0xffff;
+            }
+        }
+        int ifd1 = tiff.getInt(ifd0 + 2 + ifd0Entries * 12);
+        if (ifd1 <= 0) {
+            return null;
+        }
+        int offset = -1;
+        int length = -1;
+        int ifd1Entries = tiff.getShort(ifd1) & 0xffff;
+        for (int i = 0; i < ifd1Entries; i++) {
+            int entry = ifd1 + 2 + i * 12;
+            int tag = tiff.getShort(entry) & 0xffff;
+            if (tag == TAG_THUMBNAIL_OFFSET) {
+                offset = getIntValue(tiff, entry);
+            } else if (tag == TAG_THUMBNAIL_LENGTH) {
+                length = getIntValue(tiff, entry);
+            }
+        }
+        if (offset <= 0 || length <= 0 || length > tiff.limit() - offset) {
+            return null;
+        }
+        Image image = new Image(new ByteArrayInputStream(tiff.array(), tiff.arrayOffset() + offset, length));
+        if (image.isError() || image.getWidth() == 0) {
+            return null;
+        }
+        int width = (int)image.getWidth();
+        int height = (int)image.getHeight();
+        return new LoadedImage(new ImageKey(file, width, height), image, new PhotoMetadata(orientation, width, height,
+                PhotoMetadata.UNKNOWN_TIME, Double.NaN, Double.NaN, null, null, null));
+    }
+
+    // the value of an IFD entry of type SHORT or LONG
+    private static int getIntValue(ByteBuffer tiff, int entry) {
+        int type = tiff.getShort(entry + 2) & 0xffff;
+        return type == 3 ? tiff.getShort(entry + 8) & 0xffff : tiff.getInt(entry + 8);
+    }
+
+}
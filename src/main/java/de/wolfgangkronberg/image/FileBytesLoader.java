@@ -0,0 +1,59 @@
+package de.wolfgangkronberg.image;
+
+import de.wolfgangkronberg.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Function;
+
+/**
+ * Reads the compressed bytes of image files into direct buffers, for prefetching far ahead of the current image:
+ * compressed bytes take a fraction of the memory of decoded pixels, and they are kept outside of the heap. The
+ * {@link ImageLoader} decodes straight from these buffers, without copying them onto the heap first.
+ * <p>
+ * Files larger than {@link #MAX_FILE_SIZE} are not read ahead; they result in an empty buffer, so the loader reads
+ * them when they are actually decoded.
+ */
+public class FileBytesLoader implements Function<File, ByteBuffer> {
+
+    /**
+     * The size of the largest file read ahead, in bytes
+     */
+    public static final long MAX_FILE_SIZE = 64L * 1024 * 1024;
+
+    private static final ByteBuffer NOT_READ = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    @Override
+    public ByteBuffer apply(File file) {
+        long start = Metrics.start();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAX_FILE_SIZE) {
+                return NOT_READ;
+            }
+            ByteBuffer result = ByteBuffer.allocateDirect((int)size);
+            while (result.hasRemaining()) {
+                if (channel.read(result) < 0) {
+                    break;  // truncated while being read; the decoder will report it
+                }
+            }
+            result.flip();
+            Metrics.record(Metrics.FILE_READ, start);
+            return result.asReadOnlyBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the number of bytes occupied by the given buffer
+     */
+    public static long getBytes(ByteBuffer buffer) {
+        return buffer.capacity();
+    }
+
+}
@@ -0,0 +1,54 @@
+package de.wolfgangkronberg.image;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Hands an image which is being decoded ahead of the cache, e.g. during startup, over to the first screen-sized
+ * request for its file, even if the requested box differs slightly. All other requests, and the first one too if
+ * the early decode failed, are passed on to the actual loader.
+ */
+public class HandoverImageLoader implements Function<ImageKey, LoadedImage> {
+
+    private final Function<ImageKey, LoadedImage> loader;
+    private final Path file;
+    private final AtomicReference<CompletableFuture<LoadedImage>> early;
+
+    /**
+     * @param loader the loader for all other requests
+     * @param file   the file being decoded early
+     * @param early  the result of the early decode
+     */
+    public HandoverImageLoader(Function<ImageKey, LoadedImage> loader, File file,
+                               CompletableFuture<LoadedImage> early) {
+        this.loader = loader;
+        this.file = normalize(file);
+        this.early = new AtomicReference<>(early);
+    }
+
+    @Override
+    public LoadedImage apply(ImageKey key) {
+        if (early.get() != null && !key.isFullResolution() && !key.equals(ImageKey.thumbnail(key.getFile()))
+                && normalize(key.getFile()).equals(file)) {
+            CompletableFuture<LoadedImage> result = early.getAndSet(null);
+            if (result != null) {
+                try {
+                    return result.join();
+                } catch (CompletionException | CancellationException e) {
+                    // decode it once more, so the error is reported as usual
+                }
+            }
+        }
+        return loader.apply(key);
+    }
+
+    private static Path normalize(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+}
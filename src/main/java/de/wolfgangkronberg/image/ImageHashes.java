@@ -0,0 +1,170 @@
+package de.wolfgangkronberg.image;
+
+import lombok.Value;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * The hashes which identify duplicates of an image: the SHA-256 of the file content finds byte-identical copies,
+ * while two perceptual hashes, which change little when an image is rescaled, recompressed, or slightly altered,
+ * find near-duplicates such as burst shots. Perceptual hashes are compared by their Hamming distance.
+ * <ul>
+ * <li>dHash: whether each pixel of a 9x8 grayscale version is brighter than its right neighbour</li>
+ * <li>pHash: whether each of the 8x8 lowest frequencies of the discrete cosine transform of a 32x32 grayscale
+ * version is above their median</li>
+ * </ul>
+ * The image is decoded with subsampling, just large enough for the 32x32 version, which is several times faster
+ * than a full decode.
+ */
+@Value
+public class ImageHashes {
+
+    private static final int DCT_SIZE = 32;
+    private static final int LOW_FREQUENCIES = 8;
+    private static final int MIN_DECODED_SIZE = 2 * DCT_SIZE;
+    private static final double[][] DCT = new double[LOW_FREQUENCIES][DCT_SIZE];
+
+    static {
+        for (int u = 0; u < LOW_FREQUENCIES; u++) {
+            for (int x = 0; x < DCT_SIZE; x++) {
+                DCT[u][x] = Math.cos((2 * x + 1) * u * Math.PI / (2 * DCT_SIZE));
+            }
+        }
+    }
+
+    /**
+     * The SHA-256 of the file content, 32 bytes
+     */
+    private final byte[] sha256;
+
+    /**
+     * Whether the image could be decoded; if not, only the SHA-256 is known
+     */
+    private final boolean decoded;
+
+    private final long dHash;
+    private final long pHash;
+
+    /**
+     * Reads and hashes an image file.
+     *
+     * @throws IOException if the file cannot be read
+     */
+    public static ImageHashes compute(File file) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        byte[] sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);  // every Java platform supports SHA-256
+        }
+        BufferedImage image = decodeSubsampled(data);
+        if (image == null) {
+            return new ImageHashes(sha256, false, 0, 0);
+        }
+        return new ImageHashes(sha256, true, dHash(scaleToGray(image, 9, 8)),
+                pHash(scaleToGray(image, DCT_SIZE, DCT_SIZE)));
+    }
+
+    /**
+     * @return the number of bits in which two hashes differ
+     */
+    public static int distance(long hash1, long hash2) {
+        return Long.bitCount(hash1 ^ hash2);
+    }
+
+    private static BufferedImage decodeSubsampled(byte[] data) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int size = Math.min(reader.getWidth(0), reader.getHeight(0));
+                int step = Math.max(1, size / MIN_DECODED_SIZE);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } catch (IOException | RuntimeException e) {
+                return null;  // corrupt or unsupported image
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static double[][] scaleToGray(BufferedImage image, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        double[][] result = new double[height][width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = scaled.getRGB(x, y);
+                result[y][x] = 0.299 * ((rgb >> 16) & 0xff) + 0.587 * ((rgb >> 8) & 0xff) + 0.114 * (rgb & 0xff);
+            }
+        }
+        return result;
+    }
+
+    private static long dHash(double[][] gray) {
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                hash = hash << 1 | (gray[y][x] > gray[y][x + 1] ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    private static long pHash(double[][] gray) {
+        // separable DCT, computing only the lowest frequencies
+        double[][] rows = new double[LOW_FREQUENCIES][DCT_SIZE];
+        for (int v = 0; v < LOW_FREQUENCIES; v++) {
+            for (int x = 0; x < DCT_SIZE; x++) {
+                double sum = 0;
+                for (int y = 0; y < DCT_SIZE; y++) {
+                    sum += DCT[v][y] * gray[y][x];
+                }
+                rows[v][x] = sum;
+            }
+        }
+        double[] coefficients = new double[LOW_FREQUENCIES * LOW_FREQUENCIES];
+        for (int v = 0; v < LOW_FREQUENCIES; v++) {
+            for (int u = 0; u < LOW_FREQUENCIES; u++) {
+                double sum = 0;
+                for (int x = 0; x < DCT_SIZE; x++) {
+                    sum += DCT[u][x] * rows[v][x];
+                }
+                coefficients[v * LOW_FREQUENCIES + u] = sum;
+            }
+        }
+        // the DC coefficient is the mean brightness, which is left out of the median
+        double[] sorted = Arrays.copyOfRange(coefficients, 1, coefficients.length);
+        Arrays.sort(sorted);
+        double median = sorted[sorted.length / 2];
+        long hash = 0;
+        for (double c : coefficients) {
+            hash = hash << 1 | (c > median ? 1 : 0);
+        }
+        return hash;
+    }
+
+}
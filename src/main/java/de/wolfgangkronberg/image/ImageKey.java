@@ -0,0 +1,56 @@
+package de.wolfgangkronberg.image;
+
+import lombok.Value;
+
+import java.io.File;
+
+/**
+ * Identifies an image in the cache: a file, decoded to fit a certain bounding box. A box of 0 x 0 stands for the
+ * full resolution of the image.
+ */
+@Value
+public class ImageKey {
+
+    /**
+     * The edge length of the bounding box for thumbnails, in pixels
+     */
+    public static final int THUMBNAIL_SIZE = 256;
+
+    private final File file;
+    private final int width;
+    private final int height;
+
+    /**
+     * @param file   the image file
+     * @param width  the width of the area the image is displayed in, in pixels
+     * @param height the height of the area the image is displayed in, in pixels
+     * @return the key of the image decoded to fit the given area, or in full resolution if the area is empty
+     */
+    public static ImageKey screen(File file, double width, double height) {
+        if (width < 1 || height < 1) {
+            return full(file);
+        }
+        return new ImageKey(file, (int)Math.ceil(width), (int)Math.ceil(height));
+    }
+
+    /**
+     * @param file the image file
+     * @return the key of the image decoded in full resolution
+     */
+    public static ImageKey full(File file) {
+        return new ImageKey(file, 0, 0);
+    }
+
+    /**
+     * @param file the image file
+     * @return the key of the image decoded to thumbnail size
+     */
+    public static ImageKey thumbnail(File file) {
+        return new ImageKey(file, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+    }
+
+    public boolean isFullResolution() {
+        return width == 0;
+    }
+
+}
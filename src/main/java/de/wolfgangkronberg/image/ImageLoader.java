@@ -0,0 +1,254 @@
+package de.wolfgangkronberg.image;
+
+import de.wolfgangkronberg.Metrics;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritablePixelFormat;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Decodes images for the cache. Unless the full resolution is requested, images are decoded just large enough to
+ * fit the requested bounding box after EXIF rotation has been applied, so we never hold more pixels than we show.
+ * The file is read into memory once; its {@link PhotoMetadata} and its pixels are both extracted from these bytes.
+ * If the bytes have been read ahead already, e.g. by a {@link FileBytesLoader}, they are decoded right from there.
+ * <p>
+ * If a {@link PreviewStore} is given, downscaled images are looked up there before the original is decoded, and
+ * each downscaled decode of an original is written back to the store as a JPEG, together with a thumbnail.
+ * Writing happens on a separate low-priority thread, so it never delays the image being loaded.
+ * <p>
+ * If a {@link DecodeStage} is given, only reading happens on the calling thread; the bytes are decoded on the
+ * stage's threads. Many files may then be read at once, e.g. from a network drive, without more decodes competing
+ * for the cores than there are cores.
+ */
+public class ImageLoader implements Function<ImageKey, LoadedImage> {
+
+    private static final int PREVIEW_VERSION = 2;
+    private static final int PREVIEW_HEADER_SIZE = 4 + PhotoMetadata.SERIALIZED_SIZE;
+    private static final float PREVIEW_QUALITY = 0.85f;
+
+    private final PreviewStore previewStore;
+    private final DecodeStage decoder;
+    private final Function<File, ByteBuffer> readAhead;
+    private final ThreadPoolExecutor previewWriter;
+
+    public ImageLoader() {
+        this(null, null, null);
+    }
+
+    /**
+     * @param previewStore the persistent store of previews, or null if previews shall not be persisted
+     * @param decoder      the threads to decode on, or null to decode on the thread which reads the file
+     * @param readAhead    returns the bytes of a file if they have already been read, or null; may be null itself
+     */
+    public ImageLoader(PreviewStore previewStore, DecodeStage decoder, Function<File, ByteBuffer> readAhead) {
+        this.previewStore = previewStore;
+        this.decoder = decoder;
+        this.readAhead = readAhead;
+        if (previewStore == null) {
+            previewWriter = null;
+        } else {
+            previewWriter = new ThreadPoolExecutor(1, 1, 0, TimeUnit.NANOSECONDS, new ArrayBlockingQueue<>(16),
+                    r -> {
+                        Thread result = new Thread(r, "PreviewStore-Writer");
+                        result.setDaemon(true);
+                        result.setPriority(Thread.MIN_PRIORITY);
+                        return result;
+                    }, new ThreadPoolExecutor.DiscardPolicy());
+        }
+    }
+
+    @Override
+    public LoadedImage apply(ImageKey key) {
+        if (previewStore != null && !key.isFullResolution()) {
+            long start = Metrics.start();
+            ByteBuffer record = previewStore.get(getPreviewKey(key));
+            LoadedImage result = record == null ? null : decode(() -> decodePreview(key, record));
+            Metrics.record(Metrics.PREVIEW_READ, start);
+            if (result != null) {
+                return result;
+            }
+        }
+        ByteBuffer data = read(key.getFile());
+        LoadedImage result = decode(() -> decodeFile(key, data));
+        Image image = result.getImage();
+        PhotoMetadata metadata = result.getMetadata();
+        if (previewWriter != null && !key.isFullResolution() && !image.isError()
+                && (image.getWidth() < metadata.getWidth() || image.getHeight() < metadata.getHeight())) {
+            previewWriter.execute(() -> storePreviews(result));
+        }
+        return result;
+    }
+
+    /**
+     * @return the bytes of the given file, preferably those which have already been read ahead
+     */
+    private ByteBuffer read(File file) {
+        ByteBuffer result = readAhead == null ? null : readAhead.apply(file);
+        if (result != null && result.hasRemaining()) {
+            return result;
+        }
+        long start = Metrics.start();
+        try {
+            result = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Metrics.record(Metrics.FILE_READ, start);
+        return result;
+    }
+
+    private <T> T decode(Supplier<T> work) {
+        return decoder == null ? work.get() : decoder.decode(work);
+    }
+
+    private static LoadedImage decodeFile(ImageKey key, ByteBuffer data) {
+        long start = Metrics.start();
+        // metadata and pixels come from the same bytes, so the file is read only once
+        PhotoMetadata metadata = PhotoMetadataReader.read(new ByteBufferInputStream(data));
+        double fullWidth = metadata.getWidth();
+        double fullHeight = metadata.getHeight();
+        Image image;
+        if (key.isFullResolution()) {
+            image = new Image(new ByteBufferInputStream(data));
+        } else {
+            int rotation = metadata.getRotation();
+            boolean tipped = rotation == 90 || rotation == 270;
+            double boxWidth = tipped ? key.getHeight() : key.getWidth();
+            double boxHeight = tipped ? key.getWidth() : key.getHeight();
+            if (fullWidth > 0 && fullHeight > 0 && fullWidth <= boxWidth && fullHeight <= boxHeight) {
+                image = new Image(new ByteBufferInputStream(data));  // already small enough; never upscale
+            } else {
+                image = new Image(new ByteBufferInputStream(data), boxWidth, boxHeight, true, true);
+            }
+        }
+        Metrics.record(Metrics.DECODE, start);
+        metadata = metadata.withDefaultSize((int)image.getWidth(), (int)image.getHeight());
+        return new LoadedImage(key, image, metadata);
+    }
+
+    private static LoadedImage decodePreview(ImageKey key, ByteBuffer record) {
+        if (record.remaining() < PREVIEW_HEADER_SIZE || record.getInt() != PREVIEW_VERSION) {
+            return null;
+        }
+        PhotoMetadata metadata = PhotoMetadata.readFrom(record);
+        Image image = new Image(new ByteBufferInputStream(record));
+        if (image.isError()) {
+            return null;
+        }
+        return new LoadedImage(key, image, metadata);
+    }
+
+    private void storePreviews(LoadedImage loaded) {
+        ImageKey key = loaded.getKey();
+        BufferedImage preview = toBufferedImage(loaded.getImage());
+        try {
+            previewStore.put(getPreviewKey(key), encodePreview(loaded.getMetadata(), preview));
+            ImageKey thumbnailKey = ImageKey.thumbnail(key.getFile());
+            if (!thumbnailKey.equals(key) && previewStore.get(getPreviewKey(thumbnailKey)) == null) {
+                previewStore.put(getPreviewKey(thumbnailKey),
+                        encodePreview(loaded.getMetadata(), toThumbnail(preview)));
+            }
+        } catch (IOException e) {
+            System.err.println("Could not encode preview of " + key.getFile().getAbsolutePath() + ": " + e.toString());
+        }
+    }
+
+    /**
+     * @param record a record of the preview store
+     * @return the metadata of the original image, as stored with its preview, or null if the record is outdated
+     */
+    public static PhotoMetadata readPreviewMetadata(ByteBuffer record) {
+        record = record.duplicate();
+        if (record.remaining() < PREVIEW_HEADER_SIZE || record.getInt() != PREVIEW_VERSION) {
+            return null;
+        }
+        return PhotoMetadata.readFrom(record);
+    }
+
+    /**
+     * @return the key under which a downscaled image is persisted; it changes whenever the original is modified
+     */
+    public static String getPreviewKey(ImageKey key) {
+        File file = key.getFile();
+        return file.getAbsolutePath() + '|' + key.getWidth() + 'x' + key.getHeight()
+                + '|' + file.lastModified() + '|' + file.length();
+    }
+
+    /**
+     * @param metadata the metadata of the original image
+     * @param image    the downscaled image, not rotated
+     * @return a record of the preview store, as read back by the viewer
+     */
+    public static byte[] encodePreview(PhotoMetadata metadata, BufferedImage image) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(PREVIEW_HEADER_SIZE);
+        header.putInt(PREVIEW_VERSION);
+        metadata.writeTo(header);
+        bytes.write(header.array());
+        writeJpeg(image, PREVIEW_QUALITY, bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param quality from 0 to 1
+     */
+    public static void writeJpeg(BufferedImage image, float quality, OutputStream stream) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(stream)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private BufferedImage toBufferedImage(Image image) {
+        int width = (int)image.getWidth();
+        int height = (int)image.getHeight();
+        int[] pixels = new int[width * height];
+        PixelReader reader = image.getPixelReader();
+        // premultiplied pixels are composited onto black, which is what we display transparent areas on anyway
+        reader.getPixels(0, 0, width, height, WritablePixelFormat.getIntArgbPreInstance(), pixels, 0, width);
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        result.setRGB(0, 0, width, height, pixels, 0, width);
+        return result;
+    }
+
+    /**
+     * @return the image downscaled to fit a box of {@link ImageKey#THUMBNAIL_SIZE}, without rotating it
+     */
+    public static BufferedImage toThumbnail(BufferedImage image) {
+        double scale = Math.min(1.0, (double)ImageKey.THUMBNAIL_SIZE / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int)Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int)Math.round(image.getHeight() * scale));
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = result.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        return result;
+    }
+
+}
@@ -0,0 +1,61 @@
+package de.wolfgangkronberg.image;
+
+import de.wolfgangkronberg.edit.EditList;
+import javafx.scene.image.Image;
+import lombok.Value;
+
+/**
+ * An image as decoded by the {@link ImageLoader}, together with the metadata which has been extracted in the
+ * same pass, and the edits which have been applied to it
+ */
+@Value
+public class LoadedImage {
+
+    private final ImageKey key;
+    private final Image image;
+    private final PhotoMetadata metadata;
+    private final EditList edits;
+
+    /**
+     * Creates an image without edits.
+     */
+    public LoadedImage(ImageKey key, Image image, PhotoMetadata metadata) {
+        this(key, image, metadata, EditList.NONE);
+    }
+
+    public LoadedImage(ImageKey key, Image image, PhotoMetadata metadata, EditList edits) {
+        this.key = key;
+        this.image = image;
+        this.metadata = metadata;
+        this.edits = edits;
+    }
+
+    /**
+     * @return the clockwise rotation in degrees which needs to be applied for display, according to EXIF orientation
+     */
+    public int getRotation() {
+        return metadata.getRotation();
+    }
+
+    /**
+     * @return the width of the image in full resolution, before rotation
+     */
+    public double getFullWidth() {
+        return metadata.getWidth();
+    }
+
+    /**
+     * @return the height of the image in full resolution, before rotation
+     */
+    public double getFullHeight() {
+        return metadata.getHeight();
+    }
+
+    /**
+     * @return the number of bytes occupied by the decoded pixels
+     */
+    public long getDecodedBytes() {
+        return (long)image.getWidth() * (long)image.getHeight() * 4;
+    }
+
+}
@@ -0,0 +1,161 @@
+package de.wolfgangkronberg.image;
+
+import lombok.Value;
+
+import java.nio.ByteBuffer;
+import java.util.TimeZone;
+
+/**
+ * The few metadata items of an image which we actually use, extracted once from the full metadata tree
+ */
+@Value
+public class PhotoMetadata {
+
+    /**
+     * The value of captureTime if the image does not tell when it was taken
+     */
+    public static final long UNKNOWN_TIME = Long.MIN_VALUE;
+
+    /**
+     * The number of bytes written by {@link #writeTo(ByteBuffer)}
+     */
+    public static final int SERIALIZED_SIZE = 36;
+
+    /**
+     * The value of the EXIF orientation tag, 1 if unknown
+     */
+    private final int orientation;
+
+    /**
+     * The width of the image in full resolution, before rotation, or 0 if unknown
+     */
+    private final int width;
+
+    /**
+     * The height of the image in full resolution, before rotation, or 0 if unknown
+     */
+    private final int height;
+
+    /**
+     * The time the image was taken, as milliseconds since the epoch. EXIF timestamps carry no time zone, so this is
+     * the camera's local wall-clock time interpreted as UTC. UNKNOWN_TIME if not available.
+     */
+    private final long captureTime;
+
+    /**
+     * The GPS latitude in degrees, or NaN if unknown
+     */
+    private final double latitude;
+
+    /**
+     * The GPS longitude in degrees, or NaN if unknown
+     */
+    private final double longitude;
+
+    /**
+     * The make and model of the camera, or null if unknown
+     */
+    private final String camera;
+
+    /**
+     * The model of the lens, or null if unknown
+     */
+    private final String lens;
+
+    /**
+     * The description or title of the image, or null if there is none
+     */
+    private final String description;
+
+    /**
+     * @param width  the width of the image, or 0 if unknown
+     * @param height the height of the image, or 0 if unknown
+     * @return metadata of an image which does not provide anything but possibly its size
+     */
+    public static PhotoMetadata ofSize(int width, int height) {
+        return new PhotoMetadata(1, width, height, UNKNOWN_TIME, Double.NaN, Double.NaN, null, null, null);
+    }
+
+    /**
+     * @return the clockwise rotation in degrees which needs to be applied for display
+     */
+    public int getRotation() {
+        return getRotation(orientation);
+    }
+
+    /**
+     * @param orientation the value of the EXIF orientation tag
+     * @return the clockwise rotation in degrees which needs to be applied for display
+     */
+    public static int getRotation(int orientation) {
+        switch (orientation) {
+            case 8:
+                return 270;
+            case 3:
+                return 180;
+            case 6:
+                return 90;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param millis a point in time, e.g. a file's modification time
+     * @return the given point in time as local wall-clock time interpreted as UTC, comparable to capture times
+     */
+    public static long toWallClock(long millis) {
+        return millis + TimeZone.getDefault().getOffset(millis);
+    }
+
+    public boolean hasCaptureTime() {
+        return captureTime != UNKNOWN_TIME;
+    }
+
+    public boolean hasLocation() {
+        return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+    }
+
+    /**
+     * @param width  the width to use if this metadata does not know the width
+     * @param height the height to use if this metadata does not know the height
+     * @return this metadata, with unknown dimensions replaced by the given ones
+     */
+    public PhotoMetadata withDefaultSize(int width, int height) {
+        if (this.width > 0 && this.height > 0) {
+            return this;
+        }
+        return new PhotoMetadata(orientation, width, height, captureTime, latitude, longitude, camera, lens,
+                description);
+    }
+
+    /**
+     * @param orientation the value of the EXIF orientation tag
+     * @param width       the width of the image in full resolution, before rotation
+     * @param height      the height of the image in full resolution, before rotation
+     * @return this metadata, describing an image of the given orientation and size, e.g. after editing it
+     */
+    public PhotoMetadata withGeometry(int orientation, int width, int height) {
+        return new PhotoMetadata(orientation, width, height, captureTime, latitude, longitude, camera, lens,
+                description);
+    }
+
+    /**
+     * Writes the fixed-size items. The texts are left out: they are only needed when adding the image to the
+     * library, not for displaying it.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(orientation);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putLong(captureTime);
+        buffer.putDouble(latitude);
+        buffer.putDouble(longitude);
+    }
+
+    public static PhotoMetadata readFrom(ByteBuffer buffer) {
+        return new PhotoMetadata(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getLong(),
+                buffer.getDouble(), buffer.getDouble(), null, null, null);
+    }
+
+}
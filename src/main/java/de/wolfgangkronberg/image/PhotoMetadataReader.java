@@ -0,0 +1,162 @@
+package de.wolfgangkronberg.image;
+
+import com.drew.imaging.FileType;
+import com.drew.imaging.FileTypeDetector;
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.imaging.ImageProcessingException;
+import com.drew.imaging.jpeg.JpegMetadataReader;
+import com.drew.imaging.jpeg.JpegSegmentMetadataReader;
+import com.drew.lang.GeoLocation;
+import com.drew.metadata.Directory;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.bmp.BmpHeaderDirectory;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.exif.ExifReader;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+import com.drew.metadata.exif.GpsDirectory;
+import com.drew.metadata.gif.GifHeaderDirectory;
+import com.drew.metadata.jpeg.JpegDirectory;
+import com.drew.metadata.jpeg.JpegReader;
+import com.drew.metadata.png.PngDirectory;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Extracts {@link PhotoMetadata} from image files. For JPEGs, only the SOF and APP1 (EXIF) segments are parsed,
+ * and reading stops at the start of the compressed image data.
+ */
+public class PhotoMetadataReader {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /**
+     * @param data the complete image file
+     * @return the metadata of the image; never null
+     */
+    public static PhotoMetadata read(byte[] data) {
+        return read(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Reads the metadata from the file's header, i.e. for JPEGs the file is not read completely.
+     *
+     * @param file the image file
+     * @return the metadata of the image; never null
+     */
+    public static PhotoMetadata read(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in);
+        } catch (IOException e) {
+            return PhotoMetadata.ofSize(0, 0);
+        }
+    }
+
+    /**
+     * @param in the image file's content; the stream is not closed
+     * @return the metadata of the image; never null
+     */
+    public static PhotoMetadata read(InputStream in) {
+        try {
+            BufferedInputStream bin = new BufferedInputStream(in);
+            Metadata metadata;
+            if (FileTypeDetector.detectFileType(bin) == FileType.Jpeg) {
+                Iterable<JpegSegmentMetadataReader> readers = Arrays.asList(new JpegReader(), new ExifReader());
+                metadata = JpegMetadataReader.readMetadata(bin, readers);
+            } else {
+                metadata = ImageMetadataReader.readMetadata(bin);
+            }
+            return convert(metadata);
+        } catch (ImageProcessingException | IOException | RuntimeException e) {
+            return PhotoMetadata.ofSize(0, 0);
+        }
+    }
+
+    private static PhotoMetadata convert(Metadata metadata) {
+        Integer orientation = getInteger(metadata, ExifIFD0Directory.class, ExifIFD0Directory.TAG_ORIENTATION);
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+        GpsDirectory gps = metadata.getFirstDirectoryOfType(GpsDirectory.class);
+        GeoLocation location = gps == null ? null : gps.getGeoLocation();
+        if (location != null && !location.isZero()) {
+            latitude = location.getLatitude();
+            longitude = location.getLongitude();
+        }
+        ExifIFD0Directory ifd0 = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
+        ExifSubIFDDirectory subIfd = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
+        String description = ifd0 == null ? null : getText(ifd0, ExifIFD0Directory.TAG_IMAGE_DESCRIPTION);
+        if (description == null && ifd0 != null) {
+            description = getText(ifd0, ExifIFD0Directory.TAG_WIN_TITLE);
+        }
+        return new PhotoMetadata(orientation == null ? 1 : orientation, getDimension(metadata, true),
+                getDimension(metadata, false), getCaptureTime(metadata), latitude, longitude, getCamera(ifd0),
+                subIfd == null ? null : getText(subIfd, ExifSubIFDDirectory.TAG_LENS_MODEL), description);
+    }
+
+    private static String getCamera(ExifIFD0Directory ifd0) {
+        if (ifd0 == null) {
+            return null;
+        }
+        String make = getText(ifd0, ExifIFD0Directory.TAG_MAKE);
+        String model = getText(ifd0, ExifIFD0Directory.TAG_MODEL);
+        if (make == null || model == null) {
+            return model == null ? make : model;
+        }
+        // most models already start with the make, e.g. "Canon EOS 80D"
+        String firstWord = make.split(" ")[0];
+        boolean modelHasMake = model.toLowerCase(Locale.ROOT).startsWith(firstWord.toLowerCase(Locale.ROOT));
+        return modelHasMake ? model : make + " " + model;
+    }
+
+    // the trimmed text of the tag, or null if it is missing or blank
+    private static String getText(Directory directory, int tag) {
+        String text = directory.getDescription(tag);  // decodes e.g. the UCS-2 of Windows titles
+        if (text == null) {
+            return null;
+        }
+        text = text.trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static long getCaptureTime(Metadata metadata) {
+        Date date = null;
+        ExifSubIFDDirectory subIfd = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
+        if (subIfd != null) {
+            date = subIfd.getDateOriginal(UTC);
+        }
+        if (date == null) {
+            ExifIFD0Directory ifd0 = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
+            if (ifd0 != null) {
+                date = ifd0.getDate(ExifIFD0Directory.TAG_DATETIME, UTC);
+            }
+        }
+        return date == null ? PhotoMetadata.UNKNOWN_TIME : date.getTime();
+    }
+
+    private static int getDimension(Metadata metadata, boolean width) {
+        Integer result = getInteger(metadata, JpegDirectory.class,
+                width ? JpegDirectory.TAG_IMAGE_WIDTH : JpegDirectory.TAG_IMAGE_HEIGHT);
+        if (result == null) {
+            result = getInteger(metadata, PngDirectory.class,
+                    width ? PngDirectory.TAG_IMAGE_WIDTH : PngDirectory.TAG_IMAGE_HEIGHT);
+        }
+        if (result == null) {
+            result = getInteger(metadata, GifHeaderDirectory.class,
+                    width ? GifHeaderDirectory.TAG_IMAGE_WIDTH : GifHeaderDirectory.TAG_IMAGE_HEIGHT);
+        }
+        if (result == null) {
+            result = getInteger(metadata, BmpHeaderDirectory.class,
+                    width ? BmpHeaderDirectory.TAG_IMAGE_WIDTH : BmpHeaderDirectory.TAG_IMAGE_HEIGHT);
+        }
+        return result == null ? 0 : Math.abs(result);  // BMP stores bottom-up images with negative height
+    }
+
+    private static <T extends Directory> Integer getInteger(Metadata metadata, Class<T> type, int tag) {
+        T directory = metadata.getFirstDirectoryOfType(type);
+        return directory == null ? null : directory.getInteger(tag);
+    }
+
+}
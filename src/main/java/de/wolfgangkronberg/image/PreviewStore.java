@@ -0,0 +1,276 @@
+package de.wolfgangkronberg.image;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent store of small binary records, e.g. encoded preview images, keyed by strings.
+ * <p>
+ * Records are appended to memory-mapped segment files of a fixed size, so thousands of previews do not turn into
+ * thousands of small files. Reading a record returns a view into the mapped segment without copying it.
+ * The total size is capped; when it is exceeded, the least recently accessed segment is deleted as a whole.
+ * On startup, the index is rebuilt in the background by scanning the record headers of all segments; until that is
+ * done, the store behaves as if it were empty.
+ */
+public class PreviewStore {
+
+    private static final int MAGIC = 0x4b535056;  // "KSPV"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int USED_OFFSET = 8;
+
+    private final File dir;
+    private final long maxBytes;
+    private final int segmentSize;
+
+    private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<>();
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final AtomicLong accessClock = new AtomicLong();
+    private final Object writeLock = new Object();
+    private final Thread opener;
+
+    private volatile boolean ready = false;
+    private Segment active;  // guarded by writeLock
+    private int nextId = 1;  // guarded by writeLock
+
+    /**
+     * @param dir         the directory holding the segment files; it is created if necessary
+     * @param maxBytes    the maximum total size of all segment files
+     * @param segmentSize the size of a single segment file
+     */
+    public PreviewStore(File dir, long maxBytes, int segmentSize) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.segmentSize = segmentSize;
+        opener = new Thread(this::open, "PreviewStore-Open");
+        opener.setDaemon(true);
+        opener.start();
+    }
+
+    /**
+     * Waits until the index has been rebuilt, e.g. before writing lots of records which would be dropped otherwise.
+     */
+    public void awaitOpen() throws InterruptedException {
+        opener.join();
+    }
+
+    /**
+     * @param key the key of the record
+     * @return a read-only view of the record's bytes, or null if there is no such record
+     */
+    public ByteBuffer get(String key) {
+        Location location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+        location.segment.lastAccess = accessClock.incrementAndGet();
+        ByteBuffer result = location.segment.buffer.asReadOnlyBuffer();
+        result.position(location.offset);
+        result.limit(location.offset + location.length);
+        return result.slice();
+    }
+
+    /**
+     * Stores a record, replacing any former record with the same key. Records which do not fit into a single
+     * segment are silently dropped, as are all records written before the store has been opened.
+     *
+     * @param key  the key of the record
+     * @param data the record's bytes
+     */
+    public void put(String key, byte[] data) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int recordLength = 8 + keyBytes.length + data.length;
+        if (!ready || HEADER_SIZE + recordLength > segmentSize) {
+            return;
+        }
+        synchronized (writeLock) {
+            try {
+                if (active == null || active.used + recordLength > segmentSize) {
+                    active = createSegment(nextId++);
+                    segments.add(active);
+                    evictIfNeeded();
+                }
+            } catch (IOException e) {
+                System.err.println("Could not create preview segment: " + e.toString());
+                active = null;
+                return;
+            }
+            int offset = active.used;
+            ByteBuffer writer = active.buffer.duplicate();
+            writer.position(offset);
+            writer.putInt(recordLength);
+            writer.putInt(keyBytes.length);
+            writer.put(keyBytes);
+            writer.put(data);
+            active.used = offset + recordLength;
+            active.buffer.putInt(USED_OFFSET, active.used);
+            active.lastAccess = accessClock.incrementAndGet();
+            index.put(key, new Location(active, offset + 8 + keyBytes.length, data.length));
+        }
+    }
+
+    /**
+     * Flushes all segments to disk.
+     */
+    public void close() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    private void open() {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            System.err.println("Could not create preview directory: " + dir.getAbsolutePath());
+            return;
+        }
+        File[] files = dir.listFiles((d, name) -> name.startsWith("segment-") && name.endsWith(".dat"));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        int lastId = 0;
+        for (File file : files) {
+            try {
+                lastId = Math.max(lastId, parseId(file));
+                Segment segment = openSegment(file);
+                scan(segment);
+                segments.add(segment);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Dropping unreadable preview segment " + file.getName() + ": " + e.toString());
+                deleteFile(file);
+            }
+        }
+        synchronized (writeLock) {
+            if (!segments.isEmpty()) {
+                active = segments.get(segments.size() - 1);
+            }
+            nextId = lastId + 1;
+            ready = true;
+        }
+    }
+
+    private void scan(Segment segment) {
+        ByteBuffer reader = segment.buffer.duplicate();
+        reader.position(HEADER_SIZE);
+        while (reader.position() + 8 <= segment.used) {
+            int offset = reader.position();
+            int recordLength = reader.getInt();
+            int keyLength = reader.getInt();
+            if (recordLength < 8 + keyLength || keyLength < 0 || offset + recordLength > segment.used) {
+                segment.used = offset;  // keep the intact records in front of a torn write
+                segment.buffer.putInt(USED_OFFSET, offset);
+                break;
+            }
+            byte[] keyBytes = new byte[keyLength];
+            reader.get(keyBytes);
+            int dataOffset = offset + 8 + keyLength;
+            index.put(new String(keyBytes, StandardCharsets.UTF_8),
+                    new Location(segment, dataOffset, recordLength - 8 - keyLength));
+            reader.position(offset + recordLength);
+        }
+        segment.lastAccess = accessClock.incrementAndGet();
+    }
+
+    private int parseId(File file) throws IOException {
+        String name = file.getName();
+        try {
+            return Integer.parseInt(name.substring("segment-".length(), name.length() - ".dat".length()));
+        } catch (NumberFormatException e) {
+            throw new IOException("unexpected file name");
+        }
+    }
+
+    private Segment openSegment(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() != segmentSize) {
+                throw new IOException("unexpected size " + channel.size());
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("not a preview segment");
+            }
+            int used = buffer.getInt(USED_OFFSET);
+            if (used < HEADER_SIZE || used > segmentSize) {
+                throw new IOException("invalid fill level " + used);
+            }
+            return new Segment(file, buffer, used);
+        }
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        File file = new File(dir, String.format("segment-%06d.dat", id));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(USED_OFFSET, HEADER_SIZE);
+            return new Segment(file, buffer, HEADER_SIZE);
+        }
+    }
+
+    // caller must synchronize on writeLock
+    private void evictIfNeeded() {
+        while ((long)segments.size() * segmentSize > maxBytes && segments.size() > 1) {
+            Segment oldest = null;
+            for (Segment segment : segments) {
+                if (segment != active && (oldest == null || segment.lastAccess < oldest.lastAccess)) {
+                    oldest = segment;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            segments.remove(oldest);
+            Segment evicted = oldest;
+            index.values().removeIf(location -> location.segment == evicted);
+            deleteFile(evicted.file);
+        }
+    }
+
+    private void deleteFile(File file) {
+        if (!file.delete()) {
+            file.deleteOnExit();  // e.g. on Windows, a mapped file cannot be deleted before it is unmapped
+        }
+    }
+
+    private static class Segment {
+
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private volatile int used;
+        private volatile long lastAccess;
+
+        Segment(File file, MappedByteBuffer buffer, int used) {
+            this.file = file;
+            this.buffer = buffer;
+            this.used = used;
+        }
+
+    }
+
+    private static class Location {
+
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+
+        Location(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+    }
+
+}
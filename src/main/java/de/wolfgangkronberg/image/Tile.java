@@ -0,0 +1,22 @@
+package de.wolfgangkronberg.image;
+
+import javafx.scene.image.Image;
+import lombok.Value;
+
+/**
+ * A decoded tile of the image pyramid; tiles at the right and bottom edge of an image may be smaller
+ */
+@Value
+public class Tile {
+
+    private final TileKey key;
+    private final Image image;
+
+    /**
+     * @return the number of bytes occupied by the decoded pixels
+     */
+    public long getDecodedBytes() {
+        return (long)image.getWidth() * (long)image.getHeight() * 4;
+    }
+
+}
@@ -0,0 +1,32 @@
+package de.wolfgangkronberg.image;
+
+import lombok.Value;
+
+import java.io.File;
+
+/**
+ * Identifies a tile of the image pyramid used for zooming: a square of {@link #SIZE} pixels of a file, decoded at
+ * 1 / 2^level of its full resolution. Tiles are counted in the decoded resolution, from the top left corner of
+ * the file's pixels, before EXIF rotation.
+ */
+@Value
+public class TileKey {
+
+    /**
+     * The edge length of a tile, in decoded pixels
+     */
+    public static final int SIZE = 512;
+
+    private final File file;
+    private final int level;
+    private final int column;
+    private final int row;
+
+    /**
+     * @return the edge length of a tile in pixels of the full resolution
+     */
+    public int getSpan() {
+        return SIZE << level;
+    }
+
+}
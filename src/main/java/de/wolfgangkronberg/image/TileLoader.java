@@ -0,0 +1,69 @@
+package de.wolfgangkronberg.image;
+
+import de.wolfgangkronberg.edit.Pixels;
+import javafx.scene.image.Image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.function.Function;
+
+/**
+ * Decodes single tiles of the image pyramid. Only the tile's region of the file is decoded, every 2^level-th pixel
+ * in each direction, so the memory needed does not depend on the size of the image. Note that for JPEG and PNG
+ * files, the decoder still has to read through all compressed data above the tile, so tiles at the bottom of a
+ * huge image take longer than those at the top.
+ */
+public class TileLoader implements Function<TileKey, Tile> {
+
+    @Override
+    public Tile apply(TileKey key) {
+        try (ImageInputStream in = ImageIO.createImageInputStream(key.getFile())) {
+            if (in == null) {
+                throw new IOException("Cannot open " + key.getFile().getAbsolutePath());
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + key.getFile().getAbsolutePath());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return new Tile(key, toImage(read(reader, key)));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static BufferedImage read(ImageReader reader, TileKey key) throws IOException {
+        int span = key.getSpan();
+        int x = key.getColumn() * span;
+        int y = key.getRow() * span;
+        int width = Math.min(span, reader.getWidth(0) - x);
+        int height = Math.min(span, reader.getHeight(0) - y);
+        if (width <= 0 || height <= 0) {
+            throw new IOException("No such tile: " + key);
+        }
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(x, y, width, height));
+        param.setSourceSubsampling(1 << key.getLevel(), 1 << key.getLevel(), 0, 0);
+        return reader.read(0, param);
+    }
+
+    private static Image toImage(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        return new Pixels(width, height, argb).toImage();
+    }
+
+}
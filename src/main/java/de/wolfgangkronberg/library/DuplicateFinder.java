@@ -0,0 +1,300 @@
+package de.wolfgangkronberg.library;
+
+import de.wolfgangkronberg.filescanner.IndexSorter;
+import de.wolfgangkronberg.filescanner.PathTable;
+import de.wolfgangkronberg.image.ImageHashes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Finds the byte-identical copies and the near-duplicates among the images of the library, e.g. burst shots or
+ * images imported twice, and groups them into clusters.
+ * <p>
+ * Images are hashed on a pool of threads, and the hashes are kept in a {@link HashIndex}, so each file is hashed only
+ * once. Byte-identical files have the same SHA-256. Two images are near-duplicates if both their pHash and their
+ * dHash differ in at most threshold bits; clusters are formed transitively.
+ * <p>
+ * To avoid comparing all pairs, the pHashes are split into four bands of 16 bits, and each band is indexed in
+ * buckets. Two hashes differing in at most threshold bits agree in at least one band up to threshold / 4 bits, so
+ * only the buckets of those few band values need to be searched for the candidates of an image.
+ */
+public class DuplicateFinder {
+
+    private static final int BANDS = 4;
+    private static final int BAND_BITS = 64 / BANDS;
+    private static final int PROGRESS_STEP = 1000;
+    private static final int CHUNK_SIZE = 4096;
+
+    private final LibraryIndex library;
+    private final HashIndex hashes;
+    private final int numThreads;
+    private final int threshold;
+
+    /**
+     * @param library    the images to search
+     * @param hashes     the store of the hashes computed before
+     * @param numThreads the number of threads hashing images, or 0 for one per processor
+     * @param threshold  the maximum number of bits in which the perceptual hashes of near-duplicates differ
+     */
+    public DuplicateFinder(LibraryIndex library, HashIndex hashes, int numThreads, int threshold) {
+        this.library = library;
+        this.hashes = hashes;
+        this.numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        this.threshold = Math.max(0, Math.min(64, threshold));
+    }
+
+    /**
+     * Hashes all images not hashed yet, and clusters the duplicates. Takes hours if many images need to be hashed.
+     *
+     * @param progress called with the number of images checked so far and the total number, or null
+     * @return the images which have duplicates, cluster by cluster; each cluster is sorted by capture time, and the
+     * clusters by the capture time of their first image
+     */
+    public SearchHits find(BiConsumer<Integer, Integer> progress) {
+        List<LibraryEntry> entries = new ArrayList<>();
+        for (String dir : library.getDirectoriesByTime()) {
+            entries.addAll(library.getDirectory(dir));
+        }
+        int n = entries.size();
+        byte[] sha256 = new byte[n * 32];
+        long[] dHashes = new long[n];
+        long[] pHashes = new long[n];
+        boolean[] hashed = new boolean[n];
+        boolean[] decoded = new boolean[n];
+        AtomicInteger done = new AtomicInteger();
+
+        ThreadPoolExecutor hashers = new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.NANOSECONDS,
+                new ArrayBlockingQueue<>(4 * numThreads), r -> {
+                    Thread result = new Thread(r, "DuplicateFinder-Hasher");
+                    result.setDaemon(true);
+                    result.setPriority(Thread.MIN_PRIORITY);
+                    return result;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());  // throttles the producer to the speed of the pool
+        for (int i = 0; i < n; i++) {
+            int idx = i;
+            File file = entries.get(i).getFile();
+            long lastModified = file.lastModified();
+            long length = file.length();
+            ImageHashes known = lastModified == 0 ? null : hashes.get(file, lastModified, length);
+            if (lastModified == 0 || known != null) {
+                record(idx, known, sha256, dHashes, pHashes, hashed, decoded);
+                step(done, n, progress);
+                continue;
+            }
+            hashers.execute(() -> {
+                try {
+                    ImageHashes computed = ImageHashes.compute(file);
+                    hashes.put(file, lastModified, length, computed);
+                    record(idx, computed, sha256, dHashes, pHashes, hashed, decoded);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Could not hash " + file.getAbsolutePath() + ": " + e.toString());
+                }
+                step(done, n, progress);
+            });
+        }
+        hashers.shutdown();
+        try {
+            hashers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            hashers.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while hashing images", e);
+        }
+
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+        Map<ByteBuffer, Integer> bySha = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            if (hashed[i]) {
+                Integer first = bySha.putIfAbsent(ByteBuffer.wrap(sha256, i * 32, 32).slice(), i);
+                if (first != null) {
+                    union(parent, first, i);
+                }
+            }
+        }
+        groupNearDuplicates(pHashes, dHashes, decoded, parent);
+        return toHits(entries, parent, progress);
+    }
+
+    private static void record(int idx, ImageHashes hashes, byte[] sha256, long[] dHashes, long[] pHashes,
+                               boolean[] hashed, boolean[] decoded) {
+        if (hashes == null) {
+            return;  // the file has vanished
+        }
+        System.arraycopy(hashes.getSha256(), 0, sha256, idx * 32, 32);
+        dHashes[idx] = hashes.getDHash();
+        pHashes[idx] = hashes.getPHash();
+        decoded[idx] = hashes.isDecoded();
+        hashed[idx] = true;
+    }
+
+    private static void step(AtomicInteger done, int total, BiConsumer<Integer, Integer> progress) {
+        int count = done.incrementAndGet();
+        if (progress != null && (count % PROGRESS_STEP == 0 || count == total)) {
+            progress.accept(count, total);
+        }
+    }
+
+    private void groupNearDuplicates(long[] pHashes, long[] dHashes, boolean[] decoded, int[] parent) {
+        int n = pHashes.length;
+        int radius = threshold / BANDS;
+        for (int band = 0; band < BANDS; band++) {
+            int shift = band * BAND_BITS;
+            // counting sort of the images by the value of this band; the hashes are copied into bucket order, so the
+            // candidates of an image are scanned in contiguous memory
+            int[] bucketStart = new int[(1 << BAND_BITS) + 1];
+            for (int i = 0; i < n; i++) {
+                if (decoded[i]) {
+                    bucketStart[bandValue(pHashes[i], shift) + 1]++;
+                }
+            }
+            for (int b = 0; b < 1 << BAND_BITS; b++) {
+                bucketStart[b + 1] += bucketStart[b];
+            }
+            int numMembers = bucketStart[1 << BAND_BITS];
+            int[] members = new int[numMembers];
+            long[] memberPHashes = new long[numMembers];
+            long[] memberDHashes = new long[numMembers];
+            int[] fill = bucketStart.clone();
+            for (int i = 0; i < n; i++) {
+                if (decoded[i]) {
+                    int m = fill[bandValue(pHashes[i], shift)]++;
+                    members[m] = i;
+                    memberPHashes[m] = pHashes[i];
+                    memberDHashes[m] = dHashes[i];
+                }
+            }
+            // the pairs found are few, so they are collected in parallel, and joined afterwards
+            List<long[]> pairs = IntStream.range(0, (n + CHUNK_SIZE - 1) / CHUNK_SIZE).parallel().mapToObj(chunk -> {
+                LongStream.Builder found = LongStream.builder();
+                int[] probes = new int[1 << BAND_BITS];
+                for (int i = chunk * CHUNK_SIZE; i < Math.min(n, (chunk + 1) * CHUNK_SIZE); i++) {
+                    if (!decoded[i]) {
+                        continue;
+                    }
+                    long pHash = pHashes[i];
+                    long dHash = dHashes[i];
+                    int numProbes = collectProbes(bandValue(pHash, shift), 0, radius, probes, 0);
+                    for (int p = 0; p < numProbes; p++) {
+                        for (int m = bucketStart[probes[p]]; m < bucketStart[probes[p] + 1]; m++) {
+                            if (ImageHashes.distance(pHash, memberPHashes[m]) <= threshold
+                                    && ImageHashes.distance(dHash, memberDHashes[m]) <= threshold
+                                    && members[m] > i) {
+                                found.add((long)i << 32 | members[m]);
+                            }
+                        }
+                    }
+                }
+                return found.build().toArray();
+            }).collect(Collectors.toList());
+            for (long[] chunkPairs : pairs) {
+                for (long pair : chunkPairs) {
+                    union(parent, (int)(pair >>> 32), (int)pair);
+                }
+            }
+        }
+    }
+
+    private static int bandValue(long hash, int shift) {
+        return (int)(hash >>> shift) & ((1 << BAND_BITS) - 1);
+    }
+
+    /**
+     * Adds all values differing from value in at most radius of the bits from firstBit on.
+     *
+     * @return the new number of probes
+     */
+    private static int collectProbes(int value, int firstBit, int radius, int[] probes, int count) {
+        probes[count++] = value;
+        if (radius > 0) {
+            for (int bit = firstBit; bit < BAND_BITS; bit++) {
+                count = collectProbes(value ^ (1 << bit), bit + 1, radius - 1, probes, count);
+            }
+        }
+        return count;
+    }
+
+    private SearchHits toHits(List<LibraryEntry> entries, int[] parent, BiConsumer<Integer, Integer> progress) {
+        int n = entries.size();
+        int[] size = new int[n];
+        for (int i = 0; i < n; i++) {
+            size[find(parent, i)]++;
+        }
+        int numDuplicates = 0;
+        for (int i = 0; i < n; i++) {
+            if (size[find(parent, i)] > 1) {
+                numDuplicates++;
+            }
+        }
+        int[] order = new int[numDuplicates];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (size[find(parent, i)] > 1) {
+                order[k++] = i;
+            }
+        }
+        // the earliest capture time of each cluster
+        long[] clusterTime = new long[n];
+        Arrays.fill(clusterTime, Long.MAX_VALUE);
+        for (int i : order) {
+            int root = find(parent, i);
+            clusterTime[root] = Math.min(clusterTime[root], entries.get(i).getCaptureTime());
+        }
+        IndexSorter.sort(order, (i1, i2) -> {
+            int root1 = find(parent, i1);
+            int root2 = find(parent, i2);
+            if (root1 != root2) {
+                int result = Long.compare(clusterTime[root1], clusterTime[root2]);
+                return result != 0 ? result : Integer.compare(root1, root2);
+            }
+            return LibraryEntry.BY_TIME.compare(entries.get(i1), entries.get(i2));
+        });
+        PathTable files = new PathTable();
+        int numClusters = 0;
+        int lastRoot = -1;
+        for (int i : order) {
+            files.add(entries.get(i).getFile());
+            int root = find(parent, i);
+            if (root != lastRoot) {
+                numClusters++;
+                lastRoot = root;
+            }
+        }
+        files.trim();
+        return new SearchHits("duplicates (" + numClusters + " groups)", files, () -> find(progress));
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int i, int j) {
+        int root1 = find(parent, i);
+        int root2 = find(parent, j);
+        if (root1 != root2) {
+            parent[Math.max(root1, root2)] = Math.min(root1, root2);
+        }
+    }
+
+}
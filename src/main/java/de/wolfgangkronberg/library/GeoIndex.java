@@ -0,0 +1,598 @@
+package de.wolfgangkronberg.library;
+
+import de.wolfgangkronberg.filescanner.IndexSorter;
+import de.wolfgangkronberg.filescanner.PathTable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * The spatial index of the library: finds the GPS-tagged images within a bounding box, within a radius, or nearest
+ * to a given image.
+ * <p>
+ * Each location is quantized to 31 bits of latitude and 31 bits of longitude, about 2 cm, and the bits are
+ * interleaved into a Z-order (Morton) code. Nearby locations mostly get nearby codes, and every node of the
+ * implied quadtree covers one contiguous range of codes. A box query therefore splits the box into a few dozen
+ * quadtree nodes, looks up the range of each node in the sorted codes by binary search, and only checks the exact
+ * coordinates of the images found there.
+ * <p>
+ * Like the {@link SearchIndex}, the index lives in memory, is stored as a snapshot plus an append-only log, and
+ * marks replaced images as deleted until the next compaction.
+ */
+public class GeoIndex {
+
+    private static final int MAGIC = 0x6b734749;  // "ksGI"
+    private static final int VERSION = 1;
+    private static final int SNAPSHOT_THRESHOLD = 65536;
+    private static final byte OP_REMOVE = 0;
+    private static final byte OP_PUT = 1;
+    private static final int BITS = 31;
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+    private static final double NEAREST_START_KM = 0.5;
+
+    private final SnapshotStore store;
+    private final File completeMarker;
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private PathTable docs = new PathTable();
+    private long[] times = new long[256];
+    private double[] lats = new double[256];
+    private double[] lons = new double[256];
+    private long[] codes = new long[256];
+    private BitSet deleted = new BitSet();
+    private int numDeleted;
+    private int[] docsByCode;  // all documents not deleted, sorted by code, or null if outdated
+    private long[] sortedCodes;  // the codes of docsByCode
+
+    /**
+     * Opens the index, creating it if it does not exist yet.
+     *
+     * @param dir the directory holding the index
+     */
+    public GeoIndex(File dir) {
+        store = new SnapshotStore(dir, "geo index");
+        completeMarker = new File(dir, "complete");
+        synchronized (lock) {
+            try {
+                store.readSnapshot(this::readSnapshot);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Could not read geo index, starting from scratch: " + e.toString());
+                docs = new PathTable();
+                times = new long[256];
+                lats = new double[256];
+                lons = new double[256];
+                codes = new long[256];
+                deleted = new BitSet();
+                numDeleted = 0;
+                if (completeMarker.exists() && !completeMarker.delete()) {
+                    System.err.println("Could not reset geo index: " + completeMarker.getAbsolutePath());
+                }
+            }
+            store.replayLog(this::replay);
+        }
+    }
+
+    /**
+     * @return true once a library import has run to its end since the index was created, so the index holds all
+     * images the library knew at that time; until then, every image needs to be added
+     */
+    public boolean isComplete() {
+        return completeMarker.isFile();
+    }
+
+    /**
+     * Records that a library import has run to its end, see {@link #isComplete()}.
+     */
+    public void markComplete() {
+        try {
+            if (!completeMarker.createNewFile() && !completeMarker.isFile()) {
+                System.err.println("Could not mark geo index as complete: " + completeMarker.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            System.err.println("Could not mark geo index as complete: " + e.toString());
+        }
+    }
+
+    /**
+     * Adds an image to the index, or updates its location.
+     *
+     * @param file        the image file
+     * @param captureTime the time the image was taken; query results are sorted by it
+     * @param latitude    in degrees, from -90 to 90
+     * @param longitude   in degrees, from -180 to 180
+     */
+    public void put(File file, long captureTime, double latitude, double longitude) {
+        File abs = file.getAbsoluteFile();
+        synchronized (lock) {
+            int doc = findDoc(abs);
+            if (doc >= 0 && times[doc] == captureTime && lats[doc] == latitude && lons[doc] == longitude) {
+                return;
+            }
+            applyPut(abs, captureTime, latitude, longitude);
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeByte(OP_PUT);
+                SnapshotStore.writeString(out, abs.getPath());
+                out.writeLong(captureTime);
+                out.writeDouble(latitude);
+                out.writeDouble(longitude);
+                appendToLog(bytes.toByteArray());
+            } catch (IOException e) {
+                System.err.println("Could not write geo index log: " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Removes an image from the index; does nothing if it is not in the index.
+     */
+    public void remove(File file) {
+        File abs = file.getAbsoluteFile();
+        synchronized (lock) {
+            if (applyRemove(abs)) {
+                try {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream out = new DataOutputStream(bytes);
+                    out.writeByte(OP_REMOVE);
+                    SnapshotStore.writeString(out, abs.getPath());
+                    appendToLog(bytes.toByteArray());
+                } catch (IOException e) {
+                    System.err.println("Could not write geo index log: " + e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the images within a bounding box. If minLongitude is greater than maxLongitude, the box crosses the
+     * antimeridian.
+     *
+     * @return the images found, sorted by capture time
+     */
+    public SearchHits inBox(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        String query = String.format(Locale.ROOT, "box:%.5f,%.5f,%.5f,%.5f", minLatitude, minLongitude, maxLatitude,
+                maxLongitude);
+        synchronized (lock) {
+            IntList found = new IntList();
+            findInBox(minLatitude, minLongitude, maxLatitude, maxLongitude, found);
+            return toHits(query, found.toArray(),
+                    () -> inBox(minLatitude, minLongitude, maxLatitude, maxLongitude));
+        }
+    }
+
+    /**
+     * Finds the images within a great-circle distance of a location.
+     *
+     * @return the images found, sorted by capture time
+     */
+    public SearchHits withinRadius(double latitude, double longitude, double km) {
+        String query = String.format(Locale.ROOT, "near:%.5f,%.5f,%s", latitude, longitude, km);
+        synchronized (lock) {
+            return toHits(query, findWithinRadius(latitude, longitude, km),
+                    () -> withinRadius(latitude, longitude, km));
+        }
+    }
+
+    /**
+     * Finds the images taken closest to the location of the given one, including that image itself.
+     *
+     * @param file an image file
+     * @param max  the maximum number of images to return
+     * @return the images found, sorted by capture time; empty if the image is not in the index
+     */
+    public SearchHits nearest(File file, int max) {
+        File abs = file.getAbsoluteFile();
+        String query = "near " + abs.getName();
+        synchronized (lock) {
+            int doc = findDoc(abs);
+            if (doc < 0) {
+                return new SearchHits(query, new PathTable(), () -> nearest(abs, max));
+            }
+            double lat = lats[doc];
+            double lon = lons[doc];
+            // widen the circle until it holds enough images; each step costs about as much as the result is large
+            int[] candidates;
+            double km = NEAREST_START_KM;
+            while (true) {
+                candidates = findWithinRadius(lat, lon, km);
+                if (candidates.length >= max || km > Math.PI * EARTH_RADIUS_KM) {
+                    break;
+                }
+                km *= 2;
+            }
+            if (candidates.length > max) {
+                double[] distances = new double[candidates.length];
+                int[] byDistance = new int[candidates.length];
+                for (int i = 0; i < candidates.length; i++) {
+                    distances[i] = distanceKm(lat, lon, lats[candidates[i]], lons[candidates[i]]);
+                    byDistance[i] = i;
+                }
+                IndexSorter.sort(byDistance, (i1, i2) -> Double.compare(distances[i1], distances[i2]));
+                int[] closest = new int[max];
+                for (int i = 0; i < max; i++) {
+                    closest[i] = candidates[byDistance[i]];
+                }
+                candidates = closest;
+            }
+            return toHits(query, candidates, () -> nearest(abs, max));
+        }
+    }
+
+    /**
+     * Closes the log. Changes not yet contained in the snapshot are restored from the log on the next start.
+     */
+    public void close() {
+        synchronized (lock) {
+            store.close();
+        }
+    }
+
+    /**
+     * @return the great-circle distance between two locations, by the haversine formula
+     */
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.cos(Math.toRadians(lat1))
+                * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    // caller must synchronize on lock
+    private int[] findWithinRadius(double lat, double lon, double km) {
+        double dLat = km / KM_PER_DEGREE;
+        IntList found = new IntList();
+        double minLat = Math.max(-90, lat - dLat);
+        double maxLat = Math.min(90, lat + dLat);
+        double cos = Math.cos(Math.toRadians(Math.max(Math.abs(minLat), Math.abs(maxLat))));
+        double dLon = cos <= 0 ? 180 : dLat / cos;
+        if (maxLat >= 90 || minLat <= -90 || dLon >= 180) {
+            findInBox(minLat, -180, maxLat, 180, found);
+        } else {
+            findInBox(minLat, normalizeLongitude(lon - dLon), maxLat, normalizeLongitude(lon + dLon), found);
+        }
+        int n = 0;
+        int[] result = found.toArray();
+        for (int d : result) {
+            if (distanceKm(lat, lon, lats[d], lons[d]) <= km) {
+                result[n++] = d;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    // caller must synchronize on lock
+    private void findInBox(double minLat, double minLon, double maxLat, double maxLon, IntList found) {
+        if (minLon > maxLon) {
+            findInBox(minLat, minLon, maxLat, 180, found);
+            findInBox(minLat, -180, maxLat, maxLon, found);
+            return;
+        }
+        if (minLat > maxLat) {
+            return;
+        }
+        getDocsByCode();
+        int x0 = quantize(minLon, 180);
+        int x1 = quantize(maxLon, 180);
+        int y0 = quantize(minLat, 90);
+        int y1 = quantize(maxLat, 90);
+        // stop splitting at nodes about a quarter of the box in size, which bounds the number of ranges
+        int size = Math.max(x1 - x0, y1 - y0) / 4;
+        int maxLevel = size <= 1 ? BITS : BITS - (31 - Integer.numberOfLeadingZeros(size));
+        LongList ranges = new LongList();
+        collectRanges(0, 0, 0, maxLevel, x0, x1, y0, y1, ranges);
+        long[] r = ranges.toArray();
+        for (int i = 0; i < r.length; i += 2) {
+            int pos = lowerBound(sortedCodes, r[i]);
+            while (pos < sortedCodes.length && sortedCodes[pos] <= r[i + 1]) {
+                int d = docsByCode[pos++];
+                if (lats[d] >= minLat && lats[d] <= maxLat && lons[d] >= minLon && lons[d] <= maxLon) {
+                    found.add(d);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the code ranges of the quadtree nodes overlapping the box, merging adjacent ones.
+     */
+    private static void collectRanges(int level, int cx, int cy, int maxLevel, int x0, int x1, int y0, int y1,
+                                      LongList ranges) {
+        int shift = BITS - level;
+        long nodeX0 = (long)cx << shift;
+        long nodeX1 = nodeX0 + (1L << shift) - 1;
+        long nodeY0 = (long)cy << shift;
+        long nodeY1 = nodeY0 + (1L << shift) - 1;
+        if (nodeX0 > x1 || nodeX1 < x0 || nodeY0 > y1 || nodeY1 < y0) {
+            return;
+        }
+        boolean inside = nodeX0 >= x0 && nodeX1 <= x1 && nodeY0 >= y0 && nodeY1 <= y1;
+        if (inside || level == maxLevel) {
+            long low = interleave((int)nodeX0, (int)nodeY0);
+            long high = low + (1L << (2 * shift)) - 1;
+            if (ranges.size() > 0 && ranges.last() == low - 1) {
+                ranges.setLast(high);
+            } else {
+                ranges.add(low);
+                ranges.add(high);
+            }
+            return;
+        }
+        // in Z order: lower left, lower right, upper left, upper right
+        collectRanges(level + 1, 2 * cx, 2 * cy, maxLevel, x0, x1, y0, y1, ranges);
+        collectRanges(level + 1, 2 * cx + 1, 2 * cy, maxLevel, x0, x1, y0, y1, ranges);
+        collectRanges(level + 1, 2 * cx, 2 * cy + 1, maxLevel, x0, x1, y0, y1, ranges);
+        collectRanges(level + 1, 2 * cx + 1, 2 * cy + 1, maxLevel, x0, x1, y0, y1, ranges);
+    }
+
+    // caller must synchronize on lock
+    private SearchHits toHits(String query, int[] found, Supplier<SearchHits> requery) {
+        long[] docTimes = times;
+        IndexSorter.sort(found, (d1, d2) -> Long.compare(docTimes[d1], docTimes[d2]));
+        PathTable hitFiles = new PathTable();
+        for (int d : found) {
+            hitFiles.add(docs, d);
+        }
+        hitFiles.trim();
+        return new SearchHits(query, hitFiles, requery);
+    }
+
+    // caller must synchronize on lock
+    private void getDocsByCode() {
+        if (docsByCode != null) {
+            return;
+        }
+        int[] order = new int[docs.size() - numDeleted];
+        int n = 0;
+        for (int doc = 0; doc < docs.size(); doc++) {
+            if (!deleted.get(doc)) {
+                order[n++] = doc;
+            }
+        }
+        long[] docCodes = codes;
+        IndexSorter.sort(order, (d1, d2) -> Long.compare(docCodes[d1], docCodes[d2]));
+        long[] sorted = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = codes[order[i]];
+        }
+        docsByCode = order;
+        sortedCodes = sorted;
+    }
+
+    // caller must synchronize on lock
+    private int findDoc(File abs) {
+        int doc = docs.lastIndexOf(abs);
+        return doc >= 0 && !deleted.get(doc) ? doc : -1;
+    }
+
+    // caller must synchronize on lock
+    private void applyPut(File abs, long captureTime, double latitude, double longitude) {
+        applyRemove(abs);
+        int doc = docs.add(abs);
+        if (doc >= times.length) {
+            grow(2 * times.length);
+        }
+        times[doc] = captureTime;
+        lats[doc] = latitude;
+        lons[doc] = longitude;
+        codes[doc] = codeOf(latitude, longitude);
+        docsByCode = null;
+    }
+
+    // caller must synchronize on lock; returns false if the image was not in the index
+    private boolean applyRemove(File abs) {
+        int doc = findDoc(abs);
+        if (doc < 0) {
+            return false;
+        }
+        deleted.set(doc);
+        numDeleted++;
+        docsByCode = null;
+        return true;
+    }
+
+    // caller must synchronize on lock
+    private void grow(int capacity) {
+        times = Arrays.copyOf(times, capacity);
+        lats = Arrays.copyOf(lats, capacity);
+        lons = Arrays.copyOf(lons, capacity);
+        codes = Arrays.copyOf(codes, capacity);
+    }
+
+    // caller must synchronize on lock
+    private void appendToLog(byte[] record) throws IOException {
+        store.appendToLog(record);
+        if (store.getLogRecords() >= SNAPSHOT_THRESHOLD) {
+            if (numDeleted > docs.size() / 4) {
+                compact();
+            }
+            store.writeSnapshot(this::writeSnapshot);
+        }
+    }
+
+    // caller must synchronize on lock
+    private void replay(ByteBuffer record) {
+        byte op = record.get();
+        File file = new File(SnapshotStore.readString(record));
+        if (op == OP_PUT) {
+            long captureTime = record.getLong();
+            double latitude = record.getDouble();
+            double longitude = record.getDouble();
+            applyPut(file, captureTime, latitude, longitude);
+        } else {
+            applyRemove(file);
+        }
+    }
+
+    // caller must synchronize on lock
+    private void writeSnapshot(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        docs.writeTo(out);
+        for (int doc = 0; doc < docs.size(); doc++) {
+            out.writeLong(times[doc]);
+            out.writeDouble(lats[doc]);
+            out.writeDouble(lons[doc]);
+        }
+        long[] deletedBits = deleted.toLongArray();
+        out.writeInt(deletedBits.length);
+        for (long bits : deletedBits) {
+            out.writeLong(bits);
+        }
+    }
+
+    // caller must synchronize on lock
+    private void readSnapshot(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Unknown geo index format");
+        }
+        docs = PathTable.readFrom(in);
+        grow(Math.max(256, docs.size()));
+        for (int doc = 0; doc < docs.size(); doc++) {
+            times[doc] = in.readLong();
+            lats[doc] = in.readDouble();
+            lons[doc] = in.readDouble();
+            codes[doc] = codeOf(lats[doc], lons[doc]);
+        }
+        long[] deletedBits = new long[in.readInt()];
+        for (int i = 0; i < deletedBits.length; i++) {
+            deletedBits[i] = in.readLong();
+        }
+        deleted = BitSet.valueOf(deletedBits);
+        numDeleted = deleted.cardinality();
+        docsByCode = null;
+    }
+
+    // drops the deleted documents, and renumbers the remaining ones; caller must synchronize on lock
+    private void compact() {
+        PathTable newDocs = new PathTable();
+        int capacity = Math.max(256, docs.size() - numDeleted);
+        long[] newTimes = new long[capacity];
+        double[] newLats = new double[capacity];
+        double[] newLons = new double[capacity];
+        long[] newCodes = new long[capacity];
+        for (int doc = 0; doc < docs.size(); doc++) {
+            if (!deleted.get(doc)) {
+                int d = newDocs.add(docs, doc);
+                newTimes[d] = times[doc];
+                newLats[d] = lats[doc];
+                newLons[d] = lons[doc];
+                newCodes[d] = codes[doc];
+            }
+        }
+        newDocs.trim();
+        docs = newDocs;
+        times = newTimes;
+        lats = newLats;
+        lons = newLons;
+        codes = newCodes;
+        deleted = new BitSet();
+        numDeleted = 0;
+        docsByCode = null;
+    }
+
+    private static double normalizeLongitude(double longitude) {
+        return longitude > 180 ? longitude - 360 : longitude < -180 ? longitude + 360 : longitude;
+    }
+
+    /**
+     * Maps [-range, range] to [0, 2^31 - 1].
+     */
+    private static int quantize(double value, double range) {
+        double scaled = (value + range) / (2 * range) * (1L << BITS);
+        return (int)Math.max(0, Math.min((1L << BITS) - 1, (long)scaled));
+    }
+
+    static long codeOf(double latitude, double longitude) {
+        return interleave(quantize(longitude, 180), quantize(latitude, 90));
+    }
+
+    /**
+     * @return the bits of x at the even positions, and the bits of y at the odd positions
+     */
+    private static long interleave(int x, int y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    private static long spread(int v) {
+        long x = v & 0xffffffffL;
+        x = (x | (x << 16)) & 0x0000ffff0000ffffL;
+        x = (x | (x << 8)) & 0x00ff00ff00ff00ffL;
+        x = (x | (x << 4)) & 0x0f0f0f0f0f0f0f0fL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    private static int lowerBound(long[] sorted, long key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static class IntList {
+
+        private int[] data = new int[64];
+        private int size;
+
+        void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, 2 * size);
+            }
+            data[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    private static class LongList {
+
+        private long[] data = new long[64];
+        private int size;
+
+        void add(long value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, 2 * size);
+            }
+            data[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long last() {
+            return data[size - 1];
+        }
+
+        void setLast(long value) {
+            data[size - 1] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+}
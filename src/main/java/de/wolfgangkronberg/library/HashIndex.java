@@ -0,0 +1,253 @@
+package de.wolfgangkronberg.library;
+
+import de.wolfgangkronberg.filescanner.PathTable;
+import de.wolfgangkronberg.image.ImageHashes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The persistent store of the {@link ImageHashes} of the images in the library, so each file is hashed only once.
+ * Hashes are valid for a certain modification time and length of the file; once either changes, the file is hashed
+ * again, and the outdated entry is marked as deleted until the next compaction.
+ * <p>
+ * Like the {@link SearchIndex}, the store lives in memory and is stored as a snapshot plus an append-only log.
+ */
+public class HashIndex {
+
+    private static final int MAGIC = 0x6b734849;  // "ksHI"
+    private static final int VERSION = 1;
+    private static final int SNAPSHOT_THRESHOLD = 65536;
+    private static final int SHA_LENGTH = 32;
+
+    private final SnapshotStore store;
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private PathTable docs = new PathTable();
+    private long[] lastModified = new long[256];
+    private long[] lengths = new long[256];
+    private byte[] sha256 = new byte[256 * SHA_LENGTH];
+    private long[] dHashes = new long[256];
+    private long[] pHashes = new long[256];
+    private BitSet decoded = new BitSet();
+    private BitSet deleted = new BitSet();
+    private int numDeleted;
+
+    /**
+     * Opens the store, creating it if it does not exist yet.
+     *
+     * @param dir the directory holding the store
+     */
+    public HashIndex(File dir) {
+        store = new SnapshotStore(dir, "hash index");
+        synchronized (lock) {
+            try {
+                store.readSnapshot(this::readSnapshot);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Could not read hash index, starting from scratch: " + e.toString());
+                docs = new PathTable();
+                grow(256);
+                decoded = new BitSet();
+                deleted = new BitSet();
+                numDeleted = 0;
+            }
+            store.replayLog(this::replay);
+        }
+    }
+
+    /**
+     * @param file         the image file
+     * @param lastModified the current modification time of the file
+     * @param length       the current length of the file
+     * @return the hashes of the file, or null if it has not been hashed in this version
+     */
+    public ImageHashes get(File file, long lastModified, long length) {
+        synchronized (lock) {
+            int doc = findDoc(file.getAbsoluteFile());
+            if (doc < 0 || this.lastModified[doc] != lastModified || lengths[doc] != length) {
+                return null;
+            }
+            return new ImageHashes(Arrays.copyOfRange(sha256, doc * SHA_LENGTH, (doc + 1) * SHA_LENGTH),
+                    decoded.get(doc), dHashes[doc], pHashes[doc]);
+        }
+    }
+
+    /**
+     * Stores the hashes of a file, replacing any former ones.
+     */
+    public void put(File file, long lastModified, long length, ImageHashes hashes) {
+        File abs = file.getAbsoluteFile();
+        synchronized (lock) {
+            applyPut(abs, lastModified, length, hashes);
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                SnapshotStore.writeString(out, abs.getPath());
+                out.writeLong(lastModified);
+                out.writeLong(length);
+                out.write(hashes.getSha256());
+                out.writeBoolean(hashes.isDecoded());
+                out.writeLong(hashes.getDHash());
+                out.writeLong(hashes.getPHash());
+                store.appendToLog(bytes.toByteArray());
+                if (store.getLogRecords() >= SNAPSHOT_THRESHOLD) {
+                    if (numDeleted > docs.size() / 4) {
+                        compact();
+                    }
+                    store.writeSnapshot(this::writeSnapshot);
+                }
+            } catch (IOException e) {
+                System.err.println("Could not write hash index log: " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Closes the log. Changes not yet contained in the snapshot are restored from the log on the next start.
+     */
+    public void close() {
+        synchronized (lock) {
+            store.close();
+        }
+    }
+
+    // caller must synchronize on lock
+    private int findDoc(File abs) {
+        int doc = docs.lastIndexOf(abs);
+        return doc >= 0 && !deleted.get(doc) ? doc : -1;
+    }
+
+    // caller must synchronize on lock
+    private void applyPut(File abs, long modified, long length, ImageHashes hashes) {
+        int former = findDoc(abs);
+        if (former >= 0) {
+            deleted.set(former);
+            numDeleted++;
+        }
+        int doc = docs.add(abs);
+        if (doc >= lengths.length) {
+            grow(2 * lengths.length);
+        }
+        lastModified[doc] = modified;
+        lengths[doc] = length;
+        System.arraycopy(hashes.getSha256(), 0, sha256, doc * SHA_LENGTH, SHA_LENGTH);
+        decoded.set(doc, hashes.isDecoded());
+        dHashes[doc] = hashes.getDHash();
+        pHashes[doc] = hashes.getPHash();
+    }
+
+    // caller must synchronize on lock
+    private void grow(int capacity) {
+        lastModified = Arrays.copyOf(lastModified, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        sha256 = Arrays.copyOf(sha256, capacity * SHA_LENGTH);
+        dHashes = Arrays.copyOf(dHashes, capacity);
+        pHashes = Arrays.copyOf(pHashes, capacity);
+    }
+
+    // caller must synchronize on lock
+    private void replay(ByteBuffer record) {
+        File file = new File(SnapshotStore.readString(record));
+        long modified = record.getLong();
+        long length = record.getLong();
+        byte[] sha = new byte[SHA_LENGTH];
+        record.get(sha);
+        boolean isDecoded = record.get() != 0;
+        long dHash = record.getLong();
+        long pHash = record.getLong();
+        applyPut(file, modified, length, new ImageHashes(sha, isDecoded, dHash, pHash));
+    }
+
+    // caller must synchronize on lock
+    private void writeSnapshot(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        docs.writeTo(out);
+        for (int doc = 0; doc < docs.size(); doc++) {
+            out.writeLong(lastModified[doc]);
+            out.writeLong(lengths[doc]);
+            out.write(sha256, doc * SHA_LENGTH, SHA_LENGTH);
+            out.writeLong(dHashes[doc]);
+            out.writeLong(pHashes[doc]);
+        }
+        writeBits(out, decoded);
+        writeBits(out, deleted);
+    }
+
+    // caller must synchronize on lock
+    private void readSnapshot(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Unknown hash index format");
+        }
+        docs = PathTable.readFrom(in);
+        grow(Math.max(256, docs.size()));
+        for (int doc = 0; doc < docs.size(); doc++) {
+            lastModified[doc] = in.readLong();
+            lengths[doc] = in.readLong();
+            in.readFully(sha256, doc * SHA_LENGTH, SHA_LENGTH);
+            dHashes[doc] = in.readLong();
+            pHashes[doc] = in.readLong();
+        }
+        decoded = readBits(in);
+        deleted = readBits(in);
+        numDeleted = deleted.cardinality();
+    }
+
+    // drops the outdated entries, and renumbers the remaining ones; caller must synchronize on lock
+    private void compact() {
+        PathTable oldDocs = docs;
+        long[] oldModified = lastModified;
+        long[] oldLengths = lengths;
+        byte[] oldSha = sha256;
+        long[] oldDHashes = dHashes;
+        long[] oldPHashes = pHashes;
+        BitSet oldDecoded = decoded;
+        BitSet oldDeleted = deleted;
+        docs = new PathTable();
+        int capacity = Math.max(256, oldDocs.size() - numDeleted);
+        lastModified = new long[capacity];
+        lengths = new long[capacity];
+        sha256 = new byte[capacity * SHA_LENGTH];
+        dHashes = new long[capacity];
+        pHashes = new long[capacity];
+        decoded = new BitSet();
+        deleted = new BitSet();
+        numDeleted = 0;
+        for (int old = 0; old < oldDocs.size(); old++) {
+            if (!oldDeleted.get(old)) {
+                int doc = docs.add(oldDocs, old);
+                lastModified[doc] = oldModified[old];
+                lengths[doc] = oldLengths[old];
+                System.arraycopy(oldSha, old * SHA_LENGTH, sha256, doc * SHA_LENGTH, SHA_LENGTH);
+                dHashes[doc] = oldDHashes[old];
+                pHashes[doc] = oldPHashes[old];
+                decoded.set(doc, oldDecoded.get(old));
+            }
+        }
+        docs.trim();
+    }
+
+    private static void writeBits(DataOutputStream out, BitSet bits) throws IOException {
+        long[] words = bits.toLongArray();
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    private static BitSet readBits(DataInputStream in) throws IOException {
+        long[] words = new long[in.readInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        return BitSet.valueOf(words);
+    }
+
+}
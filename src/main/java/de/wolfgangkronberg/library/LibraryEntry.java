@@ -0,0 +1,133 @@
+package de.wolfgangkronberg.library;
+
+import lombok.Value;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+
+/**
+ * A single image in the library, or the tombstone of an image which has been removed from it
+ */
+@Value
+public class LibraryEntry {
+
+    /**
+     * The library's order of images: by capture time, and by path for images taken at the same time
+     */
+    public static final Comparator<LibraryEntry> BY_TIME = Comparator.comparingLong(LibraryEntry::getCaptureTime)
+            .thenComparing(LibraryEntry::getDirectory).thenComparing(LibraryEntry::getName);
+
+    private static final int FIXED_SIZE = 8 + 8 + 4 + 4 + 1 + 1 + 4 + 2;
+
+    /**
+     * The absolute path of the directory containing the image
+     */
+    private final String directory;
+
+    /**
+     * The file name of the image
+     */
+    private final String name;
+
+    /**
+     * The time the image was taken, as local wall-clock time interpreted as UTC, like {@link
+     * de.wolfgangkronberg.image.PhotoMetadata#getCaptureTime()}; the modification time if the image does not
+     * tell when it was taken
+     */
+    private final long captureTime;
+
+    /**
+     * The modification time of the file when it was added, used to detect changed files
+     */
+    private final long lastModified;
+
+    /**
+     * The width of the image in full resolution, before rotation, or 0 if unknown
+     */
+    private final int width;
+
+    /**
+     * The height of the image in full resolution, before rotation, or 0 if unknown
+     */
+    private final int height;
+
+    /**
+     * The value of the EXIF orientation tag, 1 if unknown
+     */
+    private final int orientation;
+
+    /**
+     * True if the image has been removed from the library
+     */
+    private final boolean deleted;
+
+    /**
+     * @param file the image file which has been removed
+     * @return a tombstone masking all former entries of the file
+     */
+    public static LibraryEntry tombstone(File file) {
+        File abs = file.getAbsoluteFile();
+        return new LibraryEntry(abs.getParent(), abs.getName(), Long.MIN_VALUE, 0, 0, 0, 1, true);
+    }
+
+    public File getFile() {
+        return new File(directory, name);
+    }
+
+    /**
+     * @return true if both entries describe the same file
+     */
+    public boolean isSameFile(LibraryEntry other) {
+        return name.equals(other.name) && directory.equals(other.directory);
+    }
+
+    /**
+     * @return the number of bytes written by {@link #writeTo(ByteBuffer, int)} for this entry, excluding the
+     * directory
+     */
+    int getSerializedSize() {
+        return FIXED_SIZE + name.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Writes the entry, referring to its directory by number.
+     */
+    void writeTo(ByteBuffer buffer, int directoryId) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        buffer.putLong(captureTime);
+        buffer.putLong(lastModified);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.put((byte)orientation);
+        buffer.put((byte)(deleted ? 1 : 0));
+        buffer.putInt(directoryId);
+        buffer.putShort((short)nameBytes.length);
+        buffer.put(nameBytes);
+    }
+
+    /**
+     * Reads an entry written by {@link #writeTo(ByteBuffer, int)}.
+     *
+     * @param directories the directories by number
+     */
+    static LibraryEntry readFrom(ByteBuffer buffer, DirectoryResolver directories) {
+        long captureTime = buffer.getLong();
+        long lastModified = buffer.getLong();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int orientation = buffer.get();
+        boolean deleted = buffer.get() != 0;
+        int directoryId = buffer.getInt();
+        byte[] nameBytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(nameBytes);
+        return new LibraryEntry(directories.getDirectory(directoryId), new String(nameBytes, StandardCharsets.UTF_8),
+                captureTime, lastModified, width, height, orientation, deleted);
+    }
+
+    interface DirectoryResolver {
+        String getDirectory(int id);
+    }
+
+}
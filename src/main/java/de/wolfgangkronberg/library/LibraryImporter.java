@@ -0,0 +1,125 @@
+package de.wolfgangkronberg.library;
+
+import de.wolfgangkronberg.filescanner.ImageFileFilter;
+import de.wolfgangkronberg.image.PhotoMetadata;
+import de.wolfgangkronberg.image.PhotoMetadataReader;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Brings the library up to date with a directory tree: adds new images, updates modified ones, and removes the
+ * ones which have vanished from the directories visited. Unchanged images are recognized by their modification
+ * time, so only new or modified files are opened. Runs on a low-priority background thread.
+ * <p>
+ * If a search index is given, it is kept up to date as well. Images which are unchanged in the library, but missing
+ * from the search index, are added to it, so an index created after the library catches up on the next import.
+ * Likewise, all images are read again until an import has run to its end with the geo index, so an import which is
+ * interrupted before that is resumed on the next start.
+ */
+public class LibraryImporter implements Runnable {
+
+    private final LibraryIndex index;
+    private final SearchIndex search;
+    private final GeoIndex geo;
+    private final File root;
+    private final ImageFileFilter imageFileFilter = new ImageFileFilter();
+
+    private int numImported;
+    private int numRemoved;
+
+    /**
+     * @param index  the library to update
+     * @param search the search index to update, or null if there is none
+     * @param geo    the geo index to update, or null if there is none
+     * @param root   the root of the directory tree to import
+     */
+    public LibraryImporter(LibraryIndex index, SearchIndex search, GeoIndex geo, File root) {
+        this.index = index;
+        this.search = search;
+        this.geo = geo;
+        this.root = root.getAbsoluteFile();
+    }
+
+    /**
+     * Starts the import in the background.
+     */
+    public void start() {
+        Thread thread = new Thread(this, "Library-Import");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        importDirectory(root);
+        if (geo != null && !geo.isComplete()) {
+            geo.markComplete();
+        }
+        if (numImported > 0 || numRemoved > 0) {
+            System.out.println("Library import of " + root.getAbsolutePath() + ": " + numImported + " images added or "
+                    + "updated, " + numRemoved + " removed");
+        }
+    }
+
+    private void importDirectory(File dir) {
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        Set<String> present = new HashSet<>();
+        for (File entry : entries) {
+            if (entry.isDirectory()) {
+                if (!entry.isHidden() && !Files.isSymbolicLink(entry.toPath())) {
+                    importDirectory(entry);
+                }
+            } else if (imageFileFilter.accept(entry)) {
+                present.add(entry.getName());
+                importFile(entry);
+            }
+        }
+        for (LibraryEntry known : index.getDirectory(dir.getPath())) {
+            if (!present.contains(known.getName())) {
+                index.remove(known.getFile());
+                if (search != null) {
+                    search.remove(known.getFile());
+                }
+                if (geo != null) {
+                    geo.remove(known.getFile());
+                }
+                numRemoved++;
+            }
+        }
+    }
+
+    private void importFile(File file) {
+        long lastModified = file.lastModified();
+        LibraryEntry known = index.get(file);
+        if (known != null && known.getLastModified() == lastModified && (search == null || search.contains(file))
+                && (geo == null || geo.isComplete())) {
+            return;
+        }
+        PhotoMetadata metadata = PhotoMetadataReader.read(file);
+        long captureTime = metadata.hasCaptureTime() ? metadata.getCaptureTime()
+                : PhotoMetadata.toWallClock(lastModified);
+        index.put(new LibraryEntry(file.getParent(), file.getName(), captureTime, lastModified,
+                metadata.getWidth(), metadata.getHeight(), metadata.getOrientation(), false));
+        if (search != null) {
+            search.put(file, captureTime, Arrays.asList(metadata.getCamera(), metadata.getLens(),
+                    metadata.getDescription()));
+        }
+        if (geo != null) {
+            if (metadata.hasLocation()) {
+                geo.put(file, captureTime, metadata.getLatitude(), metadata.getLongitude());
+            } else {
+                geo.remove(file);
+            }
+        }
+        numImported++;
+    }
+
+}
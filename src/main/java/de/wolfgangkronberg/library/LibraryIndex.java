@@ -0,0 +1,501 @@
+package de.wolfgangkronberg.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The persistent index of all images in the library, stored in a directory of its own.
+ * <p>
+ * Changes go to an in-memory memtable, backed by an append-only log. Once a memtable is full, it is written to an
+ * immutable, sorted {@link LibrarySegment} in the background, and its log is deleted. Whenever there are too many
+ * segments, they are merged into a single one, dropping superseded entries and tombstones. Memtables and segments
+ * are numbered; of several entries for the same file, the one from the source with the highest number is valid.
+ * <p>
+ * Opening the index maps the segments and replays the logs of memtables not yet written, which is fast regardless
+ * of the size of the library. Reads never block: they work on an immutable snapshot of the current sources.
+ */
+public class LibraryIndex {
+
+    private static final int FLUSH_THRESHOLD = 16384;
+    private static final int MAX_SEGMENTS = 4;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)-(\\d+)\\.dat");
+    private static final Pattern LOG_NAME = Pattern.compile("log-(\\d+)\\.dat");
+
+    private final File dir;
+    private final Object writeLock = new Object();
+    private final ExecutorService maintenance;
+
+    private volatile List<LibrarySource> sources;  // newest first; replaced as a whole under writeLock
+    private LibraryMemtable active;  // guarded by writeLock
+    private LibraryLog log;  // guarded by writeLock
+    private int nextId;  // guarded by writeLock
+
+    /**
+     * Opens the index, creating it if it does not exist yet.
+     *
+     * @param dir the directory holding the index
+     */
+    public LibraryIndex(File dir) {
+        this(dir, Executors.newSingleThreadExecutor(r -> {
+            Thread result = new Thread(r, "Library-Maintenance");
+            result.setDaemon(true);
+            return result;
+        }));
+    }
+
+    /**
+     * @param maintenance runs flushes and compactions one at a time, in the order they are submitted
+     */
+    LibraryIndex(File dir, ExecutorService maintenance) {
+        this.dir = dir;
+        this.maintenance = maintenance;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            System.err.println("Could not create library directory: " + dir.getAbsolutePath());
+        }
+        File[] files = dir.listFiles();
+        if (files == null) {
+            files = new File[0];
+        }
+        List<LibrarySegment> segments = openSegments(files);
+        List<LibraryMemtable> unwritten = replayLogs(files, segments);
+        int maxId = 0;
+        for (LibrarySegment segment : segments) {
+            maxId = Math.max(maxId, segment.getLastId());
+        }
+        for (LibraryMemtable memtable : unwritten) {
+            maxId = Math.max(maxId, memtable.getId());
+        }
+        List<LibrarySource> initial = new ArrayList<>();
+        synchronized (writeLock) {
+            nextId = maxId + 1;
+            startMemtable();
+            initial.add(active);
+            initial.addAll(unwritten);
+            initial.addAll(segments);
+            sources = Collections.unmodifiableList(initial);
+        }
+        // oldest first, so no compaction can merge a segment newer than a memtable which is still to be written
+        for (int i = unwritten.size() - 1; i >= 0; i--) {
+            LibraryMemtable memtable = unwritten.get(i);
+            maintenance.execute(() -> flush(memtable));
+        }
+        maintenance.execute(this::compactIfNeeded);
+    }
+
+    /**
+     * Adds an image to the library, or updates it.
+     */
+    public void put(LibraryEntry entry) {
+        synchronized (writeLock) {
+            try {
+                if (log != null) {
+                    log.append(entry);
+                }
+            } catch (IOException e) {
+                System.err.println("Could not write library log: " + e.toString());
+            }
+            active.put(entry);
+            if (active.size() >= FLUSH_THRESHOLD) {
+                LibraryMemtable full = active;
+                closeLog();
+                startMemtable();
+                List<LibrarySource> newSources = new ArrayList<>(sources);
+                newSources.add(0, active);
+                sources = Collections.unmodifiableList(newSources);
+                maintenance.execute(() -> flush(full));
+            }
+        }
+    }
+
+    /**
+     * Removes an image from the library.
+     */
+    public void remove(File file) {
+        put(LibraryEntry.tombstone(file));
+    }
+
+    /**
+     * @return the library's entry of the given file, or null if it is not in the library
+     */
+    public LibraryEntry get(File file) {
+        File abs = file.getAbsoluteFile();
+        for (LibrarySource source : sources) {
+            LibraryEntry entry = source.find(abs.getParent(), abs.getName());
+            if (entry != null) {
+                return entry.isDeleted() ? null : entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the most recently taken image, or null if the library is empty
+     */
+    public LibraryEntry getLatest() {
+        List<LibraryEntry> result = getNeighbours(null, false, 1);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * @param key     the entry to start from, exclusive; null to start at the beginning or the end of the library
+     * @param forward true for the entries taken later than the key, false for the ones taken earlier
+     * @param max     the maximum number of entries to return
+     * @return the entries next to the key in the order of {@link LibraryEntry#BY_TIME}, nearest first
+     */
+    public List<LibraryEntry> getNeighbours(LibraryEntry key, boolean forward, int max) {
+        List<LibrarySource> snapshot = sources;
+        List<LibraryEntry> candidates = new ArrayList<>();
+        for (int i = 0; i < snapshot.size(); i++) {
+            int sourceIdx = i;
+            int[] found = {0};
+            snapshot.get(i).forEach(key, forward, entry -> {
+                if (isValid(entry, snapshot, sourceIdx)) {
+                    candidates.add(entry);
+                    return ++found[0] < max;
+                }
+                return true;
+            });
+        }
+        candidates.sort(forward ? LibraryEntry.BY_TIME : LibraryEntry.BY_TIME.reversed());
+        return candidates.size() > max ? new ArrayList<>(candidates.subList(0, max)) : candidates;
+    }
+
+    /**
+     * @param fromTime the earliest capture time, inclusive
+     * @param toTime   the latest capture time, exclusive
+     * @param max      the maximum number of entries to return
+     * @return the images taken within the given range, sorted by {@link LibraryEntry#BY_TIME}
+     */
+    public List<LibraryEntry> scan(long fromTime, long toTime, int max) {
+        // sorts before all entries of fromTime, since every directory name is longer than the empty one
+        LibraryEntry key = new LibraryEntry("", "", fromTime, 0, 0, 0, 1, false);
+        List<LibraryEntry> result = new ArrayList<>();
+        while (result.size() < max) {
+            List<LibraryEntry> chunk = getNeighbours(key, true, Math.min(max - result.size(), 1024));
+            for (LibraryEntry entry : chunk) {
+                if (entry.getCaptureTime() >= toTime) {
+                    return result;
+                }
+                result.add(entry);
+            }
+            if (chunk.isEmpty()) {
+                break;
+            }
+            key = chunk.get(chunk.size() - 1);
+        }
+        return result;
+    }
+
+    /**
+     * @return the images of the given directory, sorted by {@link LibraryEntry#BY_TIME}
+     */
+    public List<LibraryEntry> getDirectory(String directory) {
+        Set<String> seen = new HashSet<>();
+        List<LibraryEntry> result = new ArrayList<>();
+        for (LibrarySource source : sources) {
+            for (LibraryEntry entry : source.readDirectory(directory)) {
+                if (seen.add(entry.getName()) && !entry.isDeleted()) {
+                    result.add(entry);
+                }
+            }
+        }
+        result.sort(LibraryEntry.BY_TIME);
+        return result;
+    }
+
+    /**
+     * @return all directories containing images, sorted by the capture time of their earliest image. Directories
+     * whose images have all been removed or moved may still be listed until the next compaction.
+     */
+    public List<String> getDirectoriesByTime() {
+        Map<String, Long> earliest = new HashMap<>();
+        for (LibrarySource source : sources) {
+            source.collectDirectories(earliest);
+        }
+        List<String> result = new ArrayList<>(earliest.keySet());
+        result.sort(Comparator.comparing((String d) -> earliest.get(d)).thenComparing(Comparator.naturalOrder()));
+        return result;
+    }
+
+    /**
+     * Flushes the log of the current memtable to disk. Changes not yet written to a segment are restored from the
+     * log on the next start.
+     */
+    public void close() {
+        synchronized (writeLock) {
+            closeLog();
+            log = null;
+        }
+        maintenance.shutdown();
+    }
+
+    // an entry from sources[idx] is valid if it is no tombstone, and no newer source knows its file
+    private static boolean isValid(LibraryEntry entry, List<? extends LibrarySource> sources, int idx) {
+        if (entry.isDeleted()) {
+            return false;
+        }
+        for (int i = 0; i < idx; i++) {
+            if (sources.get(i).find(entry.getDirectory(), entry.getName()) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // caller must synchronize on writeLock
+    private void startMemtable() {
+        active = new LibraryMemtable(nextId++);
+        try {
+            log = new LibraryLog(getLogFile(active.getId()));
+        } catch (IOException e) {
+            System.err.println("Could not create library log: " + e.toString());
+            log = null;
+        }
+    }
+
+    // caller must synchronize on writeLock
+    private void closeLog() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.err.println("Could not close library log: " + e.toString());
+            }
+        }
+    }
+
+    private void flush(LibraryMemtable memtable) {
+        File file = getSegmentFile(memtable.getId(), memtable.getId());
+        LibrarySegment segment;
+        try {
+            LibrarySegment.write(file, memtable.getEntries());
+            segment = new LibrarySegment(file, memtable.getId(), memtable.getId());
+        } catch (IOException e) {
+            System.err.println("Could not write library segment: " + e.toString());
+            return;  // the memtable stays in memory, and its log on disk
+        }
+        synchronized (writeLock) {
+            List<LibrarySource> newSources = new ArrayList<>(sources);
+            newSources.set(newSources.indexOf(memtable), segment);
+            sources = Collections.unmodifiableList(newSources);
+        }
+        deleteFile(getLogFile(memtable.getId()));
+        compactIfNeeded();
+    }
+
+    // merges the segments older than every memtable; a newer one would shadow the memtable once it is written,
+    // and its range would swallow the memtable's id
+    private void compactIfNeeded() {
+        List<LibrarySource> snapshot = sources;
+        int oldestMemtable = Integer.MAX_VALUE;
+        for (LibrarySource source : snapshot) {
+            if (source instanceof LibraryMemtable) {
+                oldestMemtable = Math.min(oldestMemtable, ((LibraryMemtable)source).getId());
+            }
+        }
+        int segmentCount = 0;
+        List<LibrarySegment> segments = new ArrayList<>();
+        for (LibrarySource source : snapshot) {
+            if (source instanceof LibrarySegment) {
+                segmentCount++;
+                if (((LibrarySegment)source).getLastId() < oldestMemtable) {
+                    segments.add((LibrarySegment)source);
+                }
+            }
+        }
+        if (segmentCount <= MAX_SEGMENTS || segments.size() < 2) {
+            return;
+        }
+        int firstId = segments.get(segments.size() - 1).getFirstId();
+        int lastId = segments.get(0).getLastId();
+        File file = getSegmentFile(firstId, lastId);
+        LibrarySegment merged;
+        try {
+            LibrarySegment.write(file, () -> new MergeIterator(segments));
+            merged = new LibrarySegment(file, firstId, lastId);
+        } catch (IOException e) {
+            System.err.println("Could not compact library: " + e.toString());
+            return;
+        }
+        synchronized (writeLock) {
+            List<LibrarySource> newSources = new ArrayList<>(sources);
+            newSources.removeAll(segments);
+            newSources.add(merged);  // the merged segments were the oldest sources, and still are
+            sources = Collections.unmodifiableList(newSources);
+        }
+        for (LibrarySegment segment : segments) {
+            deleteFile(segment.getFile());
+        }
+    }
+
+    private List<LibrarySegment> openSegments(File[] files) {
+        List<LibrarySegment> result = new ArrayList<>();
+        List<int[]> ranges = new ArrayList<>();
+        List<File> segmentFiles = new ArrayList<>();
+        for (File file : files) {
+            Matcher m = SEGMENT_NAME.matcher(file.getName());
+            if (m.matches()) {
+                segmentFiles.add(file);
+                ranges.add(new int[]{Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2))});
+            } else if (file.getName().endsWith(".tmp")) {
+                deleteFile(file);  // left behind by a crash while writing
+            }
+        }
+        for (int i = 0; i < segmentFiles.size(); i++) {
+            if (isCovered(ranges.get(i), ranges)) {
+                deleteFile(segmentFiles.get(i));  // left behind by a crash after compaction
+                continue;
+            }
+            try {
+                result.add(new LibrarySegment(segmentFiles.get(i), ranges.get(i)[0], ranges.get(i)[1]));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Dropping unreadable library segment " + segmentFiles.get(i).getName() + ": "
+                        + e.toString());
+            }
+        }
+        result.sort(Comparator.comparingInt(LibrarySegment::getLastId).reversed());
+        return result;
+    }
+
+    // true if another range contains the given one, and is larger
+    private boolean isCovered(int[] range, List<int[]> ranges) {
+        for (int[] other : ranges) {
+            if (other != range && other[0] <= range[0] && other[1] >= range[1]
+                    && other[1] - other[0] > range[1] - range[0]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<LibraryMemtable> replayLogs(File[] files, List<LibrarySegment> segments) {
+        List<LibraryMemtable> result = new ArrayList<>();
+        for (File file : files) {
+            Matcher m = LOG_NAME.matcher(file.getName());
+            if (!m.matches()) {
+                continue;
+            }
+            int id = Integer.parseInt(m.group(1));
+            boolean written = false;
+            for (LibrarySegment segment : segments) {
+                written |= segment.getFirstId() <= id && id <= segment.getLastId();
+            }
+            if (written) {
+                deleteFile(file);  // left behind by a crash after writing the segment
+                continue;
+            }
+            LibraryMemtable memtable = new LibraryMemtable(id);
+            try {
+                LibraryLog.replay(file, memtable::put);
+                result.add(memtable);
+            } catch (IOException e) {
+                System.err.println("Could not read library log " + file.getName() + ": " + e.toString());
+            }
+        }
+        result.sort(Comparator.comparingInt(LibraryMemtable::getId).reversed());
+        return result;
+    }
+
+    private File getSegmentFile(int firstId, int lastId) {
+        return new File(dir, String.format("segment-%06d-%06d.dat", firstId, lastId));
+    }
+
+    private File getLogFile(int id) {
+        return new File(dir, String.format("log-%06d.dat", id));
+    }
+
+    private void deleteFile(File file) {
+        if (!file.delete()) {
+            file.deleteOnExit();  // e.g. on Windows, a mapped file cannot be deleted before it is unmapped
+        }
+    }
+
+    /**
+     * Merges segments in the order of {@link LibraryEntry#BY_TIME}, dropping tombstones and superseded entries.
+     * Since the oldest segments are merged, no older entry can be left which a dropped tombstone would have to mask.
+     */
+    private static class MergeIterator implements Iterator<LibraryEntry> {
+
+        private final List<LibrarySegment> segments;  // newest first
+        private final List<Iterator<LibraryEntry>> iterators = new ArrayList<>();
+        private final PriorityQueue<Head> heads = new PriorityQueue<>();
+        private LibraryEntry next;
+
+        MergeIterator(List<LibrarySegment> segments) {
+            this.segments = segments;
+            for (int i = 0; i < segments.size(); i++) {
+                iterators.add(segments.get(i).iterator());
+                advance(i);
+            }
+            findNext();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public LibraryEntry next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            LibraryEntry result = next;
+            findNext();
+            return result;
+        }
+
+        private void advance(int idx) {
+            Iterator<LibraryEntry> it = iterators.get(idx);
+            if (it.hasNext()) {
+                heads.add(new Head(it.next(), idx));
+            }
+        }
+
+        private void findNext() {
+            next = null;
+            while (next == null && !heads.isEmpty()) {
+                Head head = heads.poll();
+                advance(head.idx);
+                if (isValid(head.entry, segments, head.idx)) {
+                    next = head.entry;
+                }
+            }
+        }
+
+        private static class Head implements Comparable<Head> {
+
+            private final LibraryEntry entry;
+            private final int idx;
+
+            Head(LibraryEntry entry, int idx) {
+                this.entry = entry;
+                this.idx = idx;
+            }
+
+            @Override
+            public int compareTo(Head other) {
+                int result = LibraryEntry.BY_TIME.compare(entry, other.entry);
+                return result != 0 ? result : Integer.compare(idx, other.idx);
+            }
+
+        }
+
+    }
+
+}
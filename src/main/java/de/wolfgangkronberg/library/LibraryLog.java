@@ -0,0 +1,82 @@
+package de.wolfgangkronberg.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * The append-only log of changes held by a {@link LibraryMemtable}, so they survive a restart before the memtable
+ * has been written to a segment. Each record is {@code int length, short directory length, UTF-8 directory, entry}.
+ * A torn record at the end of the log, left by a crash, is ignored.
+ */
+class LibraryLog {
+
+    private final File file;
+    private final FileChannel channel;
+
+    LibraryLog(File file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    void append(LibraryEntry entry) throws IOException {
+        byte[] dir = entry.getDirectory().getBytes(StandardCharsets.UTF_8);
+        int length = 2 + dir.length + entry.getSerializedSize();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length);
+        buffer.putShort((short)dir.length);
+        buffer.put(dir);
+        entry.writeTo(buffer, 0);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    void close() throws IOException {
+        channel.force(false);
+        channel.close();
+    }
+
+    /**
+     * Passes all intact records of a log file to the consumer, in the order they were written.
+     */
+    static void replay(File file, Consumer<LibraryEntry> consumer) throws IOException {
+        ByteBuffer data;
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            data = ByteBuffer.allocate((int)Math.min(Integer.MAX_VALUE, in.size()));
+            while (data.hasRemaining() && in.read(data) >= 0) {
+                // read fully
+            }
+        }
+        data.flip();
+        while (data.remaining() >= 4) {
+            int length = data.getInt();
+            if (length <= 0 || length > data.remaining()) {
+                break;  // torn write
+            }
+            ByteBuffer record = data.slice();
+            record.limit(length);
+            data.position(data.position() + length);
+            try {
+                byte[] dir = new byte[record.getShort() & 0xffff];
+                record.get(dir);
+                String directory = new String(dir, StandardCharsets.UTF_8);
+                consumer.accept(LibraryEntry.readFrom(record, id -> directory));
+            } catch (BufferUnderflowException e) {
+                break;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package de.wolfgangkronberg.library;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Predicate;
+
+/**
+ * The most recent changes of the library, held in memory until they are written to a segment. Each memtable is
+ * backed by a log file of the same id, from which it is restored after a restart.
+ */
+class LibraryMemtable implements LibrarySource {
+
+    private final int id;
+    private final ConcurrentSkipListSet<LibraryEntry> sorted = new ConcurrentSkipListSet<>(LibraryEntry.BY_TIME);
+    private final ConcurrentHashMap<String, LibraryEntry> byPath = new ConcurrentHashMap<>();
+
+    /**
+     * @param id the id of the segment this memtable will be written to
+     */
+    LibraryMemtable(int id) {
+        this.id = id;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Adds an entry, replacing any former entry of the same file. Must not be called concurrently.
+     */
+    void put(LibraryEntry entry) {
+        LibraryEntry old = byPath.put(pathKey(entry.getDirectory(), entry.getName()), entry);
+        if (old != null) {
+            sorted.remove(old);  // also if it sorts equal to the new entry, since the set would keep it then
+        }
+        sorted.add(entry);
+    }
+
+    int size() {
+        return byPath.size();
+    }
+
+    /**
+     * @return all entries, sorted by {@link LibraryEntry#BY_TIME}
+     */
+    List<LibraryEntry> getEntries() {
+        return new ArrayList<>(sorted);
+    }
+
+    @Override
+    public LibraryEntry find(String directory, String name) {
+        return byPath.get(pathKey(directory, name));
+    }
+
+    @Override
+    public List<LibraryEntry> readDirectory(String directory) {
+        List<LibraryEntry> result = new ArrayList<>();
+        for (LibraryEntry entry : sorted) {
+            if (entry.getDirectory().equals(directory)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void collectDirectories(Map<String, Long> earliest) {
+        for (LibraryEntry entry : sorted) {
+            if (!entry.isDeleted()) {
+                earliest.merge(entry.getDirectory(), entry.getCaptureTime(), Math::min);
+            }
+        }
+    }
+
+    @Override
+    public void forEach(LibraryEntry key, boolean forward, Predicate<LibraryEntry> consumer) {
+        NavigableSet<LibraryEntry> set;
+        if (key == null) {
+            set = forward ? sorted : sorted.descendingSet();
+        } else {
+            set = forward ? sorted.tailSet(key, false) : sorted.headSet(key, false).descendingSet();
+        }
+        for (LibraryEntry entry : set) {
+            if (!consumer.test(entry)) {
+                return;
+            }
+        }
+    }
+
+    private static String pathKey(String directory, String name) {
+        return directory + '\0' + name;
+    }
+
+}
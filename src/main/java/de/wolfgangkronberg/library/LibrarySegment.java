@@ -0,0 +1,430 @@
+package de.wolfgangkronberg.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * An immutable, memory-mapped file of library entries, sorted by {@link LibraryEntry#BY_TIME}.
+ * <p>
+ * Besides the entries themselves, a segment holds a sparse index of their capture times, one per block of
+ * {@value #BLOCK_SIZE} entries, and a second order of all entries grouped by directory, together with a table of
+ * directories sorted by name; within a directory, entries are sorted by the UTF-8 bytes of their names, so a
+ * single file is found by two binary searches. Opening a segment just maps it and checks its header; all lookups
+ * work on the mapped bytes, so nothing but the directory names decoded so far ends up on the heap.
+ * <p>
+ * Layout: a header of {@value #HEADER_SIZE} bytes, the entries, the time index ({@code long time, int offset} per
+ * block), the directory order (the offset of each entry, sorted by directory and name), the offsets of the directory
+ * records, and the directory records themselves ({@code int first position in the directory order, int count,
+ * long earliest time, short length, UTF-8 name}).
+ */
+class LibrarySegment implements LibrarySource {
+
+    static final int BLOCK_SIZE = 64;
+    static final int HEADER_SIZE = 64;
+
+    private static final int MAGIC = 0x4b534c53;  // "KSLS"
+    private static final int VERSION = 1;
+    private static final int TIME_INDEX_ENTRY_SIZE = 12;
+    private static final int DIRECTORY_RECORD_FIXED_SIZE = 4 + 4 + 8 + 2;
+    private static final int NAME_LENGTH_OFFSET = 8 + 8 + 4 + 4 + 1 + 1 + 4;  // within a serialized entry
+
+    private final File file;
+    private final int firstId;
+    private final int lastId;
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int directoryCount;
+    private final int timeIndexOffset;
+    private final int directoryOrderOffset;
+    private final int directoryOffsetsOffset;
+    private final String[] directoryNames;  // decoded lazily
+
+    /**
+     * Maps an existing segment file.
+     *
+     * @param file    the segment file
+     * @param firstId the id of the oldest memtable merged into this segment
+     * @param lastId  the id of the newest memtable merged into this segment
+     */
+    LibrarySegment(File file, int firstId, int lastId) throws IOException {
+        this.file = file;
+        this.firstId = firstId;
+        this.lastId = lastId;
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("unexpected size " + channel.size());
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer = mapped;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("not a library segment");
+        }
+        count = buffer.getInt(8);
+        directoryCount = buffer.getInt(12);
+        timeIndexOffset = buffer.getInt(16);
+        directoryOrderOffset = buffer.getInt(20);
+        directoryOffsetsOffset = buffer.getInt(24);
+        if (buffer.getInt(28) != buffer.limit() || count < 0 || directoryCount < 0
+                || directoryOffsetsOffset + 4L * directoryCount > buffer.limit()) {
+            throw new IOException("truncated segment");
+        }
+        directoryNames = new String[directoryCount];
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    int getFirstId() {
+        return firstId;
+    }
+
+    int getLastId() {
+        return lastId;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    @Override
+    public LibraryEntry find(String directory, String name) {
+        int dir = findDirectory(directory);
+        if (dir < 0) {
+            return null;
+        }
+        ByteBuffer record = getDirectoryRecord(dir);
+        int low = record.getInt();
+        int high = low + record.getInt() - 1;
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = buffer.getInt(directoryOrderOffset + 4 * mid);
+            int c = compareName(buffer, offset, nameBytes);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return readEntry(offset);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<LibraryEntry> readDirectory(String directory) {
+        int dir = findDirectory(directory);
+        if (dir < 0) {
+            return new ArrayList<>();
+        }
+        ByteBuffer record = getDirectoryRecord(dir);
+        int first = record.getInt();
+        int num = record.getInt();
+        List<LibraryEntry> result = new ArrayList<>(num);
+        for (int i = first; i < first + num; i++) {
+            result.add(readEntry(buffer.getInt(directoryOrderOffset + 4 * i)));
+        }
+        result.sort(LibraryEntry.BY_TIME);
+        return result;
+    }
+
+    @Override
+    public void collectDirectories(Map<String, Long> earliest) {
+        for (int dir = 0; dir < directoryCount; dir++) {
+            ByteBuffer record = getDirectoryRecord(dir);
+            record.getInt();
+            record.getInt();
+            long time = record.getLong();
+            if (time != Long.MAX_VALUE) {  // not just tombstones
+                earliest.merge(getDirectoryName(dir), time, Math::min);
+            }
+        }
+    }
+
+    @Override
+    public void forEach(LibraryEntry key, boolean forward, Predicate<LibraryEntry> consumer) {
+        if (count == 0) {
+            return;
+        }
+        int numBlocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int block = key == null ? (forward ? 0 : numBlocks - 1) : findBlock(key.getCaptureTime(), forward);
+        if (forward) {
+            for (; block < numBlocks; block++) {
+                for (LibraryEntry entry : readBlock(block)) {
+                    if ((key == null || LibraryEntry.BY_TIME.compare(entry, key) > 0) && !consumer.test(entry)) {
+                        return;
+                    }
+                }
+            }
+        } else {
+            for (; block >= 0; block--) {
+                List<LibraryEntry> entries = readBlock(block);
+                for (int i = entries.size() - 1; i >= 0; i--) {
+                    LibraryEntry entry = entries.get(i);
+                    if ((key == null || LibraryEntry.BY_TIME.compare(entry, key) < 0) && !consumer.test(entry)) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return all entries in the order of {@link LibraryEntry#BY_TIME}, read lazily from the mapped file
+     */
+    Iterator<LibraryEntry> iterator() {
+        return new Iterator<>() {
+
+            private final ByteBuffer reader = positioned(HEADER_SIZE);
+            private int remaining = count;
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            @Override
+            public LibraryEntry next() {
+                if (remaining == 0) {
+                    throw new NoSuchElementException();
+                }
+                remaining--;
+                return LibraryEntry.readFrom(reader, LibrarySegment.this::getDirectoryName);
+            }
+        };
+    }
+
+    // forward: the last block whose first entry was taken before the given time, so no entry of equal time is
+    // skipped; backward: the last block whose first entry was taken no later than the given time
+    private int findBlock(long time, boolean forward) {
+        int low = 0;
+        int high = (count + BLOCK_SIZE - 1) / BLOCK_SIZE - 1;
+        int result = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long first = buffer.getLong(timeIndexOffset + TIME_INDEX_ENTRY_SIZE * mid);
+            if (first < time || (!forward && first == time)) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    private List<LibraryEntry> readBlock(int block) {
+        ByteBuffer reader = positioned(buffer.getInt(timeIndexOffset + TIME_INDEX_ENTRY_SIZE * block + 8));
+        int num = Math.min(BLOCK_SIZE, count - block * BLOCK_SIZE);
+        List<LibraryEntry> result = new ArrayList<>(num);
+        for (int i = 0; i < num; i++) {
+            result.add(LibraryEntry.readFrom(reader, this::getDirectoryName));
+        }
+        return result;
+    }
+
+    private LibraryEntry readEntry(int offset) {
+        return LibraryEntry.readFrom(positioned(offset), this::getDirectoryName);
+    }
+
+    private ByteBuffer positioned(int offset) {
+        ByteBuffer result = buffer.duplicate();
+        result.position(offset);
+        return result;
+    }
+
+    // binary search in the directory table, which is sorted by name
+    private int findDirectory(String directory) {
+        int low = 0;
+        int high = directoryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = getDirectoryName(mid).compareTo(directory);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int getDirectoryRecordOffset(int dir) {
+        return buffer.getInt(directoryOffsetsOffset + 4 * dir);
+    }
+
+    private ByteBuffer getDirectoryRecord(int dir) {
+        return positioned(getDirectoryRecordOffset(dir));
+    }
+
+    private String getDirectoryName(int dir) {
+        String result = directoryNames[dir];
+        if (result == null) {
+            ByteBuffer record = getDirectoryRecord(dir);
+            record.position(record.position() + DIRECTORY_RECORD_FIXED_SIZE - 2);
+            byte[] bytes = new byte[record.getShort() & 0xffff];
+            record.get(bytes);
+            result = new String(bytes, StandardCharsets.UTF_8);
+            directoryNames[dir] = result;  // a benign race: concurrent readers decode the same string
+        }
+        return result;
+    }
+
+    /**
+     * Writes a new segment. The file appears atomically, i.e. after a crash it is either complete or missing.
+     *
+     * @param file    the segment file to create
+     * @param entries the entries to write, sorted by {@link LibraryEntry#BY_TIME}; iterated twice
+     */
+    static void write(File file, Iterable<LibraryEntry> entries) throws IOException {
+
+        // first pass: collect the directories, and the size of the file
+        TreeMap<String, Integer> directories = new TreeMap<>();
+        long entryBytes = 0;
+        int count = 0;
+        for (LibraryEntry entry : entries) {
+            directories.put(entry.getDirectory(), 0);
+            entryBytes += entry.getSerializedSize();
+            count++;
+        }
+        String[] dirNames = directories.keySet().toArray(new String[0]);
+        byte[][] dirBytes = new byte[dirNames.length][];
+        long directoryBytes = 0;
+        for (int i = 0; i < dirNames.length; i++) {
+            directories.put(dirNames[i], i);
+            dirBytes[i] = dirNames[i].getBytes(StandardCharsets.UTF_8);
+            directoryBytes += DIRECTORY_RECORD_FIXED_SIZE + dirBytes[i].length;
+        }
+        int numBlocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        long timeIndexOffset = HEADER_SIZE + entryBytes;
+        long directoryOrderOffset = timeIndexOffset + (long)TIME_INDEX_ENTRY_SIZE * numBlocks;
+        long directoryOffsetsOffset = directoryOrderOffset + 4L * count;
+        long directoryRecordsOffset = directoryOffsetsOffset + 4L * dirNames.length;
+        long size = directoryRecordsOffset + directoryBytes;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("library segment would exceed 2 GB");
+        }
+
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            // second pass: the entries and the time index
+            int[] dirIds = new int[count];
+            int[] offsets = new int[count];
+            long[] earliest = new long[dirNames.length];
+            Arrays.fill(earliest, Long.MAX_VALUE);
+            out.position(HEADER_SIZE);
+            int n = 0;
+            for (LibraryEntry entry : entries) {
+                int dir = directories.get(entry.getDirectory());
+                offsets[n] = out.position();
+                if (n % BLOCK_SIZE == 0) {
+                    int indexEntry = (int)timeIndexOffset + TIME_INDEX_ENTRY_SIZE * (n / BLOCK_SIZE);
+                    out.putLong(indexEntry, entry.getCaptureTime());
+                    out.putInt(indexEntry + 8, offsets[n]);
+                }
+                dirIds[n] = dir;
+                if (!entry.isDeleted()) {
+                    earliest[dir] = Math.min(earliest[dir], entry.getCaptureTime());
+                }
+                entry.writeTo(out, dir);
+                n++;
+            }
+            if (n != count) {
+                throw new IOException("entries changed while being written");
+            }
+
+            // the directory order: by directory, then by name, compared on the bytes just written
+            Integer[] dirOrder = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                dirOrder[i] = i;
+            }
+            Arrays.sort(dirOrder, (i1, i2) -> {
+                int c = Integer.compare(dirIds[i1], dirIds[i2]);
+                return c != 0 ? c : compareNames(out, offsets[i1], offsets[i2]);
+            });
+            int[] firstPosition = new int[dirNames.length];
+            int[] numEntries = new int[dirNames.length];
+            for (int i = 0; i < count; i++) {
+                int dir = dirIds[dirOrder[i]];
+                if (numEntries[dir]++ == 0) {
+                    firstPosition[dir] = i;
+                }
+                out.putInt((int)directoryOrderOffset + 4 * i, offsets[dirOrder[i]]);
+            }
+
+            // the directory table
+            out.position((int)directoryRecordsOffset);
+            for (int dir = 0; dir < dirNames.length; dir++) {
+                out.putInt((int)directoryOffsetsOffset + 4 * dir, out.position());
+                out.putInt(firstPosition[dir]);
+                out.putInt(numEntries[dir]);
+                out.putLong(earliest[dir]);
+                out.putShort((short)dirBytes[dir].length);
+                out.put(dirBytes[dir]);
+            }
+
+            out.putInt(0, MAGIC);
+            out.putInt(4, VERSION);
+            out.putInt(8, count);
+            out.putInt(12, dirNames.length);
+            out.putInt(16, (int)timeIndexOffset);
+            out.putInt(20, (int)directoryOrderOffset);
+            out.putInt(24, (int)directoryOffsetsOffset);
+            out.putInt(28, (int)size);
+            out.force();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // compares the name of the entry at the given offset with the given name, as unsigned bytes
+    private static int compareName(ByteBuffer data, int offset, byte[] name) {
+        int length = data.getShort(offset + NAME_LENGTH_OFFSET) & 0xffff;
+        int start = offset + NAME_LENGTH_OFFSET + 2;
+        for (int i = 0; i < Math.min(length, name.length); i++) {
+            int c = Integer.compare(data.get(start + i) & 0xff, name[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(length, name.length);
+    }
+
+    // compares the names of the entries at the given offsets, as unsigned bytes
+    private static int compareNames(ByteBuffer data, int offset1, int offset2) {
+        int length1 = data.getShort(offset1 + NAME_LENGTH_OFFSET) & 0xffff;
+        int length2 = data.getShort(offset2 + NAME_LENGTH_OFFSET) & 0xffff;
+        int start1 = offset1 + NAME_LENGTH_OFFSET + 2;
+        int start2 = offset2 + NAME_LENGTH_OFFSET + 2;
+        for (int i = 0; i < Math.min(length1, length2); i++) {
+            int c = Integer.compare(data.get(start1 + i) & 0xff, data.get(start2 + i) & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(length1, length2);
+    }
+
+}
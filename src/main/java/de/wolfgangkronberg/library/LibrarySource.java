@@ -0,0 +1,39 @@
+package de.wolfgangkronberg.library;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A sorted collection of library entries, either in memory or on disk. Newer sources override older ones: an
+ * entry is only valid if no newer source contains an entry for the same file.
+ */
+interface LibrarySource {
+
+    /**
+     * @return the entry of the given file, possibly a tombstone, or null if this source does not know the file
+     */
+    LibraryEntry find(String directory, String name);
+
+    /**
+     * @return the entries of the given directory, including tombstones, sorted by {@link LibraryEntry#BY_TIME}
+     */
+    List<LibraryEntry> readDirectory(String directory);
+
+    /**
+     * Adds the directories of this source to the given map, each with the earliest capture time of its entries,
+     * unless the map already contains an earlier time.
+     */
+    void collectDirectories(Map<String, Long> earliest);
+
+    /**
+     * Passes the entries following or preceding the key to the consumer, nearest first, including tombstones,
+     * until the consumer returns false.
+     *
+     * @param key      the entry to start from, exclusive; null to start at the very beginning or end
+     * @param forward  true to iterate in the order of {@link LibraryEntry#BY_TIME}, false for the reverse order
+     * @param consumer receives the entries; returns false to stop the iteration
+     */
+    void forEach(LibraryEntry key, boolean forward, Predicate<LibraryEntry> consumer);
+
+}
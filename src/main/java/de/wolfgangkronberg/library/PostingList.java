@@ -0,0 +1,107 @@
+package de.wolfgangkronberg.library;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The ascending IDs of the documents which contain a certain term, compressed as the differences between
+ * consecutive IDs in variable-byte encoding: seven bits per byte, with the high bit set on all but the last byte of
+ * a number. Most differences fit into a single byte. Not thread-safe.
+ */
+class PostingList {
+
+    private byte[] data;
+    private int length;
+    private int count;
+    private int lastDoc = -1;
+
+    PostingList() {
+        data = new byte[4];
+    }
+
+    private PostingList(byte[] data, int count, int lastDoc) {
+        this.data = data;
+        length = data.length;
+        this.count = count;
+        this.lastDoc = lastDoc;
+    }
+
+    /**
+     * @param doc a document ID greater than all IDs added before; smaller or equal IDs are ignored
+     */
+    void add(int doc) {
+        if (doc <= lastDoc) {
+            return;
+        }
+        int delta = doc - lastDoc;
+        lastDoc = doc;
+        count++;
+        if (length + 5 > data.length) {
+            data = Arrays.copyOf(data, Math.max(length + 5, data.length * 2));
+        }
+        while (delta >= 0x80) {
+            data[length++] = (byte)(delta | 0x80);
+            delta >>>= 7;
+        }
+        data[length++] = (byte)delta;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Sets the bits of all documents in the list.
+     */
+    void addTo(BitSet docs) {
+        int doc = -1;
+        int i = 0;
+        while (i < length) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[i++];
+                delta |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            doc += delta;
+            docs.set(doc);
+        }
+    }
+
+    /**
+     * @param mapping the new ID of each old document ID, or -1 if the document is dropped; must preserve the order
+     * @return a new list with the IDs mapped, or null if no document is left
+     */
+    PostingList remap(int[] mapping) {
+        BitSet docs = new BitSet();
+        addTo(docs);
+        PostingList result = new PostingList();
+        for (int doc = docs.nextSetBit(0); doc >= 0; doc = docs.nextSetBit(doc + 1)) {
+            if (mapping[doc] >= 0) {
+                result.add(mapping[doc]);
+            }
+        }
+        return result.count == 0 ? null : result;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(count);
+        out.writeInt(lastDoc);
+        out.writeInt(length);
+        out.write(data, 0, length);
+    }
+
+    static PostingList readFrom(DataInput in) throws IOException {
+        int count = in.readInt();
+        int lastDoc = in.readInt();
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return new PostingList(data, count, lastDoc);
+    }
+
+}
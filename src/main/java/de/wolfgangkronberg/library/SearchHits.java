@@ -0,0 +1,60 @@
+package de.wolfgangkronberg.library;
+
+import de.wolfgangkronberg.filescanner.PathTable;
+
+import java.io.File;
+import java.util.function.Supplier;
+
+/**
+ * The images found by a query to the {@link SearchIndex} or the {@link GeoIndex}, sorted by capture time. The result
+ * is a snapshot: it does not change when the index is updated, but it can be refreshed.
+ */
+public class SearchHits {
+
+    private final String query;
+    private final PathTable files;
+    private final Supplier<SearchHits> requery;
+
+    /**
+     * @param query   the query, as shown to the user
+     * @param files   the images found
+     * @param requery runs the same query again
+     */
+    SearchHits(String query, PathTable files, Supplier<SearchHits> requery) {
+        this.query = query;
+        this.files = files;
+        this.requery = requery;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * @param idx the position of the image within the hits
+     * @return the image file
+     */
+    public File getFile(int idx) {
+        return files.getFile(idx);
+    }
+
+    /**
+     * @param file an image file
+     * @return the position of the image within the hits, or -1 if it has not been found
+     */
+    public int indexOf(File file) {
+        return files.indexOf(file.getAbsoluteFile());
+    }
+
+    /**
+     * @return the result of running the same query again
+     */
+    public SearchHits refresh() {
+        return requery.get();
+    }
+
+}
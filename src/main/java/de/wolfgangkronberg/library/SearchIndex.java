@@ -0,0 +1,345 @@
+package de.wolfgangkronberg.library;
+
+import de.wolfgangkronberg.filescanner.IndexSorter;
+import de.wolfgangkronberg.filescanner.PathTable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The free-text search index of the library: an inverted index from terms to the images whose file name, directory
+ * names, or metadata texts (camera, lens, description, and later tags and titles) contain them.
+ * <p>
+ * Each image is a document with an int ID, assigned in ascending order as images are added. The document IDs of
+ * each term are held in a compressed {@link PostingList}; the terms are sorted, so all terms starting with a
+ * query word are found by a range lookup. An updated image gets a new document ID, and the old one is marked as
+ * deleted.
+ * <p>
+ * The index lives in memory. It is stored as a snapshot plus an append-only log of the changes since, which is
+ * replayed on startup; once the log has grown large enough, a new snapshot is written, dropping deleted documents.
+ */
+public class SearchIndex {
+
+    private static final int MAGIC = 0x6b735349;  // "ksSI"
+    private static final int VERSION = 1;
+    private static final int SNAPSHOT_THRESHOLD = 65536;
+    private static final byte OP_REMOVE = 0;
+    private static final byte OP_PUT = 1;
+    private static final int LARGE_RESULT_FRACTION = 64;
+
+    private final SnapshotStore store;
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private PathTable docs = new PathTable();
+    private long[] times = new long[256];  // the capture time of each document
+    private BitSet deleted = new BitSet();
+    private int numDeleted;
+    private TreeMap<String, PostingList> terms = new TreeMap<>();
+    private int[] docsByTime;  // all document IDs sorted by capture time, or null if outdated
+
+    /**
+     * Opens the index, creating it if it does not exist yet.
+     *
+     * @param dir the directory holding the index
+     */
+    public SearchIndex(File dir) {
+        store = new SnapshotStore(dir, "search index");
+        synchronized (lock) {
+            try {
+                store.readSnapshot(this::readSnapshot);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Could not read search index, starting from scratch: " + e.toString());
+                docs = new PathTable();
+                times = new long[256];
+                deleted = new BitSet();
+                numDeleted = 0;
+                terms = new TreeMap<>();
+            }
+            store.replayLog(this::replay);
+        }
+    }
+
+    /**
+     * Adds an image to the index, or updates it.
+     *
+     * @param file        the image file
+     * @param captureTime the time the image was taken; search results are sorted by it
+     * @param texts       further texts describing the image, e.g. the camera model; null elements are ignored
+     */
+    public void put(File file, long captureTime, Collection<String> texts) {
+        File abs = file.getAbsoluteFile();
+        synchronized (lock) {
+            applyPut(abs, captureTime, texts);
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeByte(OP_PUT);
+                SnapshotStore.writeString(out, abs.getPath());
+                out.writeLong(captureTime);
+                out.writeInt(texts.size());
+                for (String text : texts) {
+                    SnapshotStore.writeString(out, text == null ? "" : text);
+                }
+                appendToLog(bytes.toByteArray());
+            } catch (IOException e) {
+                System.err.println("Could not write search index log: " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Removes an image from the index.
+     */
+    public void remove(File file) {
+        File abs = file.getAbsoluteFile();
+        synchronized (lock) {
+            if (applyRemove(abs)) {
+                try {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream out = new DataOutputStream(bytes);
+                    out.writeByte(OP_REMOVE);
+                    SnapshotStore.writeString(out, abs.getPath());
+                    appendToLog(bytes.toByteArray());
+                } catch (IOException e) {
+                    System.err.println("Could not write search index log: " + e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the image is in the index
+     */
+    public boolean contains(File file) {
+        synchronized (lock) {
+            return findDoc(file.getAbsoluteFile()) >= 0;
+        }
+    }
+
+    /**
+     * Finds the images which match all words of the query. Each word matches all terms it is a prefix of, so
+     * "can 50" finds images taken with a Canon at 50 mm, or in a folder named "Canada 1950".
+     *
+     * @param query the words to search for
+     * @return the matching images, sorted by capture time
+     */
+    public SearchHits search(String query) {
+        Set<String> words = SearchTokenizer.tokenize(query);
+        PathTable hitFiles = new PathTable();
+        if (words.isEmpty()) {
+            return new SearchHits(query, hitFiles, () -> search(query));
+        }
+        synchronized (lock) {
+            BitSet result = null;
+            for (String word : words) {
+                BitSet matches = new BitSet(docs.size());
+                for (PostingList postings : terms.subMap(word, word + Character.MAX_VALUE).values()) {
+                    postings.addTo(matches);
+                }
+                if (result == null) {
+                    result = matches;
+                } else {
+                    result.and(matches);
+                }
+                if (result.isEmpty()) {
+                    break;
+                }
+            }
+            result.andNot(deleted);
+            // the hits get a table of their own, as document IDs change whenever the index is compacted
+            if (result.cardinality() > docs.size() / LARGE_RESULT_FRACTION) {
+                // filtering the documents in time order is cheaper than sorting that many hits
+                for (int doc : getDocsByTime()) {
+                    if (result.get(doc)) {
+                        hitFiles.add(docs, doc);
+                    }
+                }
+            } else {
+                int[] hits = result.stream().toArray();
+                long[] docTimes = times;
+                IndexSorter.sort(hits, (d1, d2) -> Long.compare(docTimes[d1], docTimes[d2]));
+                for (int doc : hits) {
+                    hitFiles.add(docs, doc);
+                }
+            }
+        }
+        hitFiles.trim();
+        return new SearchHits(query, hitFiles, () -> search(query));
+    }
+
+    /**
+     * Closes the log. Changes not yet contained in the snapshot are restored from the log on the next start.
+     */
+    public void close() {
+        synchronized (lock) {
+            store.close();
+        }
+    }
+
+    // caller must synchronize on lock
+    private int[] getDocsByTime() {
+        if (docsByTime == null) {
+            docsByTime = new int[docs.size()];
+            for (int doc = 0; doc < docsByTime.length; doc++) {
+                docsByTime[doc] = doc;
+            }
+            long[] docTimes = times;
+            IndexSorter.sort(docsByTime, (d1, d2) -> Long.compare(docTimes[d1], docTimes[d2]));
+        }
+        return docsByTime;
+    }
+
+    // caller must synchronize on lock
+    private int findDoc(File abs) {
+        int doc = docs.lastIndexOf(abs);
+        return doc >= 0 && !deleted.get(doc) ? doc : -1;
+    }
+
+    // caller must synchronize on lock
+    private void applyPut(File abs, long captureTime, Collection<String> texts) {
+        applyRemove(abs);
+        int doc = docs.add(abs);
+        if (doc >= times.length) {
+            times = Arrays.copyOf(times, 2 * times.length);
+        }
+        times[doc] = captureTime;
+        docsByTime = null;
+        addTerms(doc, abs.getPath());
+        for (String text : texts) {
+            addTerms(doc, text);
+        }
+    }
+
+    // caller must synchronize on lock
+    private void addTerms(int doc, String text) {
+        for (String term : SearchTokenizer.tokenize(text)) {
+            terms.computeIfAbsent(term, t -> new PostingList()).add(doc);
+        }
+    }
+
+    // caller must synchronize on lock; returns false if the image was not in the index
+    private boolean applyRemove(File abs) {
+        int doc = findDoc(abs);
+        if (doc < 0) {
+            return false;
+        }
+        deleted.set(doc);
+        numDeleted++;
+        return true;
+    }
+
+    // caller must synchronize on lock
+    private void appendToLog(byte[] record) throws IOException {
+        store.appendToLog(record);
+        if (store.getLogRecords() >= SNAPSHOT_THRESHOLD) {
+            if (numDeleted > docs.size() / 4) {
+                compact();
+            }
+            // replaying the log again after a crash would be harmless: updates are idempotent
+            store.writeSnapshot(this::writeSnapshot);
+        }
+    }
+
+    // caller must synchronize on lock
+    private void replay(ByteBuffer record) {
+        byte op = record.get();
+        File file = new File(SnapshotStore.readString(record));
+        if (op == OP_PUT) {
+            long captureTime = record.getLong();
+            int numTexts = record.getInt();
+            List<String> texts = new ArrayList<>(numTexts);
+            for (int i = 0; i < numTexts; i++) {
+                texts.add(SnapshotStore.readString(record));
+            }
+            applyPut(file, captureTime, texts);
+        } else {
+            applyRemove(file);
+        }
+    }
+
+    // caller must synchronize on lock
+    private void writeSnapshot(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        docs.writeTo(out);
+        for (int doc = 0; doc < docs.size(); doc++) {
+            out.writeLong(times[doc]);
+        }
+        long[] deletedBits = deleted.toLongArray();
+        out.writeInt(deletedBits.length);
+        for (long bits : deletedBits) {
+            out.writeLong(bits);
+        }
+        out.writeInt(terms.size());
+        for (Map.Entry<String, PostingList> entry : terms.entrySet()) {
+            SnapshotStore.writeString(out, entry.getKey());
+            entry.getValue().writeTo(out);
+        }
+    }
+
+    // caller must synchronize on lock
+    private void readSnapshot(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Unknown search index format");
+        }
+        docs = PathTable.readFrom(in);
+        times = new long[Math.max(256, docs.size())];
+        for (int doc = 0; doc < docs.size(); doc++) {
+            times[doc] = in.readLong();
+        }
+        long[] deletedBits = new long[in.readInt()];
+        for (int i = 0; i < deletedBits.length; i++) {
+            deletedBits[i] = in.readLong();
+        }
+        deleted = BitSet.valueOf(deletedBits);
+        numDeleted = deleted.cardinality();
+        int numTerms = in.readInt();
+        terms = new TreeMap<>();
+        for (int i = 0; i < numTerms; i++) {
+            terms.put(SnapshotStore.readString(in), PostingList.readFrom(in));
+        }
+    }
+
+    // drops the deleted documents, and renumbers the remaining ones; caller must synchronize on lock
+    private void compact() {
+        int[] mapping = new int[docs.size()];
+        PathTable newDocs = new PathTable();
+        long[] newTimes = new long[Math.max(256, docs.size() - numDeleted)];
+        for (int doc = 0; doc < docs.size(); doc++) {
+            if (deleted.get(doc)) {
+                mapping[doc] = -1;
+            } else {
+                mapping[doc] = newDocs.add(docs.getFile(doc));
+                newTimes[mapping[doc]] = times[doc];
+            }
+        }
+        TreeMap<String, PostingList> newTerms = new TreeMap<>();
+        for (Map.Entry<String, PostingList> entry : terms.entrySet()) {
+            PostingList remapped = entry.getValue().remap(mapping);
+            if (remapped != null) {
+                newTerms.put(entry.getKey(), remapped);
+            }
+        }
+        newDocs.trim();
+        docs = newDocs;
+        times = newTimes;
+        deleted = new BitSet();
+        numDeleted = 0;
+        terms = newTerms;
+        docsByTime = null;
+    }
+
+}
@@ -0,0 +1,51 @@
+package de.wolfgangkronberg.library;
+
+import java.text.Normalizer;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Splits texts into the terms of the search index. Terms are runs of letters or runs of digits, in lower case and
+ * without accents, so "IMG_0815 Caf&eacute;.jpg" yields img, 0815, cafe, and jpg.
+ */
+class SearchTokenizer {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private SearchTokenizer() {
+    }
+
+    /**
+     * @param text any text, or null
+     * @return the distinct terms of the text, in the order of their first occurrence
+     */
+    static Set<String> tokenize(String text) {
+        Set<String> result = new LinkedHashSet<>();
+        if (text == null) {
+            return result;
+        }
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            char c = i < normalized.length() ? normalized.charAt(i) : ' ';
+            boolean letter = Character.isLetter(c);
+            boolean digit = Character.isDigit(c);
+            if (start >= 0) {
+                char first = normalized.charAt(start);
+                if (letter && Character.isLetter(first) || digit && Character.isDigit(first)) {
+                    continue;
+                }
+                result.add(normalized.substring(start, i));
+                start = -1;
+            }
+            if (letter || digit) {
+                start = i;
+            }
+        }
+        return result;
+    }
+
+}
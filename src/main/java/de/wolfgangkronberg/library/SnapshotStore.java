@@ -0,0 +1,193 @@
+package de.wolfgangkronberg.library;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Persists an in-memory index as a snapshot file plus an append-only log of the changes made since the snapshot.
+ * Each log record is {@code int length, bytes}; a torn record at the end of the log, left by a crash, is ignored.
+ * Snapshots are written to a temporary file first, and then moved into place atomically.
+ * <p>
+ * Not thread-safe: the owning index is expected to synchronize all calls.
+ */
+class SnapshotStore {
+
+    interface SnapshotReader {
+        void read(DataInputStream in) throws IOException;
+    }
+
+    interface SnapshotWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final String name;
+    private final File snapshotFile;
+    private final File logFile;
+
+    private FileChannel log;
+    private int logRecords;
+
+    /**
+     * @param dir  the directory holding the files; created if necessary
+     * @param name the name of the index, for error messages
+     */
+    SnapshotStore(File dir, String name) {
+        this.name = name;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            System.err.println("Could not create " + name + " directory: " + dir.getAbsolutePath());
+        }
+        snapshotFile = new File(dir, "index.dat");
+        logFile = new File(dir, "log.dat");
+    }
+
+    /**
+     * Reads the snapshot, if there is one.
+     *
+     * @return false if there is no snapshot
+     */
+    boolean readSnapshot(SnapshotReader reader) throws IOException {
+        if (!snapshotFile.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            reader.read(in);
+        }
+        return true;
+    }
+
+    /**
+     * Passes all intact log records to the consumer, in the order they were written, and then opens the log for
+     * appending. The consumer may throw a {@link BufferUnderflowException} on a truncated record, which ends the
+     * replay.
+     */
+    void replayLog(Consumer<ByteBuffer> consumer) {
+        if (logFile.isFile()) {
+            try {
+                ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(logFile.toPath()));
+                while (data.remaining() >= 4) {
+                    int length = data.getInt();
+                    if (length <= 0 || length > data.remaining()) {
+                        break;  // torn write
+                    }
+                    ByteBuffer record = data.slice();
+                    record.limit(length);
+                    data.position(data.position() + length);
+                    consumer.accept(record);
+                    logRecords++;
+                }
+            } catch (BufferUnderflowException e) {
+                // torn write
+            } catch (IOException e) {
+                System.err.println("Could not read " + name + " log: " + e.toString());
+            }
+        }
+        openLog(false);
+    }
+
+    /**
+     * @return the number of records in the log
+     */
+    int getLogRecords() {
+        return logRecords;
+    }
+
+    void appendToLog(byte[] record) throws IOException {
+        if (log == null) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + record.length);
+        buffer.putInt(record.length);
+        buffer.put(record);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            log.write(buffer);
+        }
+        logRecords++;
+    }
+
+    /**
+     * Replaces the snapshot, and empties the log.
+     */
+    void writeSnapshot(SnapshotWriter writer) throws IOException {
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            writer.write(out);
+        }
+        Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        // the owner must tolerate replaying the old log again after a crash right here
+        closeLog();
+        openLog(true);
+        logRecords = 0;
+    }
+
+    /**
+     * Closes the log. Changes not yet contained in the snapshot are restored from the log on the next start.
+     */
+    void close() {
+        closeLog();
+    }
+
+    private void openLog(boolean truncate) {
+        try {
+            log = truncate
+                    ? FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING)
+                    : FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Could not open " + name + " log: " + e.toString());
+            log = null;
+        }
+    }
+
+    private void closeLog() {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.force(false);
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Could not close " + name + " log: " + e.toString());
+        }
+        log = null;
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,23 @@
+package de.wolfgangkronberg.edit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EditListTest {
+
+    @Test
+    void formatRoundTripsExactly() {
+        EditList edits = EditList.of(Arrays.asList(
+                new Rotate(90),
+                new Crop(0.1 / 3, 1e-7, 1 - 1e-9, 2.0 / 3),
+                new Mirror(),
+                new Lighting(-0.123456789, 1.0 / 7)));
+        EditList reloaded = EditList.parse(edits.format());
+        assertEquals(edits, reloaded);
+        assertEquals(edits.format(), reloaded.format());
+    }
+
+}
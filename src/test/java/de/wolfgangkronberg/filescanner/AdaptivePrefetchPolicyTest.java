@@ -0,0 +1,93 @@
+package de.wolfgangkronberg.filescanner;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptivePrefetchPolicyTest {
+
+    @Test
+    void balancedWithoutMoves() {
+        int[] offsets = new AdaptivePrefetchPolicy().getOffsets(10);
+        assertWindow(offsets);
+        assertEquals(5, countAhead(offsets));
+        assertEquals(1, Math.abs(offsets[0]));
+        assertEquals(1, Math.abs(offsets[1]));
+    }
+
+    @Test
+    void leansIntoDirectionOfTravel() {
+        AdaptivePrefetchPolicy policy = new AdaptivePrefetchPolicy();
+        for (int i = 0; i < 10; i++) {
+            policy.recordMove(1);
+        }
+        int[] offsets = policy.getOffsets(10);
+        assertWindow(offsets);
+        assertTrue(countAhead(offsets) > 5, Arrays.toString(offsets));
+        assertTrue(10 - countAhead(offsets) >= 3, Arrays.toString(offsets));
+        assertEquals(1, offsets[0]);
+    }
+
+    @Test
+    void followsChangeOfDirection() {
+        AdaptivePrefetchPolicy policy = new AdaptivePrefetchPolicy();
+        for (int i = 0; i < 10; i++) {
+            policy.recordMove(1);
+        }
+        policy.recordMove(-1);
+        assertTrue(countAhead(policy.getOffsets(10)) >= 5, "a single move back does not turn the window around");
+        for (int i = 0; i < 10; i++) {
+            policy.recordMove(-1);
+        }
+        int[] offsets = policy.getOffsets(10);
+        assertWindow(offsets);
+        assertTrue(countAhead(offsets) < 5, Arrays.toString(offsets));
+        assertEquals(-1, offsets[0]);
+    }
+
+    @Test
+    void keepsPairWhenToggling() {
+        AdaptivePrefetchPolicy policy = new AdaptivePrefetchPolicy();
+        for (int i = 0; i < 5; i++) {
+            policy.recordMove(i % 2 == 0 ? 1 : -1);
+        }
+        assertArrayEquals(new int[]{-1, 1, -2}, policy.getOffsets(10));
+        policy.recordMove(-1);
+        assertArrayEquals(new int[]{1, -1, 2}, policy.getOffsets(10));
+        assertArrayEquals(new int[]{1, -1}, policy.getOffsets(2));
+    }
+
+    @Test
+    void stopsTogglingOnMoveInSameDirection() {
+        AdaptivePrefetchPolicy policy = new AdaptivePrefetchPolicy();
+        for (int i = 0; i < 5; i++) {
+            policy.recordMove(i % 2 == 0 ? 1 : -1);
+        }
+        policy.recordMove(1);
+        int[] offsets = policy.getOffsets(10);
+        assertEquals(10, offsets.length);
+        assertWindow(offsets);
+    }
+
+    // every offset on either side appears once, without gaps
+    private static void assertWindow(int[] offsets) {
+        int ahead = 0;
+        int behind = 0;
+        for (int offset : offsets) {
+            if (offset > 0) {
+                assertEquals(++ahead, offset, Arrays.toString(offsets));
+            } else {
+                assertEquals(-++behind, offset, Arrays.toString(offsets));
+            }
+        }
+    }
+
+    private static int countAhead(int[] offsets) {
+        return (int)Arrays.stream(offsets).filter(o -> o > 0).count();
+    }
+
+}
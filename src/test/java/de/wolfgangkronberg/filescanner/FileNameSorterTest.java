@@ -0,0 +1,89 @@
+package de.wolfgangkronberg.filescanner;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileNameSorterTest {
+
+    @Test
+    void naturalOrderComparesNumbersByValue() {
+        assertOrder(new FileNameSorter(true), "IMG_2.jpg", "IMG_10.jpg", "IMG_100.jpg", "IMG_1000a.jpg",
+                "IMG_1000b.jpg", "IMG_99999999999999999999.jpg");
+        assertOrder(new FileNameSorter(true), "1.jpg", "2 copy.jpg", "10.jpg", "a.jpg");
+        assertOrder(new FileNameSorter(true), "2019-1-5.jpg", "2019-1-12.jpg", "2019-2-1.jpg", "2020-1-1.jpg");
+    }
+
+    @Test
+    void plainOrderComparesDigitsAsText() {
+        assertOrder(new FileNameSorter(false), "IMG_10.jpg", "IMG_100.jpg", "IMG_2.jpg");
+    }
+
+    @Test
+    void leadingZerosDoNotMakeKeysEqual() {
+        FileNameSorter sorter = new FileNameSorter(true);
+        FileNameSorter.SortKey padded = sorter.keyOf(new File("IMG_007.jpg"));
+        FileNameSorter.SortKey plain = sorter.keyOf(new File("IMG_7.jpg"));
+        assertNotEquals(0, padded.compareTo(plain));
+        assertEquals(Integer.signum(padded.compareTo(plain)), -Integer.signum(plain.compareTo(padded)));
+        assertTrue(sorter.keyOf(new File("IMG_008.jpg")).compareTo(plain) > 0);
+        assertTrue(sorter.keyOf(new File("IMG_6.jpg")).compareTo(padded) < 0);
+    }
+
+    @Test
+    void keysIdentifyFiles() {
+        FileNameSorter sorter = new FileNameSorter(true);
+        assertEquals(sorter.keyOf(new File("a", "IMG_1.jpg")), sorter.keyOf(new File("a", "IMG_1.jpg")));
+        assertEquals(0, sorter.keyOf(new File("a", "IMG_1.jpg")).compareTo(sorter.keyOf(new File("a", "IMG_1.jpg"))));
+        FileNameSorter.SortKey inB = sorter.keyOf(new File("b", "IMG_1.jpg"));
+        assertNotEquals(0, sorter.keyOf(new File("a", "IMG_1.jpg")).compareTo(inB));
+        assertTrue(sorter.indexOf(new FileNameSorter.SortKey[]{inB}, new File("b", "IMG_2.jpg")) < 0);
+    }
+
+    @Test
+    void parallelSortMatchesSequentialSort() {
+        FileNameSorter sorter = new FileNameSorter(true);
+        Random random = new Random(42);
+        File[] files = new File[10000];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File("dir", "IMG_" + random.nextInt(100000) + (random.nextBoolean() ? "a" : "") + ".jpg");
+        }
+        FileNameSorter.SortKey[] sorted = sorter.sort(files);
+        FileNameSorter.SortKey[] expected = new FileNameSorter.SortKey[files.length];
+        for (int i = 0; i < files.length; i++) {
+            expected[i] = sorter.keyOf(files[i]);
+        }
+        Arrays.sort(expected);
+        assertArrayEquals(FileNameSorter.toFiles(expected), FileNameSorter.toFiles(sorted));
+        for (int i = 0; i < 100; i++) {
+            File file = sorted[i].getFile();
+            assertEquals(file, sorted[sorter.indexOf(sorted, file)].getFile());
+        }
+    }
+
+    // sorting the names in any order results in the given order
+    private static void assertOrder(FileNameSorter sorter, String... names) {
+        List<File> files = new ArrayList<>();
+        for (String name : names) {
+            files.add(new File(name));
+        }
+        Collections.shuffle(files, new Random(1));
+        File[] sorted = FileNameSorter.toFiles(sorter.sort(files.toArray(new File[0])));
+        String[] sortedNames = new String[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sortedNames[i] = sorted[i].getName();
+        }
+        assertArrayEquals(names, sortedNames);
+    }
+
+}
@@ -0,0 +1,40 @@
+package de.wolfgangkronberg.filescanner;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class IndexSorterTest {
+
+    @Test
+    void sortsSmallAndLargeArrays() {
+        for (int size : new int[]{0, 1, 2, 15, 16, 17, 1000, 8191, 8192, 100000}) {
+            assertSortsStably(size, 1000);
+        }
+    }
+
+    @Test
+    void keepsOrderOfEqualKeys() {
+        assertSortsStably(50000, 3);
+    }
+
+    // sorts the indices by random keys, and compares with a stable sort of boxed indices
+    private static void assertSortsStably(int size, int distinctKeys) {
+        Random random = new Random(size);
+        int[] keys = new int[size];
+        int[] indices = new int[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = random.nextInt(distinctKeys);
+            indices[i] = size - 1 - i;  // equal keys start in descending index order
+        }
+        Integer[] expected = Arrays.stream(indices).boxed().toArray(Integer[]::new);
+        Arrays.sort(expected, Comparator.comparingInt(i -> keys[i]));
+        IndexSorter.sort(indices, (i1, i2) -> Integer.compare(keys[i1], keys[i2]));
+        assertArrayEquals(Arrays.stream(expected).mapToInt(Integer::intValue).toArray(), indices, "size " + size);
+    }
+
+}
@@ -0,0 +1,110 @@
+package de.wolfgangkronberg.filescanner;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PathTableTest {
+
+    private static final File[] DIRS = {new File("/photos/2019"), new File("/photos/\u00e9t\u00e9"), new File("")};
+
+    @Test
+    void addsAndFindsFiles() {
+        PathTable table = new PathTable();
+        fill(table, 3000);
+        assertContents(table, 3000);
+        assertEquals(-1, table.indexOf(new File("/photos/2019", "missing.jpg")));
+        assertEquals(-1, table.indexOf(new File("/elsewhere", name(0))));
+    }
+
+    @Test
+    void keepsDuplicates() {
+        PathTable table = new PathTable();
+        File file = new File("/photos", "a.jpg");
+        table.add(file);
+        table.add(new File("/photos", "b.jpg"));
+        table.indexOf(file);  // builds the hash table, which must then follow further additions
+        table.add(file);
+        assertEquals(3, table.size());
+        assertEquals(0, table.indexOf(file));
+        assertEquals(2, table.lastIndexOf(file));
+        assertEquals(1, table.lastIndexOf(new File("/photos", "b.jpg")));
+    }
+
+    @Test
+    void copiesEntriesOfOtherTable() {
+        PathTable source = new PathTable();
+        fill(source, 500);
+        PathTable copy = new PathTable();
+        for (int i = source.size() - 1; i >= 0; i -= 2) {
+            copy.add(source, i);
+        }
+        assertEquals(250, copy.size());
+        for (int i = 0; i < copy.size(); i++) {
+            assertEquals(source.getFile(source.size() - 1 - 2 * i), copy.getFile(i));
+            assertEquals(i, copy.indexOf(copy.getFile(i)));
+        }
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        PathTable table = new PathTable();
+        fill(table, 1000);
+        table.trim();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        table.writeTo(new DataOutputStream(bytes));
+        PathTable read = PathTable.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertContents(read, 1000);
+        fill(read, 1500);  // grows again after reading
+        assertContents(read, 1000);
+        assertEquals(2500, read.size());
+        assertEquals(1000, read.lastIndexOf(file(0)));
+    }
+
+    @Test
+    void emptyTable() throws IOException {
+        PathTable table = new PathTable();
+        table.trim();
+        assertEquals(-1, table.indexOf(new File("a.jpg")));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        table.writeTo(new DataOutputStream(bytes));
+        PathTable read = PathTable.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(0, read.size());
+        assertEquals(0, read.add(new File("a.jpg")));
+        assertEquals(new File("a.jpg"), read.getFile(0));
+    }
+
+    private static void fill(PathTable table, int count) {
+        for (int i = 0; i < count; i++) {
+            table.add(file(i));
+        }
+    }
+
+    private static void assertContents(PathTable table, int count) {
+        for (int i = 0; i < count; i++) {
+            File file = file(i);
+            assertEquals(file, table.getFile(i));
+            assertEquals(DIRS[i % DIRS.length], table.getDirectory(i));
+            assertEquals(name(i), table.getName(i));
+            assertEquals(i, table.indexOf(file));
+        }
+    }
+
+    // a relative name for the empty directory, since new File(new File(""), name) resolves against the root
+    private static File file(int i) {
+        File dir = DIRS[i % DIRS.length];
+        return dir.getPath().isEmpty() ? new File(name(i)) : new File(dir, name(i));
+    }
+
+    private static String name(int i) {
+        return i % 7 == 0 ? "\u5199\u771f-" + i + ".jpg" : "IMG_" + i + ".jpg";
+    }
+
+}
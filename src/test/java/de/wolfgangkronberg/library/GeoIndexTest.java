@@ -0,0 +1,211 @@
+package de.wolfgangkronberg.library;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeoIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    private File photos;
+    private final List<double[]> locations = new ArrayList<>();
+
+    @BeforeEach
+    void createLocations() {
+        photos = tempDir.resolve("photos").toFile();
+        Random random = new Random(11);
+        for (int i = 0; i < 3000; i++) {
+            switch (i % 4) {
+                case 0:  // anywhere
+                    locations.add(new double[]{random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180});
+                    break;
+                case 1:  // near the poles
+                    locations.add(new double[]{(random.nextBoolean() ? 1 : -1) * (90 - random.nextDouble() * 2),
+                            random.nextDouble() * 360 - 180});
+                    break;
+                case 2:  // near the antimeridian
+                    locations.add(new double[]{random.nextDouble() * 20 - 10,
+                            (random.nextBoolean() ? 1 : -1) * (180 - random.nextDouble() * 2)});
+                    break;
+                default:  // a dense cluster
+                    locations.add(new double[]{48.1 + random.nextDouble() * 0.01, 11.5 + random.nextDouble() * 0.01});
+                    break;
+            }
+        }
+        locations.add(new double[]{90, 0});
+        locations.add(new double[]{-90, 180});
+        locations.add(new double[]{0, -180});
+        locations.add(new double[]{0, 180});
+    }
+
+    @Test
+    void interleavesBitsInZOrder() {
+        assertEquals(0L, GeoIndex.codeOf(-90, -180));
+        assertEquals((1L << 62) - 1, GeoIndex.codeOf(90, 180));
+        assertEquals(0x2aaaaaaaaaaaaaaaL, GeoIndex.codeOf(90, -180));  // latitude in the odd bits
+        assertEquals(0x1555555555555555L, GeoIndex.codeOf(-90, 180));  // longitude in the even bits
+        // the quadrants in Z order: lower left, lower right, upper left, upper right
+        long lowerLeft = GeoIndex.codeOf(-45, -90);
+        long lowerRight = GeoIndex.codeOf(-45, 90);
+        long upperLeft = GeoIndex.codeOf(45, -90);
+        long upperRight = GeoIndex.codeOf(45, 90);
+        assertTrue(lowerLeft < lowerRight && lowerRight < upperLeft && upperLeft < upperRight);
+        assertEquals(0L, GeoIndex.codeOf(-91, -181), "clamps values out of range");
+    }
+
+    @Test
+    void findsImagesInBoxes() {
+        GeoIndex index = createIndex();
+        assertBox(index, -90, -180, 90, 180);
+        assertBox(index, 48.1, 11.5, 48.105, 11.505);
+        assertBox(index, -30, -60, 45, 100);
+        assertBox(index, 89, -180, 90, 180);  // around the north pole
+        assertBox(index, -90, 0, -88.5, 90);  // at the south pole
+        assertBox(index, -5, 179, 5, -179);  // across the antimeridian
+        assertBox(index, -10, 170, 10, -170);
+        assertBox(index, -10, 0, 10, -0.5);  // across the antimeridian, almost all around
+        assertBox(index, 20, 20, 10, 30);  // empty
+        index.close();
+    }
+
+    @Test
+    void findsImagesWithinRadius() {
+        GeoIndex index = createIndex();
+        assertRadius(index, 48.1, 11.5, 0.5);
+        assertRadius(index, 48.1, 11.5, 1000);
+        assertRadius(index, 89.9, 0, 200);  // around the north pole
+        assertRadius(index, -89, 45, 300);  // the circle contains the south pole
+        assertRadius(index, 0, 179.9, 150);  // across the antimeridian
+        assertRadius(index, 5, -179, 500);
+        assertRadius(index, 0, 0, 25000);  // the whole earth
+        index.close();
+    }
+
+    @Test
+    void findsNearestImages() {
+        GeoIndex index = createIndex();
+        File file = new File(photos, "p3.jpg");
+        double[] location = locations.get(3);
+        SearchHits hits = index.nearest(file, 20);
+        assertEquals(20, hits.size());
+        double farthestHit = 0;
+        Set<String> names = new TreeSet<>();
+        for (int i = 0; i < hits.size(); i++) {
+            double[] hit = locations.get(indexOf(hits.getFile(i)));
+            farthestHit = Math.max(farthestHit, GeoIndex.distanceKm(location[0], location[1], hit[0], hit[1]));
+            names.add(hits.getFile(i).getName());
+        }
+        assertTrue(names.contains("p3.jpg"));
+        for (int i = 0; i < locations.size(); i++) {
+            double[] other = locations.get(i);
+            if (!names.contains("p" + i + ".jpg")) {
+                assertTrue(GeoIndex.distanceKm(location[0], location[1], other[0], other[1]) >= farthestHit);
+            }
+        }
+        assertEquals(0, index.nearest(new File(photos, "missing.jpg"), 20).size());
+        index.close();
+    }
+
+    @Test
+    void updatesAndRemovesImages() {
+        File dir = tempDir.resolve("geo").toFile();
+        GeoIndex index = new GeoIndex(dir);
+        index.put(new File(photos, "a.jpg"), 1, 10, 10);
+        index.put(new File(photos, "b.jpg"), 2, 10, 10);
+        index.put(new File(photos, "a.jpg"), 3, -10, -10);
+        index.remove(new File(photos, "b.jpg"));
+        assertEquals(0, index.inBox(9, 9, 11, 11).size());
+        assertEquals(1, index.inBox(-11, -11, -9, -9).size());
+        index.close();
+
+        GeoIndex reopened = new GeoIndex(dir);
+        assertEquals(0, reopened.inBox(9, 9, 11, 11).size());
+        assertEquals(1, reopened.inBox(-11, -11, -9, -9).size());
+        reopened.close();
+    }
+
+    @Test
+    void remembersCompletedImport() throws IOException {
+        File dir = tempDir.resolve("geo").toFile();
+        GeoIndex index = new GeoIndex(dir);
+        assertFalse(index.isComplete());
+        index.put(new File(photos, "a.jpg"), 1, 10, 10);
+        index.close();
+        index = new GeoIndex(dir);
+        assertFalse(index.isComplete(), "an interrupted import is not complete");
+        index.markComplete();
+        assertTrue(index.isComplete());
+        index.close();
+        assertTrue(new GeoIndex(dir).isComplete());
+
+        Files.write(new File(dir, "index.dat").toPath(), new byte[]{1, 2, 3});
+        assertFalse(new GeoIndex(dir).isComplete(), "an index started from scratch is not complete");
+    }
+
+    private GeoIndex createIndex() {
+        GeoIndex index = new GeoIndex(tempDir.resolve("geo").toFile());
+        for (int i = 0; i < locations.size(); i++) {
+            index.put(new File(photos, "p" + i + ".jpg"), i, locations.get(i)[0], locations.get(i)[1]);
+        }
+        return index;
+    }
+
+    private void assertBox(GeoIndex index, double minLat, double minLon, double maxLat, double maxLon) {
+        Set<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < locations.size(); i++) {
+            double lat = locations.get(i)[0];
+            double lon = locations.get(i)[1];
+            boolean inLon = minLon <= maxLon ? lon >= minLon && lon <= maxLon : lon >= minLon || lon <= maxLon;
+            if (lat >= minLat && lat <= maxLat && inLon) {
+                expected.add(i);
+            }
+        }
+        assertEquals(expected, toIndices(index.inBox(minLat, minLon, maxLat, maxLon)),
+                "box " + minLat + "," + minLon + " to " + maxLat + "," + maxLon);
+    }
+
+    private void assertRadius(GeoIndex index, double lat, double lon, double km) {
+        Set<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < locations.size(); i++) {
+            if (GeoIndex.distanceKm(lat, lon, locations.get(i)[0], locations.get(i)[1]) <= km) {
+                expected.add(i);
+            }
+        }
+        assertEquals(expected, toIndices(index.withinRadius(lat, lon, km)), km + " km around " + lat + "," + lon);
+    }
+
+    // the hits are sorted by capture time, which is the index of the location
+    private static Set<Integer> toIndices(SearchHits hits) {
+        Set<Integer> result = new TreeSet<>();
+        int last = -1;
+        for (int i = 0; i < hits.size(); i++) {
+            int idx = indexOf(hits.getFile(i));
+            assertTrue(idx > last);
+            last = idx;
+            result.add(idx);
+        }
+        return result;
+    }
+
+    private static int indexOf(File file) {
+        String name = file.getName();
+        return Integer.parseInt(name.substring(1, name.length() - 4));
+    }
+
+}
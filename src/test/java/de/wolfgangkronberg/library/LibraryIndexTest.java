@@ -0,0 +1,128 @@
+package de.wolfgangkronberg.library;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LibraryIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void restoresAllChangesAfterCrashDuringMaintenance() throws IOException {
+        // opening this index flushes log 5, flushes log 6, and compacts: three maintenance tasks
+        for (int crashAfter = 0; crashAfter <= 3; crashAfter++) {
+            File dir = tempDir.resolve("index-" + crashAfter).toFile();
+            File photos = tempDir.resolve("photos").toFile();
+            createIndex(dir, photos);
+
+            new LibraryIndex(dir, new CrashingExecutor(crashAfter));  // abandoned without closing
+            for (int restart = 0; restart < 2; restart++) {
+                LibraryIndex index = new LibraryIndex(dir, new CrashingExecutor(Integer.MAX_VALUE));
+                String context = "crash after " + crashAfter + " tasks, restart " + restart;
+                assertEquals(6, index.get(new File(photos, "a.jpg")).getWidth(), context);
+                assertNotNull(index.get(new File(photos, "b.jpg")), context);
+                for (int i = 1; i <= 4; i++) {
+                    assertNotNull(index.get(new File(photos, "s" + i + ".jpg")), context);
+                }
+                index.close();
+            }
+        }
+    }
+
+    @Test
+    void newerMemtableWinsWithinSession() throws IOException {
+        File dir = tempDir.resolve("index").toFile();
+        File photos = tempDir.resolve("photos").toFile();
+        createIndex(dir, photos);
+        LibraryIndex index = new LibraryIndex(dir, new CrashingExecutor(Integer.MAX_VALUE));
+        assertEquals(6, index.get(new File(photos, "a.jpg")).getWidth());
+        assertEquals(6, index.getDirectory(photos.getPath()).stream()
+                .filter(e -> e.getName().equals("a.jpg")).findFirst().orElseThrow().getWidth());
+        index.close();
+    }
+
+    // segments 1 to 4, and the logs of the unwritten memtables 5 and 6, which both change a.jpg
+    private static void createIndex(File dir, File photos) throws IOException {
+        assertTrue(dir.mkdirs());
+        for (int i = 1; i <= 4; i++) {
+            List<LibraryEntry> entries = Collections.singletonList(entry(photos, "s" + i + ".jpg", i));
+            LibrarySegment.write(new File(dir, String.format("segment-%06d-%06d.dat", i, i)), entries);
+        }
+        writeLog(new File(dir, "log-000005.dat"), entry(photos, "a.jpg", 5), entry(photos, "b.jpg", 5));
+        writeLog(new File(dir, "log-000006.dat"), entry(photos, "a.jpg", 6));
+    }
+
+    private static void writeLog(File file, LibraryEntry... entries) throws IOException {
+        LibraryLog log = new LibraryLog(file);
+        for (LibraryEntry entry : entries) {
+            log.append(entry);
+        }
+        log.close();
+    }
+
+    private static LibraryEntry entry(File dir, String name, int width) {
+        return new LibraryEntry(dir.getPath(), name, 1000L, 0, width, 100, 1, false);
+    }
+
+    /**
+     * Runs the given number of tasks in the calling thread, and silently drops all later ones, as if the process
+     * had been killed.
+     */
+    private static class CrashingExecutor extends AbstractExecutorService {
+
+        private int remaining;
+
+        CrashingExecutor(int tasks) {
+            remaining = tasks;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (remaining > 0) {
+                remaining--;
+                command.run();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            remaining = 0;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            remaining = 0;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return remaining == 0;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return remaining == 0;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,32 @@
+package de.wolfgangkronberg.library;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LibraryMemtableTest {
+
+    @Test
+    void putReplacesEntryOfSameTimeAndPath() {
+        LibraryMemtable memtable = new LibraryMemtable(1);
+        memtable.put(new LibraryEntry("/photos", "a.jpg", 1000L, 1, 640, 480, 1, false));
+        memtable.put(new LibraryEntry("/photos", "a.jpg", 1000L, 2, 640, 480, 6, false));
+        List<LibraryEntry> entries = memtable.getEntries();
+        assertEquals(1, entries.size());
+        assertEquals(2, entries.get(0).getLastModified());
+        assertEquals(6, entries.get(0).getOrientation());
+    }
+
+    @Test
+    void putReplacesEntryOfOtherTime() {
+        LibraryMemtable memtable = new LibraryMemtable(1);
+        memtable.put(new LibraryEntry("/photos", "a.jpg", 1000L, 1, 640, 480, 1, false));
+        memtable.put(new LibraryEntry("/photos", "a.jpg", 2000L, 2, 640, 480, 1, false));
+        List<LibraryEntry> entries = memtable.getEntries();
+        assertEquals(1, entries.size());
+        assertEquals(2000L, entries.get(0).getCaptureTime());
+    }
+
+}
@@ -0,0 +1,115 @@
+package de.wolfgangkronberg.library;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LibrarySegmentTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void roundTrip() throws IOException {
+        List<LibraryEntry> entries = createEntries();
+        LibrarySegment segment = write(entries);
+        assertEquals(entries.size(), segment.getCount());
+        List<LibraryEntry> read = new ArrayList<>();
+        for (Iterator<LibraryEntry> it = segment.iterator(); it.hasNext(); ) {
+            read.add(it.next());
+        }
+        assertEquals(entries, read);
+        for (LibraryEntry entry : entries) {
+            assertEquals(entry, segment.find(entry.getDirectory(), entry.getName()));
+        }
+        assertNull(segment.find("/photos/a", "missing.jpg"));
+        assertNull(segment.find("/photos/missing", "img-0001.jpg"));
+    }
+
+    @Test
+    void readsDirectories() throws IOException {
+        List<LibraryEntry> entries = createEntries();
+        LibrarySegment segment = write(entries);
+        for (String dir : new String[]{"/photos/a", "/photos/b", "/photos/\u00e9t\u00e9"}) {
+            List<LibraryEntry> expected = entries.stream().filter(e -> e.getDirectory().equals(dir))
+                    .collect(Collectors.toList());
+            assertEquals(expected, segment.readDirectory(dir));
+        }
+        assertTrue(segment.readDirectory("/photos").isEmpty());
+
+        Map<String, Long> earliest = new HashMap<>();
+        segment.collectDirectories(earliest);
+        assertEquals(Long.valueOf(1000), earliest.get("/photos/a"));
+        assertEquals(Long.valueOf(1000), earliest.get("/photos/b"));
+        assertEquals(Long.valueOf(1001), earliest.get("/photos/\u00e9t\u00e9"));
+        assertFalse(earliest.containsKey("/photos/gone"), "a directory of tombstones only has no images");
+    }
+
+    @Test
+    void iteratesFromKey() throws IOException {
+        List<LibraryEntry> entries = createEntries();
+        LibrarySegment segment = write(entries);
+        for (int k : new int[]{0, 1, 63, 64, 65, 150, entries.size() - 1}) {
+            LibraryEntry key = entries.get(k);
+            List<LibraryEntry> forward = new ArrayList<>();
+            segment.forEach(key, true, forward::add);
+            assertEquals(entries.subList(k + 1, entries.size()), forward);
+            List<LibraryEntry> backward = new ArrayList<>();
+            segment.forEach(key, false, backward::add);
+            List<LibraryEntry> expected = new ArrayList<>(entries.subList(0, k));
+            Collections.reverse(expected);
+            assertEquals(expected, backward);
+        }
+        List<LibraryEntry> firstThree = new ArrayList<>();
+        segment.forEach(null, true, e -> firstThree.add(e) && firstThree.size() < 3);
+        assertEquals(entries.subList(0, 3), firstThree);
+    }
+
+    @Test
+    void emptySegment() throws IOException {
+        LibrarySegment segment = write(new ArrayList<>());
+        assertEquals(0, segment.getCount());
+        assertFalse(segment.iterator().hasNext());
+        assertNull(segment.find("/photos/a", "img-0001.jpg"));
+        segment.forEach(null, true, e -> {
+            throw new AssertionError(e);
+        });
+    }
+
+    private LibrarySegment write(List<LibraryEntry> entries) throws IOException {
+        File file = tempDir.resolve("segment-000001-000001.dat").toFile();
+        LibrarySegment.write(file, entries);
+        return new LibrarySegment(file, 1, 1);
+    }
+
+    // several blocks of entries in several directories, some taken at the same time, and a few tombstones
+    private static List<LibraryEntry> createEntries() {
+        List<LibraryEntry> result = new ArrayList<>();
+        result.add(LibraryEntry.tombstone(new File("/photos/gone/img-0001.jpg")));
+        result.add(LibraryEntry.tombstone(new File("/photos/a/img-9999.jpg")));
+        String[] dirs = {"/photos/a", "/photos/b", "/photos/\u00e9t\u00e9"};
+        for (int i = 0; i < 200; i++) {
+            String name = String.format("img-%04d.jpg", i);
+            result.add(new LibraryEntry(dirs[i % 3], name, 1000 + i / 2, 5000 + i, 4000 + i, 3000, 1 + i % 8,
+                    false));
+        }
+        result.sort(LibraryEntry.BY_TIME);
+        return result;
+    }
+
+}
@@ -0,0 +1,90 @@
+package de.wolfgangkronberg.library;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PostingListTest {
+
+    // differences of one to five bytes each, at the limits of each size
+    private static final int[] DOCS = {0, 1, 128, 256, 16639, 33023, 2130174, 4227326, 272662781, 541098237};
+
+    @Test
+    void encodesAllDeltaSizes() {
+        PostingList list = listOf(DOCS);
+        assertEquals(DOCS.length, list.size());
+        assertArrayEquals(DOCS, docsOf(list));
+    }
+
+    @Test
+    void ignoresIdsNotAscending() {
+        PostingList list = listOf(3, 5, 5, 4, 0, 9);
+        assertEquals(3, list.size());
+        assertArrayEquals(new int[]{3, 5, 9}, docsOf(list));
+    }
+
+    @Test
+    void intersectsWithOtherLists() {
+        BitSet even = new BitSet();
+        BitSet multiplesOfThree = new BitSet();
+        PostingList evenList = new PostingList();
+        PostingList threeList = new PostingList();
+        for (int doc = 0; doc < 1000; doc++) {
+            if (doc % 2 == 0) {
+                evenList.add(doc);
+            }
+            if (doc % 3 == 0) {
+                threeList.add(doc);
+            }
+        }
+        evenList.addTo(even);
+        threeList.addTo(multiplesOfThree);
+        even.and(multiplesOfThree);
+        assertArrayEquals(IntStream.range(0, 167).map(i -> 6 * i).toArray(), even.stream().toArray());
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        listOf(DOCS).writeTo(new DataOutputStream(bytes));
+        PostingList read = PostingList.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(DOCS.length, read.size());
+        assertArrayEquals(DOCS, docsOf(read));
+        read.add(541098237);  // continues after the last document read
+        read.add(541098238);
+        assertEquals(DOCS.length + 1, read.size());
+        assertEquals(541098238, docsOf(read)[DOCS.length]);
+    }
+
+    @Test
+    void remapsAndDropsDocuments() {
+        int[] mapping = {-1, 0, -1, 1, 2, -1};
+        assertArrayEquals(new int[]{0, 2}, docsOf(listOf(1, 2, 4).remap(mapping)));
+        assertNull(listOf(0, 2, 5).remap(mapping));
+    }
+
+    private static PostingList listOf(int... docs) {
+        PostingList result = new PostingList();
+        for (int doc : docs) {
+            result.add(doc);
+        }
+        return result;
+    }
+
+    private static int[] docsOf(PostingList list) {
+        BitSet docs = new BitSet();
+        list.addTo(docs);
+        return docs.stream().toArray();
+    }
+
+}
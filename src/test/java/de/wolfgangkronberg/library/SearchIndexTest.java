@@ -0,0 +1,104 @@
+package de.wolfgangkronberg.library;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void findsImagesMatchingAllWords() {
+        SearchIndex index = new SearchIndex(tempDir.resolve("search").toFile());
+        File photos = tempDir.resolve("photos").toFile();
+        index.put(new File(photos, "a.jpg"), 3, Arrays.asList("Canon EOS R", "Summilux", null));
+        index.put(new File(photos, "b.jpg"), 1, Arrays.asList("Canon EOS 5D", "Zeiss Planar"));
+        index.put(new File(photos, "c.jpg"), 2, Arrays.asList("Nikon Z6", "Summilux", "Caf\u00e9"));
+
+        assertHits(index.search("canon summilux"), photos, "a.jpg");
+        assertHits(index.search("CAN"), photos, "b.jpg", "a.jpg");
+        assertHits(index.search("summ"), photos, "c.jpg", "a.jpg");
+        assertHits(index.search("cafe"), photos, "c.jpg");
+        assertHits(index.search("nikon zeiss"), photos);
+        assertHits(index.search("b.jpg zeiss"), photos, "b.jpg");  // terms from the file name as well
+        index.close();
+    }
+
+    @Test
+    void updatesAndRemovesImages() {
+        File dir = tempDir.resolve("search").toFile();
+        File photos = tempDir.resolve("photos").toFile();
+        SearchIndex index = new SearchIndex(dir);
+        index.put(new File(photos, "a.jpg"), 1, Collections.singletonList("Canon"));
+        index.put(new File(photos, "b.jpg"), 2, Collections.singletonList("Canon"));
+        index.put(new File(photos, "a.jpg"), 3, Collections.singletonList("Nikon"));
+        index.remove(new File(photos, "b.jpg"));
+
+        assertHits(index.search("canon"), photos);
+        assertHits(index.search("nikon"), photos, "a.jpg");
+        assertTrue(index.contains(new File(photos, "a.jpg")));
+        assertFalse(index.contains(new File(photos, "b.jpg")));
+        index.close();
+
+        SearchIndex reopened = new SearchIndex(dir);
+        assertHits(reopened.search("canon"), photos);
+        assertHits(reopened.search("nikon"), photos, "a.jpg");
+        reopened.close();
+    }
+
+    @Test
+    void sortsSmallAndLargeResultsByTime() {
+        SearchIndex index = new SearchIndex(tempDir.resolve("search").toFile());
+        File photos = tempDir.resolve("photos").toFile();
+        List<Integer> times = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            times.add(i);
+        }
+        Collections.shuffle(times, new Random(7));
+        for (int i = 0; i < times.size(); i++) {
+            String kind = i % 100 == 0 ? "panorama" : "frame";
+            index.put(new File(photos, "img" + i + ".jpg"), times.get(i), Collections.singletonList(kind));
+        }
+        SearchHits frames = index.search("frame");  // more than a sixty-fourth: filtered in time order
+        SearchHits panoramas = index.search("jpg panorama");  // fewer: sorted
+        assertEquals(495, frames.size());
+        assertEquals(5, panoramas.size());
+        assertSortedByTime(frames, times);
+        assertSortedByTime(panoramas, times);
+        index.close();
+    }
+
+    private static void assertSortedByTime(SearchHits hits, List<Integer> times) {
+        for (int i = 1; i < hits.size(); i++) {
+            assertTrue(timeOf(hits.getFile(i - 1), times) < timeOf(hits.getFile(i), times));
+        }
+    }
+
+    private static int timeOf(File file, List<Integer> times) {
+        String name = file.getName();
+        return times.get(Integer.parseInt(name.substring(3, name.length() - 4)));
+    }
+
+    private static void assertHits(SearchHits hits, File dir, String... names) {
+        List<String> found = new ArrayList<>();
+        for (int i = 0; i < hits.size(); i++) {
+            assertEquals(dir, hits.getFile(i).getParentFile());
+            found.add(hits.getFile(i).getName());
+        }
+        assertEquals(Arrays.asList(names), found);
+    }
+
+}